@@ -280,8 +280,7 @@ public class OFMessage {
                 // If the conext is not set by sdnplatform, then ignore.
                 if (cntx != null) {
                 // packet type  icmp, arp, etc.
-                    eth = IControllerService.bcStore.get(cntx,
-                            IControllerService.CONTEXT_PI_PAYLOAD);
+                    eth = IControllerService.PI_PAYLOAD_KEY.get(cntx);
                     if (eth != null)
                            sb.append(eth.toString());
                 }
@@ -313,8 +312,7 @@ public class OFMessage {
 
                 // If the conext is not set by sdnplatform, then ignore.
                 if (cntx != null) {
-                    eth = IControllerService.bcStore.get(cntx,
-                        IControllerService.CONTEXT_PI_PAYLOAD);
+                    eth = IControllerService.PI_PAYLOAD_KEY.get(cntx);
                     if (eth != null)
                         sb.append(eth.toString());
                 }
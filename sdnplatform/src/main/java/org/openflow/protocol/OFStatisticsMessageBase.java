@@ -36,6 +36,7 @@ package org.openflow.protocol;
 import java.util.List;
 
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.openflow.protocol.factory.OFStatisticsFactory;
 import org.openflow.protocol.factory.OFStatisticsFactoryAware;
 import org.openflow.protocol.statistics.OFStatistics;
@@ -59,6 +60,12 @@ public abstract class OFStatisticsMessageBase extends OFMessage implements
     // allow for type safe assignments of lists of specific message
     protected List<? extends OFStatistics> statistics;
 
+    // The raw statistics of a message read from the wire. They are only
+    // parsed into statistics objects when getStatistics() is called, so
+    // consumers that use a cursor over the raw data don't pay for the
+    // objects.
+    protected ChannelBuffer statisticsData;
+
     /**
      * @return the statisticType
      */
@@ -91,9 +98,31 @@ public abstract class OFStatisticsMessageBase extends OFMessage implements
      * @return the statistics
      */
     public List<? extends OFStatistics> getStatistics() {
+        if (statistics == null && statisticsData != null) {
+            statistics = statisticsFactory.parseStatistics(this.getType(),
+                    this.statisticType, statisticsData.duplicate(),
+                    statisticsData.readableBytes());
+        }
         return statistics;
     }
 
+    /**
+     * Get the statistics of this message in their wire format, e.g., to
+     * iterate over them with a cursor without parsing them into objects.
+     * @return a buffer with the statistics; the buffer must not be modified
+     */
+    public ChannelBuffer getStatisticsData() {
+        if (statisticsData != null)
+            return statisticsData.duplicate();
+        ChannelBuffer data = ChannelBuffers.dynamicBuffer();
+        if (statistics != null) {
+            for (OFStatistics statistic : statistics) {
+                statistic.writeTo(data);
+            }
+        }
+        return data;
+    }
+
     /**
      * return the first statistics request in the list of statistics, for
      * statistics messages that expect exactly one message in their body (e.g.,
@@ -104,6 +133,7 @@ public abstract class OFStatisticsMessageBase extends OFMessage implements
      *        element
      */
     public OFStatistics getFirstStatistics() {
+        List<? extends OFStatistics> statistics = getStatistics();
         if (statistics == null ) {
             throw new IllegalArgumentException("Invariant violation: statistics message of type "+statisticType+" is null");
         }
@@ -119,6 +149,7 @@ public abstract class OFStatisticsMessageBase extends OFMessage implements
      */
     public void setStatistics(List<? extends OFStatistics> statistics) {
         this.statistics = statistics;
+        this.statisticsData = null;
     }
 
     @Override
@@ -134,8 +165,9 @@ public abstract class OFStatisticsMessageBase extends OFMessage implements
         this.flags = data.readShort();
         if (this.statisticsFactory == null)
             throw new RuntimeException("OFStatisticsFactory not set");
-        this.statistics = statisticsFactory.parseStatistics(this.getType(),
-                this.statisticType, data, super.getLengthU() - MINIMUM_LENGTH);
+        this.statistics = null;
+        this.statisticsData = data.readBytes(super.getLengthU() -
+                                             MINIMUM_LENGTH);
     }
 
     @Override
@@ -143,7 +175,11 @@ public abstract class OFStatisticsMessageBase extends OFMessage implements
         super.writeTo(data);
         data.writeShort(this.statisticType.getTypeValue());
         data.writeShort(this.flags);
-        if (this.statistics != null) {
+        if (this.statistics == null && this.statisticsData != null) {
+            data.writeBytes(this.statisticsData,
+                            this.statisticsData.readerIndex(),
+                            this.statisticsData.readableBytes());
+        } else if (this.statistics != null) {
             for (OFStatistics statistic : this.statistics) {
                 statistic.writeTo(data);
             }
@@ -157,6 +193,7 @@ public abstract class OFStatisticsMessageBase extends OFMessage implements
         result = prime * result + flags;
         result = prime * result
                 + ((statisticType == null) ? 0 : statisticType.hashCode());
+        List<? extends OFStatistics> statistics = getStatistics();
         result = prime * result
                 + ((statistics == null) ? 0 : statistics.hashCode());
         return result;
@@ -184,11 +221,12 @@ public abstract class OFStatisticsMessageBase extends OFMessage implements
         } else if (!statisticType.equals(other.statisticType)) {
             return false;
         }
+        List<? extends OFStatistics> statistics = getStatistics();
         if (statistics == null) {
-            if (other.statistics != null) {
+            if (other.getStatistics() != null) {
                 return false;
             }
-        } else if (!statistics.equals(other.statistics)) {
+        } else if (!statistics.equals(other.getStatistics())) {
             return false;
         }
         return true;
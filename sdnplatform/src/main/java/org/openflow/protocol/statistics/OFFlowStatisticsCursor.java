@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.openflow.protocol.statistics;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.openflow.protocol.OFMatch;
+import org.openflow.util.HexString;
+
+/**
+ * A cursor over the ofp_flow_stats entries of a flow statistics reply in
+ * their wire format. The fields of the current entry are read directly from
+ * the buffer, so iterating over a large flow table does not create an
+ * {@link OFFlowStatisticsReply}, {@link OFMatch} and action list for every
+ * entry. A cursor can be reused for any number of replies.
+ * <p>
+ * Typical use:
+ * <pre>
+ * OFFlowStatisticsCursor c = new OFFlowStatisticsCursor();
+ * c.reset(statsReply.getStatisticsData());
+ * while (c.next()) {
+ *     ... c.getCookie(), c.getDataLayerDestination(), ...
+ * }
+ * </pre>
+ */
+public class OFFlowStatisticsCursor {
+    // offsets of the fields in an ofp_flow_stats entry
+    protected static final int LENGTH = 0;
+    protected static final int TABLE_ID = 2;
+    protected static final int MATCH = 4;
+    protected static final int WILDCARDS = MATCH;
+    protected static final int IN_PORT = MATCH + 4;
+    protected static final int DL_SRC = MATCH + 6;
+    protected static final int DL_DST = MATCH + 12;
+    protected static final int DL_VLAN = MATCH + 18;
+    protected static final int DL_VLAN_PCP = MATCH + 20;
+    protected static final int DL_TYPE = MATCH + 22;
+    protected static final int NW_TOS = MATCH + 24;
+    protected static final int NW_PROTO = MATCH + 25;
+    protected static final int NW_SRC = MATCH + 28;
+    protected static final int NW_DST = MATCH + 32;
+    protected static final int TP_SRC = MATCH + 36;
+    protected static final int TP_DST = MATCH + 38;
+    protected static final int DURATION_SEC = 44;
+    protected static final int DURATION_NSEC = 48;
+    protected static final int PRIORITY = 52;
+    protected static final int IDLE_TIMEOUT = 54;
+    protected static final int HARD_TIMEOUT = 56;
+    protected static final int COOKIE = 64;
+    protected static final int PACKET_COUNT = 72;
+    protected static final int BYTE_COUNT = 80;
+
+    protected ChannelBuffer data;
+    // start of the current entry
+    protected int offset;
+    // start of the next entry
+    protected int next;
+    protected int end;
+
+    /**
+     * Position the cursor before the first entry of the given statistics
+     * @param data the flow statistics in wire format, the buffer is not
+     * modified
+     * @return this cursor
+     */
+    public OFFlowStatisticsCursor reset(ChannelBuffer data) {
+        this.data = data;
+        this.offset = -1;
+        this.next = data.readerIndex();
+        this.end = data.writerIndex();
+        return this;
+    }
+
+    /**
+     * Advance to the next entry. A truncated entry at the end of the data
+     * is ignored, like the statistics factory does.
+     * @return true if there is a current entry
+     */
+    public boolean next() {
+        if (data == null ||
+            end - next < OFFlowStatisticsReply.MINIMUM_LENGTH)
+            return false;
+        int length = data.getUnsignedShort(next + LENGTH);
+        if (length < OFFlowStatisticsReply.MINIMUM_LENGTH ||
+            length > end - next)
+            return false;
+        offset = next;
+        next += length;
+        return true;
+    }
+
+    protected static long getMac(ChannelBuffer data, int index) {
+        return ((long)data.getUnsignedShort(index) << 32) |
+                data.getUnsignedInt(index + 2);
+    }
+
+    public int getLength() {
+        return data.getUnsignedShort(offset + LENGTH);
+    }
+
+    public byte getTableId() {
+        return data.getByte(offset + TABLE_ID);
+    }
+
+    public int getWildcards() {
+        return data.getInt(offset + WILDCARDS);
+    }
+
+    public short getInputPort() {
+        return data.getShort(offset + IN_PORT);
+    }
+
+    /**
+     * @return the source MAC address as a long
+     */
+    public long getDataLayerSource() {
+        return getMac(data, offset + DL_SRC);
+    }
+
+    /**
+     * @return the destination MAC address as a long
+     */
+    public long getDataLayerDestination() {
+        return getMac(data, offset + DL_DST);
+    }
+
+    public short getDataLayerVirtualLan() {
+        return data.getShort(offset + DL_VLAN);
+    }
+
+    public byte getDataLayerVirtualLanPriorityCodePoint() {
+        return data.getByte(offset + DL_VLAN_PCP);
+    }
+
+    public short getDataLayerType() {
+        return data.getShort(offset + DL_TYPE);
+    }
+
+    public byte getNetworkTypeOfService() {
+        return data.getByte(offset + NW_TOS);
+    }
+
+    public byte getNetworkProtocol() {
+        return data.getByte(offset + NW_PROTO);
+    }
+
+    public int getNetworkSource() {
+        return data.getInt(offset + NW_SRC);
+    }
+
+    public int getNetworkDestination() {
+        return data.getInt(offset + NW_DST);
+    }
+
+    public short getTransportSource() {
+        return data.getShort(offset + TP_SRC);
+    }
+
+    public short getTransportDestination() {
+        return data.getShort(offset + TP_DST);
+    }
+
+    public int getDurationSeconds() {
+        return data.getInt(offset + DURATION_SEC);
+    }
+
+    public int getDurationNanoseconds() {
+        return data.getInt(offset + DURATION_NSEC);
+    }
+
+    public short getPriority() {
+        return data.getShort(offset + PRIORITY);
+    }
+
+    public short getIdleTimeout() {
+        return data.getShort(offset + IDLE_TIMEOUT);
+    }
+
+    public short getHardTimeout() {
+        return data.getShort(offset + HARD_TIMEOUT);
+    }
+
+    public long getCookie() {
+        return data.getLong(offset + COOKIE);
+    }
+
+    public long getPacketCount() {
+        return data.getLong(offset + PACKET_COUNT);
+    }
+
+    public long getByteCount() {
+        return data.getLong(offset + BYTE_COUNT);
+    }
+
+    /**
+     * @return true if the entry has at least one action, i.e., it is not a
+     * drop entry
+     */
+    public boolean hasActions() {
+        return getLength() > OFFlowStatisticsReply.MINIMUM_LENGTH;
+    }
+
+    /**
+     * Copy the match of the current entry into the given match. The MAC
+     * address arrays of the match are reused if they are allocated.
+     * @param match the match to fill in
+     * @return the match
+     */
+    public OFMatch readMatch(OFMatch match) {
+        byte[] mac = match.getDataLayerSource();
+        if (mac == null || mac.length != 6) mac = new byte[6];
+        data.getBytes(offset + DL_SRC, mac);
+        match.setDataLayerSource(mac);
+        mac = match.getDataLayerDestination();
+        if (mac == null || mac.length != 6) mac = new byte[6];
+        data.getBytes(offset + DL_DST, mac);
+        match.setDataLayerDestination(mac);
+
+        match.setWildcards(getWildcards());
+        match.setInputPort(getInputPort());
+        match.setDataLayerVirtualLan(getDataLayerVirtualLan());
+        match.setDataLayerVirtualLanPriorityCodePoint(
+                getDataLayerVirtualLanPriorityCodePoint());
+        match.setDataLayerType(getDataLayerType());
+        match.setNetworkTypeOfService(getNetworkTypeOfService());
+        match.setNetworkProtocol(getNetworkProtocol());
+        match.setNetworkSource(getNetworkSource());
+        match.setNetworkDestination(getNetworkDestination());
+        match.setTransportSource(getTransportSource());
+        match.setTransportDestination(getTransportDestination());
+        return match;
+    }
+
+    @Override
+    public String toString() {
+        if (data == null || offset < 0)
+            return "OFFlowStatisticsCursor []";
+        return "OFFlowStatisticsCursor [wildcards=0x" +
+                Integer.toHexString(getWildcards()) +
+                ", inPort=" + getInputPort() +
+                ", dlSrc=" + HexString.toHexString(getDataLayerSource(), 6) +
+                ", dlDst=" +
+                HexString.toHexString(getDataLayerDestination(), 6) +
+                ", vlan=" + getDataLayerVirtualLan() +
+                ", dlType=0x" +
+                Integer.toHexString(getDataLayerType() & 0xffff) +
+                ", priority=" + getPriority() +
+                ", cookie=" + getCookie() +
+                ", actions=" + hasActions() + "]";
+    }
+}
@@ -59,6 +59,12 @@ public interface IControllerService extends
     public static final String CONTEXT_PI_PAYLOAD = 
             "org.sdnplatform.core.IControllerProvider.piPayload";
 
+    /**
+     * The typed key for {@link #CONTEXT_PI_PAYLOAD}
+     */
+    public static final ListenerContextKey<Ethernet> PI_PAYLOAD_KEY =
+            ListenerContextKey.register(CONTEXT_PI_PAYLOAD);
+
     /**
      * The role of the controller as used by the OF 1.2 and OVS failover and
      * load-balancing mechanism.
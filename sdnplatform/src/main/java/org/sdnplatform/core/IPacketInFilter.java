@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.core;
+
+/**
+ * Used in conjunction with {@link IOFMessageListener} to declare which
+ * packet-ins a listener wants to see. The controller evaluates the filter
+ * for every {@link PacketInClass} when the listeners change and only
+ * dispatches a packet-in to the listeners interested in its class. The
+ * result must therefore not change while the listener is registered.
+ * Listeners that don't implement this interface get all packet-ins.
+ */
+public interface IPacketInFilter {
+
+    /**
+     * @param packetClass a class of packet-ins
+     * @return true to receive packet-ins of this class, false to ignore
+     */
+    public boolean isInterested(PacketInClass packetClass);
+}
@@ -33,19 +33,149 @@
 
 package org.sdnplatform.core;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * This is a context object where sdnplatform listeners can register 
  * and later retrieve context information associated with an
  * event
+ * 
+ * Values are stored in an array indexed by the slot of their
+ * {@link ListenerContextKey}. Every value is stamped with the generation
+ * of the context it was stored in, so {@link #reset()} only has to bump 
+ * the generation. A context must only be used by one thread at a time.
  * @author readams
  */
 public class ListenerContext {
-    protected ConcurrentHashMap<String, Object> storage =
-            new ConcurrentHashMap<String, Object>();
+    private static final int MIN_SLOTS = 16;
 
-    public ConcurrentHashMap<String, Object> getStorage() {
-        return storage;
+    private Object[] values;
+    private int[] stamps;
+    private int generation = 1;
+
+    public ListenerContext() {
+        int size = Math.max(MIN_SLOTS, ListenerContextKey.getSlotCount());
+        values = new Object[size];
+        stamps = new int[size];
+    }
+
+    /**
+     * Get the value in the given slot
+     * @param slot the slot of a {@link ListenerContextKey}
+     * @return the value or null if the slot has no value
+     */
+    protected Object get(int slot) {
+        if (slot < stamps.length && stamps[slot] == generation)
+            return values[slot];
+        return null;
+    }
+
+    /**
+     * Set the value in the given slot
+     * @param slot the slot of a {@link ListenerContextKey}
+     * @param value the value. null removes the value.
+     */
+    protected void put(int slot, Object value) {
+        if (value == null) {
+            remove(slot);
+            return;
+        }
+        if (slot >= stamps.length) {
+            int size = Math.max(slot + 1, stamps.length * 2);
+            values = Arrays.copyOf(values, size);
+            stamps = Arrays.copyOf(stamps, size);
+        }
+        values[slot] = value;
+        stamps[slot] = generation;
+    }
+
+    /**
+     * Remove the value in the given slot
+     * @param slot the slot of a {@link ListenerContextKey}
+     */
+    protected void remove(int slot) {
+        if (slot < stamps.length) {
+            values[slot] = null;
+            stamps[slot] = 0;
+        }
+    }
+
+    /**
+     * Remove all values from the context
+     */
+    public void reset() {
+        generation++;
+        if (generation == 0) {
+            // the stamps wrapped around, start over
+            Arrays.fill(values, null);
+            Arrays.fill(stamps, 0);
+            generation = 1;
+        }
+    }
+
+    /**
+     * Get a map view of the context keyed by the names of the 
+     * {@link ListenerContextKey}s. This is slower than using the keys
+     * and only kept for compatibility.
+     * @return the map view
+     */
+    public Map<String, Object> getStorage() {
+        return new ContextMap();
+    }
+
+    private class ContextMap extends AbstractMap<String, Object> {
+        @Override
+        public Object get(Object name) {
+            if (!(name instanceof String)) return null;
+            ListenerContextKey<?> key = ListenerContextKey.lookup((String)name);
+            if (key == null) return null;
+            return ListenerContext.this.get(key.getSlot());
+        }
+
+        @Override
+        public boolean containsKey(Object name) {
+            return get(name) != null;
+        }
+
+        @Override
+        public Object put(String name, Object value) {
+            ListenerContextKey<Object> key = ListenerContextKey.register(name);
+            Object old = ListenerContext.this.get(key.getSlot());
+            ListenerContext.this.put(key.getSlot(), value);
+            return old;
+        }
+
+        @Override
+        public Object remove(Object name) {
+            Object old = get(name);
+            if (old != null) {
+                ListenerContext.this.remove(
+                        ListenerContextKey.lookup((String)name).getSlot());
+            }
+            return old;
+        }
+
+        @Override
+        public void clear() {
+            reset();
+        }
+
+        /**
+         * A snapshot of the values in the context
+         */
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            Map<String, Object> m = new HashMap<String, Object>();
+            for (int slot = 0; slot < stamps.length; slot++) {
+                Object value = ListenerContext.this.get(slot);
+                if (value != null)
+                    m.put(ListenerContextKey.forSlot(slot).getName(), value);
+            }
+            return m.entrySet();
+        }
     }
 }
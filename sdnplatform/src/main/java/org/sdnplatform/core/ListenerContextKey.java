@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A typed key for a {@link ListenerContext}. Every key name is registered
+ * once and gets a dense integer slot, so getting or setting a value in a
+ * context is an array access instead of a string hash lookup. Keys should
+ * be registered when the class or module that owns them is initialized,
+ * e.g., as a static final field next to the key name.
+ *
+ * @param <V> the type of the values stored under this key
+ */
+public class ListenerContextKey<V> {
+    private static final ConcurrentHashMap<String, ListenerContextKey<?>>
+            keys = new ConcurrentHashMap<String, ListenerContextKey<?>>();
+    // slot -> key
+    private static final List<ListenerContextKey<?>> slots =
+            new ArrayList<ListenerContextKey<?>>();
+
+    private final String name;
+    private final int slot;
+
+    private ListenerContextKey(String name, int slot) {
+        this.name = name;
+        this.slot = slot;
+    }
+
+    /**
+     * Get the key with the given name, registering it if required.
+     * Registering the same name twice returns the same key.
+     * @param name the name of the key
+     * @return the key
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> ListenerContextKey<V> register(String name) {
+        ListenerContextKey<?> key = keys.get(name);
+        if (key == null) {
+            synchronized (slots) {
+                key = keys.get(name);
+                if (key == null) {
+                    key = new ListenerContextKey<V>(name, slots.size());
+                    slots.add(key);
+                    keys.put(name, key);
+                }
+            }
+        }
+        return (ListenerContextKey<V>) key;
+    }
+
+    /**
+     * Get the key with the given name
+     * @param name the name of the key
+     * @return the key or null if no key with this name was registered
+     */
+    public static ListenerContextKey<?> lookup(String name) {
+        return keys.get(name);
+    }
+
+    /**
+     * @param slot a slot
+     * @return the key for the slot
+     */
+    static ListenerContextKey<?> forSlot(int slot) {
+        synchronized (slots) {
+            return slots.get(slot);
+        }
+    }
+
+    /**
+     * @return the number of registered keys
+     */
+    public static int getSlotCount() {
+        synchronized (slots) {
+            return slots.size();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(ListenerContext cntx) {
+        return (V) cntx.get(slot);
+    }
+
+    public void put(ListenerContext cntx, V value) {
+        cntx.put(slot, value);
+    }
+
+    public void remove(ListenerContext cntx) {
+        cntx.remove(slot);
+    }
+
+    @Override
+    public String toString() {
+        return "ListenerContextKey [name=" + name + ", slot=" + slot + "]";
+    }
+}
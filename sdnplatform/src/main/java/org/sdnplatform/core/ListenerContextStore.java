@@ -33,18 +33,26 @@
 
 package org.sdnplatform.core;
 
+/**
+ * Access to values of type V in a {@link ListenerContext} by key name.
+ * Every call resolves the name to its {@link ListenerContextKey}; code on
+ * the packet-in path should use the typed keys directly instead, e.g.,
+ * {@link IControllerService#PI_PAYLOAD_KEY}.
+ */
 public class ListenerContextStore<V> {
+    private ListenerContextKey<V> getKey(String name) {
+        return ListenerContextKey.register(name);
+    }
     
-    @SuppressWarnings("unchecked")
     public V get(ListenerContext bc, String key) {
-        return (V)bc.storage.get(key);
+        return getKey(key).get(bc);
     }
     
     public void put(ListenerContext bc, String key, V value) {
-        bc.storage.put(key, value);
+        getKey(key).put(bc, value);
     }
     
     public void remove(ListenerContext bc, String key) {
-        bc.storage.remove(key);
+        getKey(key).remove(bc);
     }
 }
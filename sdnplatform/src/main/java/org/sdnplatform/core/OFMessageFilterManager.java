@@ -33,6 +33,8 @@
 
 package org.sdnplatform.core;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -42,6 +44,7 @@ import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
@@ -50,13 +53,15 @@ import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPacketIn;
 import org.openflow.protocol.OFPacketOut;
 import org.openflow.protocol.OFType;
-import org.openflow.util.HexString;
 import org.sdnplatform.core.annotations.LogMessageCategory;
 import org.sdnplatform.core.annotations.LogMessageDoc;
 import org.sdnplatform.core.module.ModuleContext;
 import org.sdnplatform.core.module.ModuleException;
 import org.sdnplatform.core.module.IModule;
 import org.sdnplatform.core.module.IPlatformService;
+import org.sdnplatform.core.util.PcapWriter;
+import org.sdnplatform.core.util.RingBuffer;
+import org.sdnplatform.core.util.SingletonTask;
 import org.sdnplatform.packet.Ethernet;
 import org.sdnplatform.threadpool.IThreadPoolService;
 import org.slf4j.Logger;
@@ -102,6 +107,18 @@ public class OFMessageFilterManager
     protected long MAX_FILTER_TIME= 300000; // maximum filter time is 5 minutes.
     protected int TIMER_INTERVAL = 1000;  // 1 second time interval.
 
+    // Messages that match a filter are captured into a ring buffer by the
+    // listener and handed to the packetstreamer and the pcap files by a
+    // background task, so tracing does not add I/O to the message path.
+    protected int CAPTURE_QUEUE_SIZE = 8192;
+    protected int DRAIN_INTERVAL = 20;    // ms
+    protected int DRAIN_BATCH = 512;
+    protected RingBuffer<CapturedMessage> captureRing = null;
+    protected SingletonTask drainTask = null;
+    protected PcapWriter pcapWriter = null;
+    protected volatile CompiledFilter[] compiledFilters =
+            new CompiledFilter[0];
+
     public static final String SUCCESS                     = "0";
     public static final String FILTER_SETUP_FAILED         = "-1001"; 
     public static final String FILTER_NOT_FOUND            = "-1002";
@@ -109,6 +126,107 @@ public class OFMessageFilterManager
     public static final String FILTER_SESSION_ID_NOT_FOUND = "-1004";
     public static final String SERVICE_UNAVAILABLE         = "-1005";
 
+    /**
+     * A filter reduced to primitive predicates on the MAC addresses, the
+     * ethertype and the input port of a packet. A filter matches if it has
+     * at least one of these fields and all of them match.
+     */
+    protected static class CompiledFilter {
+        protected final String sessionId;
+        protected boolean hasField = false;
+        protected boolean hasMac = false;
+        protected long mac;
+        protected boolean hasEtherType = false;
+        protected short etherType;
+        protected boolean hasPort = false;
+        protected short port;
+        // set if a field value could not be parsed; matches nothing
+        protected boolean invalid = false;
+
+        public CompiledFilter(String sessionId, Map<String, String> filter) {
+            this.sessionId = sessionId;
+            String v = filter.get("mac");
+            if (v != null) {
+                hasField = hasMac = true;
+                if (Ethernet.isMACAddress(v))
+                    mac = Ethernet.toLong(Ethernet.toMACAddress(v));
+                else
+                    invalid = true;
+            }
+            v = filter.get("ethertype");
+            if (v != null) {
+                hasField = hasEtherType = true;
+                try {
+                    etherType = Integer.decode(v).shortValue();
+                } catch (NumberFormatException e) {
+                    invalid = true;
+                }
+            }
+            v = filter.get("port");
+            if (v != null) {
+                hasField = hasPort = true;
+                try {
+                    port = Integer.decode(v).shortValue();
+                } catch (NumberFormatException e) {
+                    invalid = true;
+                }
+            }
+        }
+
+        public boolean matches(long srcMac, long dstMac,
+                               short pktEtherType, short inPort) {
+            if (!hasField || invalid) return false;
+            if (hasMac && mac != srcMac && mac != dstMac) return false;
+            if (hasEtherType && etherType != pktEtherType) return false;
+            if (hasPort && port != inPort) return false;
+            return true;
+        }
+    }
+
+    /**
+     * A message that matched at least one filter, waiting to be sent to
+     * the packetstreamer and written to the pcap files.
+     */
+    protected static class CapturedMessage {
+        protected final HashSet<String> sessionIds;
+        protected final IOFSwitch sw;
+        protected final OFMessage msg;
+        protected final Ethernet eth;
+        protected final long timestamp;
+
+        public CapturedMessage(HashSet<String> sessionIds, IOFSwitch sw,
+                               OFMessage msg, Ethernet eth, long timestamp) {
+            this.sessionIds = sessionIds;
+            this.sw = sw;
+            this.msg = msg;
+            this.eth = eth;
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * @return a context with the packet-in payload the message was
+         * received with
+         */
+        public ListenerContext getContext() {
+            ListenerContext cntx = new ListenerContext();
+            if (eth != null) {
+                IControllerService.PI_PAYLOAD_KEY.put(cntx, eth);
+            }
+            return cntx;
+        }
+
+        /**
+         * @return the Ethernet frame carried by the message or null
+         */
+        public byte[] getPacketData() {
+            if (msg.getType() == OFType.PACKET_IN)
+                return ((OFPacketIn)msg).getPacketData();
+            if (msg.getType() == OFType.PACKET_OUT)
+                return ((OFPacketOut)msg).getPacketData();
+            return null;
+        }
+    }
+
     public enum FilterResult {
         /*
          * FILTER_NOT_DEFINED: Filter is not defined
@@ -144,6 +262,9 @@ public class OFMessageFilterManager
         filterMap.put(s, f);
         if (filterTimeoutMap.containsKey(s))  filterTimeoutMap.remove(s);
         filterTimeoutMap.put(s, delta);
+        compileFilters();
+        if (drainTask != null)
+            drainTask.reschedule(0, TimeUnit.MILLISECONDS);
 
         // set the timer as there will be no existing timers. 
         if (filterMap.size() == 1) { 
@@ -212,6 +333,7 @@ public class OFMessageFilterManager
 
         if (filterMap.containsKey(sessionId)) {
             filterMap.remove(sessionId);
+            compileFilters();
             try {
                 if (packetClient != null)
                     packetClient.terminateSession(sessionId);
@@ -225,68 +347,69 @@ public class OFMessageFilterManager
         } else return FILTER_SESSION_ID_NOT_FOUND;
     }
 
-    public HashSet<String> getMatchedFilters(OFMessage m, ListenerContext cntx) {  
+    /**
+     * Rebuild the compiled form of the filters after the filter map changed
+     */
+    protected synchronized void compileFilters() {
+        ArrayList<CompiledFilter> l = new ArrayList<CompiledFilter>();
+        for (Map.Entry<String, ConcurrentHashMap<String, String>> e :
+                filterMap.entrySet()) {
+            if (e.getValue() == null || e.getValue().isEmpty()) continue;
+            l.add(new CompiledFilter(e.getKey(), e.getValue()));
+        }
+        compiledFilters = l.toArray(new CompiledFilter[l.size()]);
+    }
+
+    private static long macAt(byte[] data, int offset) {
+        long mac = 0;
+        for (int i = 0; i < 6; i++) {
+            mac = (mac << 8) | (data[offset + i] & 0xffL);
+        }
+        return mac;
+    }
 
-        HashSet<String> matchedFilters = new HashSet<String>();
+    public HashSet<String> getMatchedFilters(OFMessage m, ListenerContext cntx) {  
 
         // This default function is written to match on packet ins and 
-        // packet outs.
-        Ethernet eth = null;
+        // packet outs. The headers are read straight from the packet data
+        // so nothing is deserialized for packets that match no filter.
+        byte[] data;
+        short inPort;
 
         if (m.getType() == OFType.PACKET_IN) {
-            eth = IControllerService.bcStore.get(cntx, 
-                    IControllerService.CONTEXT_PI_PAYLOAD);
+            OFPacketIn p = (OFPacketIn) m;
+            data = p.getPacketData();
+            inPort = p.getInPort();
         } else if (m.getType() == OFType.PACKET_OUT) {
-            eth = new Ethernet();
             OFPacketOut p = (OFPacketOut) m;
-            
             // No MAC match if packetOut doesn't have the packet.
-            if (p.getPacketData() == null) return null;
-            
-            eth.deserialize(p.getPacketData(), 0, p.getPacketData().length);
-        } else if (m.getType() == OFType.FLOW_MOD) {
+            data = p.getPacketData();
+            inPort = p.getInPort();
+        } else {
             // flow-mod can't be matched by mac.
             return null;
         }
 
-        if (eth == null) return null;
-
-        Iterator<String> filterIt = filterMap.keySet().iterator();
-        while (filterIt.hasNext()) {   // for every filter
-            boolean filterMatch = false;
-            String filterSessionId = filterIt.next();
-            Map<String,String> filter = filterMap.get(filterSessionId);
-
-            // If the filter has empty fields, then it is not considered as a match.
-            if (filter == null || filter.isEmpty()) continue;                  
-            Iterator<String> fieldIt = filter.keySet().iterator();
-            while (fieldIt.hasNext()) {   
-                String filterFieldType = fieldIt.next();
-                String filterFieldValue = filter.get(filterFieldType);
-                if (filterFieldType.equals("mac")) {
-
-                    String srcMac = HexString.toHexString(eth.getSourceMACAddress());
-                    String dstMac = HexString.toHexString(eth.getDestinationMACAddress());
-                    log.debug("srcMac: {}, dstMac: {}", srcMac, dstMac);
-
-                    if (filterFieldValue.equals(srcMac) || 
-                            filterFieldValue.equals(dstMac)){
-                        filterMatch = true; 
-                    } else {
-                        filterMatch = false;
-                        break;
-                    }
-                }
-            }
-            if (filterMatch) {
-                matchedFilters.add(filterSessionId);
-            }
+        if (data == null || data.length < 14) return null;
+
+        long dstMac = macAt(data, 0);
+        long srcMac = macAt(data, 6);
+        short etherType = (short)(((data[12] & 0xff) << 8) | 
+                                  (data[13] & 0xff));
+        if (etherType == (short) 0x8100 && data.length >= 18) {
+            etherType = (short)(((data[16] & 0xff) << 8) | 
+                                (data[17] & 0xff));
         }
 
-        if (matchedFilters.isEmpty())
-            return null;    
-        else 
-            return matchedFilters;
+        HashSet<String> matchedFilters = null;
+        for (CompiledFilter f : compiledFilters) {
+            if (f.matches(srcMac, dstMac, etherType, inPort)) {
+                if (matchedFilters == null)
+                    matchedFilters = new HashSet<String>();
+                matchedFilters.add(f.sessionId);
+            }
+        }
+        return matchedFilters;
     }
     
     @LogMessageDoc(level="ERROR",
@@ -357,11 +480,6 @@ public class OFMessageFilterManager
     }
 
     @Override
-    @LogMessageDoc(level="ERROR",
-                   message="Error while sending packet",
-                   explanation="Failed to send a message to the message " +
-                   		"tracing server",
-                   recommendation=LogMessageDoc.CHECK_CONTROLLER)
     public Command receive(IOFSwitch sw, OFMessage msg, 
                            ListenerContext cntx) {
 
@@ -374,19 +492,84 @@ public class OFMessageFilterManager
         }
 
         matchedFilters = getMatchedFilters(msg, cntx);
-        if (matchedFilters == null) {
-            return Command.CONTINUE;
-        } else {
-            try {
-                sendPacket(matchedFilters, sw, msg, cntx, true);
-            } catch (Exception e) {
-                log.error("Error while sending packet", e);
+        if (matchedFilters != null) {
+            Ethernet eth = null;
+            if (cntx != null && msg.getType() == OFType.PACKET_IN) {
+                eth = IControllerService.PI_PAYLOAD_KEY.get(cntx);
+            }
+            CapturedMessage c = 
+                    new CapturedMessage(matchedFilters, sw, msg, eth,
+                                        System.currentTimeMillis());
+            if (!captureRing.offer(c) && log.isDebugEnabled()) {
+                log.debug("Capture queue full, dropped message {}", msg);
             }
         }
         
         return Command.CONTINUE;
     }
 
+    /**
+     * Hand the captured messages to the packetstreamer and the pcap files.
+     * Runs on the drain task and keeps rescheduling itself while there are
+     * filters or captured messages left.
+     */
+    @LogMessageDoc(level="ERROR",
+                   message="Error while sending packet",
+                   explanation="Failed to send a message to the message " +
+                           "tracing server",
+                   recommendation=LogMessageDoc.CHECK_CONTROLLER)
+    protected void drainCaptures() {
+        List<CapturedMessage> batch = 
+                new ArrayList<CapturedMessage>(DRAIN_BATCH);
+        while (captureRing.drainTo(batch, DRAIN_BATCH) > 0) {
+            for (CapturedMessage c : batch) {
+                try {
+                    sendPacket(c.sessionIds, c.sw, c.msg, 
+                               c.getContext(), true);
+                } catch (Exception e) {
+                    log.error("Error while sending packet", e);
+                }
+                writePcap(c);
+            }
+            batch.clear();
+        }
+
+        if (!filterMap.isEmpty() || !captureRing.isEmpty()) {
+            drainTask.reschedule(DRAIN_INTERVAL, TimeUnit.MILLISECONDS);
+        } else if (pcapWriter != null) {
+            // tracing stopped; the next capture starts a new file
+            pcapWriter.close();
+        }
+    }
+
+    @LogMessageDoc(level="ERROR",
+                   message="Error while writing pcap file, disabling " +
+                           "pcap capture",
+                   explanation="The captured packets could not be " +
+                           "written to the local pcap files",
+                   recommendation=LogMessageDoc.CHECK_CONTROLLER)
+    protected void writePcap(CapturedMessage c) {
+        if (pcapWriter == null) return;
+        byte[] data = c.getPacketData();
+        if (data == null) return;
+        try {
+            pcapWriter.write(c.timestamp, data);
+        } catch (IOException e) {
+            log.error("Error while writing pcap file, disabling " +
+                      "pcap capture", e);
+            pcapWriter.close();
+            pcapWriter = null;
+        }
+    }
+
+    /**
+     * @return the number of matched messages dropped because the capture
+     * queue was full
+     */
+    public long getDroppedCaptures() {
+        return (captureRing == null) ? 0 : captureRing.getDropped();
+    }
+
 
     public class TimeoutFilterTask extends TimerTask {
 
@@ -528,6 +711,25 @@ public class OFMessageFilterManager
                 context.getServiceImpl(IControllerService.class);
         this.threadPool =
                 context.getServiceImpl(IThreadPoolService.class);
+
+        Map<String, String> configOptions = context.getConfigParams(this);
+        String option = configOptions.get("capturequeuesize");
+        if (option != null) {
+            CAPTURE_QUEUE_SIZE = Integer.parseInt(option);
+        }
+        // pcap files are only written if a directory is configured
+        option = configOptions.get("pcapdirectory");
+        if (option != null) {
+            int fileSize = 16;
+            int files = 4;
+            String opt = configOptions.get("pcapfilesizemb");
+            if (opt != null) fileSize = Integer.parseInt(opt);
+            opt = configOptions.get("pcapfiles");
+            if (opt != null) files = Integer.parseInt(opt);
+            pcapWriter = new PcapWriter(new File(option), "ofcapture",
+                                        fileSize << 20, files);
+            log.info("Writing captured packets to {}", option);
+        }
     }
 
     @Override
@@ -536,6 +738,14 @@ public class OFMessageFilterManager
         
         filterMap = new ConcurrentHashMap<String, ConcurrentHashMap<String,String>>();
         filterTimeoutMap = new ConcurrentHashMap<String, Long>();
+        captureRing = new RingBuffer<CapturedMessage>(CAPTURE_QUEUE_SIZE);
+        drainTask = new SingletonTask(threadPool.getScheduledExecutor(),
+                                      new Runnable() {
+            @Override
+            public void run() {
+                drainCaptures();
+            }
+        });
         serverPort = 
                 Integer.parseInt(System.getProperty("org.sdnplatform." +
                 		"packetstreamer.port", "9090"));
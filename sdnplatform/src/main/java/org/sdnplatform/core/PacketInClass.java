@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.core;
+
+import org.sdnplatform.packet.ARP;
+import org.sdnplatform.packet.BSN;
+import org.sdnplatform.packet.Ethernet;
+import org.sdnplatform.packet.ICMP;
+import org.sdnplatform.packet.IPacket;
+import org.sdnplatform.packet.IPv4;
+import org.sdnplatform.packet.LLDP;
+import org.sdnplatform.packet.TCP;
+import org.sdnplatform.packet.UDP;
+
+/**
+ * The class of a packet-in for dispatching it to the listeners that
+ * declared interest in it with {@link IPacketInFilter}. A class is the
+ * protocol of the packet combined with the kind of its destination MAC.
+ */
+public class PacketInClass {
+    public enum Protocol {
+        /** LLDP, either plain or BSN encapsulated (BDDP) */
+        LLDP,
+        ARP,
+        /** IPv4 UDP to or from the DHCP ports */
+        DHCP,
+        ICMP,
+        TCP,
+        /** IPv4 UDP that is not DHCP */
+        UDP,
+        /** IPv4 with any other protocol */
+        IPV4,
+        /** Any other packet */
+        OTHER;
+
+        /**
+         * @return true if the packets of this protocol are IPv4
+         */
+        public boolean isIPv4() {
+            return this == DHCP || this == ICMP || this == TCP ||
+                   this == UDP || this == IPV4;
+        }
+    }
+
+    public enum Destination {
+        UNICAST, MULTICAST, BROADCAST
+    }
+
+    private static final PacketInClass[] classes;
+    static {
+        Protocol[] protocols = Protocol.values();
+        Destination[] destinations = Destination.values();
+        classes = new PacketInClass[protocols.length * destinations.length];
+        for (Protocol p : protocols) {
+            for (Destination d : destinations) {
+                int index = p.ordinal() * destinations.length + d.ordinal();
+                classes[index] = new PacketInClass(p, d, index);
+            }
+        }
+    }
+
+    private final Protocol protocol;
+    private final Destination destination;
+    private final int index;
+
+    private PacketInClass(Protocol protocol, Destination destination,
+                          int index) {
+        this.protocol = protocol;
+        this.destination = destination;
+        this.index = index;
+    }
+
+    public Protocol getProtocol() {
+        return protocol;
+    }
+
+    public Destination getDestination() {
+        return destination;
+    }
+
+    /**
+     * @return a dense index of this class in [0, {@link #count()})
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return all packet-in classes ordered by index
+     */
+    public static PacketInClass[] values() {
+        return classes.clone();
+    }
+
+    /**
+     * @return the number of packet-in classes
+     */
+    public static int count() {
+        return classes.length;
+    }
+
+    public static PacketInClass valueOf(Protocol protocol,
+                                        Destination destination) {
+        return classes[protocol.ordinal() * Destination.values().length +
+                       destination.ordinal()];
+    }
+
+    /**
+     * Get the class of a decoded packet-in
+     * @param eth the packet
+     * @return the class of the packet
+     */
+    public static PacketInClass classify(Ethernet eth) {
+        Destination destination;
+        if (eth.isBroadcast())
+            destination = Destination.BROADCAST;
+        else if (eth.isMulticast())
+            destination = Destination.MULTICAST;
+        else
+            destination = Destination.UNICAST;
+
+        Protocol protocol = Protocol.OTHER;
+        IPacket payload = eth.getPayload();
+        if (payload instanceof LLDP) {
+            protocol = Protocol.LLDP;
+        } else if (payload instanceof BSN) {
+            if (payload.getPayload() instanceof LLDP)
+                protocol = Protocol.LLDP;
+        } else if (payload instanceof ARP) {
+            protocol = Protocol.ARP;
+        } else if (payload instanceof IPv4) {
+            IPacket ipPayload = payload.getPayload();
+            if (ipPayload instanceof TCP) {
+                protocol = Protocol.TCP;
+            } else if (ipPayload instanceof UDP) {
+                UDP udp = (UDP) ipPayload;
+                if (isDhcpPort(udp.getSourcePort()) ||
+                    isDhcpPort(udp.getDestinationPort()))
+                    protocol = Protocol.DHCP;
+                else
+                    protocol = Protocol.UDP;
+            } else if (ipPayload instanceof ICMP) {
+                protocol = Protocol.ICMP;
+            } else {
+                protocol = Protocol.IPV4;
+            }
+        }
+        return valueOf(protocol, destination);
+    }
+
+    private static boolean isDhcpPort(short port) {
+        return port == UDP.DHCP_SERVER_PORT || port == UDP.DHCP_CLIENT_PORT;
+    }
+
+    @Override
+    public String toString() {
+        return protocol + "-" + destination;
+    }
+}
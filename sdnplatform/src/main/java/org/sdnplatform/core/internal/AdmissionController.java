@@ -0,0 +1,532 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.core.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.openflow.protocol.OFPacketIn;
+import org.openflow.util.HexString;
+import org.sdnplatform.core.IInfoProvider;
+import org.sdnplatform.core.annotations.LogMessageDoc;
+import org.sdnplatform.core.util.SingletonTask;
+import org.sdnplatform.util.LongTimedCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Admission control for packet-ins. When the controller falls behind, the
+ * packet-ins are shed per switch and per ingress port instead of globally,
+ * so a single switch or a broadcast storm on a single port cannot starve
+ * the rest of the network.
+ *
+ * Overload is detected from the controller's own work rather than from
+ * the host CPU: how long the messages read from the switches wait before
+ * they are processed. While the average wait is above the target delay
+ * the number of packet-ins admitted per interval is cut multiplicatively,
+ * and once the delay recovers it grows additively again until the limit
+ * can be lifted.
+ *
+ * The budget of an interval is shared by deficit round robin: each switch,
+ * and within a switch each ingress port, gets the max-min fair share of
+ * the budget computed from the demand of the previous interval, and may
+ * carry over a limited deficit. LLDP/BDDP packet-ins are always admitted.
+ * ARP, DHCP and the first packet-in of a flow may use the whole share,
+ * the other packet-ins only the part that is not reserved for them.
+ */
+public class AdmissionController implements IInfoProvider {
+    protected static final Logger log =
+            LoggerFactory.getLogger(AdmissionController.class);
+
+    /**
+     * Priority classes of the packet-ins, from the highest priority
+     */
+    public enum AdmissionClass {
+        /** LLDP and BDDP, never shed */
+        LLDP,
+        ARP,
+        DHCP,
+        /** The first packet-in of a flow seen by the controller */
+        FIRST_PACKET,
+        /** Any other packet-in */
+        OTHER
+    }
+
+    public static final int DEFAULT_INTERVAL = 100;     // ms
+    public static final int DEFAULT_TARGET_DELAY = 50;  // ms
+    public static final int DEFAULT_MIN_BUDGET = 16;    // packet-ins
+
+    // Factor applied to the budget in each overloaded interval
+    protected static final double DECREASE = 0.75;
+    // Budget growth per interval, as a fraction of the budget
+    protected static final double INCREASE = 0.1;
+    // Part of a share that only the priority classes may use
+    protected static final double PRIORITY_RESERVE = 0.25;
+    // Deficit that may be carried over, in shares
+    protected static final int MAX_DEFICIT_SHARES = 2;
+    // Intervals without overload before the limit is lifted
+    protected static final int RECOVERY_INTERVALS = 10;
+
+    // Flows are forgotten after this time, so a packet-in of a flow that
+    // is still not installed counts as a first packet again
+    protected static final int FLOW_CACHE_SIZE = 64 * 1024;
+    protected static final int FLOW_CACHE_TIMEOUT = 5000; // ms
+
+    private static final long PRIME = 0x9e3779b97f4a7c15L;
+
+    /**
+     * The deficit of a switch or of an ingress port
+     */
+    protected static class Bucket {
+        // Packet-ins that may still be admitted
+        protected final AtomicLong deficit = new AtomicLong();
+        // Packet-ins that arrived in the current interval, without LLDP
+        protected final AtomicLong demand = new AtomicLong();
+        // Part of the deficit only the priority classes may use
+        protected volatile long reserve;
+        // Demand of the previous interval
+        protected long lastDemand;
+
+        protected boolean take(boolean priority) {
+            long floor = priority ? 0 : reserve;
+            while (true) {
+                long d = deficit.get();
+                if (d <= floor)
+                    return false;
+                if (deficit.compareAndSet(d, d - 1))
+                    return true;
+            }
+        }
+
+        protected void giveBack() {
+            deficit.incrementAndGet();
+        }
+
+        protected void refill(long share) {
+            long max = share * MAX_DEFICIT_SHARES;
+            while (true) {
+                long d = deficit.get();
+                if (deficit.compareAndSet(d, Math.min(d + share, max)))
+                    break;
+            }
+            reserve = (long)(share * PRIORITY_RESERVE);
+        }
+
+        protected void reset(long share) {
+            deficit.set(share);
+            reserve = (long)(share * PRIORITY_RESERVE);
+        }
+    }
+
+    protected static class SwitchState extends Bucket {
+        protected final ConcurrentMap<Short, Bucket> ports =
+                new ConcurrentHashMap<Short, Bucket>();
+        protected final AtomicLongArray admitted =
+                new AtomicLongArray(AdmissionClass.values().length);
+        protected final AtomicLongArray shed =
+                new AtomicLongArray(AdmissionClass.values().length);
+        // Share of a port that was idle in the previous interval
+        protected volatile long portShare;
+
+        protected Bucket getPort(short port, long share) {
+            Bucket b = ports.get(port);
+            if (b == null) {
+                b = new Bucket();
+                b.reset(share);
+                Bucket old = ports.putIfAbsent(port, b);
+                if (old != null)
+                    b = old;
+            }
+            return b;
+        }
+    }
+
+    protected final long interval;
+    protected final long targetDelay;   // ns
+    protected final long minBudget;
+
+    protected final ConcurrentMap<Long, SwitchState> switches =
+            new ConcurrentHashMap<Long, SwitchState>();
+    protected final LongTimedCache flows =
+            new LongTimedCache(FLOW_CACHE_SIZE, FLOW_CACHE_TIMEOUT);
+
+    // Measurements of the current interval
+    protected final AtomicLong dequeued = new AtomicLong();
+    protected final AtomicLong waitTime = new AtomicLong();
+    protected final AtomicLong processed = new AtomicLong();
+    protected final AtomicLong busyTime = new AtomicLong();
+    protected long lastUpdate = System.nanoTime();
+
+    // State updated once per interval
+    protected volatile boolean limiting;
+    protected volatile long budget;
+    // Share of a switch that was idle in the previous interval
+    protected volatile long switchShare;
+    protected int recovery;
+    protected volatile long latency;    // ns per message
+    // Average number of messages waiting to be processed
+    protected volatile long queueDepth;
+    protected volatile long delay;      // ns
+
+    protected SingletonTask updateTask;
+
+    public AdmissionController() {
+        this(DEFAULT_INTERVAL, DEFAULT_TARGET_DELAY, DEFAULT_MIN_BUDGET);
+    }
+
+    /**
+     * @param interval the interval in milliseconds
+     * @param targetDelay the highest acceptable processing delay of a
+     * packet-in in milliseconds
+     * @param minBudget the lowest number of packet-ins admitted per
+     * interval when limiting
+     */
+    public AdmissionController(int interval, int targetDelay, int minBudget) {
+        this.interval = interval;
+        this.targetDelay = TimeUnit.MILLISECONDS.toNanos(targetDelay);
+        this.minBudget = minBudget;
+    }
+
+    /**
+     * Start updating the budget every interval
+     * @param ses the executor to run the updates on
+     */
+    public void startUp(ScheduledExecutorService ses) {
+        updateTask = new SingletonTask(ses, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    updateBudget();
+                } finally {
+                    updateTask.reschedule(interval, TimeUnit.MILLISECONDS);
+                }
+            }
+        });
+        updateTask.reschedule(interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Record a message read from a switch that is about to be processed
+     * @param wait the time since the message was decoded in nanoseconds
+     */
+    public void messageDequeued(long wait) {
+        dequeued.incrementAndGet();
+        waitTime.addAndGet(wait);
+    }
+
+    /**
+     * Record messages that were processed
+     * @param count the number of messages
+     * @param time the time it took to process them in nanoseconds
+     */
+    public void messagesProcessed(int count, long time) {
+        processed.addAndGet(count);
+        busyTime.addAndGet(time);
+    }
+
+    /**
+     * Decide whether a packet-in should be processed
+     * @param dpid the switch that sent the packet-in
+     * @param pi the packet-in
+     * @return true if the packet-in should be processed, false if it
+     * should be dropped
+     */
+    public boolean admit(long dpid, OFPacketIn pi) {
+        short inPort = pi.getInPort();
+        AdmissionClass c = classify(dpid, inPort, pi.getPacketData());
+        SwitchState s = getSwitch(dpid);
+        boolean admitted = true;
+        if (c != AdmissionClass.LLDP) {
+            Bucket port = s.getPort(inPort, s.portShare);
+            s.demand.incrementAndGet();
+            port.demand.incrementAndGet();
+            if (limiting) {
+                boolean priority = (c != AdmissionClass.OTHER);
+                if (!port.take(priority)) {
+                    admitted = false;
+                } else if (!s.take(priority)) {
+                    port.giveBack();
+                    admitted = false;
+                }
+            }
+        }
+        if (admitted)
+            s.admitted.incrementAndGet(c.ordinal());
+        else
+            s.shed.incrementAndGet(c.ordinal());
+        return admitted;
+    }
+
+    /**
+     * Forget the state of a disconnected switch
+     * @param dpid the switch
+     */
+    public void removeSwitch(long dpid) {
+        switches.remove(dpid);
+    }
+
+    /**
+     * @return true if packet-ins are currently being shed
+     */
+    public boolean isLimiting() {
+        return limiting;
+    }
+
+    /**
+     * @param dpid a switch
+     * @return the number of packet-ins of the class admitted from the
+     * switch
+     */
+    public long getAdmittedCount(long dpid, AdmissionClass c) {
+        SwitchState s = switches.get(dpid);
+        return (s == null) ? 0 : s.admitted.get(c.ordinal());
+    }
+
+    /**
+     * @param dpid a switch
+     * @return the number of packet-ins of the class shed from the switch
+     */
+    public long getShedCount(long dpid, AdmissionClass c) {
+        SwitchState s = switches.get(dpid);
+        return (s == null) ? 0 : s.shed.get(c.ordinal());
+    }
+
+    protected SwitchState getSwitch(long dpid) {
+        SwitchState s = switches.get(dpid);
+        if (s == null) {
+            s = new SwitchState();
+            s.reset(switchShare);
+            s.portShare = switchShare;
+            SwitchState old = switches.putIfAbsent(dpid, s);
+            if (old != null)
+                s = old;
+        }
+        return s;
+    }
+
+    /**
+     * Measure the last interval, adapt the budget and refill the deficits
+     */
+    @LogMessageDoc(level="WARN",
+            message="Controller overloaded: processing delay {delay} ms, " +
+                    "shedding packet-ins above {budget} per interval",
+            explanation="The controller is receiving more packet-ins than " +
+                    "it can process in time, so it is dropping packet-ins " +
+                    "of the switches and ports sending the most",
+            recommendation="Check the admission control counters for the " +
+                    "switches sending the most packet-ins. " +
+                    LogMessageDoc.CHECK_SWITCH)
+    protected void updateBudget() {
+        long now = System.nanoTime();
+        long elapsed = Math.max(1, now - lastUpdate);
+        lastUpdate = now;
+        long count = processed.getAndSet(0);
+        long time = busyTime.getAndSet(0);
+        latency = (count > 0) ? time / count : 0;
+        // Every message that waited adds its wait to the backlog, so the
+        // total wait over the interval is the average backlog
+        long waits = dequeued.getAndSet(0);
+        long wait = waitTime.getAndSet(0);
+        queueDepth = wait / elapsed;
+        delay = (waits > 0) ? wait / waits : 0;
+
+        List<SwitchState> states = new ArrayList<SwitchState>(switches.values());
+        long[] demands = new long[states.size()];
+        long demand = 0;
+        for (int i = 0; i < demands.length; i++) {
+            SwitchState s = states.get(i);
+            s.lastDemand = s.demand.getAndSet(0);
+            for (Bucket port : s.ports.values()) {
+                port.lastDemand = port.demand.getAndSet(0);
+            }
+            demands[i] = s.lastDemand;
+            demand += s.lastDemand;
+        }
+
+        if (delay > targetDelay) {
+            boolean started = !limiting;
+            if (started) {
+                budget = demand;
+                limiting = true;
+            }
+            budget = Math.max(minBudget, (long)(budget * DECREASE));
+            recovery = 0;
+            if (started) {
+                log.warn("Controller overloaded: processing delay {} ms, " +
+                         "shedding packet-ins above {} per interval",
+                         TimeUnit.NANOSECONDS.toMillis(delay), budget);
+            }
+        } else if (limiting) {
+            budget += Math.max(minBudget, (long)(budget * INCREASE));
+            if (budget >= demand && ++recovery >= RECOVERY_INTERVALS) {
+                limiting = false;
+                log.info("Controller no longer overloaded, " +
+                         "admitting all packet-ins");
+            }
+        }
+        if (!limiting)
+            return;
+
+        long share = fairShare(demands, budget);
+        switchShare = share;
+        for (SwitchState s : states) {
+            s.refill(share);
+            List<Bucket> ports = new ArrayList<Bucket>(s.ports.values());
+            long[] portDemands = new long[ports.size()];
+            for (int i = 0; i < portDemands.length; i++) {
+                portDemands[i] = ports.get(i).lastDemand;
+            }
+            long portShare = fairShare(portDemands, share);
+            s.portShare = portShare;
+            for (Bucket port : ports) {
+                port.refill(portShare);
+            }
+        }
+    }
+
+    /**
+     * Get the max-min fair share of a budget
+     * @param demands the demand of each user; sorted by this method
+     * @param budget the budget
+     * @return the largest amount every user may use such that the users
+     * together do not exceed the budget when using what they demand. If
+     * the budget covers all demands the unused part is added to the share.
+     */
+    protected static long fairShare(long[] demands, long budget) {
+        if (demands.length == 0)
+            return Math.max(1, budget);
+        Arrays.sort(demands);
+        long remaining = budget;
+        for (int i = 0; i < demands.length; i++) {
+            long level = remaining / (demands.length - i);
+            if (demands[i] > level)
+                return Math.max(1, level);
+            remaining -= demands[i];
+        }
+        return Math.max(1, demands[demands.length - 1] +
+                           remaining / demands.length);
+    }
+
+    /**
+     * Get the admission class of a packet-in from its raw data
+     * @param dpid the switch that sent the packet-in
+     * @param inPort the ingress port
+     * @param data the packet
+     * @return the admission class
+     */
+    protected AdmissionClass classify(long dpid, short inPort, byte[] data) {
+        if (data == null || data.length < 14)
+            return AdmissionClass.OTHER;
+        int offset = 12;
+        int etherType = getShort(data, offset);
+        if (etherType == 0x8100 && data.length >= 18) {
+            offset += 4;
+            etherType = getShort(data, offset);
+        }
+        offset += 2;
+        switch (etherType) {
+            case 0x88cc:
+            case 0x8942:
+                return AdmissionClass.LLDP;
+            case 0x0806:
+                return AdmissionClass.ARP;
+        }
+
+        // Addresses, VLAN tag and ethertype
+        long key = (dpid * PRIME) ^ inPort;
+        key = (key ^ getBytes(data, 0, 8)) * PRIME;
+        key = (key ^ getBytes(data, 8, offset - 8)) * PRIME;
+        if (etherType == 0x0800 && data.length >= offset + 20) {
+            int headerLength = (data[offset] & 0xf) * 4;
+            int protocol = data[offset + 9] & 0xff;
+            boolean fragment = (getShort(data, offset + 6) & 0x1fff) != 0;
+            key = (key ^ protocol) * PRIME;
+            key = (key ^ getBytes(data, offset + 12, 8)) * PRIME;
+            int l4 = offset + headerLength;
+            if (!fragment && (protocol == 6 || protocol == 17) &&
+                data.length >= l4 + 4) {
+                int srcPort = getShort(data, l4);
+                int dstPort = getShort(data, l4 + 2);
+                if (protocol == 17 &&
+                    (isDhcpPort(srcPort) || isDhcpPort(dstPort)))
+                    return AdmissionClass.DHCP;
+                key = (key ^ getBytes(data, l4, 4)) * PRIME;
+            }
+        }
+        // The first packets only need to be told apart while limiting
+        if (!limiting)
+            return AdmissionClass.OTHER;
+        return flows.update(key) ? AdmissionClass.OTHER
+                                 : AdmissionClass.FIRST_PACKET;
+    }
+
+    private static boolean isDhcpPort(int port) {
+        return port == 67 || port == 68;
+    }
+
+    private static int getShort(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff);
+    }
+
+    private static long getBytes(byte[] data, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            value = (value << 8) | (data[i] & 0xff);
+        }
+        return value;
+    }
+
+    // *************
+    // IInfoProvider
+    // *************
+
+    @Override
+    public Map<String, Object> getInfo(String type) {
+        Map<String, Object> info = new LinkedHashMap<String, Object>();
+        info.put("limiting", limiting);
+        info.put("budget", limiting ? budget : -1);
+        info.put("processing-latency-us",
+                 TimeUnit.NANOSECONDS.toMicros(latency));
+        info.put("queue-depth", queueDepth);
+        info.put("processing-delay-ms", TimeUnit.NANOSECONDS.toMillis(delay));
+        Map<String, Object> sws = new LinkedHashMap<String, Object>();
+        for (Map.Entry<Long, SwitchState> e : switches.entrySet()) {
+            SwitchState s = e.getValue();
+            Map<String, Object> admitted = new LinkedHashMap<String, Object>();
+            Map<String, Object> shed = new LinkedHashMap<String, Object>();
+            for (AdmissionClass c : AdmissionClass.values()) {
+                admitted.put(c.toString(), s.admitted.get(c.ordinal()));
+                shed.put(c.toString(), s.shed.get(c.ordinal()));
+            }
+            Map<String, Object> sw = new LinkedHashMap<String, Object>();
+            sw.put("admitted", admitted);
+            sw.put("shed", shed);
+            sws.put(HexString.toHexString(e.getKey()), sw);
+        }
+        info.put("switches", sws);
+        return info;
+    }
+}
@@ -55,6 +55,7 @@ import java.util.Stack;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -120,6 +121,7 @@ import org.sdnplatform.core.IOFMessageListener;
 import org.sdnplatform.core.IOFSwitch;
 import org.sdnplatform.core.IOFSwitchDriver;
 import org.sdnplatform.core.IOFSwitchFilter;
+import org.sdnplatform.core.PacketInClass;
 import org.sdnplatform.core.IOFSwitchListener;
 import org.sdnplatform.core.OFSwitchBase;
 import org.sdnplatform.core.RoleInfo;
@@ -140,7 +142,6 @@ import org.sdnplatform.storage.IStorageSourceListener;
 import org.sdnplatform.storage.IStorageSourceService;
 import org.sdnplatform.storage.StorageException;
 import org.sdnplatform.threadpool.IThreadPoolService;
-import org.sdnplatform.util.LoadMonitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -160,6 +161,8 @@ public class Controller implements IControllerService,
     protected ConcurrentMap<OFType,
                             ListenerDispatcher<OFType,IOFMessageListener>>
                                 messageListeners;
+    // The packet-in listeners split by packet class
+    protected PacketInDispatcher packetInDispatcher;
     // OFSwitch driver binding map and order
     protected Map<String, IOFSwitchDriver>switchBindingMap;
     protected List<String> switchDescSortedList;
@@ -181,7 +184,7 @@ public class Controller implements IControllerService,
 
     protected Set<IOFSwitchListener> switchListeners;
     protected Set<IHAListener> haListeners;
-    protected Map<String, List<IInfoProvider>> providerMap;
+    protected ConcurrentMap<String, List<IInfoProvider>> providerMap;
     protected BlockingQueue<IUpdate> updates;
 
     // Module dependencies
@@ -237,10 +240,9 @@ public class Controller implements IControllerService,
     public static final int BATCH_MAX_SIZE = 100;
     protected static final boolean ALWAYS_DECODE_ETH = true;
 
-    // Load monitor for overload protection
-    protected final boolean overload_drop =
-        Boolean.parseBoolean(System.getProperty("overload_drop", "false"));
-    protected final LoadMonitor loadmonitor = new LoadMonitor(log);
+    // Admission control of packet-ins for overload protection, null if
+    // disabled
+    protected AdmissionController admissionController;
 
     /**
      *  Updates handled by the main loop
@@ -508,6 +510,9 @@ public class Controller implements IControllerService,
                 }
                 sw.setConnected(false);
             }
+            if (sw != null && admissionController != null) {
+                admissionController.removeSwitch(sw.getId());
+            }
             log.info("Disconnected switch {}", sw);
         }
 
@@ -606,55 +611,31 @@ public class Controller implements IControllerService,
                 @SuppressWarnings("unchecked")
                 List<OFMessage> msglist = (List<OFMessage>)e.getMessage();
 
-                LoadMonitor.LoadLevel loadlevel;
-                int packets_dropped = 0;
-                int packets_allowed = 0;
-                int lldps_allowed = 0;
-
-                if (overload_drop) {
-                    loadlevel = loadmonitor.getLoadLevel();
-                }
-                else {
-                    loadlevel = LoadMonitor.LoadLevel.OK;
+                AdmissionController admission = admissionController;
+                long startTime = 0;
+                long readTime = 0;
+                if (admission != null) {
+                    startTime = System.nanoTime();
+                    readTime = (msglist instanceof DecodedMessageList)
+                            ? ((DecodedMessageList)msglist).getReadTime()
+                            : startTime;
                 }
 
                 for (OFMessage ofm : msglist) {
                     try {
-                        if (overload_drop &&
-                            !loadlevel.equals(LoadMonitor.LoadLevel.OK)) {
-                            switch (ofm.getType()) {
-                            case PACKET_IN:
-                                switch (loadlevel) {
-                                case VERYHIGH:
-                                    // Drop all packet-ins, including LLDP/BDDPs
-                                    packets_dropped++;
-                                    continue;
-                                case HIGH:
-                                    // Drop all packet-ins, except LLDP/BDDPs
-                                    byte[] data = ((OFPacketIn)ofm).getPacketData();
-                                    if (data.length > 14) {
-                                        if (((data[12] == (byte)0x88) &&
-                                             (data[13] == (byte)0xcc)) ||
-                                            ((data[12] == (byte)0x89) &&
-                                             (data[13] == (byte)0x42))) {
-                                            lldps_allowed++;
-                                            packets_allowed++;
-                                            break;
-                                        }
-                                    }
-                                    packets_dropped++;
-                                    continue;
-                                default:
-                                    // Load not high, go ahead and process msg
-                                    packets_allowed++;
-                                    break;
-                                }
-                                break;
-                            default:
-                                // Process all non-packet-ins
-                                packets_allowed++;
-                                break;
-                            }
+                        // A message waits from when it was read until the
+                        // messages before it in the train are processed
+                        if (admission != null) {
+                            admission.messageDequeued(System.nanoTime() -
+                                                      readTime);
+                        }
+
+                        // Shed the packet-ins of the switches and ports
+                        // taking more than their share while overloaded
+                        if (admission != null && sw != null &&
+                            ofm.getType() == OFType.PACKET_IN &&
+                            !admission.admit(sw.getId(), (OFPacketIn)ofm)) {
+                            continue;
                         }
 
                         // Do the actual packet processing
@@ -669,15 +650,9 @@ public class Controller implements IControllerService,
                     }
                 }
 
-                if (loadlevel != LoadMonitor.LoadLevel.OK) {
-                    if (log.isDebugEnabled()) {
-                        log.debug(
-                            "Overload: Detected {}, packets dropped={}",
-                            loadlevel.toString(), packets_dropped);
-                        log.debug(
-                            "Overload: Packets allowed={} (LLDP/BDDPs allowed={})",
-                            packets_allowed, lldps_allowed);
-                    }
+                if (admission != null) {
+                    admission.messagesProcessed(msglist.size(),
+                                                System.nanoTime() - startTime);
                 }
 
                 // Flush all flow-mods/packet-out/stats generated from this "train"
@@ -1132,7 +1107,7 @@ public class Controller implements IControllerService,
      * @param flcontext
      */
     protected void flcontext_free(ListenerContext flcontext) {
-        flcontext.getStorage().clear();
+        flcontext.reset();
         flcontext_cache.get().push(flcontext);
     }
 
@@ -1198,9 +1173,7 @@ public class Controller implements IControllerService,
                         bc = bContext;
                     }
                     if (eth != null) {
-                        IControllerService.bcStore.put(bc,
-                                IControllerService.CONTEXT_PI_PAYLOAD,
-                                eth);
+                        IControllerService.PI_PAYLOAD_KEY.put(bc, eth);
                     }
 
                     // Get the starting time (overall and per-component) of
@@ -1208,6 +1181,12 @@ public class Controller implements IControllerService,
                     // monitoring is turned on
                     pktinProcTime.bootstrap(listeners);
                     pktinProcTime.recordStartTimePktIn();
+                    if (eth != null) {
+                        // only visit the listeners interested in the
+                        // class of this packet
+                        listeners = packetInDispatcher.getListeners(
+                                listeners, PacketInClass.classify(eth));
+                    }
                     Command cmd;
                     for (IOFMessageListener listener : listeners) {
                         if (listener instanceof IOFSwitchFilter) {
@@ -1731,7 +1710,22 @@ public class Controller implements IControllerService,
             this.workerThreads = Integer.parseInt(threads);
         }
         log.debug("Number of worker threads set to {}", this.workerThreads);
-        
+
+        // The overload_drop system property is still honored
+        String admission = configParams.get("admissioncontrol");
+        if (Boolean.parseBoolean(admission) ||
+            Boolean.getBoolean("overload_drop")) {
+            int targetDelay = AdmissionController.DEFAULT_TARGET_DELAY;
+            String delay = configParams.get("admissiontargetdelay");
+            if (delay != null) {
+                targetDelay = Integer.parseInt(delay);
+            }
+            this.admissionController = new AdmissionController(
+                    AdmissionController.DEFAULT_INTERVAL, targetDelay,
+                    AdmissionController.DEFAULT_MIN_BUDGET);
+            log.info("Packet-in admission control enabled, target delay " +
+                     "{} ms", targetDelay);
+        }
     }
 
     private void initVendorMessages() {
@@ -1760,8 +1754,14 @@ public class Controller implements IControllerService,
         this.controllerNodeIPsCache = new HashMap<String, String>();
         this.updates = new LinkedBlockingQueue<IUpdate>();
         this.factory = new BasicFactory();
-        this.providerMap = new HashMap<String, List<IInfoProvider>>();
+        this.providerMap =
+                new ConcurrentHashMap<String, List<IInfoProvider>>();
+        this.packetInDispatcher = new PacketInDispatcher();
+        addInfoProvider("packetin", packetInDispatcher);
         setConfigParams(configParams);
+        if (admissionController != null) {
+            addInfoProvider("admission", admissionController);
+        }
         this.role = getInitialRole(configParams);
         this.notifiedRole = this.role;
         this.roleChanger = new RoleChanger(this);
@@ -1795,10 +1795,9 @@ public class Controller implements IControllerService,
                                              CONTROLLER_ID);
         storageSource.addListener(CONTROLLER_INTERFACE_TABLE_NAME, this);
 
-        // Startup load monitoring
-        if (overload_drop) {
-            this.loadmonitor.startMonitoring(
-                this.threadPool.getScheduledExecutor());
+        // Startup admission control
+        if (admissionController != null) {
+            admissionController.startUp(threadPool.getScheduledExecutor());
         }
 
         // Add our REST API
@@ -1816,28 +1815,36 @@ public class Controller implements IControllerService,
 
     @Override
     public void addInfoProvider(String type, IInfoProvider provider) {
-        if (!providerMap.containsKey(type)) {
-            providerMap.put(type, new ArrayList<IInfoProvider>());
+        List<IInfoProvider> providers = providerMap.get(type);
+        if (providers == null) {
+            // modules may register concurrently during startup
+            List<IInfoProvider> newProviders =
+                    new CopyOnWriteArrayList<IInfoProvider>();
+            providers = providerMap.putIfAbsent(type, newProviders);
+            if (providers == null)
+                providers = newProviders;
         }
-        providerMap.get(type).add(provider);
+        providers.add(provider);
     }
 
     @Override
     public void removeInfoProvider(String type, IInfoProvider provider) {
-        if (!providerMap.containsKey(type)) {
+        List<IInfoProvider> providers = providerMap.get(type);
+        if (providers == null) {
             log.debug("Provider type {} doesn't exist.", type);
             return;
         }
 
-        providerMap.get(type).remove(provider);
+        providers.remove(provider);
     }
 
     @Override
     public Map<String, Object> getControllerInfo(String type) {
-        if (!providerMap.containsKey(type)) return null;
+        List<IInfoProvider> providers = providerMap.get(type);
+        if (providers == null) return null;
 
         Map<String, Object> result = new LinkedHashMap<String, Object>();
-        for (IInfoProvider provider : providerMap.get(type)) {
+        for (IInfoProvider provider : providers) {
             result.putAll(provider.getInfo(type));
         }
 
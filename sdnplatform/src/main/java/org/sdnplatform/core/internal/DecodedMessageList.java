@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.core.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openflow.protocol.OFMessage;
+
+/**
+ * The messages decoded from one read of a switch connection, with the
+ * time they were read. Lets the channel handler tell how long the
+ * messages waited before they were processed.
+ */
+public class DecodedMessageList extends ArrayList<OFMessage> {
+    private static final long serialVersionUID = 1L;
+
+    protected final long readTime;
+
+    /**
+     * @param messages the decoded messages
+     * @param readTime the {@link System#nanoTime()} when they were read
+     */
+    public DecodedMessageList(List<OFMessage> messages, long readTime) {
+        super(messages);
+        this.readTime = readTime;
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} when the messages were read
+     */
+    public long getReadTime() {
+        return readTime;
+    }
+}
@@ -61,8 +61,13 @@ public class OFMessageDecoder extends FrameDecoder {
             return null;
         }
 
+        // Stamp the messages so the time they wait to be processed,
+        // including in a pipeline executor, can be measured
+        long readTime = System.nanoTime();
         List<OFMessage> message = factory.parseMessage(buffer);
-        return message;
+        if (message == null)
+            return null;
+        return new DecodedMessageList(message, readTime);
     }
 
     @Override
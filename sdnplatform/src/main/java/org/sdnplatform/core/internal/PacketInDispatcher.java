@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.core.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.sdnplatform.core.IInfoProvider;
+import org.sdnplatform.core.IOFMessageListener;
+import org.sdnplatform.core.IPacketInFilter;
+import org.sdnplatform.core.PacketInClass;
+
+/**
+ * Keeps the ordered packet-in listeners split by {@link PacketInClass}.
+ * The per class lists are derived from the ordered list of the
+ * ListenerDispatcher, so they keep the prereq/postreq ordering. They are
+ * rebuilt whenever the ListenerDispatcher publishes a new list.
+ */
+public class PacketInDispatcher implements IInfoProvider {
+    protected static class Index {
+        final List<IOFMessageListener> listeners;
+        final List<List<IOFMessageListener>> byClass;
+
+        Index(List<IOFMessageListener> listeners) {
+            this.listeners = listeners;
+            PacketInClass[] classes = PacketInClass.values();
+            byClass = new ArrayList<List<IOFMessageListener>>(classes.length);
+            for (PacketInClass pc : classes) {
+                List<IOFMessageListener> l =
+                        new ArrayList<IOFMessageListener>(listeners.size());
+                for (IOFMessageListener listener : listeners) {
+                    if (!(listener instanceof IPacketInFilter) ||
+                        ((IPacketInFilter)listener).isInterested(pc))
+                        l.add(listener);
+                }
+                byClass.add(Collections.unmodifiableList(l));
+            }
+        }
+    }
+
+    protected volatile Index index;
+    // number of packet-ins dispatched per class
+    protected final AtomicLongArray dispatched =
+            new AtomicLongArray(PacketInClass.count());
+    // number of listener calls saved per class
+    protected final AtomicLongArray skipped =
+            new AtomicLongArray(PacketInClass.count());
+
+    /**
+     * Get the listeners for a packet-in of the given class
+     * @param listeners the ordered packet-in listeners
+     * @param packetClass the class of the packet-in
+     * @return the ordered listeners interested in the packet-in
+     */
+    public List<IOFMessageListener>
+            getListeners(List<IOFMessageListener> listeners,
+                         PacketInClass packetClass) {
+        Index i = index;
+        if (i == null || i.listeners != listeners) {
+            i = new Index(listeners);
+            index = i;
+        }
+        List<IOFMessageListener> result = i.byClass.get(packetClass.getIndex());
+        dispatched.incrementAndGet(packetClass.getIndex());
+        int saved = listeners.size() - result.size();
+        if (saved > 0)
+            skipped.addAndGet(packetClass.getIndex(), saved);
+        return result;
+    }
+
+    /**
+     * @param packetClass a packet-in class
+     * @return the number of packet-ins of this class dispatched so far
+     */
+    public long getDispatchCount(PacketInClass packetClass) {
+        return dispatched.get(packetClass.getIndex());
+    }
+
+    /**
+     * @param packetClass a packet-in class
+     * @return the number of listener calls skipped for packet-ins of this
+     * class because the listeners were not interested
+     */
+    public long getSkipCount(PacketInClass packetClass) {
+        return skipped.get(packetClass.getIndex());
+    }
+
+    // *************
+    // IInfoProvider
+    // *************
+
+    @Override
+    public Map<String, Object> getInfo(String type) {
+        Map<String, Object> info = new LinkedHashMap<String, Object>();
+        for (PacketInClass pc : PacketInClass.values()) {
+            long count = getDispatchCount(pc);
+            if (count == 0) continue;
+            Map<String, Object> c = new LinkedHashMap<String, Object>();
+            c.put("dispatched", count);
+            c.put("skipped-listeners", getSkipCount(pc));
+            info.put(pc.toString(), c);
+        }
+        return info;
+    }
+}
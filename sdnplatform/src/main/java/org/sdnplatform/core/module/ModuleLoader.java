@@ -60,11 +60,18 @@ public class ModuleLoader {
     protected static Object lock = new Object();
     
     protected ModuleContext moduleContext;
+    protected ModuleStartupScheduler scheduler;
     
     public static final String COMPILED_CONF_FILE = 
             "sdnplatformdefault.properties";
     public static final String SDNPLATFORM_MODULES_KEY =
             "sdnplatform.modules";
+    /**
+     * The number of modules to initialize and start concurrently; 1, the
+     * default, runs them sequentially in load order
+     */
+    public static final String SDNPLATFORM_MODULES_THREADS_KEY =
+            "sdnplatform.modules.threads";
     
     public ModuleLoader() {
         moduleContext = new ModuleContext();
@@ -316,6 +323,8 @@ public class ModuleLoader {
         
         moduleContext.setModuleSet(moduleSet);
         parseConfigParameters(prop);
+        scheduler = new ModuleStartupScheduler(moduleSet, moduleServiceMap,
+                                               getStartupThreads(prop));
         initModules(moduleSet);
         startupModules(moduleSet);
         
@@ -355,6 +364,62 @@ public class ModuleLoader {
         }
     }
 
+    /**
+     * Get the number of modules to run concurrently from the configuration
+     * or the system property
+     * @param prop The properties file to use
+     * @return the number of threads, at least 1
+     */
+    @LogMessageDocs({
+        @LogMessageDoc(level="WARN",
+                       message="Invalid number of module threads {value}; " +
+                               "running modules sequentially",
+                       explanation="The configured number of module " +
+                            "startup threads is not a number",
+                       recommendation="Correct the " +
+                            SDNPLATFORM_MODULES_THREADS_KEY +
+                            " configuration parameter"),
+        @LogMessageDoc(level="WARN",
+                       message="Running up to {threads} modules " +
+                               "concurrently; this is experimental",
+                       explanation="Modules are initialized and started " +
+                            "in parallel. Not every module's registration " +
+                            "methods are thread-safe, so listener order " +
+                            "may differ between runs or registrations " +
+                            "may be lost",
+                       recommendation="Remove the " +
+                            SDNPLATFORM_MODULES_THREADS_KEY +
+                            " configuration parameter if the controller " +
+                            "does not start up correctly")
+    })
+    protected int getStartupThreads(Properties prop) {
+        String value = System.getProperty(SDNPLATFORM_MODULES_THREADS_KEY);
+        if (value == null && prop != null)
+            value = prop.getProperty(SDNPLATFORM_MODULES_THREADS_KEY);
+        if (value == null)
+            return 1;
+        int threads;
+        try {
+            threads = Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid number of module threads {}; " +
+                        "running modules sequentially", value);
+            return 1;
+        }
+        if (threads > 1) {
+            logger.warn("Running up to {} modules concurrently; " +
+                        "this is experimental", threads);
+        }
+        return threads;
+    }
+
+    /**
+     * @return the scheduler that ran the modules' init and startUp
+     */
+    public ModuleStartupScheduler getStartupScheduler() {
+        return scheduler;
+    }
+
     /**
      * Allocate  service implementations and then init all the modules
      * @param moduleSet The set of modules to call their init function on
@@ -379,14 +444,7 @@ public class ModuleLoader {
             }
         }
         
-        for (IModule module : moduleSet) {
-            // init the module
-            if (logger.isDebugEnabled()) {
-                logger.debug("Initializing " + 
-                             module.getClass().getCanonicalName());
-            }
-            module.init(moduleContext);
-        }
+        scheduler.initModules(moduleContext);
     }
     
     /**
@@ -394,12 +452,7 @@ public class ModuleLoader {
      * @param moduleSet the module set to start up
      */
     protected void startupModules(Collection<IModule> moduleSet) {
-        for (IModule m : moduleSet) {
-            if (logger.isDebugEnabled()) {
-                logger.debug("Starting " + m.getClass().getCanonicalName());
-            }
-            m.startUp(moduleContext);
-        }
+        scheduler.startupModules(moduleContext);
     }
     
     /**
@@ -417,8 +470,9 @@ public class ModuleLoader {
         Enumeration<?> e = prop.propertyNames();
         while (e.hasMoreElements()) {
             String key = (String) e.nextElement();
-            // Ignore module list key
-            if (key.equals(SDNPLATFORM_MODULES_KEY)) {
+            // Ignore module list and module loader keys
+            if (key.equals(SDNPLATFORM_MODULES_KEY) ||
+                key.equals(SDNPLATFORM_MODULES_THREADS_KEY)) {
                 continue;
             }
             
@@ -0,0 +1,440 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.core.module;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sdnplatform.core.annotations.LogMessageDoc;
+import org.sdnplatform.core.annotations.LogMessageDocs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the init and startUp methods of the loaded modules, and records
+ * how long each call took.
+ *
+ * With a single thread the modules are run one after the other in load
+ * order. With more threads, the modules are ordered by the dependency
+ * graph built from {@link IModule#getModuleDependencies()}: a module is
+ * run once all the modules providing its dependencies have been run, and
+ * modules that do not depend on each other run concurrently on a bounded
+ * pool. Modules that depend on each other through a cycle are run
+ * together, one after the other in load order. As before, every module is
+ * initialized before any module is started.
+ *
+ * Running modules concurrently requires that the registration methods
+ * they call on each other's services, such as adding listeners, are
+ * thread-safe.
+ */
+public class ModuleStartupScheduler {
+    protected static Logger logger =
+            LoggerFactory.getLogger(ModuleStartupScheduler.class);
+
+    protected enum Phase {
+        INIT("init"), STARTUP("startUp");
+
+        private final String name;
+
+        private Phase(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * The modules in load order
+     */
+    protected final List<IModule> modules;
+    protected final int threads;
+
+    /**
+     * The strongly connected components of the dependency graph. Each
+     * unit is a list of modules in load order.
+     */
+    protected final List<List<IModule>> units;
+    /**
+     * The units each unit depends on, by index in units
+     */
+    protected final List<Set<Integer>> unitDependencies;
+    /**
+     * The units with more than one module
+     */
+    protected final List<List<IModule>> cycles;
+
+    protected final Map<IModule, Long> initTimes =
+            new ConcurrentHashMap<IModule, Long>();
+    protected final Map<IModule, Long> startupTimes =
+            new ConcurrentHashMap<IModule, Long>();
+
+    /**
+     * @param moduleSet the modules to run in load order
+     * @param moduleServiceMap the services provided by each module
+     * @param threads the maximum number of modules to run concurrently;
+     * 1 runs the modules sequentially in load order
+     */
+    public ModuleStartupScheduler(Collection<IModule> moduleSet,
+                                  Map<IModule, Collection<Class<? extends
+                                          IPlatformService>>> moduleServiceMap,
+                                  int threads) {
+        this.modules = new ArrayList<IModule>(moduleSet);
+        this.threads = Math.max(1, threads);
+
+        Map<Class<? extends IPlatformService>, IModule> providers =
+                new HashMap<Class<? extends IPlatformService>, IModule>();
+        for (IModule m : modules) {
+            Collection<Class<? extends IPlatformService>> servs =
+                    moduleServiceMap.get(m);
+            if (servs == null) continue;
+            for (Class<? extends IPlatformService> s : servs) {
+                providers.put(s, m);
+            }
+        }
+        Map<IModule, List<IModule>> graph =
+                new LinkedHashMap<IModule, List<IModule>>();
+        for (IModule m : modules) {
+            List<IModule> deps = new ArrayList<IModule>();
+            Collection<Class<? extends IPlatformService>> depServs =
+                    m.getModuleDependencies();
+            if (depServs != null) {
+                for (Class<? extends IPlatformService> s : depServs) {
+                    // services of ignored modules are not in the graph
+                    IModule dep = providers.get(s);
+                    if (dep != null && dep != m && !deps.contains(dep))
+                        deps.add(dep);
+                }
+            }
+            graph.put(m, deps);
+        }
+
+        units = new ComponentFinder(graph).find();
+        Map<IModule, Integer> unitOf = new HashMap<IModule, Integer>();
+        for (int u = 0; u < units.size(); u++) {
+            for (IModule m : units.get(u)) {
+                unitOf.put(m, u);
+            }
+        }
+        unitDependencies = new ArrayList<Set<Integer>>(units.size());
+        cycles = new ArrayList<List<IModule>>();
+        for (int u = 0; u < units.size(); u++) {
+            Set<Integer> deps = new HashSet<Integer>();
+            for (IModule m : units.get(u)) {
+                for (IModule dep : graph.get(m)) {
+                    int d = unitOf.get(dep);
+                    if (d != u) deps.add(d);
+                }
+            }
+            unitDependencies.add(deps);
+            if (units.get(u).size() > 1)
+                cycles.add(units.get(u));
+        }
+    }
+
+    /**
+     * Finds the strongly connected components of the module dependency
+     * graph with Tarjan's algorithm, and orders the modules of each
+     * component by load order.
+     */
+    protected class ComponentFinder {
+        private final Map<IModule, List<IModule>> graph;
+        private final Map<IModule, Integer> index =
+                new HashMap<IModule, Integer>();
+        private final Map<IModule, Integer> lowLink =
+                new HashMap<IModule, Integer>();
+        private final List<IModule> stack = new ArrayList<IModule>();
+        private final Set<IModule> onStack = new HashSet<IModule>();
+        private final List<List<IModule>> components =
+                new ArrayList<List<IModule>>();
+
+        ComponentFinder(Map<IModule, List<IModule>> graph) {
+            this.graph = graph;
+        }
+
+        List<List<IModule>> find() {
+            for (IModule m : graph.keySet()) {
+                if (!index.containsKey(m))
+                    visit(m);
+            }
+            final Map<IModule, Integer> order = new HashMap<IModule, Integer>();
+            for (IModule m : modules) {
+                order.put(m, order.size());
+            }
+            Comparator<IModule> loadOrder = new Comparator<IModule>() {
+                @Override
+                public int compare(IModule a, IModule b) {
+                    return order.get(a) - order.get(b);
+                }
+            };
+            for (List<IModule> c : components) {
+                Collections.sort(c, loadOrder);
+            }
+            return components;
+        }
+
+        private void visit(IModule m) {
+            int i = index.size();
+            index.put(m, i);
+            lowLink.put(m, i);
+            stack.add(m);
+            onStack.add(m);
+            for (IModule dep : graph.get(m)) {
+                if (!index.containsKey(dep)) {
+                    visit(dep);
+                    lowLink.put(m, Math.min(lowLink.get(m), lowLink.get(dep)));
+                } else if (onStack.contains(dep)) {
+                    lowLink.put(m, Math.min(lowLink.get(m), index.get(dep)));
+                }
+            }
+            if (lowLink.get(m) == i) {
+                List<IModule> component = new ArrayList<IModule>();
+                IModule c;
+                do {
+                    c = stack.remove(stack.size() - 1);
+                    onStack.remove(c);
+                    component.add(c);
+                } while (c != m);
+                components.add(component);
+            }
+        }
+    }
+
+    /**
+     * @return the groups of modules that depend on each other through a
+     * cycle, each in load order
+     */
+    public List<List<IModule>> getCycles() {
+        return cycles;
+    }
+
+    /**
+     * @return the time each module's init took in milliseconds
+     */
+    public Map<IModule, Long> getInitTimes() {
+        return Collections.unmodifiableMap(initTimes);
+    }
+
+    /**
+     * @return the time each module's startUp took in milliseconds
+     */
+    public Map<IModule, Long> getStartupTimes() {
+        return Collections.unmodifiableMap(startupTimes);
+    }
+
+    /**
+     * Call init on all the modules
+     * @param context the module context
+     * @throws ModuleException the exception of the first module that
+     * failed; no further modules are initialized
+     */
+    public void initModules(ModuleContext context) throws ModuleException {
+        run(Phase.INIT, context);
+    }
+
+    /**
+     * Call startUp on all the modules
+     * @param context the module context
+     */
+    public void startupModules(ModuleContext context) {
+        run(Phase.STARTUP, context);
+    }
+
+    @LogMessageDocs({
+        @LogMessageDoc(level="INFO",
+                message="Modules {modules} depend on each other and are " +
+                        "run in load order",
+                explanation="The modules have circular dependencies, so " +
+                        "they are initialized and started one after the " +
+                        "other rather than concurrently"),
+        @LogMessageDoc(level="INFO",
+                message="Module {phase} took {time} ms: {module times}",
+                explanation="The time the controller took to initialize or " +
+                        "start its modules, and the time of each module " +
+                        "with the slowest first")
+    })
+    protected void run(Phase phase, ModuleContext context) {
+        long start = System.nanoTime();
+        if (threads == 1) {
+            for (IModule m : modules) {
+                runModule(phase, m, context);
+            }
+        } else {
+            if (phase == Phase.INIT) {
+                for (List<IModule> cycle : cycles) {
+                    logger.info("Modules {} depend on each other and are " +
+                                "run in load order", names(cycle));
+                }
+            }
+            runParallel(phase, context);
+        }
+        long elapsed = (System.nanoTime() - start) / 1000000;
+
+        final Map<IModule, Long> times =
+                (phase == Phase.INIT) ? initTimes : startupTimes;
+        List<IModule> slowest = new ArrayList<IModule>(times.keySet());
+        Collections.sort(slowest, new Comparator<IModule>() {
+            @Override
+            public int compare(IModule a, IModule b) {
+                return times.get(b).compareTo(times.get(a));
+            }
+        });
+        StringBuilder sb = new StringBuilder();
+        for (IModule m : slowest) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(m.getClass().getSimpleName()).append(' ')
+              .append(times.get(m));
+        }
+        logger.info("Module {} took {} ms: {}",
+                    new Object[] { phase, elapsed, sb });
+    }
+
+    protected void runModule(Phase phase, IModule m, ModuleContext context) {
+        if (logger.isDebugEnabled()) {
+            logger.debug((phase == Phase.INIT ? "Initializing " : "Starting ")
+                         + m.getClass().getCanonicalName());
+        }
+        long start = System.nanoTime();
+        if (phase == Phase.INIT)
+            m.init(context);
+        else
+            m.startUp(context);
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        if (phase == Phase.INIT)
+            initTimes.put(m, elapsed);
+        else
+            startupTimes.put(m, elapsed);
+    }
+
+    protected void runParallel(final Phase phase, final ModuleContext context) {
+        int count = units.size();
+        // the number of dependencies each unit still waits for
+        int[] waiting = new int[count];
+        List<List<Integer>> dependents = new ArrayList<List<Integer>>(count);
+        for (int u = 0; u < count; u++) {
+            dependents.add(new ArrayList<Integer>());
+        }
+        for (int u = 0; u < count; u++) {
+            waiting[u] = unitDependencies.get(u).size();
+            for (int d : unitDependencies.get(u)) {
+                dependents.get(d).add(u);
+            }
+        }
+
+        ExecutorService pool =
+                Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger number = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Module Startup-" +
+                                         number.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        ExecutorCompletionService<Integer> completion =
+                new ExecutorCompletionService<Integer>(pool);
+        int running = 0;
+        int done = 0;
+        Throwable failure = null;
+        try {
+            for (int u = 0; u < count; u++) {
+                if (waiting[u] == 0) {
+                    submit(completion, phase, u, context);
+                    running++;
+                }
+            }
+            while (running > 0) {
+                int u;
+                try {
+                    u = completion.take().get();
+                } catch (ExecutionException e) {
+                    // let the running modules finish, but start no more
+                    running--;
+                    if (failure == null)
+                        failure = e.getCause();
+                    continue;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ModuleException("Interrupted while running " +
+                                              "module " + phase);
+                }
+                running--;
+                done++;
+                if (failure != null) continue;
+                for (int d : dependents.get(u)) {
+                    if (--waiting[d] == 0) {
+                        submit(completion, phase, d, context);
+                        running++;
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        if (failure instanceof RuntimeException)
+            throw (RuntimeException) failure;
+        if (failure instanceof Error)
+            throw (Error) failure;
+        if (failure != null || done != count) {
+            throw new ModuleException("Failed to run module " + phase +
+                                      ": " + failure);
+        }
+    }
+
+    private void submit(ExecutorCompletionService<Integer> completion,
+                        final Phase phase, final int unit,
+                        final ModuleContext context) {
+        completion.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                for (IModule m : units.get(unit)) {
+                    runModule(phase, m, context);
+                }
+                return unit;
+            }
+        });
+    }
+
+    private static List<String> names(List<IModule> modules) {
+        List<String> names = new ArrayList<String>(modules.size());
+        for (IModule m : modules) {
+            names.add(m.getClass().getSimpleName());
+        }
+        return names;
+    }
+}
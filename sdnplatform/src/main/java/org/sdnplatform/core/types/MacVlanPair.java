@@ -49,6 +49,18 @@ public class MacVlanPair {
         return vlan.shortValue();
     }
     
+    /**
+     * Pack a MAC address and VLAN into a long, the VLAN in the upper 16 bits
+     */
+    public static long toLong(long mac, short vlan) {
+        return ((vlan & 0xffffL) << 48) | (mac & 0xffffffffffffL);
+    }
+    
+    public static MacVlanPair fromLong(long macVlan) {
+        return new MacVlanPair(macVlan & 0xffffffffffffL,
+                               (short) (macVlan >>> 48));
+    }
+    
     public boolean equals(Object o) {
         return (o instanceof MacVlanPair) && (mac.equals(((MacVlanPair) o).mac))
             && (vlan.equals(((MacVlanPair) o).vlan));
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.core.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.sdnplatform.core.annotations.LogMessageDoc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes Ethernet frames to a set of rotating pcap files. Each file is
+ * memory mapped at its full size when it is opened, so writing a frame is
+ * a copy into the mapping. When a file is full the writer moves on to the
+ * next one; after maxFiles files it starts over and overwrites the oldest.
+ * Files are named &lt;prefix&gt;-&lt;n&gt;.pcap.
+ *
+ * A PcapWriter is not thread safe.
+ */
+public class PcapWriter {
+    protected static Logger logger = LoggerFactory.getLogger(PcapWriter.class);
+
+    protected static final int PCAP_MAGIC = 0xa1b2c3d4;
+    protected static final short PCAP_VERSION_MAJOR = 2;
+    protected static final short PCAP_VERSION_MINOR = 4;
+    protected static final int LINKTYPE_ETHERNET = 1;
+    protected static final int SNAPLEN = 65535;
+    protected static final int FILE_HEADER_LENGTH = 24;
+    protected static final int RECORD_HEADER_LENGTH = 16;
+
+    protected final File directory;
+    protected final String prefix;
+    protected final int fileSize;
+    protected final int maxFiles;
+
+    protected int fileIndex = -1;
+    protected RandomAccessFile file;
+    protected MappedByteBuffer buffer;
+
+    /**
+     * @param directory the directory for the pcap files
+     * @param prefix the file name prefix
+     * @param fileSize the size of each file in bytes
+     * @param maxFiles the number of files to rotate through
+     */
+    public PcapWriter(File directory, String prefix,
+                      int fileSize, int maxFiles) {
+        if (fileSize < FILE_HEADER_LENGTH + RECORD_HEADER_LENGTH)
+            throw new IllegalArgumentException("File size too small: " +
+                                               fileSize);
+        if (maxFiles < 1)
+            throw new IllegalArgumentException("Invalid number of files: " +
+                                               maxFiles);
+        this.directory = directory;
+        this.prefix = prefix;
+        this.fileSize = fileSize;
+        this.maxFiles = maxFiles;
+    }
+
+    /**
+     * @return the file with the given index
+     */
+    public File getFile(int index) {
+        return new File(directory, prefix + "-" + index + ".pcap");
+    }
+
+    /**
+     * Append a frame to the current file, rotating to the next file if it
+     * does not fit. Frames longer than the space of an empty file are
+     * truncated.
+     * @param timestamp the capture time in milliseconds since the epoch
+     * @param data the frame
+     */
+    public void write(long timestamp, byte[] data) throws IOException {
+        int maxLength = fileSize - FILE_HEADER_LENGTH - RECORD_HEADER_LENGTH;
+        int length = Math.min(data.length, Math.min(SNAPLEN, maxLength));
+        if (buffer == null ||
+            buffer.remaining() < RECORD_HEADER_LENGTH + length) {
+            rotate();
+        }
+        buffer.putInt((int)(timestamp / 1000));
+        buffer.putInt((int)(timestamp % 1000) * 1000);
+        buffer.putInt(length);
+        buffer.putInt(data.length);
+        buffer.put(data, 0, length);
+    }
+
+    protected void rotate() throws IOException {
+        close();
+        fileIndex = (fileIndex + 1) % maxFiles;
+        File f = getFile(fileIndex);
+        file = new RandomAccessFile(f, "rw");
+        file.setLength(0);
+        buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                                       0, fileSize);
+        buffer.order(ByteOrder.nativeOrder());
+        buffer.putInt(PCAP_MAGIC);
+        buffer.putShort(PCAP_VERSION_MAJOR);
+        buffer.putShort(PCAP_VERSION_MINOR);
+        buffer.putInt(0);       // GMT offset
+        buffer.putInt(0);       // timestamp accuracy
+        buffer.putInt(SNAPLEN);
+        buffer.putInt(LINKTYPE_ETHERNET);
+    }
+
+    /**
+     * Flush and close the current file, trimming it to the data written.
+     * The mapping is released first since a file can't be truncated
+     * while it is mapped on every platform; if that isn't possible the
+     * file keeps its full size.
+     */
+    @LogMessageDoc(level="WARN",
+                   message="Failed to close pcap file {file}",
+                   explanation="The packet capture file could not be " +
+                           "written completely.",
+                   recommendation=LogMessageDoc.CHECK_CONTROLLER)
+    public void close() {
+        if (file == null) return;
+        try {
+            int length = buffer.position();
+            buffer.force();
+            if (unmap(buffer)) {
+                buffer = null;
+                file.getChannel().truncate(length);
+            } else {
+                logger.debug("Could not unmap pcap file {}, not " +
+                             "truncating it", getFile(fileIndex));
+            }
+            file.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close pcap file {}",
+                        getFile(fileIndex), e);
+        }
+        file = null;
+        buffer = null;
+    }
+
+    /**
+     * Release a mapping now instead of when the buffer is garbage
+     * collected. The buffer must not be used afterwards.
+     * @return true if the mapping was released
+     */
+    protected static boolean unmap(MappedByteBuffer buffer) {
+        try {
+            // Java 9 and later
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner =
+                    unsafeClass.getMethod("invokeCleaner",
+                                          ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return true;
+        } catch (Exception e) {
+            // fall through
+        }
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner == null) return false;
+            Method clean = cleaner.getClass().getMethod("clean");
+            clean.setAccessible(true);
+            clean.invoke(cleaner);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.core.util;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free ring buffer for many producers and a single
+ * consumer. Producers never block: when the ring is full the element is
+ * rejected and counted as dropped, so the ring can be filled from latency
+ * sensitive code such as the OpenFlow message listeners.
+ *
+ * Every slot carries a sequence number that tells producers and the
+ * consumer whose turn it is to use the slot, so a producer only needs a
+ * single CAS to claim a slot and no slot is ever read before it is
+ * completely written.
+ */
+public class RingBuffer<T> {
+    protected final int capacity;
+    protected final int mask;
+    protected final AtomicReferenceArray<T> slots;
+    protected final AtomicLongArray sequences;
+    protected final AtomicLong tail = new AtomicLong();
+    protected final AtomicLong dropped = new AtomicLong();
+    // only touched by the consumer
+    protected volatile long head = 0;
+
+    /**
+     * @param minCapacity the minimum number of elements in the ring. The
+     * capacity is rounded up to a power of two.
+     */
+    public RingBuffer(int minCapacity) {
+        if (minCapacity < 1 || minCapacity > (1 << 30))
+            throw new IllegalArgumentException("Invalid capacity " +
+                                               minCapacity);
+        int c = Integer.highestOneBit(minCapacity);
+        if (c < minCapacity) c <<= 1;
+        capacity = c;
+        mask = c - 1;
+        slots = new AtomicReferenceArray<T>(c);
+        sequences = new AtomicLongArray(c);
+        for (int i = 0; i < c; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Add an element to the ring. May be called from any thread.
+     * @return false if the ring is full and the element was dropped
+     */
+    public boolean offer(T element) {
+        if (element == null)
+            throw new NullPointerException();
+        while (true) {
+            long pos = tail.get();
+            int i = (int)pos & mask;
+            long diff = sequences.get(i) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots.set(i, element);
+                    // publish the slot to the consumer
+                    sequences.set(i, pos + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                // the consumer has not freed this slot yet
+                dropped.incrementAndGet();
+                return false;
+            }
+            // another producer claimed the slot, retry
+        }
+    }
+
+    /**
+     * Remove the oldest element. Must only be called by the consumer.
+     * @return the element or null if the ring is empty
+     */
+    public T poll() {
+        long pos = head;
+        int i = (int)pos & mask;
+        if (sequences.get(i) != pos + 1)
+            return null;
+        T element = slots.get(i);
+        slots.set(i, null);
+        head = pos + 1;
+        // hand the slot back to the producers for the next lap
+        sequences.set(i, pos + capacity);
+        return element;
+    }
+
+    /**
+     * Move up to max elements to the given collection. Must only be called
+     * by the consumer.
+     * @return the number of elements moved
+     */
+    public int drainTo(Collection<? super T> c, int max) {
+        int n = 0;
+        T element;
+        while (n < max && (element = poll()) != null) {
+            c.add(element);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * @return an estimate of the number of elements in the ring
+     */
+    public int size() {
+        long s = tail.get() - head;
+        if (s < 0) return 0;
+        return (int)Math.min(s, capacity);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of elements rejected because the ring was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+}
@@ -64,6 +64,8 @@ public class CoreWebRoutable implements RestletRoutable {
         router.attach("/counter/categories/{switchId}/{counterName}/{layer}/json", SwitchCounterCategoriesResource.class);
         router.attach("/memory/json", ControllerMemoryResource.class);
         router.attach("/packettrace/json", PacketTraceResource.class);
+        router.attach("/packetin/dispatch/json", PacketInDispatchResource.class);
+        router.attach("/packetin/admission/json", PacketInAdmissionResource.class);
         // Get the last {count} events from the event histories
         router.attach("/event-history/topology-switch/{count}/json",
                 EventHistoryTopologySwitchResource.class);
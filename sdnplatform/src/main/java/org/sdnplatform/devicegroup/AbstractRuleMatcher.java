@@ -16,8 +16,6 @@
 
 package org.sdnplatform.devicegroup;
 
-import java.util.Set;
-
 import org.sdnplatform.devicemanager.IDevice;
 
 
@@ -41,12 +39,15 @@ public abstract class AbstractRuleMatcher<T extends IDeviceGroup> {
     public abstract String getName();
     
     /**
-     * Match against the device and return candidate matches.
+     * Match against the device and return the rules whose field for
+     * this matcher matches the device.
      * Must be called with a config read lock held.
      * @param d The device to match against
-     * @return a set of candidate rule matches
+     * @param rules The compiled rules to match against
+     * @return a bitmap of matching rule ids (@see CompiledRuleSet) or 
+     * null if there are none. The bitmap must not be modified.
      */
-    public abstract Set<MembershipRule<T>> match(IDevice d);
+    public abstract long[] match(IDevice d, CompiledRuleSet<T> rules);
     
     /**
      * Check the given interface rule to find out whether it
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.devicegroup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openflow.util.HexString;
+import org.sdnplatform.tagmanager.Tag;
+import org.sdnplatform.util.IPV4Subnet;
+import org.sdnplatform.util.IPV4SubnetTrie;
+
+/**
+ * An immutable, indexed form of a set of membership rules. Every rule gets
+ * a dense id that is its rank in priority order, so a set of rules can be
+ * represented as a bitmap (a long[] with one bit per rule id) and walking
+ * the set bits in ascending order visits the rules highest priority first.
+ * For each rule field there is an index from the field value to the bitmap
+ * of rules that match on it.
+ */
+public class CompiledRuleSet<T extends IDeviceGroup> {
+    /**
+     * The rules, indexed by rule id (i.e., in priority order)
+     */
+    protected final List<MembershipRule<T>> rules;
+
+    /**
+     * Number of longs in a bitmap
+     */
+    protected final int words;
+
+    /**
+     * Bitmap of rules that have at least one field
+     */
+    protected final long[] hasAnyField;
+
+    /**
+     * For each rule matcher (in the order of the matcher list passed to the
+     * constructor) the bitmap of rules that have the matcher's field or
+     * null if no rule has it.
+     */
+    protected final long[][] hasField;
+
+    protected final Map<Long, long[]> macIndex;
+    protected final IPV4SubnetTrie<long[]> ipSubnetIndex;
+    protected final Map<Long, long[]> switchIndex;
+    protected final Map<String, long[]> switchPortIndex;
+    protected final long[][] vlanIndex;
+    protected final Map<Tag, long[]> tagIndex;
+
+    /**
+     * The tags of each rule, indexed by rule id. null for rules that do
+     * not match on tags
+     */
+    protected final Tag[][] ruleTags;
+
+    /**
+     * Compile the given rules
+     * @param sortedRules the rules in priority order
+     * @param matchers the rule matchers
+     */
+    public CompiledRuleSet(Collection<MembershipRule<T>> sortedRules,
+                           List<AbstractRuleMatcher<T>> matchers) {
+        rules = new ArrayList<MembershipRule<T>>(sortedRules);
+        words = (rules.size() + 63) >>> 6;
+        hasAnyField = new long[words];
+        hasField = new long[matchers.size()][];
+
+        macIndex = new HashMap<Long, long[]>();
+        ipSubnetIndex = new IPV4SubnetTrie<long[]>();
+        switchIndex = new HashMap<Long, long[]>();
+        switchPortIndex = new HashMap<String, long[]>();
+        vlanIndex = new long[4096][];
+        tagIndex = new HashMap<Tag, long[]>();
+        ruleTags = new Tag[rules.size()][];
+
+        for (int id = 0; id < rules.size(); id++) {
+            MembershipRule<T> rule = rules.get(id);
+            for (int m = 0; m < matchers.size(); m++) {
+                if (matchers.get(m).ruleHasField(rule)) {
+                    if (hasField[m] == null)
+                        hasField[m] = new long[words];
+                    set(hasField[m], id);
+                    set(hasAnyField, id);
+                }
+            }
+            index(rule, id);
+        }
+    }
+
+    /**
+     * Add the rule to the field indexes
+     */
+    private void index(MembershipRule<T> rule, int id) {
+        if (rule.getMac() != null) {
+            set(getBitmap(macIndex, parseMac(rule.getMac())), id);
+        }
+
+        if (rule.getIpSubnet() != null) {
+            IPV4Subnet s = new IPV4Subnet(rule.getIpSubnet());
+            long[] b = ipSubnetIndex.get(s);
+            if (b == null) {
+                ipSubnetIndex.put(s, b = new long[words]);
+            }
+            set(b, id);
+        }
+
+        if (rule.getSwitchId() != null) {
+            long switchId = HexString.toLong(rule.getSwitchId());
+            if (rule.getPorts() != null) {
+                for (String p : rule.getPortList()) {
+                    set(getBitmap(switchPortIndex, switchId + "-" + p), id);
+                }
+            } else {
+                set(getBitmap(switchIndex, switchId), id);
+            }
+        }
+
+        List<Integer> vlans = rule.getVlanList();
+        if (vlans != null) {
+            for (Integer vlan : vlans) {
+                if (vlan < 0 || vlan >= vlanIndex.length) continue;
+                if (vlanIndex[vlan] == null)
+                    vlanIndex[vlan] = new long[words];
+                set(vlanIndex[vlan], id);
+            }
+        }
+
+        List<String> tags = rule.getTagList();
+        if (tags != null) {
+            ruleTags[id] = new Tag[tags.size()];
+            for (int i = 0; i < tags.size(); i++) {
+                // the rule's tags are kept as namespace|name|value
+                String[] t = tags.get(i).split("\\|", 3);
+                ruleTags[id][i] = new Tag(t[0], t[1], t[2]);
+                set(getBitmap(tagIndex, ruleTags[id][i]), id);
+            }
+        }
+    }
+
+    private <K> long[] getBitmap(Map<K, long[]> index, K key) {
+        long[] b = index.get(key);
+        if (b == null) {
+            index.put(key, b = new long[words]);
+        }
+        return b;
+    }
+
+    /**
+     * Convert a MAC rule string with or without colons to a long
+     */
+    protected static long parseMac(String mac) {
+        return Long.parseLong(mac.replace(":", ""), 16);
+    }
+
+    /**
+     * @return the number of rules
+     */
+    public int size() {
+        return rules.size();
+    }
+
+    /**
+     * @param id a rule id
+     * @return the rule with the given id
+     */
+    public MembershipRule<T> getRule(int id) {
+        return rules.get(id);
+    }
+
+    // ***************
+    // Bitmap helpers
+    // ***************
+
+    protected static void set(long[] bitmap, int id) {
+        bitmap[id >>> 6] |= 1L << id;
+    }
+
+    protected static boolean isSet(long[] bitmap, int id) {
+        return (bitmap[id >>> 6] & (1L << id)) != 0;
+    }
+
+    /**
+     * OR src into dst. If dst is null a copy of src is returned.
+     * @return the resulting bitmap
+     */
+    protected static long[] or(long[] dst, long[] src) {
+        if (dst == null) return src.clone();
+        for (int i = 0; i < dst.length; i++) {
+            dst[i] |= src[i];
+        }
+        return dst;
+    }
+
+    /**
+     * Remove the candidates that have a field but did not match it, i.e.,
+     * candidates &= ~hasField | matched
+     * @param candidates the candidate bitmap, modified in place
+     * @param hasField the rules that have the field
+     * @param matched the rules that matched the field, may be null
+     * @return true if there are candidates left
+     */
+    protected static boolean retainMatched(long[] candidates,
+                                           long[] hasField,
+                                           long[] matched) {
+        long any = 0;
+        for (int i = 0; i < candidates.length; i++) {
+            long m = (matched == null) ? 0 : matched[i];
+            candidates[i] &= ~hasField[i] | m;
+            any |= candidates[i];
+        }
+        return any != 0;
+    }
+
+    /**
+     * @return the lowest set bit at or after fromId or -1 if there is none
+     */
+    protected static int nextSetBit(long[] bitmap, int fromId) {
+        int i = fromId >>> 6;
+        if (i >= bitmap.length) return -1;
+        long word = bitmap[i] & (-1L << fromId);
+        while (true) {
+            if (word != 0)
+                return (i << 6) + Long.numberOfTrailingZeros(word);
+            if (++i == bitmap.length)
+                return -1;
+            word = bitmap[i];
+        }
+    }
+}
@@ -17,17 +17,11 @@
 package org.sdnplatform.devicegroup;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 import java.util.TreeSet;
-import org.openflow.util.HexString;
 import org.sdnplatform.core.IControllerService;
 import org.sdnplatform.devicemanager.IDevice;
 import org.sdnplatform.tagmanager.ITagManagerService;
-import org.sdnplatform.util.IPV4Subnet;
-import org.sdnplatform.util.IPV4SubnetTrie;
 
 
 /** 
@@ -38,34 +32,23 @@ implements IDeviceGroupMatcher<T> {
     protected ITagManagerService tagManager;
     protected IControllerService controllerProvider;
 
-    
-    // Rule lookup data structures
     /**
-     * Data structure for efficiently matching against MAC rules
+     * The active rules in priority order
      */
-    protected Map<String,Set<MembershipRule<T>>> macRuleMap;
+    protected TreeSet<MembershipRule<T>> rules;
 
     /**
-     * Trie does prefix matching for IP subnets
+     * The compiled form of rules used for matching. Built on demand
+     * and reset whenever the rules change.
      */
-    protected IPV4SubnetTrie<Set<MembershipRule<T>>> ipRuleTrie;
+    protected volatile CompiledRuleSet<T> compiledRules;
 
-    /**
-     * Data structure for matching against switch and port rules
-     */
-    protected Map<String,Set<MembershipRule<T>>> switchPortMap;
-
-    /**
-     * Data structure for matching against vlan rules
-     */
-    protected ArrayList<Set<MembershipRule<T>>> vlanList;
+    // Flags for the kinds of rules we have
+    protected boolean hasMacRulesFlag;
+    protected boolean hasIpSubnetRulesFlag;
+    protected boolean hasSwitchPortRulesFlag;
     protected boolean hasVlanRulesFlag;
-
-    /**
-     * Data structure for matching against tag rules
-     * tagRuleMap: tag -> set<MembershipRule<T>>
-     */
-    protected Map<String,Set<MembershipRule<T>>> tagRuleMap;
+    protected boolean hasTagRulesFlag;
 
     /**
      * This is the list of rule matchers that will be used to
@@ -73,26 +56,13 @@ implements IDeviceGroupMatcher<T> {
      */
     protected final ArrayList<AbstractRuleMatcher<T>> RULE_MATCHERS;
     
-    /** 
-     * Add the rule to the match map
-     */
-    protected void updateMatchMap(Map<String, Set<MembershipRule<T>>> matchMap,
-                                  String key,
-                                  MembershipRule<T> rule) {
-        Set<MembershipRule<T>> rules = matchMap.get(key);
-        if (rules == null) {
-            matchMap.put(key, rules = new TreeSet<MembershipRule<T>>());
-        }
-        rules.add(rule);
-    }
-    
     // Check if we have a particular kind of rules
     /* (non-Javadoc)
      * @see org.sdnplatform.devicegroup.IDeviceGroupMatcher#hasMacRules()
      */
     @Override
     public boolean hasMacRules() {
-        return macRuleMap.size() != 0;
+        return hasMacRulesFlag;
     }
     
     /* (non-Javadoc)
@@ -100,7 +70,7 @@ implements IDeviceGroupMatcher<T> {
      */
     @Override
     public boolean hasIpSubnetRules() {
-        return ipRuleTrie.size() != 0;
+        return hasIpSubnetRulesFlag;
     }
     
     /* (non-Javadoc)
@@ -108,7 +78,7 @@ implements IDeviceGroupMatcher<T> {
      */
     @Override
     public boolean hasSwitchPortRules() {
-        return switchPortMap.size() != 0;
+        return hasSwitchPortRulesFlag;
     }
     
     /* (non-Javadoc)
@@ -124,7 +94,7 @@ implements IDeviceGroupMatcher<T> {
      */
     @Override
     public boolean hasTagRules() {
-        return tagRuleMap.size() != 0;
+        return hasTagRulesFlag;
     }
     
     public DeviceGroupMatcher(ITagManagerService tagManager, 
@@ -136,13 +106,7 @@ implements IDeviceGroupMatcher<T> {
         RULE_MATCHERS.add(new VlanMatcher<T>(this));
         RULE_MATCHERS.add(new TagMatcher<T>(this));
         
-        macRuleMap = new HashMap<String,Set<MembershipRule<T>>>();
-        ipRuleTrie = new IPV4SubnetTrie<Set<MembershipRule<T>>>();
-        switchPortMap = new HashMap<String,Set<MembershipRule<T>>>();
-        tagRuleMap = new HashMap<String,Set<MembershipRule<T>>>();
-        vlanList = new ArrayList<Set<MembershipRule<T>>>(4096);
-        for (int i=0; i<4096; i++)
-            vlanList.add(null);
+        rules = new TreeSet<MembershipRule<T>>();
         
         this.controllerProvider = controllerProvider;
         this.tagManager = tagManager;
@@ -154,14 +118,13 @@ implements IDeviceGroupMatcher<T> {
     @Override
     public void clear() {
         // Flush rule-matching data structures
-        macRuleMap.clear();
-        ipRuleTrie.clear();
-        switchPortMap.clear();
-        vlanList.clear();
-        for (int i=0; i<4096; i++)
-            vlanList.add(null);
+        rules.clear();
+        compiledRules = null;
+        hasMacRulesFlag = false;
+        hasIpSubnetRulesFlag = false;
+        hasSwitchPortRulesFlag = false;
         hasVlanRulesFlag = false; 
-        tagRuleMap.clear();
+        hasTagRulesFlag = false;
     }
     
     /* (non-Javadoc)
@@ -172,58 +135,37 @@ implements IDeviceGroupMatcher<T> {
         if (!rule.isActive() || !rule.getParentDeviceGroup().isActive())
             return;
 
-        // Setup MAC matching data structure
-        if (rule.getMac() != null) {
-            updateMatchMap(macRuleMap, rule.getMac(), rule);
-        }
-
-        // Setup IP subnet matching data structure
-        if (rule.getIpSubnet() != null) {
-            IPV4Subnet s = new IPV4Subnet(rule.getIpSubnet());
-            Set<MembershipRule<T>> rules = ipRuleTrie.get(s);
-            if (rules == null) {
-                ipRuleTrie.put(s, rules = new TreeSet<MembershipRule<T>>());
-            }
-            rules.add(rule);
-        }
-
-        // Setup switch/port matching data structure
-        if (rule.getSwitchId() != null) {
-            long switchId = HexString.toLong(rule.getSwitchId());
-            if (rule.getPorts() != null) {
-                for (String p : rule.getPortList()) {
-                    String k = switchId + "-" + p;
-                    updateMatchMap(switchPortMap, k, rule);
-                }
-            } else {
-                updateMatchMap(switchPortMap, 
-                               Long.toString(switchId),
-                               rule);
-            }
-        }
+        rules.add(rule);
+        compiledRules = null;
+
+        if (rule.getMac() != null)
+            hasMacRulesFlag = true;
+        if (rule.getIpSubnet() != null)
+            hasIpSubnetRulesFlag = true;
+        if (rule.getSwitchId() != null)
+            hasSwitchPortRulesFlag = true;
+        if (rule.getVlanList() != null)
+            hasVlanRulesFlag = true;
+        if (rule.getTagList() != null)
+            hasTagRulesFlag = true;
+    }
 
-        // Setup vlan matching data structure
-        if (rule.getVlans() != null) {
-            List<Integer> vlans = rule.getVlanList();
-            if (vlans != null) {
-                for (Integer vlan : vlans) {
-                    Set<MembershipRule<T>> rules = vlanList.get(vlan);
-                    if (rules == null) {
-                        rules = new TreeSet<MembershipRule<T>>();
-                        vlanList.set(vlan, rules);
-                    }
-                    rules.add(rule);
+    /**
+     * Get the compiled form of the current rules, compiling them if needed
+     * @return the compiled rules
+     */
+    protected CompiledRuleSet<T> getCompiledRules() {
+        CompiledRuleSet<T> compiled = compiledRules;
+        if (compiled == null) {
+            synchronized (this) {
+                compiled = compiledRules;
+                if (compiled == null) {
+                    compiled = new CompiledRuleSet<T>(rules, RULE_MATCHERS);
+                    compiledRules = compiled;
                 }
-                hasVlanRulesFlag = true;
-            }
-        }
-
-        // Setup tag matching data structure
-        if (rule.getTagList() != null) {
-            for (String tag: rule.getTagList()) {
-                updateMatchMap(tagRuleMap, tag, rule);
             }
         }
+        return compiled;
     }
     
     /* (non-Javadoc)
@@ -232,68 +174,35 @@ implements IDeviceGroupMatcher<T> {
     @Override
     public List<MembershipRule<T>> matchDevice(IDevice d) 
             throws Exception {
-        Map<AbstractRuleMatcher<T>, Set<MembershipRule<T>>> possibleMatches = null;
-
-        // First generate a set of candidate matches by matching each of 
-        // the fields in the rules.
-        for (AbstractRuleMatcher<T> matcher : RULE_MATCHERS) {
-            Set<MembershipRule<T>> r = matcher.match(d);
-            if (r != null && r.size() > 0) {
-                if (possibleMatches == null)
-                    possibleMatches = 
-                        new HashMap<AbstractRuleMatcher<T>, Set<MembershipRule<T>>>();
-                possibleMatches.put(matcher, r);
-            }
-        }
-
-        if (possibleMatches == null) {
+        CompiledRuleSet<T> compiled = getCompiledRules();
+        if (compiled.size() == 0) {
             // no matching interfaces; it will be assigned to the default NetVirt
             return null;
         }
 
-        // Validate candidate matches by checking that all fields for a rule
-        // are matched
-        TreeSet<MembershipRule<T>> matches = new TreeSet<MembershipRule<T>>();
-        TreeSet<MembershipRule<T>> notmatches = new TreeSet<MembershipRule<T>>();
-        for (AbstractRuleMatcher<T> mname : possibleMatches.keySet()) {
-            Set<MembershipRule<T>> candidates = possibleMatches.get(mname);
-            for (MembershipRule<T> candidate : candidates) {
-                if (matches.contains(candidate) || 
-                    notmatches.contains(candidate))
-                    continue;
-
-                boolean allmatched = true;
-                for (AbstractRuleMatcher<T> matcher : RULE_MATCHERS) {
-                    if (matcher.ruleHasField(candidate)) {
-                        Set<MembershipRule<T>> fieldcandidates = 
-                            possibleMatches.get(matcher);
-                        if (fieldcandidates == null || 
-                            !fieldcandidates.contains(candidate)) {
-                            allmatched = false;
-                            break;
-                        }
-                    }
-                }
-                if (allmatched) {
-                    matches.add(candidate);
-                } else {
-                    notmatches.add(candidate);
-                }
+        // Intersect the per-field matches: a rule is a match if each of
+        // the fields it has is matched by the device
+        long[] matches = compiled.hasAnyField.clone();
+        for (int i = 0; i < RULE_MATCHERS.size(); i++) {
+            long[] hasField = compiled.hasField[i];
+            if (hasField == null) continue;
+            long[] fieldMatches = RULE_MATCHERS.get(i).match(d, compiled);
+            if (!CompiledRuleSet.retainMatched(matches, hasField,
+                                               fieldMatches)) {
+                // no matching interfaces; it will be assigned to the 
+                // default device group
+                return null;
             }
         }
 
-        if (matches.size() == 0) {
-            // no matching interfaces; it will be assigned to the default 
-            // device group
-            return null;
-        }
-
         // Generate the final set of matched interfaces by traversing the 
-        // matching rules in priority order
+        // matching rules in priority order (i.e., by rule id)
         ArrayList<MembershipRule<T>> deviceRules = 
             new ArrayList<MembershipRule<T>>();
         T current = null;
-        for (MembershipRule<T> match : matches) {
+        for (int id = CompiledRuleSet.nextSetBit(matches, 0); id >= 0;
+                id = CompiledRuleSet.nextSetBit(matches, id + 1)) {
+            MembershipRule<T> match = compiled.getRule(id);
             if (match.isMultipleAllowed()) {
                 if (!match.getParentDeviceGroup().equals(current)) {
                     deviceRules.add(match); 
@@ -17,8 +17,6 @@
 package org.sdnplatform.devicegroup;
 
 import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
 import java.util.Map.Entry;
 
 import org.sdnplatform.devicemanager.IDevice;
@@ -43,27 +41,35 @@ extends AbstractRuleMatcher<T> {
     }
 
     @Override
-    public Set<MembershipRule<T>> match(IDevice d) {
-        if (deviceGroupMatcher.ipRuleTrie.size() == 0) return null;
+    public long[] match(IDevice d, CompiledRuleSet<T> rules) {
+        if (rules.ipSubnetIndex.size() == 0) return null;
         
-        Set<MembershipRule<T>> resultSet = null;
+        long[] result = null;
+        boolean shared = false;
         IPV4Subnet s = new IPV4Subnet();
         s.maskBits = (short)32;
         for (Integer dna : d.getIPv4Addresses()) {
             s.address = dna;
             
-            List<Entry<IPV4Subnet, Set<MembershipRule<T>>>> resultList = 
-                    deviceGroupMatcher.ipRuleTrie.prefixSearch(s);
+            List<Entry<IPV4Subnet, long[]>> resultList = 
+                    rules.ipSubnetIndex.prefixSearch(s);
             if (resultList == null) continue;
             
-            for (Entry<IPV4Subnet, Set<MembershipRule<T>>> result : resultList) {
-                if (resultSet == null) {
-                    resultSet = new TreeSet<MembershipRule<T>>();
+            for (Entry<IPV4Subnet, long[]> entry : resultList) {
+                if (result == null) {
+                    // Use the index bitmap as is unless we need to merge
+                    result = entry.getValue();
+                    shared = true;
+                } else {
+                    if (shared) {
+                        result = result.clone();
+                        shared = false;
+                    }
+                    CompiledRuleSet.or(result, entry.getValue());
                 }
-                resultSet.addAll(result.getValue());
             }
         }
-        return resultSet;
+        return result;
     }
 
     @Override
@@ -16,8 +16,6 @@
 
 package org.sdnplatform.devicegroup;
 
-import java.util.Set;
-
 import org.sdnplatform.devicemanager.IDevice;
 
 
@@ -40,10 +38,10 @@ extends AbstractRuleMatcher<T> {
     }
 
     @Override
-    public Set<MembershipRule<T>> match(IDevice d) {
-        if (deviceGroupMatcher.macRuleMap.size() == 0) return null;
+    public long[] match(IDevice d, CompiledRuleSet<T> rules) {
+        if (rules.macIndex.size() == 0) return null;
         
-        return deviceGroupMatcher.macRuleMap.get(d.getMACAddressString());
+        return rules.macIndex.get(d.getMACAddress());
     }
 
     @Override
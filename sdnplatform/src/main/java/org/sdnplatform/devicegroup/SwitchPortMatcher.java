@@ -17,8 +17,6 @@
 package org.sdnplatform.devicegroup;
 
 import java.util.Map;
-import java.util.Set;
-import java.util.TreeSet;
 
 import org.openflow.protocol.OFPhysicalPort;
 import org.openflow.util.HexString;
@@ -85,36 +83,30 @@ extends AbstractRuleMatcher<T> {
     }
     
     @Override
-    public Set<MembershipRule<T>> match(IDevice d) {
-        if (deviceGroupMatcher.switchPortMap.size() == 0) return null;
+    public long[] match(IDevice d, CompiledRuleSet<T> rules) {
+        if (rules.switchIndex.size() == 0 &&
+                rules.switchPortIndex.size() == 0) return null;
 
-        Set<MembershipRule<T>> resultSet = null;
+        long[] result = null;
 
         for (SwitchPort dap : d.getAttachmentPoints()) {
             // Check for switch rule
-            long id = dap.getSwitchDPID();
-            Set<MembershipRule<T>> matches = 
-                    deviceGroupMatcher.switchPortMap.get(Long.toString(id));
-            if (matches != null && matches.size() > 0) {
-                if (resultSet == null) { 
-                    resultSet = new TreeSet<MembershipRule<T>>();
-                }
-                resultSet.addAll(matches);
+            long[] matches = rules.switchIndex.get(dap.getSwitchDPID());
+            if (matches != null) {
+                result = CompiledRuleSet.or(result, matches);
             }
 
             // Check for port rules
+            if (rules.switchPortIndex.size() == 0) continue;
             String key = getSwitchPortKey(dap);
             if (key == null) continue;
 
-            matches = deviceGroupMatcher.switchPortMap.get(key);
-            if (matches != null && matches.size() > 0) {
-                if (resultSet == null) { 
-                    resultSet = new TreeSet<MembershipRule<T>>();
-                }
-                resultSet.addAll(matches);
+            matches = rules.switchPortIndex.get(key);
+            if (matches != null) {
+                result = CompiledRuleSet.or(result, matches);
             }
         }
-        return resultSet;
+        return result;
     }
 
     @Override
@@ -16,12 +16,7 @@
 
 package org.sdnplatform.devicegroup;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 
 import org.sdnplatform.devicemanager.IDevice;
 import org.sdnplatform.tagmanager.Tag;
@@ -50,44 +45,39 @@ extends AbstractRuleMatcher<T> {
     }
 
     @Override
-    public Set<MembershipRule<T>> match(IDevice d) {
-        if (deviceGroupMatcher.tagRuleMap.size() == 0) return null;
+    public long[] match(IDevice d, CompiledRuleSet<T> rules) {
+        if (rules.tagIndex.size() == 0) return null;
         
-        Set<MembershipRule<T>> matchingRules = new TreeSet<MembershipRule<T>>();
+        Set<Tag> deviceTags = deviceGroupMatcher.tagManager.getTagsByDevice(d);
+        if (deviceTags == null) return null;
         
-            Set<Tag> deviceTags = deviceGroupMatcher.tagManager.getTagsByDevice(d);
-            if (deviceTags == null) return null;
-            
-            HashMap<MembershipRule<T>, Set<String>> matchMap = 
-                new HashMap<MembershipRule<T>, Set<String>>();
-            for (Tag tag : deviceTags) {
-                String tagKey = tag.getDBKey();
-                Set<MembershipRule<T>> curTagMatchingRules = 
-                        deviceGroupMatcher.tagRuleMap.get(tagKey);
-                if (curTagMatchingRules == null) continue;
-                for (MembershipRule<T> rule: curTagMatchingRules) {
-                    Set<String> matchedTags = matchMap.get(rule);
-                    if (matchedTags == null) {
-                        matchedTags = new HashSet<String>();
-                        matchMap.put(rule, matchedTags);
-                    }
-                    matchedTags.add(tagKey);
-                }
-            }
-            
-            Iterator<Map.Entry<MembershipRule<T>, Set<String>>> it = 
-                matchMap.entrySet().iterator();
-            while (it.hasNext()) {
-                Map.Entry<MembershipRule<T>, Set<String>> entry = it.next();
-                Set<String> ruleTags = entry.getValue();
-                MembershipRule<T> rule = entry.getKey();
-                if (ruleTags != null && 
-                        ruleTags.size() == rule.getTagList().size()) {
-                    matchingRules.add(rule);
-                }
+        // Rules that have at least one of the device's tags
+        long[] candidates = null;
+        for (Tag tag : deviceTags) {
+            long[] curTagMatchingRules = rules.tagIndex.get(tag);
+            if (curTagMatchingRules == null) continue;
+            candidates = CompiledRuleSet.or(candidates, curTagMatchingRules);
+        }
+        if (candidates == null) return null;
+        
+        // A rule matches only if the device has all of the rule's tags
+        boolean any = false;
+        for (int id = CompiledRuleSet.nextSetBit(candidates, 0); id >= 0;
+                id = CompiledRuleSet.nextSetBit(candidates, id + 1)) {
+            if (hasAll(deviceTags, rules.ruleTags[id])) {
+                any = true;
+            } else {
+                candidates[id >>> 6] &= ~(1L << id);
             }
-        if (matchingRules.size() == 0) return null;
-        return matchingRules;
+        }
+        return any ? candidates : null;
+    }
+
+    private static boolean hasAll(Set<Tag> deviceTags, Tag[] ruleTags) {
+        for (Tag tag : ruleTags) {
+            if (!deviceTags.contains(tag)) return false;
+        }
+        return true;
     }
 
     @Override
@@ -16,8 +16,6 @@
 
 package org.sdnplatform.devicegroup;
 
-import java.util.Set;
-
 import org.sdnplatform.devicemanager.IDevice;
 
 
@@ -39,13 +37,12 @@ extends AbstractRuleMatcher<T> {
     }
 
     @Override
-    public Set<MembershipRule<T>> match(IDevice d) {
+    public long[] match(IDevice d, CompiledRuleSet<T> rules) {
         Short[] vlans = d.getVlanId();
         
         for (Short vlan : vlans) {
             if ((vlan != null) && (vlan >= 0) && (vlan < 4096)) {
-                Set<MembershipRule<T>> r =
-                        deviceGroupMatcher.vlanList.get(vlan);
+                long[] r = rules.vlanIndex[vlan];
                 if (r != null) return r; 
             }
         }
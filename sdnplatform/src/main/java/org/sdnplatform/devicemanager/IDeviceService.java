@@ -37,6 +37,7 @@ import java.util.Collection;
 import java.util.EnumSet;
 import java.util.Iterator;
 
+import org.sdnplatform.core.ListenerContextKey;
 import org.sdnplatform.core.ListenerContextStore;
 import org.sdnplatform.core.module.IPlatformService;
 
@@ -68,12 +69,30 @@ public interface IDeviceService extends IPlatformService {
     public static final String CONTEXT_DST_DEVICE = 
             "org.sdnplatform.devicemanager.dstDevice"; 
 
+    /**
+     * The typed key for {@link #CONTEXT_SRC_DEVICE}
+     */
+    public static final ListenerContextKey<IDevice> SRC_DEVICE_KEY =
+            ListenerContextKey.register(CONTEXT_SRC_DEVICE);
+
+    /**
+     * The typed key for {@link #CONTEXT_DST_DEVICE}
+     */
+    public static final ListenerContextKey<IDevice> DST_DEVICE_KEY =
+            ListenerContextKey.register(CONTEXT_DST_DEVICE);
+
     /**
      * The original destination device for the current packet-in
      */
     public static final String CONTEXT_ORIG_DST_DEVICE =
             "org.sdnplatform.devicemanager.origDstDevice";
 
+    /**
+     * The typed key for {@link #CONTEXT_ORIG_DST_DEVICE}
+     */
+    public static final ListenerContextKey<IDevice> ORIG_DST_DEVICE_KEY =
+            ListenerContextKey.register(CONTEXT_ORIG_DST_DEVICE);
+
     /**
      * A ListenerContextStore object that can be used to interact with the 
      * ListenerContext information created by NetVirt manager.
@@ -151,8 +170,10 @@ public interface IDeviceService extends IPlatformService {
     /**
      * Create an index over a set of fields.  This allows efficient lookup
      * of devices when querying using the indexed set of specified fields.
-     * The index must be registered before any device learning takes place,
-     * or it may be incomplete.  It's OK if this is called multiple times with
+     * Global indices are best registered in init; an index registered
+     * later is built from the devices already learned.  Per-class indices
+     * must be registered before any device learning takes place, or they
+     * may be incomplete.  It's OK if this is called multiple times with
      * the same fields; only one index will be created for each unique set of 
      * fields.
      * 
@@ -91,6 +91,7 @@ import org.sdnplatform.packet.Ethernet;
 import org.sdnplatform.packet.IPv4;
 import org.sdnplatform.packet.UDP;
 import org.sdnplatform.packet.DHCP.DHCPOptionCode;
+import org.sdnplatform.replication.IReplicationService;
 import org.sdnplatform.restserver.IRestApiService;
 import org.sdnplatform.storage.IStorageSourceService;
 import org.sdnplatform.threadpool.IThreadPoolService;
@@ -119,6 +120,13 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
     protected IRestApiService restApi;
     protected IThreadPoolService threadPool;
     protected IFlowReconcileService flowReconcileMgr;
+    protected IReplicationService replication;
+
+    /**
+     * Replicates the devices to the standby controllers, null if there
+     * is no replication service
+     */
+    protected DeviceReplicationProvider replicationProvider;
 
     /**
      * Time in milliseconds before entities will expire
@@ -167,6 +175,14 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
      */
     protected Set<EnumSet<DeviceField>> perClassIndices;
 
+    /**
+     * This is the list of global secondary indices we want.  They are
+     * created in {@link #startUp}, so modules may ask for them in init.
+     */
+    protected Set<EnumSet<DeviceField>> globalIndices =
+            Collections.newSetFromMap(
+                    new ConcurrentHashMap<EnumSet<DeviceField>, Boolean>());
+
     /**
      * The entity classifier currently in use
      */
@@ -404,9 +420,22 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
                          EnumSet<DeviceField> keyFields) {
         if (perClass) {
             perClassIndices.add(keyFields);
-        } else {
-            secondaryIndexMap.put(keyFields,
-                                  new DeviceMultiIndex(keyFields));
+        } else if (globalIndices.add(keyFields) && secondaryIndexMap != null) {
+            // Already started; index the devices learned so far
+            createIndex(keyFields);
+        }
+    }
+
+    /**
+     * Create a secondary index and add the devices learned so far. The
+     * index is published first so devices learned meanwhile are not missed.
+     * @param keyFields the fields to index
+     */
+    private void createIndex(EnumSet<DeviceField> keyFields) {
+        DeviceIndex index = new DeviceMultiIndex(keyFields);
+        secondaryIndexMap.put(keyFields, index);
+        for (Device device : deviceMap.values()) {
+            index.updateIndex(device, device.getDeviceKey());
         }
     }
 
@@ -651,7 +680,7 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
             return Command.STOP;
 
         // Store the source device in the context
-        fcStore.put(ofm.cntx, CONTEXT_SRC_DEVICE, srcDevice);
+        SRC_DEVICE_KEY.put(ofm.cntx, srcDevice);
 
         // Find the device matching the destination from the entity
         // classes of the source.
@@ -660,7 +689,7 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
         if (dstEntity != null) {
             dstDevice = findDestByEntity(srcDevice.getEntityClass(), dstEntity);
             if (dstDevice != null)
-                fcStore.put(ofm.cntx, CONTEXT_DST_DEVICE, dstDevice);
+                DST_DEVICE_KEY.put(ofm.cntx, dstDevice);
         }
         if (logger.isTraceEnabled()) {
             logger.trace("Reconciling flow: match={}, srcEntity={}, srcDev={}, "
@@ -730,14 +759,22 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
         this.threadPool = fmc.getServiceImpl(IThreadPoolService.class);
         this.flowReconcileMgr = fmc.getServiceImpl(IFlowReconcileService.class);
         this.entityClassifier = fmc.getServiceImpl(IEntityClassifierService.class);
+        this.replication = fmc.getServiceImpl(IReplicationService.class);
+        if (replication != null) {
+            replicationProvider =
+                    new DeviceReplicationProvider(this, replication);
+        }
     }
 
     @Override
     public void startUp(ModuleContext fmc) {
         primaryIndex = new DeviceUniqueIndex(entityClassifier.getKeyFields());
-        secondaryIndexMap = new HashMap<EnumSet<DeviceField>, DeviceIndex>();
-
         deviceMap = new ConcurrentHashMap<Long, Device>();
+        secondaryIndexMap =
+                new ConcurrentHashMap<EnumSet<DeviceField>, DeviceIndex>();
+        for (EnumSet<DeviceField> fields : globalIndices) {
+            createIndex(fields);
+        }
         classStateMap =
                 new ConcurrentHashMap<String, ClassState>();
         apComparator = new AttachmentPointComparator();
@@ -748,6 +785,8 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
             topology.addListener(this);
         flowReconcileMgr.addFlowReconcileListener(this);
         entityClassifier.addListener(this);
+        if (replicationProvider != null)
+            replication.addReplicationProvider(replicationProvider);
 
         Runnable ecr = new Runnable() {
             @Override
@@ -800,8 +839,7 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
     protected Command processPacketInMessage(IOFSwitch sw, OFPacketIn pi,
                                              ListenerContext cntx) {
         Ethernet eth =
-                IControllerService.bcStore.
-                get(cntx,IControllerService.CONTEXT_PI_PAYLOAD);
+                IControllerService.PI_PAYLOAD_KEY.get(cntx);
 
         // Extract source entity information
         Entity srcEntity =
@@ -823,7 +861,7 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
             return Command.STOP;
 
         // Store the source device in the context
-        fcStore.put(cntx, CONTEXT_SRC_DEVICE, srcDevice);
+        SRC_DEVICE_KEY.put(cntx, srcDevice);
 
         // Find the device matching the destination from the entity
         // classes of the source.
@@ -833,7 +871,7 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
             dstDevice =
                     findDestByEntity(srcDevice.getEntityClass(), dstEntity);
             if (dstDevice != null)
-                fcStore.put(cntx, CONTEXT_DST_DEVICE, dstDevice);
+                DST_DEVICE_KEY.put(cntx, dstDevice);
         }
 
        if (logger.isTraceEnabled()) {
@@ -1230,6 +1268,7 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
 
                 // Add the new device to the primary map with a simple put
                 deviceMap.put(deviceKey, device);
+                deviceChanged(deviceKey);
 
                 // update indices
                 if (!updateIndices(device, deviceKey)) {
@@ -1293,6 +1332,7 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
                     continue;
 
                 device = newDevice;
+                deviceChanged(deviceKey);
                 // update indices
                 if (!updateIndices(device, deviceKey)) {
                     continue;
@@ -1319,6 +1359,7 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
                 // TODO: use update mechanism instead of sending the
                 // notification directly
                 if (moved) {
+                    deviceChanged(deviceKey);
                     sendDeviceMovedNotification(device);
                     if (logger.isTraceEnabled()) {
                         logger.trace("Device moved: attachment points {}," +
@@ -1615,18 +1656,21 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
                         if (null != d)
                             continue;
                     }
+                    deviceChanged(newDevice.getDeviceKey());
                     if (update != null)
                         deviceUpdates.add(update);
                 } else {
                     DeviceUpdate update = new DeviceUpdate(d, DELETE, null);
-                    if (!deviceMap.remove(d.getDeviceKey(), d)) {
+                    Long deviceKey = d.getDeviceKey();
+                    if (!deviceMap.remove(deviceKey, d)) {
                         // concurrent modification; try again
                         // need to use device that is the map now for the next
                         // iteration
-                        d = deviceMap.get(d.getDeviceKey());
+                        d = deviceMap.get(deviceKey);
                         if (null != d)
                             continue;
                     }
+                    deviceChanged(deviceKey);
                     deviceUpdates.add(update);
                 }
                 processUpdates(deviceUpdates);
@@ -1672,6 +1716,67 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
                 logger.debug("device map does not have this device -" +
                     device.toString());
         }
+        deviceChanged(device.getDeviceKey());
+    }
+
+    /**
+     * Record that a device was added, changed or deleted so the change
+     * is replicated to the standby controllers
+     * @param deviceKey the key of the device
+     */
+    protected void deviceChanged(Long deviceKey) {
+        if (replicationProvider != null)
+            replicationProvider.deviceChanged(deviceKey);
+    }
+
+    /**
+     * Install a device replicated from the master, replacing the device
+     * with the same key and any device that conflicts with it in the
+     * unique indices. No device listeners are notified.
+     * @param deviceKey the device key
+     * @param device the device or null if it was deleted on the master
+     */
+    protected void applyReplicatedDevice(Long deviceKey, Device device) {
+        Device old = deviceMap.get(deviceKey);
+        if (old != null)
+            deleteDevice(old);
+        if (device == null)
+            return;
+
+        ClassState classState = getClassState(device.getEntityClass());
+        for (Entity entity : device.getEntities()) {
+            deleteConflictingDevice(primaryIndex.findByEntity(entity),
+                                    deviceKey);
+            if (classState.classIndex != null) {
+                deleteConflictingDevice(
+                        classState.classIndex.findByEntity(entity),
+                        deviceKey);
+            }
+        }
+
+        deviceMap.put(deviceKey, device);
+        if (!updateIndices(device, deviceKey)) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Could not index replicated device {}", device);
+            }
+            deleteDevice(device);
+            return;
+        }
+        for (Entity entity : device.getEntities()) {
+            updateSecondaryIndices(entity, device.getEntityClass(), deviceKey);
+        }
+        synchronized (deviceKeyLock) {
+            if (deviceKeyCounter <= deviceKey)
+                deviceKeyCounter = deviceKey + 1;
+        }
+    }
+
+    private void deleteConflictingDevice(Long conflictKey, Long deviceKey) {
+        if (conflictKey == null || conflictKey.equals(deviceKey))
+            return;
+        Device conflict = deviceMap.get(conflictKey);
+        if (conflict != null)
+            deleteDevice(conflict);
     }
 
     private EnumSet<DeviceField> getEntityKeys(Long macAddress,
@@ -1775,6 +1880,7 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
         while (diter.hasNext()) {
             Device d = diter.next();
             if (d.updateAttachmentPoint()) {
+                deviceChanged(d.getDeviceKey());
                 if (logger.isDebugEnabled()) {
                     logger.debug("Attachment point changed for device: {}", d);
                 }
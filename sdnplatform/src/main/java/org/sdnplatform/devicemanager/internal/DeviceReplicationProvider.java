@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.devicemanager.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.sdnplatform.devicemanager.IEntityClass;
+import org.sdnplatform.replication.IReplicationProvider;
+import org.sdnplatform.replication.IReplicationService;
+import org.sdnplatform.replication.IReplicationSink;
+
+/**
+ * Replicates the devices of the device manager to the standby
+ * controllers. Every record carries the complete device with the given
+ * device key, or the deletion of the key, so a standby only ever needs the
+ * latest record for a device. The entity class is not replicated; the
+ * standby classifies the device again with its own entity classifier.
+ */
+public class DeviceReplicationProvider implements IReplicationProvider {
+    public static final String DOMAIN = "devicemanager";
+
+    protected static final byte UPDATE = 1;
+    protected static final byte DELETE = 2;
+
+    // Bits for the optional entity fields
+    protected static final int HAS_IP = 1;
+    protected static final int HAS_VLAN = 1 << 1;
+    protected static final int HAS_DPID = 1 << 2;
+    protected static final int HAS_PORT = 1 << 3;
+    protected static final int HAS_LAST_SEEN = 1 << 4;
+    protected static final int HAS_ACTIVE_SINCE = 1 << 5;
+
+    protected final DeviceManagerImpl deviceManager;
+    protected final IReplicationService replication;
+
+    /**
+     * Keys of the devices that changed since the last flush
+     */
+    protected final Set<Long> changedDevices =
+            Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    public DeviceReplicationProvider(DeviceManagerImpl deviceManager,
+                                     IReplicationService replication) {
+        this.deviceManager = deviceManager;
+        this.replication = replication;
+    }
+
+    /**
+     * Record that the device with the given key was added, changed or
+     * deleted
+     */
+    public void deviceChanged(Long deviceKey) {
+        if (replication.isReplicating())
+            changedDevices.add(deviceKey);
+    }
+
+    // ********************
+    // IReplicationProvider
+    // ********************
+
+    @Override
+    public String getReplicationDomain() {
+        return DOMAIN;
+    }
+
+    @Override
+    public void writeSnapshot(IReplicationSink sink) {
+        for (Device d : deviceManager.deviceMap.values()) {
+            sink.write(encodeDevice(d));
+        }
+    }
+
+    @Override
+    public void writeChanges(IReplicationSink sink) {
+        Iterator<Long> it = changedDevices.iterator();
+        while (it.hasNext()) {
+            Long deviceKey = it.next();
+            it.remove();
+            Device d = deviceManager.deviceMap.get(deviceKey);
+            if (d != null)
+                sink.write(encodeDevice(d));
+            else
+                sink.write(encodeDelete(deviceKey));
+        }
+    }
+
+    @Override
+    public void clearReplicatedState() {
+        for (Device d : deviceManager.deviceMap.values()) {
+            deviceManager.deleteDevice(d);
+        }
+    }
+
+    @Override
+    public void applyRecord(DataInput in) throws IOException {
+        byte op = in.readByte();
+        Long deviceKey = Long.valueOf(in.readLong());
+        if (op == DELETE) {
+            deviceManager.applyReplicatedDevice(deviceKey, null);
+            return;
+        }
+        if (op != UPDATE)
+            throw new IOException("Unknown device record " + op);
+
+        String dhcpClientName = in.readBoolean() ? in.readUTF() : null;
+        int count = in.readInt();
+        if (count <= 0)
+            throw new IOException("Device " + deviceKey + " has no entities");
+        List<Entity> entities = new ArrayList<Entity>(count);
+        for (int i = 0; i < count; i++) {
+            entities.add(readEntity(in));
+        }
+        List<AttachmentPoint> oldAPs = readAttachmentPoints(in);
+        List<AttachmentPoint> aps = readAttachmentPoints(in);
+
+        IEntityClass entityClass =
+                deviceManager.entityClassifier.classifyEntity(entities.get(0));
+        if (entityClass == null) {
+            deviceManager.applyReplicatedDevice(deviceKey, null);
+            return;
+        }
+        Device device = deviceManager.allocateDevice(deviceKey,
+                                                     dhcpClientName,
+                                                     oldAPs, aps,
+                                                     entities, entityClass);
+        deviceManager.applyReplicatedDevice(deviceKey, device);
+    }
+
+    // **************
+    // Record format
+    // **************
+
+    protected static byte[] encodeDelete(Long deviceKey) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(9);
+        DataOutputStream out = new DataOutputStream(bos);
+        try {
+            out.writeByte(DELETE);
+            out.writeLong(deviceKey);
+        } catch (IOException e) {
+            // not thrown by a ByteArrayOutputStream
+        }
+        return bos.toByteArray();
+    }
+
+    protected static byte[] encodeDevice(Device d) {
+        Entity[] entities = d.entities;
+        ByteArrayOutputStream bos =
+                new ByteArrayOutputStream(64 + 48 * entities.length);
+        DataOutputStream out = new DataOutputStream(bos);
+        try {
+            out.writeByte(UPDATE);
+            out.writeLong(d.getDeviceKey());
+            String dhcpClientName = d.getDHCPClientName();
+            out.writeBoolean(dhcpClientName != null);
+            if (dhcpClientName != null)
+                out.writeUTF(dhcpClientName);
+            out.writeInt(entities.length);
+            for (Entity e : entities) {
+                writeEntity(out, e);
+            }
+            writeAttachmentPoints(out, d.oldAPs);
+            writeAttachmentPoints(out, d.attachmentPoints);
+        } catch (IOException e) {
+            // not thrown by a ByteArrayOutputStream
+        }
+        return bos.toByteArray();
+    }
+
+    protected static void writeEntity(DataOutputStream out, Entity e)
+            throws IOException {
+        int flags = 0;
+        if (e.ipv4Address != null) flags |= HAS_IP;
+        if (e.vlan != null) flags |= HAS_VLAN;
+        if (e.switchDPID != null) flags |= HAS_DPID;
+        if (e.switchPort != null) flags |= HAS_PORT;
+        if (e.lastSeenTimestamp != null) flags |= HAS_LAST_SEEN;
+        if (e.activeSince != null) flags |= HAS_ACTIVE_SINCE;
+
+        out.writeLong(e.macAddress);
+        out.writeByte(flags);
+        if (e.ipv4Address != null) out.writeInt(e.ipv4Address);
+        if (e.vlan != null) out.writeShort(e.vlan);
+        if (e.switchDPID != null) out.writeLong(e.switchDPID);
+        if (e.switchPort != null) out.writeInt(e.switchPort);
+        if (e.lastSeenTimestamp != null)
+            out.writeLong(e.lastSeenTimestamp.getTime());
+        if (e.activeSince != null)
+            out.writeLong(e.activeSince.getTime());
+    }
+
+    protected static Entity readEntity(DataInput in) throws IOException {
+        long mac = in.readLong();
+        int flags = in.readByte();
+        Integer ip = ((flags & HAS_IP) != 0) ? in.readInt() : null;
+        Short vlan = ((flags & HAS_VLAN) != 0) ? in.readShort() : null;
+        Long dpid = ((flags & HAS_DPID) != 0) ? in.readLong() : null;
+        Integer port = ((flags & HAS_PORT) != 0) ? in.readInt() : null;
+        Date lastSeen = ((flags & HAS_LAST_SEEN) != 0) ?
+                new Date(in.readLong()) : null;
+        Entity e = new Entity(mac, vlan, ip, dpid, port, lastSeen);
+        if ((flags & HAS_ACTIVE_SINCE) != 0)
+            e.activeSince = new Date(in.readLong());
+        return e;
+    }
+
+    protected static void writeAttachmentPoints(DataOutputStream out,
+                                                List<AttachmentPoint> aps)
+            throws IOException {
+        if (aps == null) {
+            out.writeInt(-1);
+            return;
+        }
+        // the list may be replaced but is not modified once published
+        out.writeInt(aps.size());
+        for (AttachmentPoint ap : aps) {
+            out.writeLong(ap.getSw());
+            out.writeShort(ap.getPort());
+            out.writeLong(ap.getActiveSince());
+            out.writeLong(ap.getLastSeen());
+        }
+    }
+
+    protected static List<AttachmentPoint> readAttachmentPoints(DataInput in)
+            throws IOException {
+        int count = in.readInt();
+        if (count < 0) return null;
+        List<AttachmentPoint> aps = new ArrayList<AttachmentPoint>(count);
+        for (int i = 0; i < count; i++) {
+            long sw = in.readLong();
+            short port = in.readShort();
+            long activeSince = in.readLong();
+            long lastSeen = in.readLong();
+            aps.add(new AttachmentPoint(sw, port, activeSince, lastSeen));
+        }
+        return aps;
+    }
+}
@@ -37,7 +37,7 @@ import org.openflow.protocol.OFPort;
 import org.openflow.protocol.OFStatisticsReply;
 import org.openflow.protocol.OFStatisticsRequest;
 import org.openflow.protocol.OFType;
-import org.openflow.protocol.statistics.OFFlowStatisticsReply;
+import org.openflow.protocol.statistics.OFFlowStatisticsCursor;
 import org.openflow.protocol.statistics.OFFlowStatisticsRequest;
 import org.openflow.protocol.statistics.OFStatistics;
 import org.openflow.protocol.statistics.OFStatisticsType;
@@ -59,6 +59,7 @@ import org.sdnplatform.devicemanager.SwitchPort;
 import org.sdnplatform.flowcache.FlowCacheObj;
 import org.sdnplatform.flowcache.FlowCacheObj.FCEntry;
 import org.sdnplatform.packet.Ethernet;
+import org.sdnplatform.replication.IReplicationService;
 import org.sdnplatform.threadpool.IThreadPoolService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -115,10 +116,17 @@ public class BetterFlowCache
     protected IControllerService controllerProvider;
     protected IDeviceService      deviceManager;
     protected IThreadPoolService threadPool;
+    protected IReplicationService replication;
+    /** Replicates the flow cache to the standby controllers, null if there
+     *  is no replication service */
+    protected FlowCacheReplicationProvider replicationProvider;
     protected int periodicSwScanInitDelayMsec; // in ms
     protected int periodicSwScanIntervalMsec;  // in ms
     
     protected SendPeriodicFlowQueryToSwitches fqTask;
+    /** Audits the switch flow tables incrementally, null if the flow
+     *  tables are audited with full table dumps */
+    protected FlowTableAuditor auditor;
     
     public class FCCounters {
         public FCCounters() {}
@@ -752,6 +760,7 @@ public class BetterFlowCache
         if (oper == FCOper.NOT_FOUND) {
             return false; /* flow was not found */
         }
+        flowsChanged(curApplInstName, ofmWithSwitchDpid);
         /* flow was deleted from the flowCache - now add it under the new
          * application instance name 
          */
@@ -810,7 +819,7 @@ public class BetterFlowCache
      * @param dstMac the destination device object
      * @return hash map of all the queried flows
      */
-    private ConcurrentHashMap<Long, FlowCacheObj> 
+    protected ConcurrentHashMap<Long, FlowCacheObj> 
                                     getAllFlowsByApplInstDestDeviceInternal(
             String appInstName, short vlan, long dstMac) {
         ConcurrentHashMap<Long, ConcurrentHashMap<Long, FlowCacheObj>> vlanMap =
@@ -913,6 +922,7 @@ public class BetterFlowCache
 
     @Override
     public void deleteFlowCacheBySwitch(long switchDpid) {
+        boolean replicating = isReplicating();
         for (String appInstName : bfcDb.flowCache.keySet()) {
             ConcurrentHashMap <Short, ConcurrentHashMap<Long, 
                     ConcurrentHashMap<Long, FlowCacheObj>>> appInstMap =
@@ -927,9 +937,15 @@ public class BetterFlowCache
                         synchronized(destMap) {
                             for (Long sMac : destMap.keySet()) {
                                 FlowCacheObj fco = destMap.get(sMac);
+                                int active = replicating ?
+                                    fco.countEntries(FlowCacheObj.FCStateACTIVE) : 0;
                                 if (fco.deleteFlowsBySwitch(switchDpid, this)) {
                                     destMap.remove(sMac);
                                 }
+                                if (replicating && active !=
+                                    fco.countEntries(FlowCacheObj.FCStateACTIVE)) {
+                                    flowsChanged(appInstName, vlan, dMac, sMac);
+                                }
                             }
                         }
                     }
@@ -987,7 +1003,7 @@ public class BetterFlowCache
                         Long cookie, SwitchPort swPort,
                         short priority, byte action) {
 
-        String appName = (String)cntx.getStorage().get(FLOWCACHE_APP_INSTANCE_NAME);
+        String appName = APP_INSTANCE_NAME_KEY.get(cntx);
         if (appName == null) {
             // TODO
             if (logger.isTraceEnabled()) {
@@ -1028,6 +1044,110 @@ public class BetterFlowCache
         ofmWithSwDpid.setSwitchDataPathId(srcSwDpid);
         ofmWithSwDpid.getOfMatch().setInputPort(srcInPort);
 
+        Short vlan = ofmWithSwDpid.getOfMatch().getDataLayerVirtualLan();
+        Long destMac = Ethernet.toLong(ofmWithSwDpid.getOfMatch().getDataLayerDestination());
+        ConcurrentHashMap<Long, FlowCacheObj> destMap =
+                getOrCreateDestMap(applInstName, vlan, destMac);
+
+        /** serialized add and delete from destMap since fco may be deleted
+         * before storeFCEntry is called
+         */
+        FCOper fcOper;
+        synchronized(destMap) {
+            Long srcMac = Ethernet.toLong(ofmWithSwDpid.getOfMatch().getDataLayerSource());
+            FlowCacheObj fco;
+            fco = destMap.get(srcMac);
+            if (fco == null) {
+                FlowCacheObj fcoTemp;
+                fco = new FlowCacheObj();
+                fcoTemp = destMap.putIfAbsent(srcMac, fco);
+                if (fcoTemp != null) {
+                    fco = fcoTemp;
+                }
+            }
+    
+            fcOper = fco.storeFCEntry(ofmWithSwDpid, cookie, priority, action, this);
+            if (fcOper == FCOper.NOT_STORED_FULL) {
+                /* Flow-cache was full; add the switch to the list of switches to
+                 * query
+                 */
+                bfcDb.switchesToQuery.add(srcSwDpid);
+            }
+            bfcDb.updateCountsLocal(fcOper);
+        }
+        if (fcOper != FCOper.DAMPENED && fcOper != FCOper.NOT_DAMPENED &&
+            fcOper != FCOper.NOT_STORED_FULL) {
+            flowsChanged(applInstName, ofmWithSwDpid);
+        }
+
+        if ((fcOper == FCOper.DAMPENED)) {
+            return false; /* skip the flow mod. */
+        }
+            
+        return true; /* program the flow mod */
+    }
+
+    /**
+     * @return true if changes to the flow cache need to be recorded for
+     * replication to the standby controllers
+     */
+    protected boolean isReplicating() {
+        return replicationProvider != null && replicationProvider.isReplicating();
+    }
+
+    /**
+     * Record that the flows between the source and destination of the
+     * given match changed so the change is replicated to the standby
+     * controllers
+     */
+    protected void flowsChanged(String appInst, OFMatchWithSwDpid ofmWithSwDpid) {
+        if (replicationProvider == null) return;
+        OFMatch match = ofmWithSwDpid.getOfMatch();
+        flowsChanged(appInst, match.getDataLayerVirtualLan(),
+                     Ethernet.toLong(match.getDataLayerDestination()),
+                     Ethernet.toLong(match.getDataLayerSource()));
+    }
+
+    protected void flowsChanged(String appInst, short vlan,
+                                long dstMac, long srcMac) {
+        if (replicationProvider != null)
+            replicationProvider.flowsChanged(appInst, vlan, dstMac, srcMac);
+    }
+
+    /**
+     * Replace the flows between a source and a destination with the flows
+     * replicated from the master
+     * @param fco the replicated flows or null if there are none
+     */
+    protected void applyReplicatedFlows(String appInst, short vlan,
+                                        long dstMac, long srcMac,
+                                        FlowCacheObj fco) {
+        ConcurrentHashMap<Long, FlowCacheObj> destMap =
+                getOrCreateDestMap(appInst, vlan, dstMac);
+        FCCounters counters = bfcDb.fcLocalCounters.get();
+        synchronized(destMap) {
+            FlowCacheObj old = (fco == null) ?
+                    destMap.remove(srcMac) : destMap.put(srcMac, fco);
+            if (old != null) {
+                counters.activeCnt -=
+                        old.countEntries(FlowCacheObj.FCStateACTIVE);
+                counters.inactiveCnt -=
+                        old.countEntries(FlowCacheObj.FCStateINACTIVE);
+            }
+            if (fco != null) {
+                counters.activeCnt +=
+                        fco.countEntries(FlowCacheObj.FCStateACTIVE);
+            }
+        }
+        bfcDb.updateFlush();
+    }
+
+    /**
+     * Get the map of flow cache objects for a destination, creating the
+     * intermediate maps if needed
+     */
+    protected ConcurrentHashMap<Long, FlowCacheObj> getOrCreateDestMap(
+                            String applInstName, Short vlan, Long destMac) {
         ConcurrentHashMap<Short, ConcurrentHashMap<Long,
                         ConcurrentHashMap<Long, FlowCacheObj>>> applInstMap;
         applInstMap = bfcDb.flowCache.get(applInstName);
@@ -1044,7 +1164,6 @@ public class BetterFlowCache
             }
         }
 
-        Short vlan = ofmWithSwDpid.getOfMatch().getDataLayerVirtualLan();
         ConcurrentHashMap<Long, ConcurrentHashMap<Long, FlowCacheObj>> vlanMap;
         vlanMap = applInstMap.get(vlan);
         if (vlanMap == null) {
@@ -1059,7 +1178,6 @@ public class BetterFlowCache
         }
 
         ConcurrentHashMap<Long, FlowCacheObj> destMap;
-        Long destMac = Ethernet.toLong(ofmWithSwDpid.getOfMatch().getDataLayerDestination());
         destMap = vlanMap.get(destMac);
         if (destMap == null) {
             ConcurrentHashMap<Long, FlowCacheObj> destMapTemp;
@@ -1069,39 +1187,7 @@ public class BetterFlowCache
                 destMap = destMapTemp;
             }
         }
-
-        /** serialized add and delete from destMap since fco may be deleted
-         * before storeFCEntry is called
-         */
-        FCOper fcOper;
-        synchronized(destMap) {
-            Long srcMac = Ethernet.toLong(ofmWithSwDpid.getOfMatch().getDataLayerSource());
-            FlowCacheObj fco;
-            fco = destMap.get(srcMac);
-            if (fco == null) {
-                FlowCacheObj fcoTemp;
-                fco = new FlowCacheObj();
-                fcoTemp = destMap.putIfAbsent(srcMac, fco);
-                if (fcoTemp != null) {
-                    fco = fcoTemp;
-                }
-            }
-    
-            fcOper = fco.storeFCEntry(ofmWithSwDpid, cookie, priority, action, this);
-            if (fcOper == FCOper.NOT_STORED_FULL) {
-                /* Flow-cache was full; add the switch to the list of switches to
-                 * query
-                 */
-                bfcDb.switchesToQuery.add(srcSwDpid);
-            }
-            bfcDb.updateCountsLocal(fcOper);
-        }
-
-        if ((fcOper == FCOper.DAMPENED)) {
-            return false; /* skip the flow mod. */
-        }
-            
-        return true; /* program the flow mod */
+        return destMap;
     }
 
     /**
@@ -1162,6 +1248,7 @@ public class BetterFlowCache
         if (oper == FCOper.NOT_FOUND) {
             return false; /* flow was not found in the flow cache */
         } else {
+            flowsChanged(appInst, ofmWithSwDpid);
             return true;  /* flow was deactivated in the flow cache */
         }
     }
@@ -1245,6 +1332,8 @@ public class BetterFlowCache
         }
         if (oper == FCOper.NOT_FOUND)
             bfcDb.updateCountsLocal(oper);
+        else
+            flowsChanged(appInst, ofmWithSwDpid);
         if (oper != FCOper.NOT_FOUND && oper != FCOper.FCOBJ_FREE) {
             return false; /* flow was not found */
         }
@@ -1316,31 +1405,34 @@ public class BetterFlowCache
     protected void processStatsReplyMsg(IOFSwitch sw,
             OFStatisticsReply statsReplyMsg, ListenerContext cntx) {
         if (logger.isTraceEnabled()) {
-            logger.trace("Recvd. stats reply message from {} count = {}",
-                   sw.getStringId(), statsReplyMsg.getStatistics().size());
+            logger.trace("Recvd. stats reply message from {} length = {}",
+                   sw.getStringId(), statsReplyMsg.getLengthU());
         }
-        List<? extends OFStatistics> statsList = statsReplyMsg.getStatistics();
-        for (OFStatistics rspIdx : statsList) {
-            OFFlowStatisticsReply rspOne = (OFFlowStatisticsReply)rspIdx;
-            OFMatchWithSwDpid ofmWithSwDpid = new OFMatchWithSwDpid(rspOne.getMatch(), sw.getId());
-
+        /* Walk the raw flow entries with a cursor and only build a match
+         * for the entries that are in the flow cache. The match is reused
+         * since the flow cache copies the fields it stores.
+         */
+        OFFlowStatisticsCursor rspOne = new OFFlowStatisticsCursor();
+        rspOne.reset(statsReplyMsg.getStatisticsData());
+        OFMatchWithSwDpid ofmWithSwDpid = null;
+        while (rspOne.next()) {
             /* Skip storing ARP packet in flow-cache since it is a fully specified
              * entry (no wildcard) and it is expected to expire in short timeframe
              * (less than 5s). Note that ARP flow entries are programmed only for
              * ARP response packets from the ARP responder to the ARP query sender.
              */
-            if (ofmWithSwDpid.getOfMatch().getDataLayerType() == Ethernet.TYPE_ARP) {
+            if (rspOne.getDataLayerType() == Ethernet.TYPE_ARP) {
                 continue;
             }
 
             /* Only consider flows with specific source and destination
              * addresses
              */
-            if (!((ofmWithSwDpid.getOfMatch().getWildcards() & 
+            if (!((rspOne.getWildcards() &
                            BetterFlowReconcileManager.ofwSrcDestValid) == 0)) {
                 if (logger.isTraceEnabled()) {
                     logger.trace("Not a specific flow, ignoring: wildcard={}",
-                        ofmWithSwDpid.getOfMatch().getWildcards());
+                        rspOne.getWildcards());
                 }
                 continue;
             }
@@ -1348,6 +1440,9 @@ public class BetterFlowCache
             /* Also, only consider flows at the attachment point of the 
              * source device.
              */
+            short vlan = rspOne.getDataLayerVirtualLan();
+            long dstMac = rspOne.getDataLayerDestination();
+            long srcMac = rspOne.getDataLayerSource();
 
             for (String appName: bfcDb.flowCache.keySet()) {
                 ConcurrentHashMap<Short, ConcurrentHashMap
@@ -1355,19 +1450,22 @@ public class BetterFlowCache
                                         aMap = bfcDb.flowCache.get(appName);
                 if (aMap != null) {
                     ConcurrentHashMap<Long, ConcurrentHashMap<Long, FlowCacheObj>>
-                                vMap = aMap.get(ofmWithSwDpid.getOfMatch().getDataLayerVirtualLan());
+                                vMap = aMap.get(vlan);
                     if (vMap != null) {
                         ConcurrentHashMap<Long, FlowCacheObj> 
-                                dMap = vMap.get(Ethernet.toLong(
-                                                ofmWithSwDpid.getOfMatch().getDataLayerDestination()));
+                                dMap = vMap.get(dstMac);
                         if (dMap != null) {
                             synchronized(dMap) {
-                                FlowCacheObj fco = dMap.get(Ethernet.toLong(
-                                                    ofmWithSwDpid.getOfMatch().getDataLayerSource()));
+                                FlowCacheObj fco = dMap.get(srcMac);
                                 if (fco != null) {
+                                    if (ofmWithSwDpid == null) {
+                                        ofmWithSwDpid = new OFMatchWithSwDpid(
+                                                new OFMatch(), sw.getId());
+                                    }
+                                    rspOne.readMatch(ofmWithSwDpid.getOfMatch());
                                     /* Find the action as permit or deny */
                                     byte action;
-                                    if (rspOne.getActions().isEmpty()) {
+                                    if (!rspOne.hasActions()) {
                                         action = FlowCacheObj.FCActionDENY;
                                     } else {
                                         action = FlowCacheObj.FCActionPERMIT;
@@ -1385,6 +1483,7 @@ public class BetterFlowCache
                                             ofmWithSwDpid, rspOne.getCookie(), 
                                             rspOne.getPriority(), action, this);
                                         bfcDb.updateCountsLocal(fcOper);
+                                        flowsChanged(appName, vlan, dstMac, srcMac);
                                     } else {
                                         if (logger.isTraceEnabled()) {
                                             logger.trace("Switch flow table scan: entry " +
@@ -1671,12 +1770,23 @@ public class BetterFlowCache
                 context.getServiceImpl(IDeviceService.class);
         threadPool =
                 context.getServiceImpl(IThreadPoolService.class);
+        replication =
+                context.getServiceImpl(IReplicationService.class);
+        if (replication != null) {
+            replicationProvider =
+                    new FlowCacheReplicationProvider(this, replication);
+        }
         bfcDb.flowCache = new ConcurrentHashMap<String, ConcurrentHashMap<Short,
                 ConcurrentHashMap<Long, 
                 ConcurrentHashMap<Long, FlowCacheObj>>>>();
         bfcDb.maxFlows = MAX_FLOW_CACHE_SIZE_AS_FLOW_COUNT;
         pendingQueryList = new LinkedBlockingQueue<PendingQuery>();
         fqTask = new SendPeriodicFlowQueryToSwitches(this);
+
+        Map<String, String> configOptions = context.getConfigParams(this);
+        if (Boolean.parseBoolean(configOptions.get("incrementalaudit"))) {
+            auditor = new FlowTableAuditor(this, this);
+        }
     }
 
     @Override
@@ -1685,11 +1795,15 @@ public class BetterFlowCache
         controllerProvider.addOFSwitchListener(this);
         controllerProvider.addOFMessageListener(OFType.FLOW_REMOVED, this);
         controllerProvider.addHAListener(this);
+        if (replicationProvider != null)
+            replication.addReplicationProvider(replicationProvider);
         threadPool.getScheduledExecutor().scheduleAtFixedRate(
                 fqTask,
                 periodicSwScanInitDelayMsec, 
                 periodicSwScanIntervalMsec,
                 TimeUnit.MILLISECONDS);
+        if (auditor != null)
+            auditor.start(periodicSwScanInitDelayMsec);
 
         Thread flowReconcileQueryTask = new Thread() {
             @Override
@@ -1760,6 +1874,7 @@ public class BetterFlowCache
     public void deleteAllFlowsAtASourceSwitch(IOFSwitch sw) {
         long swId =sw.getId();
         FCOper fcOper;
+        boolean replicating = isReplicating();
         for (String appName : bfcDb.flowCache.keySet()) {
             ConcurrentHashMap<Short, ConcurrentHashMap<Long,
                 ConcurrentHashMap<Long, FlowCacheObj>>> aMap =
@@ -1776,8 +1891,10 @@ public class BetterFlowCache
                 Iterator<Entry<Long, ConcurrentHashMap<Long, FlowCacheObj>>>
                                             vIter = vMap.entrySet().iterator();
                 while (vIter.hasNext()) {
-                    ConcurrentHashMap<Long, FlowCacheObj> dMap = 
-                                                    vIter.next().getValue();
+                    Entry<Long, ConcurrentHashMap<Long, FlowCacheObj>> vEntry =
+                                                    vIter.next();
+                    ConcurrentHashMap<Long, FlowCacheObj> dMap =
+                                                    vEntry.getValue();
                     if (dMap == null) {
                         continue;
                     }
@@ -1786,12 +1903,20 @@ public class BetterFlowCache
                                                 dMap.entrySet().iterator();
                         FlowCacheObj fco;
                         while (dIter.hasNext()) {
-                            fco = dIter.next().getValue();
+                            Entry<Long, FlowCacheObj> dEntry = dIter.next();
+                            fco = dEntry.getValue();
                             if (fco != null) {
+                                int active = replicating ?
+                                    fco.countEntries(FlowCacheObj.FCStateACTIVE) : 0;
                                 fcOper = fco.deleteFCEntry(swId, this);
                                 if (fcOper == FCOper.FCOBJ_FREE) {
                                     dIter.remove();
                                 }
+                                if (replicating && active !=
+                                    fco.countEntries(FlowCacheObj.FCStateACTIVE)) {
+                                    flowsChanged(appName, vlan, vEntry.getKey(),
+                                                 dEntry.getKey());
+                                }
                             }
                         }
                     }
@@ -1800,7 +1925,19 @@ public class BetterFlowCache
         }
     }
 
+    /**
+     * Record that a flow of the switch was purged from the flow cache since
+     * the switch flow table no longer has it, i.e., the flow removal
+     * message was lost
+     */
+    protected void flowRemovalLost(long swDpid) {
+        bfcDb.flowModRemovalMsgLossCnt++;
+        if (auditor != null)
+            auditor.flowRemovalLost(swDpid);
+    }
+
     private void scanForStaleFlows(int staleScanCnt) {
+        boolean replicating = isReplicating();
         for (String appName : bfcDb.flowCache.keySet()) {
             ConcurrentHashMap<Short, ConcurrentHashMap<Long,
                 ConcurrentHashMap<Long, FlowCacheObj>>> aMap =
@@ -1817,8 +1954,10 @@ public class BetterFlowCache
                 Iterator<Entry<Long, ConcurrentHashMap<Long, FlowCacheObj>>>
                                             vIter = vMap.entrySet().iterator();
                 while (vIter.hasNext()) {
-                    ConcurrentHashMap<Long, FlowCacheObj> dMap = 
-                                                    vIter.next().getValue();
+                    Entry<Long, ConcurrentHashMap<Long, FlowCacheObj>> vEntry =
+                                                    vIter.next();
+                    ConcurrentHashMap<Long, FlowCacheObj> dMap =
+                                                    vEntry.getValue();
                     if (dMap == null) {
                         continue;
                     }
@@ -1827,9 +1966,17 @@ public class BetterFlowCache
                                                  dMap.entrySet().iterator();
                         FlowCacheObj fco;
                         while (dIter.hasNext()) {
-                            fco = dIter.next().getValue();
+                            Entry<Long, FlowCacheObj> dEntry = dIter.next();
+                            fco = dEntry.getValue();
                             if (fco != null) {
+                                int active = replicating ?
+                                    fco.countEntries(FlowCacheObj.FCStateACTIVE) : 0;
                                 fco.deactivateStaleFlows(staleScanCnt, this);
+                                if (replicating && active !=
+                                    fco.countEntries(FlowCacheObj.FCStateACTIVE)) {
+                                    flowsChanged(appName, vlan, vEntry.getKey(),
+                                                 dEntry.getKey());
+                                }
                             }
                         }
                     }
@@ -1838,12 +1985,30 @@ public class BetterFlowCache
         }
     }
     
+    public void querySwitchStats(long swId,
+                                 IOFMessageListener callbackHandler) {
+        OFMatch match = new OFMatch();
+        match.setWildcards(FlowCacheObj.WILD_ALL);
+        querySwitchStats(swId, match, callbackHandler);
+    }
+
+    /**
+     * Query the flows of a switch with the given input port
+     */
+    public void querySwitchStats(long swId, short inPort,
+                                 IOFMessageListener callbackHandler) {
+        OFMatch match = new OFMatch();
+        match.setWildcards(FlowCacheObj.WILD_ALL & ~OFMatch.OFPFW_IN_PORT);
+        match.setInputPort(inPort);
+        querySwitchStats(swId, match, callbackHandler);
+    }
+
     @LogMessageDoc(level="ERROR",
             message="Failure to send stats request to switch {sw}, {exception}",
             explanation="Controller is not able to send request to switch",
             recommendation=LogMessageDoc.CHECK_SWITCH)
-    public void querySwitchStats(long swId,
-                                 IOFMessageListener callbackHandler) {
+    protected void querySwitchStats(long swId, OFMatch match,
+                                    IOFMessageListener callbackHandler) {
         IOFSwitch sw = controllerProvider.getSwitches().get(swId);
         if ((sw == null) || (!sw.isConnected())) {
             if (logger.isDebugEnabled()) {
@@ -1863,8 +2028,6 @@ public class BetterFlowCache
         int requestLength = req.getLengthU();
 
         OFFlowStatisticsRequest specificReq = new OFFlowStatisticsRequest();
-        OFMatch match = new OFMatch();
-        match.setWildcards(FlowCacheObj.WILD_ALL);
         specificReq.setMatch(match);
         specificReq.setOutPort(OFPort.OFPP_NONE.getValue());
         specificReq.setTableId((byte) 0xff);
@@ -1920,6 +2083,10 @@ public class BetterFlowCache
             /* delete all stale entries from flow cache */
             scanForStaleFlows(STALE_SCAN_COUNT);
             bfcDb.updateFlush();
+            /* The incremental auditor queries the flow tables itself */
+            if (auditor != null) {
+                return;
+            }
             Map<Long, IOFSwitch> switches = controllerProvider.getSwitches();
             if (switches == null) {
                 return;
@@ -2002,7 +2169,8 @@ public class BetterFlowCache
     public void roleChanged(Role oldRole, Role newRole) {
         switch(newRole) {
             case MASTER:
-                // no-op for now, assume it will re-learn all it's state
+                // keep the state replicated from the previous master, if
+                // any, and learn the rest
                 break;
             case SLAVE:
                 if (logger.isDebugEnabled()) {
@@ -33,7 +33,7 @@ import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFStatisticsReply;
 import org.openflow.protocol.OFStatisticsRequest;
 import org.openflow.protocol.OFType;
-import org.openflow.protocol.statistics.OFFlowStatisticsReply;
+import org.openflow.protocol.statistics.OFFlowStatisticsCursor;
 import org.openflow.protocol.statistics.OFFlowStatisticsRequest;
 import org.openflow.protocol.statistics.OFStatistics;
 import org.openflow.protocol.statistics.OFStatisticsType;
@@ -58,7 +58,6 @@ import org.sdnplatform.linkdiscovery.ILinkDiscoveryService;
 import org.sdnplatform.linkdiscovery.ILinkDiscovery.LDUpdate;
 import org.sdnplatform.linkdiscovery.ILinkDiscovery.UpdateOperation;
 import org.sdnplatform.netvirt.virtualrouting.IVirtualRoutingService;
-import org.sdnplatform.packet.Ethernet;
 import org.sdnplatform.routing.ForwardingBase;
 import org.sdnplatform.topology.ITopologyListener;
 import org.sdnplatform.topology.ITopologyService;
@@ -450,8 +449,10 @@ public class BetterFlowReconcileManager extends FlowReconcileManager
             }
             return;
         }
-        List<? extends OFStatistics> rsp = statsReplyMsg.getStatistics();
-        if ((rsp == null) || (rsp.isEmpty())) {
+        /* Walk the raw flow entries, the reply may hold a whole flow table */
+        OFFlowStatisticsCursor rspOne = new OFFlowStatisticsCursor();
+        rspOne.reset(statsReplyMsg.getStatisticsData());
+        if (!rspOne.next()) {
             /* No flow to reroute */
             return;
         }
@@ -463,9 +464,8 @@ public class BetterFlowReconcileManager extends FlowReconcileManager
             logger.trace("Handle statsReply msg from switch {}",
                          HexString.toHexString(sw.getId()));
         }
-        for (OFStatistics rspIdx : rsp) {
-            OFFlowStatisticsReply rspOne = (OFFlowStatisticsReply)rspIdx;
-            OFMatch match = rspOne.getMatch();
+        do {
+            int wildcards = rspOne.getWildcards();
             /* Check if the flow mod is:
              *   (a) specific source mac to specific dest mac 
              *       (wildcard = 
@@ -476,23 +476,23 @@ public class BetterFlowReconcileManager extends FlowReconcileManager
                 logger.trace("Handle statsReply msg from switch {} OFStats: " +
                            "{}, match 0x{}",
                            new Object[] {HexString.toHexString(sw.getId()),
-                           rspOne, Integer.toHexString(match.getWildcards())});
+                           rspOne, Integer.toHexString(wildcards)});
             }
             
             if (AppCookie.extractApp(rspOne.getCookie()) !=
                     ForwardingBase.FORWARDING_APP_ID)
                 continue;
         
-            if ((match.getWildcards() &
+            if ((wildcards &
                     BetterFlowReconcileManager.ofwSrcDestValid) == 0) {
                 /* Case (a) */
-                long srcMac = Ethernet.toLong(match.getDataLayerSource());
-                long dstMac = Ethernet.toLong(match.getDataLayerDestination());
-                short vlan = match.getDataLayerVirtualLan();
-                int srcNWAddr = match.getNetworkSource();
-                int dstNWAddr = match.getNetworkDestination();
+                long srcMac = rspOne.getDataLayerSource();
+                long dstMac = rspOne.getDataLayerDestination();
+                short vlan = rspOne.getDataLayerVirtualLan();
+                int srcNWAddr = rspOne.getNetworkSource();
+                int dstNWAddr = rspOne.getNetworkDestination();
                 long srcDpid = sw.getId();
-                int srcPort = match.getInputPort();
+                int srcPort = rspOne.getInputPort();
 
                 dSrc = deviceManager.findDevice(srcMac, 
                                             vlan,
@@ -532,8 +532,7 @@ public class BetterFlowReconcileManager extends FlowReconcileManager
                         if (logger.isDebugEnabled()) {
                             logger.debug("dest {} is known. skip core switch " +
                                 "flow reconciliation.",
-                                HexString.toHexString(
-                                 match.getDataLayerDestination()).substring(6));
+                                HexString.toHexString(dstMac, 6).substring(6));
                         }
                         continue;
                     }
@@ -556,17 +555,16 @@ public class BetterFlowReconcileManager extends FlowReconcileManager
 
                 }
             } else {
-                if ((match.getWildcards() &
+                if ((wildcards &
                         BetterFlowReconcileManager.ofwDestValidSrcAny) == 0) {
                     /* Case (b)
                      * Src address is ANY - find all flows to the destination
                      * address */
-                    long dstMac =
-                            Ethernet.toLong(match.getDataLayerDestination());
+                    long dstMac = rspOne.getDataLayerDestination();
                     Short vlan = null;
 
-                    if ((match.getWildcards() & OFMatch.OFPFW_DL_VLAN) == 0) {
-                        vlan = match.getDataLayerVirtualLan();
+                    if ((wildcards & OFMatch.OFPFW_DL_VLAN) == 0) {
+                        vlan = rspOne.getDataLayerVirtualLan();
                     }
 
                     Iterator<? extends IDevice> dIter =
@@ -595,11 +593,11 @@ public class BetterFlowReconcileManager extends FlowReconcileManager
                 } else {
                     if (logger.isDebugEnabled()) {
                         logger.debug("Link Removed: Unknown wildcard 0x{}",
-                                Integer.toHexString(match.getWildcards()));
+                                Integer.toHexString(wildcards));
                     }
                 }
             }
-        }
+        } while (rspOne.next());
         /* need to update all VRS flows. Since they can have a vMAC on the 
          * first hop flow mod we can't find them by querying for the dest
          * device. 
@@ -16,6 +16,9 @@
 
 package org.sdnplatform.flowcache;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.ListIterator;
 
@@ -1126,6 +1129,7 @@ public class FlowCacheObj {
                 fce.state = FCStateINACTIVE;
                 fce.scanCnt = 0;
                 numDeletedFlows++;
+                bfc.flowRemovalLost(fce.srcSwitchDpid);
             } else {
                 fce.scanCnt++;
             }
@@ -1143,6 +1147,7 @@ public class FlowCacheObj {
                         e.state = FCStateINACTIVE;
                         e.scanCnt = 0;
                         numDeletedFlows++;
+                        bfc.flowRemovalLost(e.srcSwitchDpid);
                     } else {
                         e.scanCnt++;
                     }
@@ -1225,4 +1230,100 @@ public class FlowCacheObj {
             return false;
         }
     }
+
+    /**
+     * Count the entries in the given state
+     * @param state FCStateACTIVE or FCStateINACTIVE
+     * @return the number of entries in the state
+     */
+    protected int countEntries(byte state) {
+        int count = (fce.state == state) ? 1 : 0;
+        if (fceList != null) {
+            for (FCEntry e : fceList) {
+                if (e.state == state) count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Write the cookie and the active entries, used to replicate the flow
+     * cache to the standby controllers
+     * @param out the output to write to
+     * @throws IOException
+     */
+    protected void writeActiveEntries(DataOutput out) throws IOException {
+        out.writeLong(cookie);
+        out.writeInt(countEntries(FCStateACTIVE));
+        if (fce.state == FCStateACTIVE) writeEntry(out, fce);
+        if (fceList != null) {
+            for (FCEntry e : fceList) {
+                if (e.state == FCStateACTIVE) writeEntry(out, e);
+            }
+        }
+    }
+
+    private static void writeEntry(DataOutput out, FCEntry e)
+            throws IOException {
+        out.writeLong(e.srcSwitchDpid);
+        out.writeShort(e.srcL4Port);
+        out.writeShort(e.destL4Port);
+        out.writeShort(e.inputPort);
+        out.writeShort(e.etherType);
+        out.writeInt(e.srcIpAddr);
+        out.writeInt(e.destIpAddr);
+        out.writeInt(e.wildcards);
+        out.writeShort(e.ofPri);
+        out.writeByte(e.protocol);
+        out.writeByte(e.action);
+        out.writeByte(e.nwTos);
+        out.writeByte(e.pcp);
+    }
+
+    /**
+     * Read a flow cache object written by {@link #writeActiveEntries}.
+     * The entries are not dampened.
+     * @param in the input to read from
+     * @return the flow cache object or null if it has no entries
+     * @throws IOException
+     */
+    protected static FlowCacheObj readActiveEntries(DataInput in)
+            throws IOException {
+        long cookie = in.readLong();
+        int count = in.readInt();
+        if (count <= 0) return null;
+
+        FlowCacheObj fco = new FlowCacheObj();
+        fco.cookie = cookie;
+        fco.installTimeNs = System.nanoTime() - DAMPEN_TIMEOUT_NS;
+        readEntry(in, fco.fce);
+        if (count > 1) {
+            fco.fceList = new ArrayList<FCEntry>(count - 1);
+            for (int i = 1; i < count; i++) {
+                FCEntry e = fco.new FCEntry();
+                readEntry(in, e);
+                fco.fceList.add(e);
+            }
+        }
+        return fco;
+    }
+
+    private static void readEntry(DataInput in, FCEntry e)
+            throws IOException {
+        e.srcSwitchDpid = in.readLong();
+        e.srcL4Port     = in.readShort();
+        e.destL4Port    = in.readShort();
+        e.inputPort     = in.readShort();
+        e.etherType     = in.readShort();
+        e.srcIpAddr     = in.readInt();
+        e.destIpAddr    = in.readInt();
+        e.wildcards     = in.readInt();
+        e.ofPri         = in.readShort();
+        e.protocol      = in.readByte();
+        e.action        = in.readByte();
+        e.nwTos         = in.readByte();
+        e.pcp           = in.readByte();
+        e.state         = FCStateACTIVE;
+        e.scanCnt       = 0;
+    }
 }
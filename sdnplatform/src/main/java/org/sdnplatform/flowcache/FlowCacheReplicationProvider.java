@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.flowcache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.sdnplatform.replication.IReplicationProvider;
+import org.sdnplatform.replication.IReplicationService;
+import org.sdnplatform.replication.IReplicationSink;
+
+/**
+ * Replicates the active flows of the flow cache to the standby controllers.
+ * A record carries all active flows between a source and a destination
+ * MAC address in a VLAN of an application instance, i.e., one
+ * {@link FlowCacheObj}. A record without flows deletes the object.
+ */
+public class FlowCacheReplicationProvider implements IReplicationProvider {
+    public static final String DOMAIN = "flowcache";
+
+    protected final BetterFlowCache flowCache;
+    protected final IReplicationService replication;
+
+    /**
+     * Keys of the flow cache objects that changed since the last flush
+     */
+    protected final Set<FlowKey> changedFlows =
+        Collections.newSetFromMap(new ConcurrentHashMap<FlowKey, Boolean>());
+
+    /**
+     * Identifies a {@link FlowCacheObj} in the flow cache
+     */
+    protected static class FlowKey {
+        protected final String appInstName;
+        protected final short vlan;
+        protected final long dstMac;
+        protected final long srcMac;
+
+        protected FlowKey(String appInstName, short vlan,
+                          long dstMac, long srcMac) {
+            this.appInstName = appInstName;
+            this.vlan = vlan;
+            this.dstMac = dstMac;
+            this.srcMac = srcMac;
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = appInstName.hashCode();
+            result = prime * result + vlan;
+            result = prime * result + (int) (dstMac ^ (dstMac >>> 32));
+            result = prime * result + (int) (srcMac ^ (srcMac >>> 32));
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof FlowKey)) return false;
+            FlowKey other = (FlowKey) obj;
+            return vlan == other.vlan && dstMac == other.dstMac &&
+                   srcMac == other.srcMac &&
+                   appInstName.equals(other.appInstName);
+        }
+    }
+
+    public FlowCacheReplicationProvider(BetterFlowCache flowCache,
+                                        IReplicationService replication) {
+        this.flowCache = flowCache;
+        this.replication = replication;
+    }
+
+    /**
+     * @return true if changes to the flow cache need to be recorded
+     */
+    public boolean isReplicating() {
+        return replication.isReplicating();
+    }
+
+    /**
+     * Record that the flows between the given source and destination
+     * changed
+     */
+    public void flowsChanged(String appInstName, short vlan,
+                             long dstMac, long srcMac) {
+        if (replication.isReplicating())
+            changedFlows.add(new FlowKey(appInstName, vlan, dstMac, srcMac));
+    }
+
+    // ********************
+    // IReplicationProvider
+    // ********************
+
+    @Override
+    public String getReplicationDomain() {
+        return DOMAIN;
+    }
+
+    @Override
+    public void writeSnapshot(IReplicationSink sink) {
+        // The records are encoded under the lock of a destination map and
+        // written after it is released, as the sink may be slow
+        List<byte[]> records = new ArrayList<byte[]>();
+        for (Map.Entry<String, ConcurrentHashMap<Short, ConcurrentHashMap
+                <Long, ConcurrentHashMap<Long, FlowCacheObj>>>> aEntry :
+                    flowCache.getBfcCore().getFlowCache().entrySet()) {
+            for (Map.Entry<Short, ConcurrentHashMap<Long, ConcurrentHashMap
+                    <Long, FlowCacheObj>>> vEntry :
+                        aEntry.getValue().entrySet()) {
+                for (Map.Entry<Long, ConcurrentHashMap<Long, FlowCacheObj>>
+                        dEntry : vEntry.getValue().entrySet()) {
+                    ConcurrentHashMap<Long, FlowCacheObj> destMap =
+                            dEntry.getValue();
+                    synchronized(destMap) {
+                        for (Map.Entry<Long, FlowCacheObj> sEntry :
+                                destMap.entrySet()) {
+                            FlowKey key = new FlowKey(aEntry.getKey(),
+                                                      vEntry.getKey(),
+                                                      dEntry.getKey(),
+                                                      sEntry.getKey());
+                            records.add(encode(key, sEntry.getValue()));
+                        }
+                    }
+                    for (byte[] record : records) {
+                        sink.write(record);
+                    }
+                    records.clear();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void writeChanges(IReplicationSink sink) {
+        Iterator<FlowKey> it = changedFlows.iterator();
+        while (it.hasNext()) {
+            FlowKey key = it.next();
+            it.remove();
+            ConcurrentHashMap<Long, FlowCacheObj> destMap =
+                    flowCache.getAllFlowsByApplInstDestDeviceInternal(
+                            key.appInstName, key.vlan, key.dstMac);
+            if (destMap == null) {
+                sink.write(encode(key, null));
+                continue;
+            }
+            byte[] record;
+            synchronized(destMap) {
+                record = encode(key, destMap.get(key.srcMac));
+            }
+            sink.write(record);
+        }
+    }
+
+    @Override
+    public void clearReplicatedState() {
+        flowCache.clearFlowCache();
+    }
+
+    @Override
+    public void applyRecord(DataInput in) throws IOException {
+        String appInstName = in.readUTF();
+        short vlan = in.readShort();
+        long dstMac = in.readLong();
+        long srcMac = in.readLong();
+        FlowCacheObj fco = FlowCacheObj.readActiveEntries(in);
+        flowCache.applyReplicatedFlows(appInstName, vlan, dstMac, srcMac, fco);
+    }
+
+    /**
+     * Encode the active flows of a flow cache object. The caller must hold
+     * the lock of the destination map of the object.
+     */
+    protected static byte[] encode(FlowKey key, FlowCacheObj fco) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(96);
+        DataOutputStream out = new DataOutputStream(bos);
+        try {
+            out.writeUTF(key.appInstName);
+            out.writeShort(key.vlan);
+            out.writeLong(key.dstMac);
+            out.writeLong(key.srcMac);
+            if (fco != null) {
+                fco.writeActiveEntries(out);
+            } else {
+                out.writeLong(0);
+                out.writeInt(0);
+            }
+        } catch (IOException e) {
+            // not thrown by a ByteArrayOutputStream
+        }
+        return bos.toByteArray();
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.flowcache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openflow.protocol.OFPhysicalPort;
+import org.sdnplatform.core.IOFMessageListener;
+import org.sdnplatform.core.IOFSwitch;
+import org.sdnplatform.core.annotations.LogMessageDoc;
+import org.sdnplatform.core.util.SingletonTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Audits the switch flow tables incrementally instead of dumping every
+ * table in one burst. The flow table of a switch is split into partitions
+ * by input port (every flow in the flow cache matches on a specific input
+ * port) and one partition is queried per tick. The tick is chosen so that
+ * every partition of every switch is queried once per scan interval, which
+ * keeps the stale flow detection of the flow cache working as with full
+ * table dumps while the load on the controller and the switches stays flat.
+ * <p>
+ * Switches whose lost flow removal count rose since their previous audit
+ * cycle are audited at twice the rate until a cycle completes without new
+ * losses.
+ */
+public class FlowTableAuditor implements Runnable {
+    protected static Logger logger =
+            LoggerFactory.getLogger(FlowTableAuditor.class);
+
+    /**
+     * Minimum time between two ticks
+     */
+    protected static final long MIN_AUDIT_TICK_MS = 20;
+
+    protected final BetterFlowCache flowCache;
+    protected final IOFMessageListener callbackHandler;
+    protected SingletonTask auditTask;
+    protected volatile boolean enabled = true;
+
+    protected final ConcurrentHashMap<Long, SwitchAuditState> auditStates =
+            new ConcurrentHashMap<Long, SwitchAuditState>();
+    /**
+     * The switch whose partitions are currently audited
+     */
+    protected Long currentSwitch;
+    /**
+     * The switch that got the last extra audit
+     */
+    protected Long currentPrioritySwitch;
+    /**
+     * Number of partitions of all switches, computed at the start of
+     * each cycle through all switches
+     */
+    protected int totalPartitions;
+
+    /**
+     * The audit progress of a switch
+     */
+    protected static class SwitchAuditState {
+        protected final long dpid;
+        /**
+         * Input ports of the switch at the start of the current cycle
+         */
+        protected short[] partitions;
+        protected int next;
+        protected int nextPriority;
+        protected long cycles;
+        protected long requests;
+        protected long lastCycleTime;
+        protected final AtomicLong lostFlowRemovals = new AtomicLong();
+        protected long lossAtLastCycle;
+        protected volatile boolean priority;
+
+        protected SwitchAuditState(long dpid) {
+            this.dpid = dpid;
+        }
+
+        public long getDpid() {
+            return dpid;
+        }
+
+        public long getCycles() {
+            return cycles;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getLastCycleTime() {
+            return lastCycleTime;
+        }
+
+        public long getLostFlowRemovals() {
+            return lostFlowRemovals.get();
+        }
+
+        public boolean isPriority() {
+            return priority;
+        }
+    }
+
+    public FlowTableAuditor(BetterFlowCache flowCache,
+                            IOFMessageListener callbackHandler) {
+        this.flowCache = flowCache;
+        this.callbackHandler = callbackHandler;
+    }
+
+    /**
+     * Start ticking on the flow cache's executor
+     * @param initialDelayMs the delay before the first tick
+     */
+    public void start(long initialDelayMs) {
+        auditTask = new SingletonTask(
+                flowCache.threadPool.getScheduledExecutor(), this);
+        auditTask.reschedule(initialDelayMs, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Record that the flow cache purged a flow of the switch because the
+     * switch flow table no longer had it, i.e., its flow removal message
+     * was lost
+     */
+    public void flowRemovalLost(long dpid) {
+        getAuditState(dpid).lostFlowRemovals.incrementAndGet();
+    }
+
+    /**
+     * @return the audit progress of the switch or null if the switch was
+     * not audited yet
+     */
+    public SwitchAuditState getSwitchAuditState(long dpid) {
+        return auditStates.get(dpid);
+    }
+
+    @Override
+    @LogMessageDoc(level="ERROR",
+            message="Exception in flow table audit task",
+            explanation="Could not query the flow table of a switch",
+            recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
+    public void run() {
+        long tick = flowCache.periodicSwScanIntervalMsec;
+        try {
+            if (enabled)
+                tick = auditNext();
+        } catch (Exception e) {
+            logger.error("Exception in flow table audit task", e);
+        } finally {
+            if (auditTask != null)
+                auditTask.reschedule(tick, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // ****************
+    // Internal methods
+    // ****************
+
+    protected SwitchAuditState getAuditState(long dpid) {
+        SwitchAuditState state = auditStates.get(dpid);
+        if (state == null) {
+            state = new SwitchAuditState(dpid);
+            SwitchAuditState old = auditStates.putIfAbsent(dpid, state);
+            if (old != null) state = old;
+        }
+        return state;
+    }
+
+    protected static short[] getPartitions(IOFSwitch sw) {
+        Collection<OFPhysicalPort> ports = sw.getPorts();
+        if (ports == null) return new short[0];
+        short[] partitions = new short[ports.size()];
+        int i = 0;
+        for (OFPhysicalPort p : ports) {
+            if (i == partitions.length) break;
+            partitions[i++] = p.getPortNumber();
+        }
+        return partitions;
+    }
+
+    /**
+     * @return the first switch after the given one in datapath id order,
+     * wrapping around, or null if there is no switch
+     */
+    protected static Long nextSwitch(TreeSet<Long> dpids, Long current) {
+        if (dpids.isEmpty()) return null;
+        Long next = (current == null) ? null : dpids.higher(current);
+        return (next == null) ? dpids.first() : next;
+    }
+
+    /**
+     * Query the next partition of the current switch and, if there are
+     * switches that lose flow removals, the next partition of one of them
+     * @return the time until the next tick in milliseconds
+     */
+    protected long auditNext() {
+        Map<Long, IOFSwitch> switches =
+                flowCache.controllerProvider.getSwitches();
+        if (switches == null || switches.isEmpty()) {
+            auditStates.clear();
+            currentSwitch = null;
+            return flowCache.periodicSwScanIntervalMsec;
+        }
+        auditStates.keySet().retainAll(switches.keySet());
+        TreeSet<Long> dpids = new TreeSet<Long>(switches.keySet());
+
+        SwitchAuditState current =
+                (currentSwitch == null) ? null : auditStates.get(currentSwitch);
+        if (current == null || current.partitions == null ||
+            current.next >= current.partitions.length ||
+            !switches.containsKey(currentSwitch)) {
+            currentSwitch = startNextSwitch(dpids, switches);
+        }
+        SwitchAuditState state = getAuditState(currentSwitch);
+        if (state.next < state.partitions.length) {
+            query(state, state.partitions[state.next++]);
+        }
+        if (state.next >= state.partitions.length) {
+            completeCycle(state);
+        }
+
+        List<Long> priority = new ArrayList<Long>();
+        for (SwitchAuditState s : auditStates.values()) {
+            if (s.priority && s.partitions != null &&
+                s.partitions.length > 0)
+                priority.add(s.dpid);
+        }
+        if (!priority.isEmpty()) {
+            currentPrioritySwitch =
+                    nextSwitch(new TreeSet<Long>(priority),
+                               currentPrioritySwitch);
+            SwitchAuditState p = getAuditState(currentPrioritySwitch);
+            if (p.nextPriority >= p.partitions.length)
+                p.nextPriority = 0;
+            query(p, p.partitions[p.nextPriority++]);
+        }
+
+        return Math.max(MIN_AUDIT_TICK_MS, flowCache.periodicSwScanIntervalMsec /
+                        Math.max(1, totalPartitions));
+    }
+
+    /**
+     * Move to the switch after the current one and start its audit cycle
+     * @return the switch to audit
+     */
+    protected Long startNextSwitch(TreeSet<Long> dpids,
+                                   Map<Long, IOFSwitch> switches) {
+        Long dpid = nextSwitch(dpids, currentSwitch);
+        if (dpid.equals(dpids.first())) {
+            // A new cycle through all switches
+            int total = 0;
+            for (IOFSwitch sw : switches.values()) {
+                Collection<OFPhysicalPort> ports = sw.getPorts();
+                total += (ports == null) ? 0 : ports.size();
+            }
+            totalPartitions = total;
+        }
+        SwitchAuditState state = getAuditState(dpid);
+        state.partitions = getPartitions(switches.get(dpid));
+        state.next = 0;
+        return dpid;
+    }
+
+    protected void completeCycle(SwitchAuditState state) {
+        state.cycles++;
+        state.lastCycleTime = System.currentTimeMillis();
+        long loss = state.lostFlowRemovals.get();
+        boolean priority = loss > state.lossAtLastCycle;
+        state.lossAtLastCycle = loss;
+        if (priority != state.priority && logger.isDebugEnabled()) {
+            logger.debug("{} auditing switch {} at a higher rate",
+                         priority ? "Start" : "Stop", state.dpid);
+        }
+        state.priority = priority;
+    }
+
+    protected void query(SwitchAuditState state, short inPort) {
+        state.requests++;
+        flowCache.querySwitchStats(state.dpid, inPort, callbackHandler);
+    }
+}
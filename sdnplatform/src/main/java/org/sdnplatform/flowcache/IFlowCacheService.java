@@ -18,6 +18,7 @@ package org.sdnplatform.flowcache;
 
 import org.openflow.protocol.OFMatchWithSwDpid;
 import org.sdnplatform.core.ListenerContext;
+import org.sdnplatform.core.ListenerContextKey;
 import org.sdnplatform.core.ListenerContextStore;
 import org.sdnplatform.core.IOFSwitch;
 import org.sdnplatform.core.module.IPlatformService;
@@ -42,6 +43,12 @@ public interface IFlowCacheService extends IPlatformService {
     public static final String FLOWCACHE_APP_INSTANCE_NAME = 
     		IFlowCacheService.class.getCanonicalName() + "appInstanceName";
 
+    /**
+     * The typed key for {@link #FLOWCACHE_APP_INSTANCE_NAME}
+     */
+    public static final ListenerContextKey<String> APP_INSTANCE_NAME_KEY =
+            ListenerContextKey.register(FLOWCACHE_APP_INSTANCE_NAME);
+
     /**
      * The flow cache query event type indicating the event that triggered the
      * query. The callerOpaqueObj can be keyed based on this event type
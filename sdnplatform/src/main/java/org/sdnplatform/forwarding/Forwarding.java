@@ -395,8 +395,7 @@ public class Forwarding extends ForwardingBase
         // If we are forwarding packets whose original destination was a
         // tunnel end-point, get the map of all the attachment points for the
         // original tunnel destination.
-        IDevice origDstDevice = IDeviceService.fcStore.get(cntx,
-                                        IDeviceService.CONTEXT_ORIG_DST_DEVICE);
+        IDevice origDstDevice = IDeviceService.ORIG_DST_DEVICE_KEY.get(cntx);
         Map<Long, SwitchPort> origTunnDstMap = null;
         if (origDstDevice != null &&
             tunnelManager.isTunnelEndpoint(origDstDevice)) {
@@ -717,13 +716,11 @@ public class Forwarding extends ForwardingBase
         IDevice dstDevice = null;
         IDevice origDstDevice = null;
         if (ofmRc.cntx != null) {
-             decision = IRoutingDecision.rtStore.get(ofmRc.cntx,
-                                                  IRoutingDecision.CONTEXT_DECISION);
+             decision = IRoutingDecision.DECISION_KEY.get(ofmRc.cntx);
              if (decision != null && decision.getDestinationDevices().size() > 0) {
                  dstDevice = decision.getDestinationDevices().get(0);
              }
-             origDstDevice = IDeviceService.fcStore.get(ofmRc.cntx,
-                                       IDeviceService.CONTEXT_ORIG_DST_DEVICE);
+             origDstDevice = IDeviceService.ORIG_DST_DEVICE_KEY.get(ofmRc.cntx);
         }
         
         if (dstDevice == null) {
@@ -1142,9 +1139,7 @@ public class Forwarding extends ForwardingBase
 
         // Check if the payload has the entire packet.  Otherwise, just drop
         // the packet.
-        Ethernet eth = IControllerService.
-                bcStore.get(cntx, 
-                            IControllerService.CONTEXT_PI_PAYLOAD);
+        Ethernet eth = IControllerService.PI_PAYLOAD_KEY.get(cntx);
         if (eth.getPayload() instanceof IPv4) {
             IPv4 packet = (IPv4) eth.getPayload();
             //ignore the packet if the packet is truncated.
@@ -1370,8 +1365,7 @@ public class Forwarding extends ForwardingBase
                 !tunnelManager.isTunnelEndpoint(decision.getSourceDevice());
 
         // Check if the target IP address is in the tunnel subnet or not.
-        Ethernet ethtry = IControllerService.bcStore
-                .get(cntx, IControllerService.CONTEXT_PI_PAYLOAD);
+        Ethernet ethtry = IControllerService.PI_PAYLOAD_KEY.get(cntx);
         if (tunnelEnabled && ethtry.getEtherType() == Ethernet.TYPE_ARP) {
             ARP a = (ARP) ethtry.getPayload();
             int x = IPv4.toIPv4Address(a.getTargetProtocolAddress());
@@ -1495,8 +1489,7 @@ public class Forwarding extends ForwardingBase
                 continue;
             }
 
-            Ethernet eth = (Ethernet)IControllerService.bcStore
-                    .get(cntx, IControllerService.CONTEXT_PI_PAYLOAD)
+            Ethernet eth = (Ethernet)IControllerService.PI_PAYLOAD_KEY.get(cntx)
                     .clone();
             short origVlan = eth.getVlanID();
 
@@ -1940,8 +1933,7 @@ public class Forwarding extends ForwardingBase
             actionsLength += outputAction.getLengthU();
 
             short hardTimeout = FLOWMOD_DEFAULT_HARD_TIMEOUT;
-            IRoutingDecision decision = IRoutingDecision.rtStore.get(cntx,
-                                             IRoutingDecision.CONTEXT_DECISION);
+            IRoutingDecision decision = IRoutingDecision.DECISION_KEY.get(cntx);
             if (decision != null) {
                 hardTimeout = decision.getHardTimeout();
             }
@@ -2401,8 +2393,7 @@ public class Forwarding extends ForwardingBase
     private int getTargetIpForFakeArp(IPv4 payload, ListenerContext cntx,
                                       boolean origDstHigherPriTarget) {
         int targetIp = payload.getDestinationAddress();
-        IDevice origDstDevice = IDeviceService.fcStore.get(cntx,
-                                    IDeviceService.CONTEXT_ORIG_DST_DEVICE);
+        IDevice origDstDevice = IDeviceService.ORIG_DST_DEVICE_KEY.get(cntx);
         if (origDstDevice != null && origDstHigherPriTarget) {
             Integer[] ipAddrs = origDstDevice.getIPv4Addresses();
             if (ipAddrs != null && ipAddrs.length > 0) {
@@ -2431,8 +2422,7 @@ public class Forwarding extends ForwardingBase
                                               IOFSwitch sw,
                                               ListenerContext cntx,
                                               boolean origDstHigherPriTarget) {
-        Ethernet eth = IControllerService.bcStore.get(cntx,
-                                IControllerService.CONTEXT_PI_PAYLOAD);
+        Ethernet eth = IControllerService.PI_PAYLOAD_KEY.get(cntx);
         if (eth == null) return false;
         if (!(eth instanceof Ethernet)) return false;
         if (eth.isBroadcast()) return false;
@@ -2499,8 +2489,7 @@ public class Forwarding extends ForwardingBase
     injectFakeArpOnAllowedIncomingUnicastNodePort(NodePortTuple allowedSrcPort,
                                               ListenerContext cntx,
                                               boolean origDstHigherPriTarget) {
-        Ethernet eth = IControllerService.bcStore.get(cntx,
-                                IControllerService.CONTEXT_PI_PAYLOAD);
+        Ethernet eth = IControllerService.PI_PAYLOAD_KEY.get(cntx);
         if (eth == null) return false;
         if (!(eth instanceof Ethernet)) return false;
         if (eth.isBroadcast()) return false;
@@ -23,7 +23,7 @@ import java.util.Map;
 
 import org.sdnplatform.addressspace.IAddressSpaceManagerService;
 import org.sdnplatform.core.ListenerContext;
-import org.sdnplatform.core.ListenerContextStore;
+import org.sdnplatform.core.ListenerContextKey;
 import org.sdnplatform.core.module.ModuleContext;
 import org.sdnplatform.core.module.ModuleException;
 import org.sdnplatform.core.module.IModule;
@@ -36,8 +36,8 @@ public class RewriteServiceImpl implements IRewriteService, IModule {
     protected static final String REWRITE_RULE = 
             "org.sdnplatform.forwarding.rewrite_rule";
     
-    protected static final ListenerContextStore<RewriteRule> rwStore = 
-            new ListenerContextStore<RewriteRule>();
+    protected static final ListenerContextKey<RewriteRule> REWRITE_RULE_KEY = 
+            ListenerContextKey.register(REWRITE_RULE);
     
     protected class RewriteRule {
         protected Long origDstMac;
@@ -55,11 +55,11 @@ public class RewriteServiceImpl implements IRewriteService, IModule {
         RewriteRule rule;
         if (cntx == null)
             throw new NullPointerException("cntx cannot be null");
-        rule = rwStore.get(cntx, REWRITE_RULE);
+        rule = REWRITE_RULE_KEY.get(cntx);
         if (rule == null) {
             // no rules in context yet
             rule = new RewriteRule();
-            rwStore.put(cntx, REWRITE_RULE, rule);
+            REWRITE_RULE_KEY.put(cntx, rule);
         }
         return rule;
     }
@@ -69,7 +69,7 @@ public class RewriteServiceImpl implements IRewriteService, IModule {
         RewriteRule rule;
         if (cntx == null)
             throw new NullPointerException("cntx cannot be null");
-        rule = rwStore.get(cntx, REWRITE_RULE);
+        rule = REWRITE_RULE_KEY.get(cntx);
         return rule;
     }
     
@@ -26,7 +26,7 @@ import org.sdnplatform.core.types.MacVlanPair;
 public interface ILearningSwitchService extends IPlatformService {
     /**
      * Returns the LearningSwitch's learned host table
-     * @return The learned host table
+     * @return A snapshot of the learned host table
      */
     public Map<IOFSwitch, Map<MacVlanPair,Short>> getTable();
 }
@@ -49,11 +49,11 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 
 import org.openflow.protocol.OFError;
@@ -68,7 +68,6 @@ import org.openflow.protocol.OFType;
 import org.openflow.protocol.action.OFAction;
 import org.openflow.protocol.action.OFActionOutput;
 import org.openflow.util.HexString;
-import org.openflow.util.LRULinkedHashMap;
 import org.sdnplatform.core.ListenerContext;
 import org.sdnplatform.core.IControllerService;
 import org.sdnplatform.core.IOFMessageListener;
@@ -81,6 +80,7 @@ import org.sdnplatform.core.types.MacVlanPair;
 import org.sdnplatform.counter.ICounterStoreService;
 import org.sdnplatform.packet.Ethernet;
 import org.sdnplatform.restserver.IRestApiService;
+import org.sdnplatform.util.LongTimedCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -93,8 +93,9 @@ public class LearningSwitch
     protected ICounterStoreService counterStore;
     protected IRestApiService restApi;
     
-    // Stores the learned state for each switch
-    protected Map<IOFSwitch, Map<MacVlanPair,Short>> macVlanToSwitchPortMap;
+    // Stores the learned state for each switch, keyed by the packed
+    // MAC/VLAN pair
+    protected ConcurrentMap<IOFSwitch, LongTimedCache> macVlanToSwitchPortMap;
 
     // flow-mod - for use in the cookie
     public static final int LEARNING_SWITCH_APP_ID = 1;
@@ -111,6 +112,7 @@ public class LearningSwitch
     
     // for managing our map sizes
     protected static final int MAX_MACS_PER_SWITCH  = 1000;    
+    protected static final int MAC_AGING_TIME = 300 * 1000; // ms
 
     // normally, setup reverse flow as well. Disable only for using cbench for comparison with NOX etc.
     protected static final boolean LEARNING_SWITCH_REVERSE_FLOW = true;
@@ -135,7 +137,7 @@ public class LearningSwitch
      * @param portVal The switchport that the host is on
      */
     protected void addToPortMap(IOFSwitch sw, long mac, short vlan, short portVal) {
-        Map<MacVlanPair,Short> swMap = macVlanToSwitchPortMap.get(sw);
+        LongTimedCache swMap = macVlanToSwitchPortMap.get(sw);
         
         if (vlan == (short) 0xffff) {
             // OFMatch.loadFromPacket sets VLAN ID to 0xffff if the packet contains no VLAN tag;
@@ -144,11 +146,13 @@ public class LearningSwitch
         }
         
         if (swMap == null) {
-            // May be accessed by REST API so we need to make it thread safe
-            swMap = Collections.synchronizedMap(new LRULinkedHashMap<MacVlanPair,Short>(MAX_MACS_PER_SWITCH));
-            macVlanToSwitchPortMap.put(sw, swMap);
+            swMap = new LongTimedCache(MAX_MACS_PER_SWITCH, MAC_AGING_TIME);
+            LongTimedCache oldMap =
+                    macVlanToSwitchPortMap.putIfAbsent(sw, swMap);
+            if (oldMap != null)
+                swMap = oldMap;
         }
-        swMap.put(new MacVlanPair(mac, vlan), portVal);
+        swMap.put(MacVlanPair.toLong(mac, vlan), portVal);
     }
     
     /**
@@ -161,9 +165,9 @@ public class LearningSwitch
         if (vlan == (short) 0xffff) {
             vlan = 0;
         }
-        Map<MacVlanPair,Short> swMap = macVlanToSwitchPortMap.get(sw);
+        LongTimedCache swMap = macVlanToSwitchPortMap.get(sw);
         if (swMap != null)
-            swMap.remove(new MacVlanPair(mac, vlan));
+            swMap.remove(MacVlanPair.toLong(mac, vlan));
     }
 
     /**
@@ -177,9 +181,12 @@ public class LearningSwitch
         if (vlan == (short) 0xffff) {
             vlan = 0;
         }
-        Map<MacVlanPair,Short> swMap = macVlanToSwitchPortMap.get(sw);
-        if (swMap != null)
-            return swMap.get(new MacVlanPair(mac, vlan));
+        LongTimedCache swMap = macVlanToSwitchPortMap.get(sw);
+        if (swMap != null) {
+            int port = swMap.get(MacVlanPair.toLong(mac, vlan));
+            if (port >= 0)
+                return (short) port;
+        }
         
         // if none found
         return null;
@@ -197,14 +204,25 @@ public class LearningSwitch
      * @param sw The switch to clear the mapping for
      */
     public void clearLearnedTable(IOFSwitch sw) {
-        Map<MacVlanPair, Short> swMap = macVlanToSwitchPortMap.get(sw);
+        LongTimedCache swMap = macVlanToSwitchPortMap.get(sw);
         if (swMap != null)
             swMap.clear();
     }
     
     @Override
-    public synchronized Map<IOFSwitch, Map<MacVlanPair,Short>> getTable() {
-        return macVlanToSwitchPortMap;
+    public Map<IOFSwitch, Map<MacVlanPair,Short>> getTable() {
+        Map<IOFSwitch, Map<MacVlanPair,Short>> table =
+                new HashMap<IOFSwitch, Map<MacVlanPair,Short>>();
+        for (Map.Entry<IOFSwitch, LongTimedCache> e :
+                macVlanToSwitchPortMap.entrySet()) {
+            Map<MacVlanPair,Short> swTable = new HashMap<MacVlanPair,Short>();
+            for (Map.Entry<Long, Integer> entry : e.getValue().toMap().entrySet()) {
+                swTable.put(MacVlanPair.fromLong(entry.getKey()),
+                            entry.getValue().shortValue());
+            }
+            table.put(e.getKey(), swTable);
+        }
+        return table;
     }
     
     /**
@@ -583,7 +601,7 @@ public class LearningSwitch
     public void init(ModuleContext context)
             throws ModuleException {
         macVlanToSwitchPortMap = 
-                new ConcurrentHashMap<IOFSwitch, Map<MacVlanPair,Short>>();
+                new ConcurrentHashMap<IOFSwitch, LongTimedCache>();
         controllerProvider =
                 context.getServiceImpl(IControllerService.class);
         counterStore =
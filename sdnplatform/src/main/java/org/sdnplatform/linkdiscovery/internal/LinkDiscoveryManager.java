@@ -100,6 +100,7 @@ import org.sdnplatform.packet.Ethernet;
 import org.sdnplatform.packet.IPv4;
 import org.sdnplatform.packet.LLDP;
 import org.sdnplatform.packet.LLDPTLV;
+import org.sdnplatform.replication.IReplicationService;
 import org.sdnplatform.restserver.IRestApiService;
 import org.sdnplatform.routing.Link;
 import org.sdnplatform.storage.IResultSet;
@@ -109,6 +110,7 @@ import org.sdnplatform.storage.OperatorPredicate;
 import org.sdnplatform.storage.StorageException;
 import org.sdnplatform.threadpool.IThreadPoolService;
 import org.sdnplatform.topology.NodePortTuple;
+import org.sdnplatform.util.ConcurrentLinkedHashSet;
 import org.sdnplatform.util.EventHistory;
 import org.sdnplatform.util.EventHistory.EvAction;
 import org.slf4j.Logger;
@@ -156,6 +158,7 @@ public class LinkDiscoveryManager implements IOFMessageListener,
     protected IStorageSourceService storageSource;
     protected IThreadPoolService threadPool;
     protected IRestApiService restApi;
+    protected IReplicationService replication;
 
     // LLDP and BDDP fields
     private static final byte[] LLDP_STANDARD_DST_MAC_STRING =
@@ -245,10 +248,11 @@ public class LinkDiscoveryManager implements IOFMessageListener,
     /**
      * A list of ports that are quarantined for discovering links through them.
      * Data traffic from these ports are not allowed until the ports are
-     * released from quarantine.
+     * released from quarantine. Both queues are sets in insertion order so
+     * that the membership check done for every packet-in is O(1).
      */
-    protected LinkedBlockingQueue<NodePortTuple> quarantineQueue;
-    protected LinkedBlockingQueue<NodePortTuple> maintenanceQueue;
+    protected ConcurrentLinkedHashSet<NodePortTuple> quarantineQueue;
+    protected ConcurrentLinkedHashSet<NodePortTuple> maintenanceQueue;
     /**
      * Quarantine task
      */
@@ -256,6 +260,12 @@ public class LinkDiscoveryManager implements IOFMessageListener,
     protected final int BDDP_TASK_INTERVAL = 100; // 100 ms.
     protected final int BDDP_TASK_SIZE = 5; // # of ports per iteration
 
+    /**
+     * Batches the writes to the link table
+     */
+    protected LinkStorageWriter linkStorageWriter;
+    protected int linkFlushInterval = 100; // ms
+
     /**
      * Map of broadcast domain ports and the last time a BDDP was either sent or
      * received on that port.
@@ -550,8 +560,7 @@ public class LinkDiscoveryManager implements IOFMessageListener,
 
     protected Command handlePacketIn(long sw, OFPacketIn pi,
                                      ListenerContext cntx) {
-        Ethernet eth = IControllerService.bcStore.get(cntx,
-                           IControllerService.CONTEXT_PI_PAYLOAD);
+        Ethernet eth = IControllerService.PI_PAYLOAD_KEY.get(cntx);
 
         if (eth.getEtherType() == Ethernet.TYPE_BSN) {
             BSN bsn = (BSN) eth.getPayload();
@@ -1034,17 +1043,14 @@ public class LinkDiscoveryManager implements IOFMessageListener,
      * @param npt
      */
     protected void addToQuarantineQueue(NodePortTuple npt) {
-        if (quarantineQueue.contains(npt) == false)
-                                                   quarantineQueue.add(npt);
+        quarantineQueue.add(npt);
     }
 
     /**
      * Remove a switch port from the quarantine queue.
      */
     protected void removeFromQuarantineQueue(NodePortTuple npt) {
-        // Remove all occurrences of the node port tuple from the list.
-        while (quarantineQueue.remove(npt))
-            ;
+        quarantineQueue.remove(npt);
     }
 
     /**
@@ -1053,11 +1059,7 @@ public class LinkDiscoveryManager implements IOFMessageListener,
      * @param npt
      */
     protected void addToMaintenanceQueue(NodePortTuple npt) {
-        // TODO We are not checking if the switch port tuple is already
-        // in the maintenance list or not. This will be an issue for
-        // really large number of switch ports in the network.
-        if (maintenanceQueue.contains(npt) == false)
-                                                    maintenanceQueue.add(npt);
+        maintenanceQueue.add(npt);
     }
 
     /**
@@ -1066,9 +1068,7 @@ public class LinkDiscoveryManager implements IOFMessageListener,
      * @param npt
      */
     protected void removeFromMaintenanceQueue(NodePortTuple npt) {
-        // Remove all occurrences of the node port tuple from the queue.
-        while (maintenanceQueue.remove(npt))
-            ;
+        maintenanceQueue.remove(npt);
     }
 
     /**
@@ -1081,9 +1081,9 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         int count = 0;
         Set<NodePortTuple> nptList = new HashSet<NodePortTuple>();
 
-        while (count < BDDP_TASK_SIZE && quarantineQueue.peek() != null) {
-            NodePortTuple npt;
-            npt = quarantineQueue.remove();
+        NodePortTuple npt;
+        while (count < BDDP_TASK_SIZE &&
+               (npt = quarantineQueue.poll()) != null) {
             sendDiscoveryMessage(npt.getNodeId(), npt.getPortId(), false,
                                  false);
             nptList.add(npt);
@@ -1091,16 +1091,16 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         }
 
         count = 0;
-        while (count < BDDP_TASK_SIZE && maintenanceQueue.peek() != null) {
-            NodePortTuple npt;
-            npt = maintenanceQueue.remove();
+        while (count < BDDP_TASK_SIZE &&
+               (npt = maintenanceQueue.poll()) != null) {
             sendDiscoveryMessage(npt.getNodeId(), npt.getPortId(), false,
                                  false);
             count++;
         }
 
-        for (NodePortTuple npt : nptList) {
-            generateSwitchPortStatusUpdate(npt.getNodeId(), npt.getPortId());
+        for (NodePortTuple released : nptList) {
+            generateSwitchPortStatusUpdate(released.getNodeId(),
+                                           released.getPortId());
         }
     }
 
@@ -1888,6 +1888,7 @@ public class LinkDiscoveryManager implements IOFMessageListener,
      * Deletes all links from storage
      */
     void clearAllLinks() {
+        linkStorageWriter.clear();
         storageSource.deleteRowsAsync(LINK_TABLE_NAME, null);
     }
 
@@ -1958,7 +1959,7 @@ public class LinkDiscoveryManager implements IOFMessageListener,
             }
             rowValues.put(LINK_DST_PORT_STATE, linkInfo.getDstPortState());
         }
-        storageSource.updateRowAsync(LINK_TABLE_NAME, rowValues);
+        linkStorageWriter.updateLink(id, rowValues);
     }
 
     /**
@@ -1968,8 +1969,7 @@ public class LinkDiscoveryManager implements IOFMessageListener,
      *            The LinkTuple to delete.
      */
     protected void removeLinkFromStorage(Link lt) {
-        String id = getLinkId(lt);
-        storageSource.deleteRowAsync(LINK_TABLE_NAME, id);
+        linkStorageWriter.removeLink(getLinkId(lt));
     }
 
     public Long readLinkValidTime(Link lt) {
@@ -2046,12 +2046,20 @@ public class LinkDiscoveryManager implements IOFMessageListener,
     }
 
     @Override
+    @LogMessageDoc(level = "WARN",
+                   message = "Error link flush interval, using default of "
+                             + "{interval} ms",
+                   explanation = "The configured link flush interval is not "
+                                 + "a number",
+                   recommendation = "Correct the linkflushinterval "
+                                    + "configuration parameter")
     public void init(ModuleContext context)
             throws ModuleException {
         controllerProvider = context.getServiceImpl(IControllerService.class);
         storageSource = context.getServiceImpl(IStorageSourceService.class);
         threadPool = context.getServiceImpl(IThreadPoolService.class);
         restApi = context.getServiceImpl(IRestApiService.class);
+        replication = context.getServiceImpl(IReplicationService.class);
 
         // read our config options
         Map<String, String> configOptions = context.getConfigParams(this);
@@ -2064,6 +2072,15 @@ public class LinkDiscoveryManager implements IOFMessageListener,
             log.warn("Error event history size, using default of {} seconds", EVENT_HISTORY_SIZE);
         }
         log.debug("Event history size set to {}", EVENT_HISTORY_SIZE);
+        String flushInterval = configOptions.get("linkflushinterval");
+        if (flushInterval != null) {
+            try {
+                linkFlushInterval = Integer.parseInt(flushInterval);
+            } catch (NumberFormatException e) {
+                log.warn("Error link flush interval, using default of {} ms",
+                         linkFlushInterval);
+            }
+        }
 
         // Set the autoportfast feature to false.
         this.autoPortFastFeature = AUTOPORTFAST_DEFAULT;
@@ -2077,8 +2094,11 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         this.suppressLinkDiscovery = Collections.synchronizedSet(new HashSet<NodePortTuple>());
         this.portBroadcastDomainLinks = new HashMap<NodePortTuple, Set<Link>>();
         this.switchLinks = new HashMap<Long, Set<Link>>();
-        this.quarantineQueue = new LinkedBlockingQueue<NodePortTuple>();
-        this.maintenanceQueue = new LinkedBlockingQueue<NodePortTuple>();
+        this.quarantineQueue = new ConcurrentLinkedHashSet<NodePortTuple>();
+        this.maintenanceQueue = new ConcurrentLinkedHashSet<NodePortTuple>();
+        this.linkStorageWriter = new LinkStorageWriter(storageSource,
+                                                       LINK_TABLE_NAME,
+                                                       linkFlushInterval);
 
         this.evHistTopologySwitch = new EventHistory<EventHistoryTopologySwitch>(EVENT_HISTORY_SIZE);
         this.evHistTopologyLink = new EventHistory<EventHistoryTopologyLink>(EVENT_HISTORY_SIZE);
@@ -2135,6 +2155,7 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         }
 
         ScheduledExecutorService ses = threadPool.getScheduledExecutor();
+        linkStorageWriter.startUp(ses);
 
         // To be started by the first switch connection
         discoveryTask = new SingletonTask(ses, new Runnable() {
@@ -2205,6 +2226,9 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         if (restApi != null)
                             restApi.addRestletRoutable(new LinkDiscoveryWebRoutable());
         setControllerTLV();
+        // Restores the links saved before a restart, so do this last
+        if (replication != null)
+            replication.addSnapshotProvider(new LinkSnapshotProvider(this));
     }
 
     // ****************************************************
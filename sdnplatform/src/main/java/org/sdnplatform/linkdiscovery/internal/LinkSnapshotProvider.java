@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.linkdiscovery.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.sdnplatform.linkdiscovery.LinkInfo;
+import org.sdnplatform.replication.IReplicationProvider;
+import org.sdnplatform.replication.IReplicationSink;
+import org.sdnplatform.routing.Link;
+
+/**
+ * Saves the discovered links to the local state file so that a restarted
+ * controller starts with the links it knew about. Restored links are
+ * provisional: their LLDP and BDDP valid times are set to the restore
+ * time, so a link that is not confirmed by link discovery times out like
+ * any other link. Links are not replicated to the standby controllers,
+ * every controller discovers them by itself.
+ */
+public class LinkSnapshotProvider implements IReplicationProvider {
+    public static final String DOMAIN = "linkdiscovery";
+
+    protected final LinkDiscoveryManager linkDiscovery;
+
+    public LinkSnapshotProvider(LinkDiscoveryManager linkDiscovery) {
+        this.linkDiscovery = linkDiscovery;
+    }
+
+    // ********************
+    // IReplicationProvider
+    // ********************
+
+    @Override
+    public String getReplicationDomain() {
+        return DOMAIN;
+    }
+
+    @Override
+    public void writeSnapshot(IReplicationSink sink) {
+        List<byte[]> records = new ArrayList<byte[]>();
+        linkDiscovery.lock.readLock().lock();
+        try {
+            for (Map.Entry<Link, LinkInfo> e :
+                    linkDiscovery.links.entrySet()) {
+                records.add(encode(e.getKey(), e.getValue()));
+            }
+        } finally {
+            linkDiscovery.lock.readLock().unlock();
+        }
+        for (byte[] record : records) {
+            sink.write(record);
+        }
+    }
+
+    @Override
+    public void writeChanges(IReplicationSink sink) {
+        // links are not replicated
+    }
+
+    @Override
+    public void clearReplicatedState() {
+        // links are not replicated
+    }
+
+    @Override
+    public void applyRecord(DataInput in) throws IOException {
+        Link lt = new Link(in.readLong(), in.readShort(),
+                           in.readLong(), in.readShort());
+        long firstSeenTime = in.readLong();
+        boolean unicast = in.readBoolean();
+        boolean multicast = in.readBoolean();
+        int srcPortState = in.readInt();
+        int dstPortState = in.readInt();
+
+        linkDiscovery.lock.writeLock().lock();
+        try {
+            // a link that was discovered in the meantime is more current
+            if (linkDiscovery.links.containsKey(lt)) return;
+            Long now = System.currentTimeMillis();
+            LinkInfo info = new LinkInfo(firstSeenTime,
+                                         unicast ? now : null,
+                                         multicast ? now : null,
+                                         srcPortState, dstPortState);
+            linkDiscovery.addOrUpdateLink(lt, info);
+        } finally {
+            linkDiscovery.lock.writeLock().unlock();
+        }
+    }
+
+    // ****************
+    // Internal methods
+    // ****************
+
+    protected static byte[] encode(Link lt, LinkInfo info) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(48);
+        DataOutputStream out = new DataOutputStream(bos);
+        try {
+            out.writeLong(lt.getSrc());
+            out.writeShort(lt.getSrcPort());
+            out.writeLong(lt.getDst());
+            out.writeShort(lt.getDstPort());
+            Long firstSeenTime = info.getFirstSeenTime();
+            out.writeLong(firstSeenTime == null ? 0 : firstSeenTime);
+            out.writeBoolean(info.getUnicastValidTime() != null);
+            out.writeBoolean(info.getMulticastValidTime() != null);
+            out.writeInt(info.getSrcPortState());
+            out.writeInt(info.getDstPortState());
+        } catch (IOException e) {
+            // not thrown by a ByteArrayOutputStream
+        }
+        return bos.toByteArray();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.linkdiscovery.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.sdnplatform.core.util.SingletonTask;
+import org.sdnplatform.storage.IStorageSourceService;
+
+/**
+ * Write-behind persistence of the link table. Link updates and deletions
+ * are collected per link ID and written to storage once per flush
+ * interval, as one batched update and one batched delete. Only the last
+ * operation on a link within an interval is written, so a link that is
+ * refreshed by every LLDP costs one row write per interval rather than one
+ * per LLDP.
+ */
+public class LinkStorageWriter {
+    protected final IStorageSourceService storageSource;
+    protected final String tableName;
+    protected final int flushInterval;
+
+    // Pending rows by link ID; a null row is a deletion. Guarded by this.
+    protected Map<String, Map<String, Object>> pending =
+            new HashMap<String, Map<String, Object>>();
+    protected boolean flushScheduled = false;
+
+    protected SingletonTask flushTask;
+
+    /**
+     * @param storageSource the storage source to write to
+     * @param tableName the link table
+     * @param flushInterval the flush interval in milliseconds
+     */
+    public LinkStorageWriter(IStorageSourceService storageSource,
+                             String tableName, int flushInterval) {
+        this.storageSource = storageSource;
+        this.tableName = tableName;
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * Start flushing pending writes on the given executor
+     */
+    public void startUp(ScheduledExecutorService ses) {
+        flushTask = new SingletonTask(ses, new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        });
+    }
+
+    /**
+     * Write the given row for the link with the given ID
+     */
+    public void updateLink(String id, Map<String, Object> row) {
+        enqueue(id, row);
+    }
+
+    /**
+     * Delete the link with the given ID
+     */
+    public void removeLink(String id) {
+        enqueue(id, null);
+    }
+
+    /**
+     * Discard the pending writes, e.g. because the whole table is
+     * being deleted
+     */
+    public synchronized void clear() {
+        pending.clear();
+    }
+
+    /**
+     * @return the number of links with a pending write
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    protected void enqueue(String id, Map<String, Object> row) {
+        boolean schedule;
+        synchronized (this) {
+            pending.put(id, row);
+            schedule = !flushScheduled;
+            flushScheduled = true;
+        }
+        if (schedule) {
+            if (flushTask != null)
+                flushTask.reschedule(flushInterval, TimeUnit.MILLISECONDS);
+            else
+                flush();
+        }
+    }
+
+    /**
+     * Write all pending updates and deletions to storage
+     */
+    public void flush() {
+        Map<String, Map<String, Object>> batch;
+        synchronized (this) {
+            batch = pending;
+            pending = new HashMap<String, Map<String, Object>>();
+            flushScheduled = false;
+        }
+        if (batch.isEmpty())
+            return;
+
+        List<Map<String, Object>> updates =
+                new ArrayList<Map<String, Object>>(batch.size());
+        Set<Object> deletes = new HashSet<Object>();
+        for (Map.Entry<String, Map<String, Object>> e : batch.entrySet()) {
+            if (e.getValue() != null)
+                updates.add(e.getValue());
+            else
+                deletes.add(e.getKey());
+        }
+        if (!deletes.isEmpty())
+            storageSource.deleteRowsAsync(tableName, deletes);
+        if (!updates.isEmpty())
+            storageSource.updateRowsAsync(tableName, updates);
+    }
+}
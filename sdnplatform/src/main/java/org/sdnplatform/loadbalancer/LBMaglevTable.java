@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.loadbalancer;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing lookup table for the members of a pool, populated as
+ * described in "Maglev: A Fast and Reliable Software Network Load
+ * Balancer". Every member walks its own permutation of the table slots and
+ * the members claim free slots in turn, a member of weight w taking w slots
+ * per turn. Adding or removing a member only moves about 1/n of the slots.
+ *
+ * The table is immutable once built, so lookups need no locking; a pool
+ * publishes a new table when its membership changes.
+ */
+public class LBMaglevTable {
+    /**
+     * Default table size. It has to be a prime much larger than the number
+     * of members.
+     */
+    public static final int DEFAULT_SIZE = 65537;
+
+    private static final long SEED_OFFSET = 0x9e3779b97f4a7c15L;
+    private static final long SEED_SKIP = 0xc2b2ae3d27d4eb4fL;
+
+    protected static final LBMaglevTable EMPTY =
+            new LBMaglevTable(Collections.<String, Integer>emptyMap(),
+                              DEFAULT_SIZE);
+
+    protected final String[] members;
+    protected final int[] slots;
+
+    /**
+     * Build a table
+     * @param weights the weight of each member id; members with a weight
+     * less than one are left out
+     * @param size the table size, a prime
+     */
+    public LBMaglevTable(Map<String, Integer> weights, int size) {
+        // order the members by id so the table only depends on the set
+        TreeMap<String, Integer> sorted = new TreeMap<String, Integer>();
+        for (Map.Entry<String, Integer> e : weights.entrySet()) {
+            if (e.getValue() != null && e.getValue() > 0)
+                sorted.put(e.getKey(), e.getValue());
+        }
+        members = sorted.keySet().toArray(new String[sorted.size()]);
+        slots = new int[members.length > 0 ? size : 0];
+        if (members.length > 0)
+            populate(sorted.values().toArray(new Integer[members.length]));
+    }
+
+    private void populate(Integer[] weights) {
+        int size = slots.length;
+        int n = members.length;
+        long[] offset = new long[n];
+        long[] skip = new long[n];
+        long[] next = new long[n];
+        for (int i = 0; i < n; i++) {
+            long h = hash(members[i]);
+            offset[i] = (mix(h ^ SEED_OFFSET) >>> 1) % size;
+            skip[i] = (mix(h ^ SEED_SKIP) >>> 1) % (size - 1) + 1;
+        }
+
+        Arrays.fill(slots, -1);
+        int filled = 0;
+        while (true) {
+            for (int i = 0; i < n; i++) {
+                for (int w = 0; w < weights[i]; w++) {
+                    int c = (int) ((offset[i] + next[i] * skip[i]) % size);
+                    while (slots[c] >= 0) {
+                        next[i]++;
+                        c = (int) ((offset[i] + next[i] * skip[i]) % size);
+                    }
+                    slots[c] = i;
+                    next[i]++;
+                    if (++filled == size)
+                        return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Look up the member for a flow
+     * @param key a hash of the flow, for example from {@link #hash(long)}
+     * @return the member id or null if the table has no members
+     */
+    public String lookup(long key) {
+        if (slots.length == 0)
+            return null;
+        return members[slots[(int) ((key >>> 1) % slots.length)]];
+    }
+
+    /**
+     * @return the member ids in the table, sorted
+     */
+    public List<String> getMembers() {
+        return Collections.unmodifiableList(Arrays.asList(members));
+    }
+
+    /**
+     * @return the number of table slots
+     */
+    public int getSize() {
+        return slots.length;
+    }
+
+    /**
+     * @return the number of slots held by the given member
+     */
+    public int getSlotCount(String memberId) {
+        int index = Arrays.binarySearch(members, memberId);
+        if (index < 0)
+            return 0;
+        int count = 0;
+        for (int s : slots) {
+            if (s == index)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of a string
+     */
+    public static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /**
+     * Spread the bits of a flow key over the whole hash
+     */
+    public static long hash(long key) {
+        return mix(key);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
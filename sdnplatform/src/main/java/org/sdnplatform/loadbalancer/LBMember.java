@@ -33,6 +33,7 @@ public class LBMember {
     protected String macString;
     
     protected int connectionLimit;
+    protected int weight;
     protected short adminState;
     protected short status;
 
@@ -46,6 +47,7 @@ public class LBMember {
         port = 0;
         
         connectionLimit = 0;
+        weight = 1;
         adminState = 0;
         status = 0;
         poolId = null;
@@ -34,6 +34,7 @@ public class LBMemberSerializer extends JsonSerializer<LBMember>{
         jGen.writeStringField("id", member.id);
         jGen.writeStringField("address", String.valueOf(member.address));
         jGen.writeStringField("port", Short.toString(member.port));
+        jGen.writeStringField("weight", Integer.toString(member.weight));
         jGen.writeStringField("poolId", member.poolId);
         jGen.writeStringField("vipId", member.vipId);
 
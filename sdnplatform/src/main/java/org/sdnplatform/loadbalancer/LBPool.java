@@ -17,6 +17,8 @@
 package org.sdnplatform.loadbalancer;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.codehaus.jackson.map.annotate.JsonSerialize;
 import org.sdnplatform.loadbalancer.LoadBalancer.IPClient;
@@ -45,7 +47,8 @@ public class LBPool {
     
     protected String vipId;
     
-    protected int previousMemberIndex;
+    // member selection table, replaced whenever the members change
+    protected volatile LBMaglevTable table;
     
     public LBPool() {
         id = String.valueOf((int) (Math.random()*10000));
@@ -58,17 +61,46 @@ public class LBPool {
         monitors = new ArrayList<String>();
         adminState = 0;
         status = 0;
-        previousMemberIndex = -1;
+        table = LBMaglevTable.EMPTY;
     }
     
-    public String pickMember(IPClient client) {
-        // simple round robin for now; add different lbmethod later
-        if (members.size() > 0) {
-            previousMemberIndex = (previousMemberIndex + 1) % members.size();
-            return members.get(previousMemberIndex);
-        } else {
-            return null;
+    /**
+     * Rebuild the selection table from the current members of the pool
+     * @param allMembers all members of the load balancer by id
+     */
+    public synchronized void updateTable(Map<String, LBMember> allMembers) {
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+        for (String memberId : new ArrayList<String>(members)) {
+            LBMember member = allMembers.get(memberId);
+            if (member != null)
+                weights.put(memberId, member.weight);
         }
+        table = new LBMaglevTable(weights, LBMaglevTable.DEFAULT_SIZE);
+    }
+
+    /**
+     * Pick the member for a client connection. The same connection always
+     * maps to the same member as long as the member stays in the pool.
+     * @param client the client connection
+     * @return the member id or null if the pool has no members
+     */
+    public String pickMember(IPClient client) {
+        long key = ((long) client.ipAddress << 32) |
+                   ((client.srcPort & 0xffffL) << 16) |
+                   (client.targetPort & 0xffffL);
+        return table.lookup(LBMaglevTable.hash(key ^
+                                               ((long) client.nw_proto << 56)));
+    }
+
+    /**
+     * Pick the member for all clients in a source address prefix
+     * @param prefix the prefix bits of the source address
+     * @param prefixLength the prefix length
+     * @return the member id or null if the pool has no members
+     */
+    public String pickMember(int prefix, int prefixLength) {
+        return table.lookup(LBMaglevTable.hash(((long) prefixLength << 32) |
+                                               (prefix & 0xffffffffL)));
     }
 
 }
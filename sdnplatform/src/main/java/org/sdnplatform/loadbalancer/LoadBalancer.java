@@ -20,13 +20,18 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -56,10 +61,14 @@ import org.sdnplatform.core.ListenerContext;
 import org.sdnplatform.core.IControllerService;
 import org.sdnplatform.core.IOFMessageListener;
 import org.sdnplatform.core.IOFSwitch;
+import org.sdnplatform.core.IPacketInFilter;
+import org.sdnplatform.core.PacketInClass;
+import org.sdnplatform.core.annotations.LogMessageDoc;
 import org.sdnplatform.core.module.ModuleContext;
 import org.sdnplatform.core.module.ModuleException;
 import org.sdnplatform.core.module.IModule;
 import org.sdnplatform.core.module.IPlatformService;
+import org.sdnplatform.core.util.SingletonTask;
 import org.sdnplatform.counter.ICounterStoreService;
 import org.sdnplatform.devicemanager.IDevice;
 import org.sdnplatform.devicemanager.IDeviceService;
@@ -74,6 +83,7 @@ import org.sdnplatform.restserver.IRestApiService;
 import org.sdnplatform.routing.IRoutingService;
 import org.sdnplatform.routing.Route;
 import org.sdnplatform.staticflowentry.IStaticFlowEntryPusherService;
+import org.sdnplatform.threadpool.IThreadPoolService;
 import org.sdnplatform.topology.ITopologyService;
 import org.sdnplatform.topology.NodePortTuple;
 import org.sdnplatform.util.MACAddress;
@@ -90,13 +100,14 @@ import org.slf4j.LoggerFactory;
  * 
  * Limitations:
  * - client records and static flows not purged after use, will exhaust switch flow tables over time
- * - round robin policy among servers based on connections, not traffic volume
+ * - members are picked by consistent hashing of the connection (or of the client
+ *   prefix in proactive mode), weighted but not based on traffic volume
  * - health monitoring feature not implemented yet
  *  
  * @author kcwang
  */
 public class LoadBalancer implements IModule,
-    ILoadBalancerService, IOFMessageListener {
+    ILoadBalancerService, IOFMessageListener, IPacketInFilter {
 
     protected static Logger log = LoggerFactory.getLogger(LoadBalancer.class);
 
@@ -110,20 +121,34 @@ public class LoadBalancer implements IModule,
     protected IRoutingService routingEngine;
     protected ITopologyService topology;
     protected IStaticFlowEntryPusherService sfp;
+    protected IThreadPoolService threadPool;
     
-    protected HashMap<String, LBVip> vips;
-    protected HashMap<String, LBPool> pools;
-    protected HashMap<String, LBMember> members;
-    protected HashMap<Integer, String> vipIpToId;
-    protected HashMap<Integer, MACAddress> vipIpToMac;
-    protected HashMap<Integer, String> memberIpToId;
-    protected HashMap<IPClient, LBMember> clientToMember;
+    // read from the packet processing threads, written from REST
+    protected ConcurrentHashMap<String, LBVip> vips;
+    protected ConcurrentHashMap<String, LBPool> pools;
+    protected ConcurrentHashMap<String, LBMember> members;
+    protected ConcurrentHashMap<Integer, String> vipIpToId;
+    protected ConcurrentHashMap<Integer, MACAddress> vipIpToMac;
+    protected ConcurrentHashMap<Integer, String> memberIpToId;
+    protected ConcurrentHashMap<IPClient, LBMember> clientToMember;
+    
+    /**
+     * In proactive mode the VIP flows are installed ahead of the traffic,
+     * wildcarded on the client source prefix, so established traffic to a
+     * VIP does not need a PACKET_IN per connection
+     */
+    protected boolean proactive = false;
+    protected int proactivePrefixLength = 4;
+    protected ConcurrentHashMap<String, ProactiveVip> proactiveVips;
+    protected Set<String> dirtyVips;
+    protected SingletonTask proactiveTask;
     
     //Copied from Forwarding with message damper routine for pushing proxy Arp 
     protected static int OFMESSAGE_DAMPER_CAPACITY = 10000; // ms. 
     protected static int OFMESSAGE_DAMPER_TIMEOUT = 250; // ms 
     protected static String LB_ETHER_TYPE = "0x800";
     protected static int LB_PRIORITY = 32768;
+    protected static int LB_PROACTIVE_PRIORITY = LB_PRIORITY - 1;
     
     // Comparator for sorting by SwitchCluster
     public Comparator<SwitchPort> clusterIdComparator =
@@ -153,6 +178,20 @@ public class LoadBalancer implements IModule,
         }
     }
     
+    /**
+     * The flows installed for a VIP in proactive mode
+     */
+    protected static class ProactiveVip {
+        // clients that resolved the VIP address and get return flows
+        protected Set<Integer> clients =
+                Collections.newSetFromMap(
+                        new ConcurrentHashMap<Integer, Boolean>());
+        // switches holding the VIP flows
+        protected volatile Set<Long> switches = Collections.emptySet();
+        // installed static flow entries, by name, with their content
+        protected Map<String, String> flows = new HashMap<String, String>();
+    }
+    
     @Override
     public String getName() {
         return "loadbalancer";
@@ -171,6 +210,14 @@ public class LoadBalancer implements IModule,
         return (type.equals(OFType.PACKET_IN) && name.equals("forwarding"));
    }
 
+    @Override
+    public boolean isInterested(PacketInClass packetClass) {
+        // ARP requests for a VIP and IPv4 unicast to a VIP
+        if (packetClass.getDestination() == PacketInClass.Destination.UNICAST)
+            return packetClass.getProtocol().isIPv4();
+        return packetClass.getProtocol() == PacketInClass.Protocol.ARP;
+    }
+
     @Override
     public org.sdnplatform.core.IListener.Command
             receive(IOFSwitch sw, OFMessage msg, ListenerContext cntx) {
@@ -188,8 +235,7 @@ public class LoadBalancer implements IModule,
             processPacketIn(IOFSwitch sw, OFPacketIn pi,
                             ListenerContext cntx) {
         
-        Ethernet eth = IControllerService.bcStore.get(cntx,
-                                                              IControllerService.CONTEXT_PI_PAYLOAD);
+        Ethernet eth = IControllerService.PI_PAYLOAD_KEY.get(cntx);
         IPacket pkt = eth.getPayload();
  
         if (eth.isBroadcast() || eth.isMulticast()) {
@@ -201,9 +247,13 @@ public class LoadBalancer implements IModule,
                 int targetProtocolAddress = IPv4.toIPv4Address(arpRequest
                                                                .getTargetProtocolAddress());
 
-                if (vipIpToId.containsKey(targetProtocolAddress)) {
-                    String vipId = vipIpToId.get(targetProtocolAddress);                    
+                String vipId = vipIpToId.get(targetProtocolAddress);
+                if (vipId != null && vips.containsKey(vipId)) {
                     vipProxyArpReply(sw, pi, cntx, vipId);
+                    if (proactive) {
+                        addProactiveClient(vipId, IPv4.toIPv4Address(
+                                arpRequest.getSenderProtocolAddress()));
+                    }
                     return Command.STOP;
                 }
             }
@@ -234,9 +284,26 @@ public class LoadBalancer implements IModule,
                         client.targetPort = 0; 
                     }
                     
-                    LBVip vip = vips.get(vipIpToId.get(destIpAddress));
-                    LBPool pool = pools.get(vip.pickPool(client));
-                    LBMember member = members.get(pool.pickMember(client));
+                    String vipId = vipIpToId.get(destIpAddress);
+                    LBVip vip = (vipId == null) ? null : vips.get(vipId);
+                    String poolId = (vip == null) ? null : vip.pickPool(client);
+                    LBPool pool = (poolId == null) ? null : pools.get(poolId);
+                    if (pool == null)
+                        return Command.CONTINUE;
+                    String memberId;
+                    if (proactive) {
+                        // pick the member the proactive flows use
+                        memberId = pool.pickMember(
+                                prefixOf(client.ipAddress),
+                                proactivePrefixLength);
+                        checkProactiveFlows(vip, sw);
+                    } else {
+                        memberId = pool.pickMember(client);
+                    }
+                    LBMember member =
+                            (memberId == null) ? null : members.get(memberId);
+                    if (member == null)
+                        return Command.CONTINUE;
 
                     // for chosen member, check device manager and find and push routes, in both directions                    
                     pushBidirectionalVipRoutes(sw, pi, cntx, client, member);
@@ -264,8 +331,7 @@ public class LoadBalancer implements IModule,
     protected void vipProxyArpReply(IOFSwitch sw, OFPacketIn pi, ListenerContext cntx, String vipId) {
         log.debug("vipProxyArpReply");
             
-        Ethernet eth = IControllerService.bcStore.get(cntx,
-                                                              IControllerService.CONTEXT_PI_PAYLOAD);
+        Ethernet eth = IControllerService.PI_PAYLOAD_KEY.get(cntx);
 
         // retrieve original arp to determine host configured gw IP address                                          
         ARP arpRequest = (ARP) eth.getPayload();
@@ -591,6 +657,272 @@ public class LoadBalancer implements IModule,
         return;
     }
 
+    // *************
+    // Proactive mode
+    // *************
+
+    /**
+     * @return the source prefix of the given client address that the
+     * proactive flows match on
+     */
+    protected int prefixOf(int ipAddress) {
+        if (proactivePrefixLength == 0)
+            return 0;
+        return ipAddress & (-1 << (32 - proactivePrefixLength));
+    }
+
+    /**
+     * Record a client that resolved the VIP address, so the return flows
+     * from the members to the client get installed
+     * @param vipId the VIP
+     * @param clientIp the client address
+     */
+    protected void addProactiveClient(String vipId, int clientIp) {
+        ProactiveVip pv = getProactiveVip(vipId);
+        if (pv.clients.add(clientIp))
+            markVipDirty(vipId);
+    }
+
+    /**
+     * A VIP packet reached the controller in proactive mode. That is
+     * expected until the flows for the VIP are installed on the switch,
+     * for example while the members have not been seen yet.
+     */
+    protected void checkProactiveFlows(LBVip vip, IOFSwitch sw) {
+        ProactiveVip pv = proactiveVips.get(vip.id);
+        if (pv == null || !pv.switches.contains(sw.getId()))
+            markVipDirty(vip.id);
+    }
+
+    protected ProactiveVip getProactiveVip(String vipId) {
+        ProactiveVip pv = proactiveVips.get(vipId);
+        if (pv == null) {
+            pv = new ProactiveVip();
+            ProactiveVip old = proactiveVips.putIfAbsent(vipId, pv);
+            if (old != null)
+                pv = old;
+        }
+        return pv;
+    }
+
+    /**
+     * Schedule the proactive flows of the VIP to be brought up to date.
+     * Changes arriving while the VIP is still pending share the update.
+     */
+    protected void markVipDirty(String vipId) {
+        if (!proactive || vipId == null)
+            return;
+        if (dirtyVips.add(vipId) && proactiveTask != null)
+            proactiveTask.reschedule(0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Bring the proactive flows of all changed VIPs up to date
+     */
+    protected void updateProactiveFlows() {
+        Iterator<String> it = dirtyVips.iterator();
+        while (it.hasNext()) {
+            String vipId = it.next();
+            it.remove();
+            pushProactiveVipFlows(vipId);
+        }
+    }
+
+    /**
+     * Compute the proactive flows of a VIP and push the difference to the
+     * installed flows through the static flow entry pusher.
+     * 
+     * Inbound, every switch in the L2 domain of a member gets one flow per
+     * client source prefix, sending the traffic for the VIP towards the
+     * member chosen for the prefix. The switch of the member rewrites the
+     * destination to the member. Outbound, the flows from the members back
+     * to the clients that resolved the VIP rewrite the source to the VIP on
+     * the switch of the member.
+     * @param vipId the VIP
+     */
+    protected void pushProactiveVipFlows(String vipId) {
+        ProactiveVip pv = getProactiveVip(vipId);
+        Map<String, String[]> flows = new HashMap<String, String[]>();
+        Set<Long> switches = new HashSet<Long>();
+
+        LBVip vip = vips.get(vipId);
+        String poolId = (vip == null) ? null : vip.pickPool(null);
+        LBPool pool = (poolId == null) ? null : pools.get(poolId);
+        if (pool != null) {
+            Map<String, IDevice> memberDevices = new HashMap<String, IDevice>();
+            for (String memberId : pool.table.getMembers()) {
+                LBMember member = members.get(memberId);
+                IDevice device =
+                        (member == null) ? null : findDevice(member.address);
+                if (device != null) {
+                    member.macString = device.getMACAddressString();
+                    memberDevices.put(memberId, device);
+                }
+            }
+
+            String vipString = IPv4.fromIPv4Address(vip.address);
+            int prefixes = 1 << proactivePrefixLength;
+            for (int i = 0; i < prefixes; i++) {
+                int prefix = (proactivePrefixLength == 0) ? 0 :
+                        i << (32 - proactivePrefixLength);
+                String memberId =
+                        pool.pickMember(prefix, proactivePrefixLength);
+                IDevice device = memberDevices.get(memberId);
+                if (device == null)
+                    continue;
+                LBMember member = members.get(memberId);
+                SwitchPort memberAp = device.getAttachmentPoints()[0];
+                String matchString = "dl_type=" + LB_ETHER_TYPE + ","
+                        + "nw_dst=" + vipString;
+                if (proactivePrefixLength > 0) {
+                    matchString += ",nw_src=" + IPv4.fromIPv4Address(prefix)
+                            + "/" + proactivePrefixLength;
+                }
+                for (Long dpid : controllerProvider.getSwitches().keySet()) {
+                    String actionString;
+                    if (dpid == memberAp.getSwitchDPID()) {
+                        actionString = "set-dst-ip="
+                                + IPv4.fromIPv4Address(member.address) + ","
+                                + "set-dst-mac=" + member.macString + ","
+                                + "output=" + memberAp.getPort();
+                    } else {
+                        short port = firstHopPort(dpid,
+                                                  memberAp.getSwitchDPID());
+                        if (port == OFPort.OFPP_NONE.getValue())
+                            continue;
+                        actionString = "output=" + port;
+                    }
+                    flows.put("proactive-vip-" + vipId + "-prefix-" + i
+                              + "-sw-" + dpid,
+                              new String[] {HexString.toHexString(dpid),
+                                            matchString, actionString});
+                    switches.add(dpid);
+                }
+            }
+
+            for (Integer clientIp : pv.clients) {
+                String memberId = pool.pickMember(prefixOf(clientIp),
+                                                  proactivePrefixLength);
+                IDevice memberDevice = memberDevices.get(memberId);
+                IDevice clientDevice = findDevice(clientIp);
+                if (memberDevice == null || clientDevice == null)
+                    continue;
+                LBMember member = members.get(memberId);
+                SwitchPort memberAp = memberDevice.getAttachmentPoints()[0];
+                SwitchPort clientAp = clientDevice.getAttachmentPoints()[0];
+                Route route =
+                        routingEngine.getRoute(memberAp.getSwitchDPID(),
+                                               (short) memberAp.getPort(),
+                                               clientAp.getSwitchDPID(),
+                                               (short) clientAp.getPort(), 0);
+                if (route == null)
+                    continue;
+                List<NodePortTuple> path = route.getPath();
+                for (int i = 0; i + 1 < path.size(); i += 2) {
+                    long dpid = path.get(i).getNodeId();
+                    String matchString = "dl_type=" + LB_ETHER_TYPE + ","
+                            + "nw_src=" + IPv4.fromIPv4Address(member.address)
+                            + ","
+                            + "nw_dst=" + IPv4.fromIPv4Address(clientIp) + ","
+                            + "in_port=" + path.get(i).getPortId();
+                    String actionString = "output=" + path.get(i+1).getPortId();
+                    if (i == 0) {
+                        actionString = "set-src-ip=" + vipString + ","
+                                + "set-src-mac=" + vip.proxyMac.toString() + ","
+                                + actionString;
+                    }
+                    flows.put("proactive-vip-" + vipId + "-client-"
+                              + IPv4.fromIPv4Address(clientIp) + "-sw-" + dpid,
+                              new String[] {HexString.toHexString(dpid),
+                                            matchString, actionString});
+                }
+            }
+        }
+
+        // only push the entries that changed
+        Iterator<Map.Entry<String, String>> it = pv.flows.entrySet().iterator();
+        while (it.hasNext()) {
+            String name = it.next().getKey();
+            if (!flows.containsKey(name)) {
+                sfp.deleteFlow(name);
+                it.remove();
+            }
+        }
+        for (Map.Entry<String, String[]> e : flows.entrySet()) {
+            String[] flow = e.getValue();
+            String content = flow[0] + "|" + flow[1] + "|" + flow[2];
+            if (content.equals(pv.flows.get(e.getKey())))
+                continue;
+            addStaticVipFlow(e.getKey(), flow[0], flow[1], flow[2],
+                             LB_PROACTIVE_PRIORITY);
+            pv.flows.put(e.getKey(), content);
+        }
+        pv.switches = switches;
+
+        if (vip == null)
+            proactiveVips.remove(vipId);
+    }
+
+    /**
+     * @return the port of the first hop from one switch to another in the
+     * same L2 domain, or OFPP_NONE if there is no such route
+     */
+    protected short firstHopPort(long srcDpid, long dstDpid) {
+        Long srcIsland = topology.getL2DomainId(srcDpid);
+        if (srcIsland == null ||
+                !srcIsland.equals(topology.getL2DomainId(dstDpid)))
+            return OFPort.OFPP_NONE.getValue();
+        Route route = routingEngine.getRoute(srcDpid, dstDpid, 0);
+        if (route == null || route.getPath().isEmpty())
+            return OFPort.OFPP_NONE.getValue();
+        return route.getPath().get(0).getPortId();
+    }
+
+    /**
+     * @return a device with the given address and a known attachment point,
+     * or null
+     */
+    protected IDevice findDevice(int ipAddress) {
+        Iterator<? extends IDevice> it =
+                deviceManager.queryDevices(null, null, ipAddress, null, null);
+        while (it.hasNext()) {
+            IDevice d = it.next();
+            if (d.getAttachmentPoints().length > 0)
+                return d;
+        }
+        return null;
+    }
+
+    /**
+     * Add a static flow entry given as match and action strings
+     */
+    protected void addStaticVipFlow(String entryName, String swString,
+                                    String matchString, String actionString,
+                                    int priority) {
+        OFFlowMod fm = (OFFlowMod) controllerProvider.getOFMessageFactory()
+                .getMessage(OFType.FLOW_MOD);
+        fm.setIdleTimeout((short) 0);   // infinite
+        fm.setHardTimeout((short) 0);   // infinite
+        fm.setBufferId(OFPacketOut.BUFFER_ID_NONE);
+        fm.setCommand((short) 0);
+        fm.setFlags((short) 0);
+        fm.setOutPort(OFPort.OFPP_NONE.getValue());
+        fm.setCookie((long) 0);
+        fm.setPriority(U16.t(priority));
+        parseActionString(fm, actionString, log);
+
+        OFMatch ofMatch = new OFMatch();
+        try {
+            ofMatch.fromString(matchString);
+        } catch (IllegalArgumentException e) {
+            log.debug("ignoring flow entry {} on switch {} with illegal "
+                      + "OFMatch() key: " + matchString, entryName, swString);
+            return;
+        }
+        fm.setMatch(ofMatch);
+        sfp.addFlow(entryName, fm, swString);
+    }
+
     
     @Override
     public Collection<LBVip> listVips() {
@@ -611,6 +943,7 @@ public class LoadBalancer implements IModule,
         vips.put(vip.id, vip);
         vipIpToId.put(vip.address, vip.id);
         vipIpToMac.put(vip.address, vip.proxyMac);
+        markVipDirty(vip.id);
         
         return vip;
     }
@@ -618,13 +951,17 @@ public class LoadBalancer implements IModule,
     @Override
     public LBVip updateVip(LBVip vip) {
         vips.put(vip.id, vip);
+        markVipDirty(vip.id);
         return vip;
     }
 
     @Override
     public int removeVip(String vipId) {
         if(vips.containsKey(vipId)){
-            vips.remove(vipId);
+            LBVip vip = vips.remove(vipId);
+            vipIpToId.remove(vip.address, vipId);
+            vipIpToMac.remove(vip.address);
+            markVipDirty(vipId);
             return 0;
         } else {
             return -1;
@@ -656,12 +993,16 @@ public class LoadBalancer implements IModule,
             pool.vipId = null;
             pools.put(pool.id, pool);
         }
+        pool.updateTable(members);
+        markVipDirty(pool.vipId);
         return pool;
     }
 
     @Override
     public LBPool updatePool(LBPool pool) {
         pools.put(pool.id, pool);
+        pool.updateTable(members);
+        markVipDirty(pool.vipId);
         return null;
     }
 
@@ -673,6 +1014,7 @@ public class LoadBalancer implements IModule,
             if (pool.vipId != null)
                 vips.get(pool.vipId).pools.remove(poolId);
             pools.remove(poolId);
+            markVipDirty(pool.vipId);
             return 0;
         } else {
             return -1;
@@ -712,9 +1054,12 @@ public class LoadBalancer implements IModule,
         memberIpToId.put(member.address, member.id);
 
         if (member.poolId != null && pools.get(member.poolId) != null) {
-            member.vipId = pools.get(member.poolId).vipId;
-            if (!pools.get(member.poolId).members.contains(member.id))
-                pools.get(member.poolId).members.add(member.id);
+            LBPool pool = pools.get(member.poolId);
+            member.vipId = pool.vipId;
+            if (!pool.members.contains(member.id))
+                pool.members.add(member.id);
+            pool.updateTable(members);
+            markVipDirty(member.vipId);
         } else
             log.error("member must be specified with non-null pool_id");
         
@@ -724,6 +1069,12 @@ public class LoadBalancer implements IModule,
     @Override
     public LBMember updateMember(LBMember member) {
         members.put(member.id, member);
+        LBPool pool =
+                (member.poolId == null) ? null : pools.get(member.poolId);
+        if (pool != null) {
+            pool.updateTable(members);
+            markVipDirty(pool.vipId);
+        }
         return member;
     }
 
@@ -733,9 +1084,14 @@ public class LoadBalancer implements IModule,
         member = members.get(memberId);
         
         if(member != null){
-            if (member.poolId != null)
-                pools.get(member.poolId).members.remove(memberId);
             members.remove(memberId);
+            LBPool pool =
+                    (member.poolId == null) ? null : pools.get(member.poolId);
+            if (pool != null) {
+                pool.members.remove(memberId);
+                pool.updateTable(members);
+                markVipDirty(pool.vipId);
+            }
             return 0;
         } else {
             return -1;
@@ -803,11 +1159,17 @@ public class LoadBalancer implements IModule,
         l.add(ITopologyService.class);
         l.add(IRoutingService.class);
         l.add(IStaticFlowEntryPusherService.class);
+        l.add(IThreadPoolService.class);
 
         return l;
     }
 
     @Override
+    @LogMessageDoc(level="WARN",
+            message="Invalid proactive prefix length {length}, using {default}",
+            explanation="The configured length of the client prefixes " +
+                    "for the proactive VIP flows is not between 0 and 16",
+            recommendation=LogMessageDoc.CHECK_CONTROLLER)
     public void init(ModuleContext context)
                                                  throws ModuleException {
         controllerProvider = context.getServiceImpl(IControllerService.class);
@@ -817,23 +1179,56 @@ public class LoadBalancer implements IModule,
         routingEngine = context.getServiceImpl(IRoutingService.class);
         topology = context.getServiceImpl(ITopologyService.class);
         sfp = context.getServiceImpl(IStaticFlowEntryPusherService.class);
+        threadPool = context.getServiceImpl(IThreadPoolService.class);
         
         messageDamper = new OFMessageDamper(OFMESSAGE_DAMPER_CAPACITY, 
                                             EnumSet.of(OFType.FLOW_MOD),
                                             OFMESSAGE_DAMPER_TIMEOUT);
         
-        vips = new HashMap<String, LBVip>();
-        pools = new HashMap<String, LBPool>();
-        members = new HashMap<String, LBMember>();
-        vipIpToId = new HashMap<Integer, String>();
-        vipIpToMac = new HashMap<Integer, MACAddress>();
-        memberIpToId = new HashMap<Integer, String>();
+        vips = new ConcurrentHashMap<String, LBVip>();
+        pools = new ConcurrentHashMap<String, LBPool>();
+        members = new ConcurrentHashMap<String, LBMember>();
+        vipIpToId = new ConcurrentHashMap<Integer, String>();
+        vipIpToMac = new ConcurrentHashMap<Integer, MACAddress>();
+        memberIpToId = new ConcurrentHashMap<Integer, String>();
+        proactiveVips = new ConcurrentHashMap<String, ProactiveVip>();
+        dirtyVips = Collections.newSetFromMap(
+                new ConcurrentHashMap<String, Boolean>());
+
+        Map<String, String> configOptions = context.getConfigParams(this);
+        String option = configOptions.get("proactive");
+        if (option != null)
+            proactive = Boolean.parseBoolean(option);
+        option = configOptions.get("proactiveprefixlength");
+        if (option != null) {
+            int length = -1;
+            try {
+                length = Integer.parseInt(option);
+            } catch (NumberFormatException e) {
+                // handled below
+            }
+            if (length >= 0 && length <= 16)
+                proactivePrefixLength = length;
+            else
+                log.warn("Invalid proactive prefix length {}, using {}",
+                         option, proactivePrefixLength);
+        }
     }
 
     @Override
     public void startUp(ModuleContext context) {
         controllerProvider.addOFMessageListener(OFType.PACKET_IN, this);
         restApi.addRestletRoutable(new LoadBalancerWebRoutable());
+
+        proactiveTask = new SingletonTask(threadPool.getScheduledExecutor(),
+                                          new Runnable() {
+            @Override
+            public void run() {
+                updateProactiveFlows();
+            }
+        });
+        if (!dirtyVips.isEmpty())
+            proactiveTask.reschedule(0, TimeUnit.MILLISECONDS);
     }
 
     // Utilities borrowed from StaticFlowEntries
@@ -67,7 +67,7 @@ public class MessageFilterManager extends OFMessageFilterManager {
         // Since the BigMessageFilterManager is after virtual routing, 
         // it is guaranteed that the source and destination interfaces
         // will be identical at this stage.
-        List<VNSInterface> srcIface = INetVirtManagerService.bcStore.get(cntx, INetVirtManagerService.CONTEXT_SRC_IFACES);
+        List<VNSInterface> srcIface = INetVirtManagerService.SRC_IFACES_KEY.get(cntx);
         HashSet<String> netVirts = getNetVirtsByInterface(srcIface);
         
         HashSet<String> matchedFilters = new HashSet<String>();
@@ -19,6 +19,7 @@ package org.sdnplatform.netvirt.core;
 import java.util.ArrayList;
 
 import org.sdnplatform.core.ListenerContext;
+import org.sdnplatform.core.ListenerContextKey;
 import org.sdnplatform.core.ListenerContextStore;
 import org.sdnplatform.devicemanager.SwitchPort;
 import org.sdnplatform.netvirt.virtualrouting.ForwardingAction;
@@ -61,8 +62,7 @@ public class NetVirtExplainPacket {
                                                        SwitchPort srcDap,
                                                        SwitchPort dstDap) {
             ExplainPktRoute epr = 
-                    NetVirtExplainPacket.ExplainRouteStore.
-                        get(cntx, NetVirtExplainPacket.KEY_EXPLAIN_PKT_ROUTE);
+                    NetVirtExplainPacket.EXPLAIN_PKT_ROUTE_KEY.get(cntx);
             if (epr != null) {
                 OneCluster oc = new OneCluster();
                 oc.clusterNumber = clusterNum;
@@ -91,8 +91,7 @@ public class NetVirtExplainPacket {
                                                         VNSInterface dstIface,
                                                         ForwardingAction act) {
             ExplainPktVRouting vr =
-                    NetVirtExplainPacket.VRoutingStore.
-                        get(cntx, NetVirtExplainPacket.KEY_EXPLAIN_PKT_VROUTING);
+                    NetVirtExplainPacket.EXPLAIN_PKT_VROUTING_KEY.get(cntx);
             if (vr != null) {
                 OneNetVirtIfacePair ovr = new OneNetVirtIfacePair();
                 ovr.srcIface = srcIface;
@@ -134,6 +133,35 @@ public class NetVirtExplainPacket {
             "org.sdnplatform.netVirt.core.serviceNode";
     public static final String KEY_EXPLAIN_PKT_VROUTING =
             "org.sdnplatform.netVirt.core.keyVRouting";
+
+    public static final ListenerContextKey<String> EXPLAIN_PKT_KEY =
+        ListenerContextKey.register(KEY_EXPLAIN_PKT);
+    public static final ListenerContextKey<String> EXPLAIN_PKT_SRC_NetVirt_KEY =
+        ListenerContextKey.register(KEY_EXPLAIN_PKT_SRC_NetVirt);
+    public static final ListenerContextKey<String> EXPLAIN_PKT_DST_NetVirt_KEY =
+        ListenerContextKey.register(KEY_EXPLAIN_PKT_DST_NetVirt);
+    public static final ListenerContextKey<ExplainPktRoute> EXPLAIN_PKT_ROUTE_KEY =
+        ListenerContextKey.register(KEY_EXPLAIN_PKT_ROUTE);
+    public static final ListenerContextKey<String> EXPLAIN_PKT_ACTION_KEY =
+        ListenerContextKey.register(KEY_EXPLAIN_PKT_ACTION);
+    public static final ListenerContextKey<String> EXPLAIN_PKT_INP_ACL_NAME_KEY =
+        ListenerContextKey.register(KEY_EXPLAIN_PKT_INP_ACL_NAME);
+    public static final ListenerContextKey<String> EXPLAIN_PKT_INP_ACL_RESULT_KEY =
+        ListenerContextKey.register(KEY_EXPLAIN_PKT_INP_ACL_RESULT);
+    public static final ListenerContextKey<String> EXPLAIN_PKT_OUT_ACL_NAME_KEY =
+        ListenerContextKey.register(KEY_EXPLAIN_PKT_OUT_ACL_NAME);
+    public static final ListenerContextKey<String> EXPLAIN_PKT_OUT_ACL_RESULT_KEY =
+        ListenerContextKey.register(KEY_EXPLAIN_PKT_OUT_ACL_RESULT);
+    public static final ListenerContextKey<String> EXPLAIN_PKT_INP_ACL_ENTRY_KEY =
+        ListenerContextKey.register(KEY_EXPLAIN_PKT_INP_ACL_ENTRY);
+    public static final ListenerContextKey<String> EXPLAIN_PKT_OUT_ACL_ENTRY_KEY =
+        ListenerContextKey.register(KEY_EXPLAIN_PKT_OUT_ACL_ENTRY);
+    public static final ListenerContextKey<String> EXPLAIN_PKT_SERVICE_NAME_KEY =
+        ListenerContextKey.register(KEY_EXPLAIN_PKT_SERVICE_NAME);
+    public static final ListenerContextKey<String> EXPLAIN_PKT_SERVICE_NODE_KEY =
+        ListenerContextKey.register(KEY_EXPLAIN_PKT_SERVICE_NODE);
+    public static final ListenerContextKey<ExplainPktVRouting> EXPLAIN_PKT_VROUTING_KEY =
+        ListenerContextKey.register(KEY_EXPLAIN_PKT_VROUTING);
     
     public static final ListenerContextStore<String> ExplainStore =
         new ListenerContextStore<String>();
@@ -148,7 +176,7 @@ public class NetVirtExplainPacket {
         if (cntx == null) {
             return false;
         }
-        String explPkt = ExplainStore.get(cntx, KEY_EXPLAIN_PKT);
+        String explPkt = EXPLAIN_PKT_KEY.get(cntx);
         if (explPkt != null) {
             if (explPkt.equals(VAL_EXPLAIN_PKT)) {
                 return true;
@@ -157,10 +185,12 @@ public class NetVirtExplainPacket {
         return false;
     }
     
-    public static void explainPacketSetContext(ListenerContext cntx, String key, String value) {
+    public static void explainPacketSetContext(ListenerContext cntx,
+                                               ListenerContextKey<String> key,
+                                               String value) {
         if (isExplainPktCntx(cntx)) {
             // This is Listener Context for an explain packet, update the context
-            ExplainStore.put(cntx, key, value);        
+            key.put(cntx, value);
         }
     }
 }
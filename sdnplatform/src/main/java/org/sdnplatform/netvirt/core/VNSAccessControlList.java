@@ -21,6 +21,7 @@ import java.util.List;
 
 
 import org.sdnplatform.core.ListenerContext;
+import org.sdnplatform.core.ListenerContextKey;
 import org.sdnplatform.core.util.MutableInteger;
 import org.sdnplatform.devicemanager.IDevice;
 import org.sdnplatform.devicemanager.IDeviceService;
@@ -114,10 +115,8 @@ public class VNSAccessControlList implements Comparable<VNSAccessControlList> {
           * Extract source device and destination device information from the
           * listener context.
           */
-         IDevice srcDev = IDeviceService.fcStore.get(
-                              cntx, IDeviceService.CONTEXT_SRC_DEVICE);
-         IDevice dstDev = IDeviceService.fcStore.get(
-                              cntx, IDeviceService.CONTEXT_DST_DEVICE);
+         IDevice srcDev = IDeviceService.SRC_DEVICE_KEY.get(cntx);
+         IDevice dstDev = IDeviceService.DST_DEVICE_KEY.get(cntx);
 
          // The entries list is sorted with sequence number
          for (VNSAccessControlListEntry entry : entries) {
@@ -130,9 +129,11 @@ public class VNSAccessControlList implements Comparable<VNSAccessControlList> {
                  // Note down the acl entry hit for explain packet
                  if ((cntx != null) && (direction != null)) {
                      if (NetVirtExplainPacket.isExplainPktCntx(cntx)) {
-                         String aclDirection = NetVirtExplainPacket.KEY_EXPLAIN_PKT_OUT_ACL_ENTRY;
+                         ListenerContextKey<String> aclDirection =
+                                 NetVirtExplainPacket.EXPLAIN_PKT_OUT_ACL_ENTRY_KEY;
                          if (direction.equals(VirtualRouting.ACL_DIRECTION_INPUT)) {
-                             aclDirection = NetVirtExplainPacket.KEY_EXPLAIN_PKT_INP_ACL_ENTRY;
+                             aclDirection =
+                                     NetVirtExplainPacket.EXPLAIN_PKT_INP_ACL_ENTRY_KEY;
                          }
                          // split() below converts "ACL: default|acl-test2-out seqNo: 10 permit ip any any" to
                          // "10 permit ip any any", for example
@@ -145,9 +146,11 @@ public class VNSAccessControlList implements Comparable<VNSAccessControlList> {
          }
          // Implicit deny if no ACL entry matches
          if ((cntx != null) && (direction != null)) {
-             String aclDirection = NetVirtExplainPacket.KEY_EXPLAIN_PKT_OUT_ACL_ENTRY;
+             ListenerContextKey<String> aclDirection =
+                     NetVirtExplainPacket.EXPLAIN_PKT_OUT_ACL_ENTRY_KEY;
              if (direction.equals(VirtualRouting.ACL_DIRECTION_INPUT)) {
-                 aclDirection = NetVirtExplainPacket.KEY_EXPLAIN_PKT_INP_ACL_ENTRY;
+                 aclDirection =
+                         NetVirtExplainPacket.EXPLAIN_PKT_INP_ACL_ENTRY_KEY;
              }
              NetVirtExplainPacket.explainPacketSetContext(cntx, aclDirection, "Implicit deny");
          }
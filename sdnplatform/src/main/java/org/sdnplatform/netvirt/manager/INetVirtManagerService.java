@@ -19,6 +19,7 @@ package org.sdnplatform.netvirt.manager;
 import java.util.Iterator;
 import java.util.List;
 
+import org.sdnplatform.core.ListenerContextKey;
 import org.sdnplatform.core.ListenerContextStore;
 import org.sdnplatform.core.module.IPlatformService;
 import org.sdnplatform.devicegroup.MembershipRule;
@@ -50,6 +51,18 @@ public interface INetVirtManagerService extends IPlatformService {
     public static final String CONTEXT_DST_IFACES = 
             "org.sdnplatform.netVirt.manager.dstIFaces";
 
+    /**
+     * The typed key for {@link #CONTEXT_SRC_IFACES}
+     */
+    public static final ListenerContextKey<List<VNSInterface>> SRC_IFACES_KEY =
+            ListenerContextKey.register(CONTEXT_SRC_IFACES);
+
+    /**
+     * The typed key for {@link #CONTEXT_DST_IFACES}
+     */
+    public static final ListenerContextKey<List<VNSInterface>> DST_IFACES_KEY =
+            ListenerContextKey.register(CONTEXT_DST_IFACES);
+
     /**
      * A ListenerContextStore object that can be used to interact with the 
      * ListenerContext information created by NetVirt manager.
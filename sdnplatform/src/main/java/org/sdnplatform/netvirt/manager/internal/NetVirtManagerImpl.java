@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
@@ -62,6 +63,7 @@ import org.sdnplatform.devicegroup.MembershipRule;
 import org.sdnplatform.devicemanager.IDevice;
 import org.sdnplatform.devicemanager.IDeviceListener;
 import org.sdnplatform.devicemanager.IDeviceService;
+import org.sdnplatform.devicemanager.IDeviceService.DeviceField;
 import org.sdnplatform.devicemanager.IEntityClass;
 import org.sdnplatform.devicemanager.SwitchPort;
 import org.sdnplatform.flowcache.FCQueryObj;
@@ -331,6 +333,20 @@ public class NetVirtManagerImpl implements IModule, IOFMessageListener,
      */
     protected ReentrantReadWriteLock configLock;
 
+    /**
+     * Devices whose cached interfaces were cleared while a new config is
+     * being built, null when no config is being built. Modified with the
+     * config write lock held.
+     */
+    protected volatile Set<Long> clearedDeviceKeys;
+
+    /**
+     * Rules with more VLANs than this are matched against all the cached
+     * devices of their address-space on a config change rather than
+     * looking up the devices of each VLAN
+     */
+    protected static final int MAX_INDEXED_RULE_VLANS = 16;
+
     /**
      * Asynchronous task for responding to NetVirt configuration changes
      * notifications.
@@ -434,6 +450,12 @@ public class NetVirtManagerImpl implements IModule, IOFMessageListener,
                 context.getServiceImpl(IThreadPoolService.class);
         rewriteService = context.getServiceImpl(IRewriteService.class);
 
+        // look up the devices a changed interface rule may match
+        deviceManager.addIndex(false, EnumSet.of(DeviceField.MAC));
+        deviceManager.addIndex(false, EnumSet.of(DeviceField.IPV4));
+        deviceManager.addIndex(false, EnumSet.of(DeviceField.VLAN));
+        deviceManager.addIndex(false, EnumSet.of(DeviceField.SWITCH));
+
         // Init internal data structures
         flowQueryRespHandlerCallCount = 0;
 
@@ -813,8 +835,7 @@ public class NetVirtManagerImpl implements IModule, IOFMessageListener,
     @Override
     public Command reconcileFlows(ArrayList<OFMatchReconcile> ofmRcList) {
         for (OFMatchReconcile ofm : ofmRcList) {
-            IFlowCacheService.fcStore.put(ofm.cntx,
-                IFlowCacheService.FLOWCACHE_APP_INSTANCE_NAME, "netVirt");
+            IFlowCacheService.APP_INSTANCE_NAME_KEY.put(ofm.cntx, "netVirt");
             if (logger.isTraceEnabled()) {
                 logger.trace("Reconciling flow: match={}",
                              ofm.ofmWithSwDpid.getOfMatch());
@@ -1197,6 +1218,12 @@ public class NetVirtManagerImpl implements IModule, IOFMessageListener,
         Set<VNS> modifiedSet  = 
                 Collections.newSetFromMap(new IdentityHashMap<VNS, Boolean>());
 
+        // Names of the NetVirts and interface rules whose changes can
+        // affect the classification of a device. Only cached devices that
+        // are affected by these will be re-classified.
+        Set<String> changedVNSNames = new HashSet<String>();
+        Set<String> changedRuleNames = new HashSet<String>();
+
         synchronized(newConfigLock) {
             newConfigState = new ConfigState();
 
@@ -1208,6 +1235,7 @@ public class NetVirtManagerImpl implements IModule, IOFMessageListener,
                 if (oldvns == null) {
                     // New VNS was created
                     modifiedSet.add(vns);
+                    changedVNSNames.add(id);
                 }
 
                 try {
@@ -1220,6 +1248,7 @@ public class NetVirtManagerImpl implements IModule, IOFMessageListener,
                             modifiedSet.add(oldvns);
                         else
                             modifiedSet.add(vns);
+                        changedVNSNames.add(id);
                     }
                     vns.setPriority(vnsResultSet.getInt(PRIORITY_COLUMN_NAME));
                     if (oldvns != null && oldvns.getPriority() != vns.getPriority()) {
@@ -1228,11 +1257,16 @@ public class NetVirtManagerImpl implements IModule, IOFMessageListener,
                         // reconcile
                         modifiedSet.add(oldvns);
                         modifiedSet.add(vns);
+                        changedVNSNames.add(id);
                     }
                     vns.setDescription(
                         vnsResultSet.getString(DESCRIPTION_COLUMN_NAME));
                     netVirtProcessAddressSpaceConfig(oldvns, vns, vnsResultSet,
                                                  modifiedSet);
+                    if (oldvns != null && !oldvns.getAddressSpaceName()
+                            .equals(vns.getAddressSpaceName())) {
+                        changedVNSNames.add(id);
+                    }
 
                     setArpConfig(vns, vnsResultSet.getString(ARP_CONFIG_MODE_COLUMN_NAME));
                     setDhcpConfig(vns, vnsResultSet.getString(DHCP_CONFIG_MODE_COLUMN_NAME),
@@ -1253,8 +1287,13 @@ public class NetVirtManagerImpl implements IModule, IOFMessageListener,
 
             // clear out state related to VNS that no longer exist
             for (VNS oldvns: curConfigState.vnsMap.values()) {
-                if (! newConfigState.vnsMap.containsKey(oldvns.getName()))
+                if (! newConfigState.vnsMap.containsKey(oldvns.getName())) {
                     deletedSet.add(oldvns);
+                    // Unmarked VNS are default NetVirts that were created
+                    // on demand; they will be carried over as is
+                    if (oldvns.isMarked())
+                        changedVNSNames.add(oldvns.getName());
+                }
             }
 
             // Read interface rules from result set
@@ -1270,6 +1309,7 @@ public class NetVirtManagerImpl implements IModule, IOFMessageListener,
                 if (vns != null) {
                     if (oldIRule == null) {
                         modifiedSet.add(vns);
+                        changedRuleNames.add(id);
                     }
 
                     irule = new MembershipRule<VNS>(id, vns);
@@ -1297,7 +1337,14 @@ public class NetVirtManagerImpl implements IModule, IOFMessageListener,
                             // rules have changed
                             modifiedSet.add(oldIRule.getParentDeviceGroup());
                             modifiedSet.add(irule.getParentDeviceGroup());
-
+                            changedRuleNames.add(id);
+                        } else if (oldIRule != null &&
+                                (oldIRule.getPriority() != irule.getPriority() ||
+                                 !oldIRule.getParentDeviceGroup().getName()
+                                     .equals(vnsid))) {
+                            // priority only affects which of the matching
+                            // rules wins, no need to reconcile flows
+                            changedRuleNames.add(id);
                         }
                     } catch (Exception e) {
                         logger.warn("Error loading VNS " + vnsid + " rule " + id + " from storage, entry ignored. " + e);
@@ -1334,6 +1381,7 @@ public class NetVirtManagerImpl implements IModule, IOFMessageListener,
                 if (! newConfigState.interfaceRuleMap
                         .containsKey(oldIRule.getName())) {
                     modifiedSet.add(oldIRule.getParentDeviceGroup());
+                    changedRuleNames.add(oldIRule.getName());
                 }
             }
 
@@ -1341,9 +1389,17 @@ public class NetVirtManagerImpl implements IModule, IOFMessageListener,
             Set<String> vnsFlowQuerySet =
                     getVNSFlowReconciliation(modifiedSet, deletedSet);
 
+            // Keep the cached classification of devices that are not
+            // affected by this change
+            clearedDeviceKeys = Collections.newSetFromMap(
+                    new ConcurrentHashMap<Long, Boolean>());
+            carryOverDeviceInterfaces(changedVNSNames, changedRuleNames);
+
             // Swap config states
             configLock.writeLock().lock();
             try {
+                dropClearedDeviceInterfaces();
+                clearedDeviceKeys = null;
                 curConfigState = newConfigState;
                 newConfigState = null;
             } finally {
@@ -1462,6 +1518,254 @@ public class NetVirtManagerImpl implements IModule, IOFMessageListener,
         return vnsFlowQuerySet;
     }
 
+    /**
+     * Carry the cached device to interface mappings over from
+     * curConfigState to newConfigState. A cached device is dropped (and
+     * thus re-classified on its next lookup) only if one of its interfaces
+     * belongs to a changed NetVirt or rule, or if an added or changed rule
+     * matches the device. The devices an added or changed rule may match
+     * are looked up through the device indexes on one of the rule's fields
+     * and only those are matched against the rule, so a small config
+     * change does not match every cached device. Only rules without an
+     * indexed field (e.g. IP subnet rules) require matching all cached
+     * devices of their address-space.
+     * Must be called with newConfigLock held.
+     * @param changedVNSNames NetVirts that were added, deleted or changed
+     * in a way that affects device classification
+     * @param changedRuleNames interface rules that were added, deleted
+     * or changed
+     * @return the cached interface lists from curConfigState that were
+     * carried over, keyed by device key
+     */
+    protected Map<Long, List<VNSInterface>>
+            carryOverDeviceInterfaces(Set<String> changedVNSNames,
+                                      Set<String> changedRuleNames) {
+        Map<Long, List<VNSInterface>> carried =
+                new HashMap<Long, List<VNSInterface>>();
+        if (curConfigState.deviceInterfaceMap.isEmpty())
+            return carried;
+
+        // Per address-space matchers for the added and changed rules, and
+        // the devices these rules may match
+        HashMap<String, IDeviceGroupMatcher<VNS>> changedRuleMatchers =
+                new HashMap<String, IDeviceGroupMatcher<VNS>>();
+        Set<String> unindexedAddrSpaces = new HashSet<String>();
+        List<IDevice> candidates = new ArrayList<IDevice>();
+        for (MembershipRule<VNS> irule :
+                newConfigState.interfaceRuleMap.values()) {
+            VNS vns = irule.getParentDeviceGroup();
+            if (!changedRuleNames.contains(irule.getName()) &&
+                    !changedVNSNames.contains(vns.getName()))
+                continue;
+            if (!irule.isActive() || !vns.isActive())
+                continue;
+            String addrSpaceName = vns.getAddressSpaceName();
+            IDeviceGroupMatcher<VNS> matcher =
+                    changedRuleMatchers.get(addrSpaceName);
+            if (matcher == null) {
+                matcher = new DeviceGroupMatcher<VNS>(tagManager,
+                                                      controllerProvider);
+                changedRuleMatchers.put(addrSpaceName, matcher);
+            }
+            matcher.addRuleIfActive(irule);
+            if (!addRuleCandidates(irule, candidates))
+                unindexedAddrSpaces.add(addrSpaceName);
+        }
+
+        Set<Long> matched = new HashSet<Long>();
+        for (IDevice d : candidates) {
+            if (!matched.contains(d.getDeviceKey()) &&
+                    matchesChangedRule(changedRuleMatchers, d))
+                matched.add(d.getDeviceKey());
+        }
+
+        int dropped = 0;
+        for (Map.Entry<Long, List<VNSInterface>> entry :
+                curConfigState.deviceInterfaceMap.entrySet()) {
+            List<VNSInterface> oldIfaces = entry.getValue();
+            if (matched.contains(entry.getKey()) ||
+                    isAffectedByChange(oldIfaces, changedVNSNames,
+                                       changedRuleNames)) {
+                dropped++;
+                continue;
+            }
+
+            IDevice d = deviceManager.getDevice(entry.getKey());
+            if (d == null || d.getEntityClass() == null) {
+                dropped++;
+                continue;
+            }
+            if (unindexedAddrSpaces.contains(d.getEntityClass().getName()) &&
+                    matchesChangedRule(changedRuleMatchers, d)) {
+                dropped++;
+                continue;
+            }
+
+            List<VNSInterface> newIfaces =
+                    new ArrayList<VNSInterface>(oldIfaces.size());
+            for (VNSInterface oldIface : oldIfaces) {
+                VNSInterface iface = carryOverInterface(oldIface);
+                if (iface == null) {
+                    newIfaces = null;
+                    break;
+                }
+                newIfaces.add(iface);
+            }
+            if (newIfaces == null) {
+                dropped++;
+                continue;
+            }
+            newConfigState.deviceInterfaceMap.put(entry.getKey(), newIfaces);
+            for (VNSInterface iface : newIfaces) {
+                iface.getParentVNS().addDevice(d);
+            }
+            carried.put(entry.getKey(), oldIfaces);
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("VNS config update: kept cached interfaces for {} " +
+                         "devices, re-classifying {} devices",
+                         carried.size(), dropped);
+        }
+        return carried;
+    }
+
+    /**
+     * Add the devices a rule may match to a list, looked up through the
+     * device index on one of the rule's fields. A device matches the rule
+     * only if it matches all the fields of the rule, so any one of them
+     * gives a superset of the matching devices.
+     * @return false if the rule has no field that can be looked up
+     */
+    private boolean addRuleCandidates(MembershipRule<VNS> rule,
+                                      List<IDevice> candidates) {
+        Iterator<? extends IDevice> it;
+        if (rule.getMac() != null) {
+            long mac = Long.parseLong(rule.getMac().replace(":", ""), 16);
+            it = deviceManager.queryDevices(mac, null, null, null, null);
+        } else if (rule.getTagList() != null &&
+                   !rule.getTagList().isEmpty()) {
+            Tag tag = tagManager.getTagFromDBId(rule.getTagList().get(0));
+            Set<IDevice> tagged =
+                    (tag == null) ? null : tagManager.getDevicesByTag(tag);
+            if (tagged != null) candidates.addAll(tagged);
+            return true;
+        } else if (rule.getSwitchId() != null) {
+            it = deviceManager.queryDevices(null, null, null,
+                    HexString.toLong(rule.getSwitchId()), null);
+        } else if (rule.getIpSubnet() != null &&
+                   rule.getIpSubnet().endsWith("/32")) {
+            String ip = rule.getIpSubnet();
+            it = deviceManager.queryDevices(null, null,
+                    IPv4.toIPv4Address(ip.substring(0, ip.indexOf('/'))),
+                    null, null);
+        } else if (rule.getVlanList() != null &&
+                   rule.getVlanList().size() <= MAX_INDEXED_RULE_VLANS) {
+            for (Integer vlan : rule.getVlanList()) {
+                it = deviceManager.queryDevices(null, vlan.shortValue(),
+                                                null, null, null);
+                while (it.hasNext()) candidates.add(it.next());
+            }
+            return true;
+        } else {
+            return false;
+        }
+        while (it.hasNext()) candidates.add(it.next());
+        return true;
+    }
+
+    /**
+     * Check whether an added or changed rule of the device's address-space
+     * matches the device
+     */
+    private boolean matchesChangedRule(
+            Map<String, IDeviceGroupMatcher<VNS>> changedRuleMatchers,
+            IDevice d) {
+        if (d.getEntityClass() == null) return true;
+        IDeviceGroupMatcher<VNS> matcher =
+                changedRuleMatchers.get(d.getEntityClass().getName());
+        if (matcher == null) return false;
+        try {
+            return matcher.matchDevice(d) != null;
+        } catch (Exception e) {
+            return true;
+        }
+    }
+
+    /**
+     * Check whether any of the cached interfaces of a device belongs to
+     * a changed NetVirt or interface rule
+     */
+    private boolean isAffectedByChange(List<VNSInterface> ifaces,
+                                       Set<String> changedVNSNames,
+                                       Set<String> changedRuleNames) {
+        for (VNSInterface iface : ifaces) {
+            if (changedVNSNames.contains(iface.getParentVNS().getName()))
+                return true;
+            if (iface.getParentRule() != null &&
+                    changedRuleNames.contains(iface.getParentRule().getName()))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Find or create the interface in newConfigState that corresponds to
+     * an interface from curConfigState, including its parent interfaces.
+     * @return the interface or null if its NetVirt or rule no longer exists
+     */
+    private VNSInterface carryOverInterface(VNSInterface oldIface) {
+        String vnsName = oldIface.getParentVNS().getName();
+        VNS vns = newConfigState.vnsMap.get(vnsName);
+        MembershipRule<VNS> rule = null;
+        if (oldIface.getParentRule() != null) {
+            if (vns == null) return null;
+            rule = newConfigState.interfaceRuleMap.get(
+                    oldIface.getParentRule().getName());
+            if (rule == null) return null;
+        } else if (vns == null) {
+            // Default NetVirts are created on demand and are not in storage
+            VNS defvns = oldIface.getParentVNS();
+            if (defvns.isMarked()) return null;
+            vns = new VNS(vnsName);
+            vns.setActive(true);
+            vns.setAddressSpaceName(defvns.getAddressSpaceName());
+            VNS oldvns = newConfigState.vnsMap.putIfAbsent(vnsName, vns);
+            if (oldvns != null) vns = oldvns;
+        }
+
+        VNSInterface parent = null;
+        if (oldIface.getParentVNSInterface() != null) {
+            parent = carryOverInterface(oldIface.getParentVNSInterface());
+            if (parent == null) return null;
+        }
+
+        String key = vnsName + "|" + oldIface.getName();
+        VNSInterface iface = newConfigState.interfaceMap.get(key);
+        if (iface == null) {
+            iface = new VNSInterface(oldIface.getName(), vns, rule, parent);
+            iface.setLastSeen(oldIface.getLastSeen());
+            newConfigState.interfaceMap.put(key, iface);
+        }
+        return iface;
+    }
+
+    /**
+     * Drop the carried over entries of the devices whose cached state in
+     * curConfigState was cleared while the new config was being built.
+     * Must be called with the config write lock held.
+     */
+    private void dropClearedDeviceInterfaces() {
+        for (Long deviceKey : clearedDeviceKeys) {
+            List<VNSInterface> ifaces =
+                    newConfigState.deviceInterfaceMap.remove(deviceKey);
+            if (ifaces == null) continue;
+            for (VNSInterface iface : ifaces) {
+                iface.getParentVNS().removeDevice(deviceKey);
+            }
+        }
+    }
+
     /**
      * Pre-create NetVirt interface based on the rule
      */
@@ -1571,7 +1875,7 @@ public class NetVirtManagerImpl implements IModule, IOFMessageListener,
      */
     private Command processPacketInMessage(IOFSwitch sw, OFPacketIn pi,
                                            ListenerContext cntx) {
-        IFlowCacheService.fcStore.put(cntx, IFlowCacheService.FLOWCACHE_APP_INSTANCE_NAME, "netVirt");
+        IFlowCacheService.APP_INSTANCE_NAME_KEY.put(cntx, "netVirt");
         return annotateDeviceVNSInterfaces (cntx, null);
     }
 
@@ -1588,11 +1892,9 @@ public class NetVirtManagerImpl implements IModule, IOFMessageListener,
             recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
     private Command annotateDeviceVNSInterfaces (ListenerContext cntx, OFMatch match) {
         IDevice src =
-            IDeviceService.fcStore.
-                get(cntx, IDeviceService.CONTEXT_SRC_DEVICE);
+            IDeviceService.SRC_DEVICE_KEY.get(cntx);
         IDevice dst =
-                IDeviceService.fcStore.
-                    get(cntx, IDeviceService.CONTEXT_DST_DEVICE);
+                IDeviceService.DST_DEVICE_KEY.get(cntx);
 
         if (logger.isTraceEnabled()) {
             logger.trace("srcDevice: {}, dstDevice: {}", src, dst);
@@ -1617,7 +1919,7 @@ public class NetVirtManagerImpl implements IModule, IOFMessageListener,
                 if (logger.isTraceEnabled()) {
                     logger.trace("srcIface: {}", srcIfaces.get(0));
                 }
-                bcStore.put(cntx, INetVirtManagerService.CONTEXT_SRC_IFACES, srcIfaces);
+                INetVirtManagerService.SRC_IFACES_KEY.put(cntx, srcIfaces);
             }
         }
 
@@ -1636,7 +1938,7 @@ public class NetVirtManagerImpl implements IModule, IOFMessageListener,
             if (logger.isTraceEnabled()) {
                 logger.trace("dstIface: {}", dstIfaces.get(0));
             }
-            bcStore.put(cntx, INetVirtManagerService.CONTEXT_DST_IFACES, dstIfaces);
+            INetVirtManagerService.DST_IFACES_KEY.put(cntx, dstIfaces);
         }
         return Command.CONTINUE;
     }
@@ -1654,8 +1956,7 @@ public class NetVirtManagerImpl implements IModule, IOFMessageListener,
         long dstMac = 0;
 
         Ethernet eth =
-                IControllerService.bcStore.
-                get(cntx,IControllerService.CONTEXT_PI_PAYLOAD);
+                IControllerService.PI_PAYLOAD_KEY.get(cntx);
 
         if (eth != null) {
             // If packetIn is an unicast IPV4 packet, get destination ipaddress.
@@ -1836,6 +2137,8 @@ public class NetVirtManagerImpl implements IModule, IOFMessageListener,
                                     iface.getName());
             }
             curConfigState.deviceInterfaceMap.remove(deviceKey);
+            Set<Long> cleared = clearedDeviceKeys;
+            if (cleared != null) cleared.add(deviceKey);
         } finally {
             configLock.writeLock().unlock();
         }
@@ -1903,6 +2206,9 @@ public class NetVirtManagerImpl implements IModule, IOFMessageListener,
     protected void clearConfigState() {
         configLock.writeLock().lock();
         try {
+            Set<Long> cleared = clearedDeviceKeys;
+            if (cleared != null)
+                cleared.addAll(curConfigState.deviceInterfaceMap.keySet());
             curConfigState.clear();
             confBroadcastIfaces.clear();
             broadcastSwitchPorts.clear();
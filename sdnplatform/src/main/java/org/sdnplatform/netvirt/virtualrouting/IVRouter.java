@@ -185,4 +185,13 @@ public interface IVRouter {
     public GatewayNode getOptimalGatewayNodeInfo(String gatewayPoolName,
                                                IDevice srcDev, Short vlan)
                                                throws IllegalArgumentException;
+
+    /**
+     * Drop the cached gateway node selections of the gateway pools
+     * @param device a device that changed; only the pools with a gateway
+     *        node at one of its IPs, or that selected the device for a
+     *        gateway node before, are affected. If null, all pools are
+     *        affected.
+     */
+    public void invalidateGatewayPoolCaches(IDevice device);
 }
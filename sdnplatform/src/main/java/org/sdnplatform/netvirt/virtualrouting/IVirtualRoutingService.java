@@ -18,6 +18,7 @@ package org.sdnplatform.netvirt.virtualrouting;
 
 import java.util.List;
 
+import org.sdnplatform.core.ListenerContextKey;
 import org.sdnplatform.core.ListenerContextStore;
 import org.sdnplatform.core.IOFMessageListener;
 import org.sdnplatform.core.module.IPlatformService;
@@ -30,6 +31,8 @@ import org.sdnplatform.netvirt.core.VNSAccessControlList;
 public interface IVirtualRoutingService extends IPlatformService {
     public static final String NetVirt_NAME =
         "org.sdnplatform.netVirt.virtualrouting.netVirtName";
+    public static final ListenerContextKey<String> NetVirt_NAME_KEY =
+        ListenerContextKey.register(NetVirt_NAME);
     
     // FIXME: a temporary workaround for virtual routing flows that are
     // route between NetVirtes. This is uses as the flowcache app instance name
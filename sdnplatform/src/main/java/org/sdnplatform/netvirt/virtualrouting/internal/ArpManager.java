@@ -16,6 +16,7 @@
 
 package org.sdnplatform.netvirt.virtualrouting.internal;
 
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
@@ -28,6 +29,7 @@ import org.openflow.protocol.OFMatch;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPacketIn;
 import org.openflow.protocol.OFPacketOut;
+import org.openflow.protocol.OFPort;
 import org.openflow.protocol.OFType;
 import org.openflow.protocol.OFPacketIn.OFPacketInReason;
 import org.openflow.protocol.factory.BasicFactory;
@@ -41,13 +43,17 @@ import org.sdnplatform.devicemanager.IDevice;
 import org.sdnplatform.devicemanager.IDeviceListener;
 import org.sdnplatform.devicemanager.IDeviceService;
 import org.sdnplatform.devicemanager.SwitchPort;
+import org.sdnplatform.forwarding.IForwardingService;
+import org.sdnplatform.netvirt.core.VNS;
 import org.sdnplatform.netvirt.core.VNSInterface;
 import org.sdnplatform.netvirt.core.VNS.ARPMode;
 import org.sdnplatform.netvirt.manager.INetVirtManagerService;
 import org.sdnplatform.netvirt.virtualrouting.IARPListener;
 import org.sdnplatform.netvirt.virtualrouting.IVirtualRoutingService;
 import org.sdnplatform.netvirt.virtualrouting.IARPListener.ARPCommand;
+import org.sdnplatform.netvirt.virtualrouting.internal.ArpResponderTable.Responder;
 import org.sdnplatform.packet.ARP;
+import org.sdnplatform.packet.Data;
 import org.sdnplatform.packet.Ethernet;
 import org.sdnplatform.packet.IPacket;
 import org.sdnplatform.packet.IPv4;
@@ -78,6 +84,8 @@ public class ArpManager implements IOFMessageListener {
     protected ITopologyService topology;
     protected IVirtualRoutingService virtualRouting;
     protected ITunnelManagerService tunnelManager;
+    protected INetVirtManagerService netVirtManager;
+    protected IForwardingService forwarding;
 
     protected BasicFactory factory;
     protected Set<IARPListener> arpListeners;
@@ -89,10 +97,17 @@ public class ArpManager implements IOFMessageListener {
 
     protected DeviceListenerImpl deviceListener;
 
+    /**
+     * Replies of the virtual routers that are sent without going through
+     * the ARP listeners
+     */
+    protected ArpResponderTable responders;
+
     public ArpManager() {
         arpListeners = new CopyOnWriteArraySet<IARPListener>();
         unicastARPRequestTime = new ConcurrentHashMap<Long, Long>();
         deviceListener = new DeviceListenerImpl();
+        responders = new ArpResponderTable();
     }
 
     public void startUp() {
@@ -132,6 +147,47 @@ public class ArpManager implements IOFMessageListener {
         this.tunnelManager = tunnelManager;
     }
 
+    public void setNetVirtManager(INetVirtManagerService netVirtManager) {
+        this.netVirtManager = netVirtManager;
+    }
+
+    public void setForwarding(IForwardingService forwarding) {
+        this.forwarding = forwarding;
+    }
+
+    public ArpResponderTable getResponders() {
+        return responders;
+    }
+
+    /**
+     * Record an ARP reply that the first ARP listener sent for a router
+     * IP, so later requests for the IP are answered without calling the
+     * listeners. Replies of any other listener are ignored since the
+     * listeners before it would be skipped.
+     * @param listener the listener that sent the reply
+     * @param generation the responder generation read before the reply
+     *        was determined
+     * @param addressSpace the address space of the requesting host
+     * @param vlan the VLAN of the request
+     * @param ip the router IP
+     * @param netVirt the highest priority NetVirt of the requesting host
+     * @param vMac the router MAC
+     */
+    public void learnResponder(IARPListener listener, int generation,
+                               String addressSpace, short vlan, int ip,
+                               String netVirt, long vMac) {
+        Iterator<IARPListener> it = arpListeners.iterator();
+        if (!it.hasNext() || it.next() != listener) return;
+        responders.learn(generation, addressSpace, vlan, ip, netVirt, vMac);
+    }
+
+    /**
+     * Forget all recorded router replies
+     */
+    public void clearResponders() {
+        responders.clear();
+    }
+
     // *******************
     // Internal Methods - ARP packet processing related
     // *******************
@@ -191,8 +247,7 @@ public class ArpManager implements IOFMessageListener {
         // that takes both the source and destination into account
         ARPMode config = ARPMode.DROP_IF_UNKNOWN;
         List<VNSInterface> srcIfaces =
-                INetVirtManagerService.bcStore.get(cntx,
-                                       INetVirtManagerService.CONTEXT_SRC_IFACES);
+                INetVirtManagerService.SRC_IFACES_KEY.get(cntx);
         if (srcIfaces != null) {
             for (VNSInterface iface : srcIfaces) {
                 ARPMode bc = iface.getParentVNS().getArpManagerMode();
@@ -224,11 +279,126 @@ public class ArpManager implements IOFMessageListener {
         return device;
     }
 
+    /**
+     * Answer an ARP request for a router IP from the responder table.
+     * The request is read from the raw packet data and the reply is built
+     * from the recorded template, so the sender device lookup, the ARP
+     * listeners and the ARP packet decoding and encoding are skipped.
+     * @return true if the reply was sent
+     */
+    private boolean answerFromResponders(IOFSwitch sw, OFPacketIn pi,
+                                         ListenerContext cntx) {
+        if (responders.size() == 0 || forwarding == null ||
+                netVirtManager == null)
+            return false;
+
+        byte[] data = pi.getPacketData();
+        if (data == null || data.length < 14) return false;
+        int off = 12;
+        short vlan = Ethernet.VLAN_UNTAGGED;
+        byte priorityCode = 0;
+        if (getShort(data, off) == (short) 0x8100) {
+            if (data.length < 18) return false;
+            short tci = getShort(data, off + 2);
+            priorityCode = (byte) ((tci >> 13) & 0x07);
+            vlan = (short) (tci & 0x0fff);
+            off += 4;
+        }
+        if (getShort(data, off) != Ethernet.TYPE_ARP) return false;
+        off += 2;
+        if (data.length < off + ArpResponderTable.ARP_LENGTH ||
+                getShort(data, off) != ARP.HW_TYPE_ETHERNET ||
+                getShort(data, off + 2) != ARP.PROTO_TYPE_IP ||
+                data[off + 4] != 6 || data[off + 5] != 4 ||
+                getShort(data, off + 6) != ARP.OP_REQUEST)
+            return false;
+
+        // The reply goes to the sender hardware address, which must be the
+        // source device
+        for (int i = 0; i < 6; i++) {
+            if (data[off + 8 + i] != data[6 + i]) return false;
+        }
+        int senderIp = getInt(data, off + 14);
+        int targetIp = getInt(data, off + 24);
+        // gratuitous ARP
+        if (senderIp == targetIp) return false;
+
+        IDevice src =
+                IDeviceService.SRC_DEVICE_KEY.get(cntx);
+        if (src == null || src.getEntityClass() == null) return false;
+        Responder responder =
+                responders.get(src.getEntityClass().getName(), vlan,
+                               targetIp);
+        if (responder == null) return false;
+
+        // The router answers for the highest priority NetVirt of the host
+        List<VNSInterface> ifaces = netVirtManager.getInterfaces(src);
+        if (ifaces == null) return false;
+        VNS vns = null;
+        for (VNSInterface iface : ifaces) {
+            VNS v = iface.getParentVNS();
+            if (vns == null || v.compareTo(vns) < 0)
+                vns = v;
+        }
+        if (vns == null) return false;
+        byte[] template = responder.getTemplate(vns.getName());
+        if (template == null) return false;
+
+        byte[] reply = template.clone();
+        System.arraycopy(data, off + 8, reply,
+                         ArpResponderTable.TARGET_HW_OFFSET, 6);
+        System.arraycopy(data, off + 14, reply,
+                         ArpResponderTable.TARGET_IP_OFFSET, 4);
+        Ethernet arpReply = (Ethernet) new Ethernet()
+            .setSourceMACAddress(Arrays.copyOfRange(reply, 8, 14))
+            .setDestinationMACAddress(Arrays.copyOfRange(data, 6, 12))
+            .setEtherType(Ethernet.TYPE_ARP)
+            .setVlanID(vlan)
+            .setPriorityCode(priorityCode)
+            .setPayload(new Data(reply));
+        SwitchPort dap = new SwitchPort(sw.getId(), pi.getInPort());
+        if (!forwarding.pushPacketOutToEgressPort(arpReply,
+                                                  OFPort.OFPP_NONE.getValue(),
+                                                  dap, false,
+                                                  vns.getAddressSpaceName(),
+                                                  vlan, null, true)) {
+            // the listeners try again and report the failure
+            return false;
+        }
+        if (logger.isTraceEnabled()) {
+            logger.trace("Answered ARP request for {} from the responder " +
+                         "table at {}/{}",
+                         new Object[] {IPv4.fromIPv4Address(targetIp),
+                                       HexString.toHexString(sw.getId()),
+                                       pi.getInPort()});
+        }
+        return true;
+    }
+
+    private static short getShort(byte[] data, int off) {
+        return (short) (((data[off] & 0xff) << 8) | (data[off + 1] & 0xff));
+    }
+
+    private static int getInt(byte[] data, int off) {
+        return ((data[off] & 0xff) << 24) | ((data[off + 1] & 0xff) << 16) |
+               ((data[off + 2] & 0xff) << 8) | (data[off + 3] & 0xff);
+    }
+
     private Command processPacketInMessage(IOFSwitch sw, OFPacketIn pi,
                                            ListenerContext cntx) {
         Ethernet eth =
-                IControllerService.bcStore.get(cntx,
-                        IControllerService.CONTEXT_PI_PAYLOAD);
+                IControllerService.PI_PAYLOAD_KEY.get(cntx);
+        if (answerFromResponders(sw, pi, cntx)) {
+            // Stop processing this packet, as for an ARP listener
+            IDevice src =
+                    IDeviceService.SRC_DEVICE_KEY.get(cntx);
+            IDevice dst =
+                    IDeviceService.DST_DEVICE_KEY.get(cntx);
+            RoutingDecision vrd = setupDecision(sw, src, dst, pi, eth,
+                                                RoutingAction.NONE);
+            vrd.addToContext(cntx);
+            return Command.STOP;
+        }
         if (!(eth.getPayload() instanceof ARP)) {
             if (logger.isTraceEnabled()) {
                 logger.trace("Received a packet from switch {} that was not " +
@@ -257,12 +427,10 @@ public class ArpManager implements IOFMessageListener {
         if (senderDevice == null) return Command.CONTINUE;
 
         IDevice src =
-                IDeviceService.fcStore.
-                    get(cntx, IDeviceService.CONTEXT_SRC_DEVICE);
+                IDeviceService.SRC_DEVICE_KEY.get(cntx);
         if (src == null) return Command.CONTINUE;
         IDevice dst =
-                IDeviceService.fcStore.
-                    get(cntx, IDeviceService.CONTEXT_DST_DEVICE);
+                IDeviceService.DST_DEVICE_KEY.get(cntx);
 
         if (logger.isTraceEnabled()) {
             logger.trace("Received an ARP packet, opcode {}, from switch " +
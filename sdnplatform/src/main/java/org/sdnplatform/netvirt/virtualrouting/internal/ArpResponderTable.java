@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.netvirt.virtualrouting.internal;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.sdnplatform.packet.ARP;
+import org.sdnplatform.util.MACAddress;
+
+/**
+ * The replies of the virtual routers to ARP requests for their interface
+ * IPs, keyed by the address space and VLAN of the requesting host and the
+ * target IP. A router only answers for an interface IP if the highest
+ * priority NetVirt of the host is connected to that interface, so every
+ * entry holds the reply for each such NetVirt.
+ *
+ * The keys are kept in a primitive open addressing table that is replaced
+ * on every change. Lookups take no lock; changes are rare once the
+ * gateways of the hosts have been learned.
+ */
+public class ArpResponderTable {
+    /**
+     * Maximum number of (address space, VLAN, IP) entries
+     */
+    public static final int MAX_RESPONDERS = 4096;
+
+    /**
+     * Length of an ARP packet for IPv4 over Ethernet
+     */
+    public static final int ARP_LENGTH = 28;
+
+    // Offsets of the target fields in an ARP packet
+    public static final int TARGET_HW_OFFSET = 18;
+    public static final int TARGET_IP_OFFSET = 24;
+
+    /**
+     * The ARP replies for one target IP
+     */
+    public static class Responder {
+        protected final String[] netVirts;
+        protected final byte[][] templates;
+
+        protected Responder(String[] netVirts, byte[][] templates) {
+            this.netVirts = netVirts;
+            this.templates = templates;
+        }
+
+        /**
+         * Get the ARP reply to send to a host whose highest priority
+         * NetVirt is the given NetVirt. The target fields of the reply are
+         * not set, and the array must not be modified.
+         * @param netVirt the NetVirt name
+         * @return the reply, null if the router does not answer
+         */
+        public byte[] getTemplate(String netVirt) {
+            for (int i = 0; i < netVirts.length; i++) {
+                if (netVirts[i].equals(netVirt))
+                    return templates[i];
+            }
+            return null;
+        }
+    }
+
+    protected static class Table {
+        final long[] keys;
+        final Responder[] responders;
+        final int size;
+
+        Table(int capacity, int size) {
+            keys = new long[capacity];
+            responders = new Responder[capacity];
+            this.size = size;
+        }
+    }
+
+    protected static final Table EMPTY = new Table(1, 0);
+
+    protected volatile Table table = EMPTY;
+    protected int generation;
+
+    // Small ids of the address space names, part of the key
+    protected final ConcurrentHashMap<String, Integer> addressSpaceIds =
+            new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * Key of an entry, never 0
+     */
+    protected static long key(int addressSpaceId, short vlan, int ip) {
+        return ((long)addressSpaceId << 48) | ((vlan & 0xffffL) << 32) |
+               (ip & 0xffffffffL);
+    }
+
+    protected static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * Build the ARP reply a router sends for one of its IPs
+     * @param vMac the router MAC
+     * @param ip the router IP
+     * @return the ARP reply without the target fields
+     */
+    public static byte[] createReplyTemplate(long vMac, int ip) {
+        ByteBuffer bb = ByteBuffer.allocate(ARP_LENGTH);
+        bb.putShort(ARP.HW_TYPE_ETHERNET);
+        bb.putShort(ARP.PROTO_TYPE_IP);
+        bb.put((byte) 6);
+        bb.put((byte) 4);
+        bb.putShort(ARP.OP_REPLY);
+        bb.put(MACAddress.valueOf(vMac).toBytes());
+        bb.putInt(ip);
+        return bb.array();
+    }
+
+    /**
+     * Find the replies for a target IP
+     * @param addressSpace the address space of the requesting host
+     * @param vlan the VLAN of the request
+     * @param ip the target IP
+     * @return the replies, null if none was learned
+     */
+    public Responder get(String addressSpace, short vlan, int ip) {
+        Table t = table;
+        if (t.size == 0) return null;
+        Integer id = addressSpaceIds.get(addressSpace);
+        if (id == null) return null;
+        long key = key(id.intValue(), vlan, ip);
+        int mask = t.keys.length - 1;
+        for (int i = slot(key, mask); t.keys[i] != 0; i = (i + 1) & mask) {
+            if (t.keys[i] == key)
+                return t.responders[i];
+        }
+        return null;
+    }
+
+    /**
+     * @return the current generation, to pass to {@link #learn}
+     */
+    public synchronized int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Record the reply a router sent to a host whose highest priority
+     * NetVirt is connected to the router interface with the target IP.
+     * @param generation the generation when the reply was determined; the
+     *        reply is dropped if the table was cleared since
+     * @return true if the reply is in the table
+     */
+    public synchronized boolean learn(int generation, String addressSpace,
+                                      short vlan, int ip, String netVirt,
+                                      long vMac) {
+        if (generation != this.generation) return false;
+        Integer id = addressSpaceIds.get(addressSpace);
+        if (id == null) {
+            if (addressSpaceIds.size() >= 0xffff) return false;
+            id = Integer.valueOf(addressSpaceIds.size() + 1);
+            addressSpaceIds.put(addressSpace, id);
+        }
+
+        byte[] template = createReplyTemplate(vMac, ip);
+        Responder old = get(addressSpace, vlan, ip);
+        String[] netVirts;
+        byte[][] templates;
+        if (old == null) {
+            if (table.size >= MAX_RESPONDERS) return false;
+            netVirts = new String[] {netVirt};
+            templates = new byte[][] {template};
+        } else {
+            byte[] oldTemplate = old.getTemplate(netVirt);
+            if (oldTemplate != null &&
+                    Arrays.equals(oldTemplate, template))
+                return true;
+            int n = old.netVirts.length;
+            int i = 0;
+            while (i < n && !old.netVirts[i].equals(netVirt)) i++;
+            netVirts = Arrays.copyOf(old.netVirts,
+                                               (i < n) ? n : n + 1);
+            templates = Arrays.copyOf(old.templates,
+                                                netVirts.length);
+            netVirts[i] = netVirt;
+            templates[i] = template;
+        }
+        put(key(id.intValue(), vlan, ip), new Responder(netVirts, templates),
+            old == null);
+        return true;
+    }
+
+    private void put(long key, Responder responder, boolean added) {
+        Table t = table;
+        int size = added ? t.size + 1 : t.size;
+        int capacity = 16;
+        while (capacity < size * 2) capacity <<= 1;
+        Table n = new Table(capacity, size);
+        int mask = capacity - 1;
+        for (int i = 0; i < t.keys.length; i++) {
+            if (t.keys[i] != 0 && t.keys[i] != key)
+                insert(n, t.keys[i], t.responders[i], mask);
+        }
+        insert(n, key, responder, mask);
+        table = n;
+    }
+
+    private static void insert(Table t, long key, Responder responder,
+                               int mask) {
+        int i = slot(key, mask);
+        while (t.keys[i] != 0) i = (i + 1) & mask;
+        t.keys[i] = key;
+        t.responders[i] = responder;
+    }
+
+    /**
+     * Remove all replies, when the virtual routing configuration changes
+     */
+    public synchronized void clear() {
+        generation++;
+        table = EMPTY;
+    }
+
+    public int size() {
+        return table.size;
+    }
+}
@@ -318,8 +318,7 @@ public class DhcpManager implements IOFMessageListener {
     private Command processPacketInMessage(IOFSwitch sw, OFPacketIn pi,
                                            ListenerContext cntx) {
         Ethernet eth =
-            IControllerService.bcStore.
-            get(cntx, IControllerService.CONTEXT_PI_PAYLOAD);
+            IControllerService.PI_PAYLOAD_KEY.get(cntx);
 
         if (eth.getEtherType() != Ethernet.TYPE_IPv4)
             return Command.CONTINUE;
@@ -335,8 +334,7 @@ public class DhcpManager implements IOFMessageListener {
 
         // Get source device
         IDevice srcDevice =
-                IDeviceService.fcStore.
-                    get(cntx, IDeviceService.CONTEXT_SRC_DEVICE);
+                IDeviceService.SRC_DEVICE_KEY.get(cntx);
         if (srcDevice == null) {
             logger.error("No source device found for MAC {}",
                          HexString.toHexString(eth.getSourceMACAddress()));
@@ -345,16 +343,14 @@ public class DhcpManager implements IOFMessageListener {
 
         // Get destination device. This can be null.
         IDevice dstDevice =
-                IDeviceService.fcStore.
-                    get(cntx, IDeviceService.CONTEXT_DST_DEVICE);
+                IDeviceService.DST_DEVICE_KEY.get(cntx);
 
         if (logger.isTraceEnabled()) {
              logger.trace("DHCP Packet found from {}", srcDevice);
         }
 
         List<VNSInterface> srcIfaces =
-            INetVirtManagerService.bcStore.
-                get(cntx, INetVirtManagerService.CONTEXT_SRC_IFACES);
+            INetVirtManagerService.SRC_IFACES_KEY.get(cntx);
 
 
         DHCP dhcp = (DHCP) udp.getPayload();
@@ -16,11 +16,18 @@
 
 package org.sdnplatform.netvirt.virtualrouting.internal;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.sdnplatform.devicemanager.IDevice;
+import org.sdnplatform.devicemanager.IEntityClass;
 import org.sdnplatform.devicemanager.SwitchPort;
 import org.sdnplatform.netvirt.virtualrouting.GatewayNode;
 import org.sdnplatform.netvirt.virtualrouting.IGatewayPool;
@@ -33,10 +40,80 @@ import org.slf4j.LoggerFactory;
 public class GatewayPoolImpl implements IGatewayPool {
     protected static final Logger logger =
             LoggerFactory.getLogger(GatewayPoolImpl.class);
+    // The selection cache is cleared when it grows past this size
+    protected static final int MAX_CACHED_SELECTIONS = 8192;
+
     private String name;
     private Map<String, GatewayNode> gatewayNodeMap;
     private VirtualRouterManager vRtrManager;
 
+    /**
+     * The source of a gateway selection: the attachment point of the
+     * source device in each L2 domain, the VLAN and the entity class that
+     * is used to look up the gateway devices
+     */
+    protected static class SelectionKey {
+        final Map<Long, SwitchPort> attachmentPoints;
+        final short vlan;
+        final IEntityClass entityClass;
+        final int hash;
+
+        SelectionKey(Map<Long, SwitchPort> attachmentPoints, short vlan,
+                     IEntityClass entityClass) {
+            this.attachmentPoints = attachmentPoints;
+            this.vlan = vlan;
+            this.entityClass = entityClass;
+            int h = attachmentPoints.hashCode();
+            h = 31 * h + vlan;
+            h = 31 * h + ((entityClass == null) ? 0 : entityClass.hashCode());
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof SelectionKey)) return false;
+            SelectionKey other = (SelectionKey) obj;
+            if (vlan != other.vlan) return false;
+            if (entityClass == null) {
+                if (other.entityClass != null) return false;
+            } else if (!entityClass.equals(other.entityClass)) {
+                return false;
+            }
+            return attachmentPoints.equals(other.attachmentPoints);
+        }
+    }
+
+    /**
+     * The gateway nodes closest to a source, ordered by IP
+     */
+    protected static class Selection {
+        final long generation;
+        final List<GatewayNode> nodes;
+
+        Selection(long generation, List<GatewayNode> nodes) {
+            this.generation = generation;
+            this.nodes = nodes;
+        }
+    }
+
+    // Selections are valid only for the generation they were computed in
+    private final AtomicLong generation = new AtomicLong();
+    private final ConcurrentMap<SelectionKey, Selection> selectionCache =
+            new ConcurrentHashMap<SelectionKey, Selection>();
+    // Keys of the devices found for the gateway nodes, so the selections
+    // can be dropped when one of them loses the IP of a node
+    private final Set<Long> gatewayDeviceKeys =
+            Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    // Spread the sources over the closest gateway nodes instead of always
+    // picking the one with the smallest IP
+    private volatile boolean equalCostSpread;
+
     @Override
     public String getName() {
         return name;
@@ -46,6 +123,7 @@ public class GatewayPoolImpl implements IGatewayPool {
     public void addGatewayNode(String ip) {
         GatewayNode gwNode = new GatewayNode(ip);
         gatewayNodeMap.put(ip, gwNode);
+        invalidateCache();
     }
 
     @Override
@@ -53,6 +131,7 @@ public class GatewayPoolImpl implements IGatewayPool {
         if (gatewayNodeMap.containsKey(ip)) {
             gatewayNodeMap.remove(ip);
         }
+        invalidateCache();
     }
 
     @Override
@@ -74,13 +153,19 @@ public class GatewayPoolImpl implements IGatewayPool {
         return resultMap;
     }
 
-    @Override
-    public GatewayNode getOptimalGatewayNodeInfo(IDevice srcDevice,
-                                                 Short vlan) {
-        GatewayNode optimalGatewayNode = null;
+    /**
+     * Find the gateway nodes with the fewest hops from a source
+     * @param srcDevice the source device
+     * @param vlan the VLAN of the source
+     * @param sdMap the attachment points of the source by L2 domain
+     * @return the closest gateway nodes ordered by IP; empty if no node is
+     * reachable
+     */
+    protected List<GatewayNode> findClosestNodes(IDevice srcDevice,
+                                                 Short vlan,
+                                                 Map<Long, SwitchPort> sdMap) {
+        List<GatewayNode> closest = new ArrayList<GatewayNode>();
         int hopsToOptimalGatewayNode = Integer.MAX_VALUE;
-        SwitchPort[] sdAPs = srcDevice.getAttachmentPoints();
-        Map<Long, SwitchPort> sdMap = getSwitchPortMap(sdAPs);
 
         for (GatewayNode node : getGatewayNodes().values()) {
             if (node.getIp() == 0) {
@@ -98,6 +183,7 @@ public class GatewayPoolImpl implements IGatewayPool {
                 }
                 continue;
             }
+            gatewayDeviceKeys.add(gatewayDevice.getDeviceKey());
 
             SwitchPort[] gdAPs = gatewayDevice.getAttachmentPoints();
             Map<Long, SwitchPort> gdMap = getSwitchPortMap(gdAPs);
@@ -146,18 +232,83 @@ public class GatewayPoolImpl implements IGatewayPool {
             if (numHops < hopsToOptimalGatewayNode) {
                 // Found a better service node
                 hopsToOptimalGatewayNode = numHops;
-                optimalGatewayNode = new GatewayNode(node.getIp(), gatewayDevice);
+                closest.clear();
+                closest.add(new GatewayNode(node.getIp(), gatewayDevice));
             } else if (numHops != Integer.MAX_VALUE &&
                        numHops == hopsToOptimalGatewayNode) {
-                // Equal distance, then pick the node with smaller ip
-                if (node.getIp() < optimalGatewayNode.getIp()) {
-                    optimalGatewayNode = new GatewayNode(node.getIp(), gatewayDevice);
+                // Equal distance, keep the nodes ordered by ip
+                int i = 0;
+                while (i < closest.size() &&
+                       closest.get(i).getIp() < node.getIp()) {
+                    i++;
                 }
+                closest.add(i, new GatewayNode(node.getIp(), gatewayDevice));
             }
         }
-        return optimalGatewayNode;
+        return closest;
     }
 
+    @Override
+    public GatewayNode getOptimalGatewayNodeInfo(IDevice srcDevice,
+                                                 Short vlan) {
+        Map<Long, SwitchPort> sdMap =
+                getSwitchPortMap(srcDevice.getAttachmentPoints());
+        SelectionKey key =
+                new SelectionKey(sdMap,
+                                 (vlan != null) ? vlan.shortValue() : 0,
+                                 srcDevice.getEntityClass());
+        long gen = generation.get();
+        Selection selection = selectionCache.get(key);
+        if (selection == null || selection.generation != gen) {
+            selection = new Selection(gen,
+                                      findClosestNodes(srcDevice, vlan, sdMap));
+            if (selectionCache.size() >= MAX_CACHED_SELECTIONS) {
+                selectionCache.clear();
+            }
+            selectionCache.put(key, selection);
+        }
+
+        List<GatewayNode> nodes = selection.nodes;
+        if (nodes.isEmpty()) return null;
+        if (!equalCostSpread || nodes.size() == 1) return nodes.get(0);
+        // Keep all the flows of a source on the same gateway node
+        long h = srcDevice.getDeviceKey().longValue() * 0x9e3779b97f4a7c15L;
+        int index = (int)((h >>> 32) % nodes.size());
+        return nodes.get(index);
+    }
+
+    /**
+     * Drop the cached gateway selections, e.g. when the topology or the
+     * gateway devices changed
+     */
+    public void invalidateCache() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * @return true if the device has the IP of a gateway node of this pool,
+     * or had one when the selections were computed
+     */
+    public boolean hasGatewayDevice(IDevice device) {
+        if (gatewayDeviceKeys.contains(device.getDeviceKey())) return true;
+        for (Integer ip : device.getIPv4Addresses()) {
+            for (GatewayNode node : gatewayNodeMap.values()) {
+                if (node.getIp() == ip.intValue()) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param equalCostSpread true to spread the sources over the gateway
+     * nodes with the fewest hops, false to always pick the one of them
+     * with the smallest IP
+     */
+    public void setEqualCostSpread(boolean equalCostSpread) {
+        this.equalCostSpread = equalCostSpread;
+    }
+
+
     public GatewayPoolImpl(String name, VirtualRouterManager vRtrManager) {
         super();
         this.name = name;
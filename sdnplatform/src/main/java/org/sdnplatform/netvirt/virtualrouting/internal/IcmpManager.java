@@ -79,8 +79,7 @@ public class IcmpManager implements IOFMessageListener {
     private Command processPacketInMessage(IOFSwitch sw, OFPacketIn pi,
                                            ListenerContext cntx) {
         Ethernet eth =
-                IControllerService.bcStore.get(cntx,
-                        IControllerService.CONTEXT_PI_PAYLOAD);
+                IControllerService.PI_PAYLOAD_KEY.get(cntx);
         if (eth.getEtherType() != Ethernet.TYPE_IPv4)
             return Command.CONTINUE;
 
@@ -115,8 +114,7 @@ public class IcmpManager implements IOFMessageListener {
             if (ret == null || ret == ICMPCommand.CONTINUE) {
                 continue;
             } else if (ret == ICMPCommand.STOP) {
-                IDevice srcDevice = IDeviceService.fcStore.get(cntx,
-                        IDeviceService.CONTEXT_SRC_DEVICE);
+                IDevice srcDevice = IDeviceService.SRC_DEVICE_KEY.get(cntx);
                 RoutingAction ra = RoutingAction.NONE;
                 RoutingDecision vrd = new RoutingDecision(sw.getId(),
                                                           pi.getInPort(),
@@ -24,6 +24,7 @@ import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.sdnplatform.devicegroup.IDeviceGroup;
 import org.sdnplatform.devicemanager.IDevice;
@@ -150,10 +151,8 @@ public class VRouterImpl implements IVRouter {
                     break;
 
                 case TENANT:
-                    if (entity == null)
-                        return false;
-                    String tenant = entity.getName().split("\\|")[0];
-                    if (!this.name.equals(tenant))
+                    if (entity == null ||
+                        !isTenantOf(this.name, entity.getName()))
                         return false;
                     break;
 
@@ -349,6 +348,49 @@ public class VRouterImpl implements IVRouter {
         }
     }
 
+    /**
+     * The key of a cached routing rule decision. The device groups are
+     * identified by their interned IDs.
+     */
+    protected static class DecisionKey {
+        final int srcGroup;
+        final int dstGroup;
+        final int srcIp;
+        final int dstIp;
+
+        DecisionKey(int srcGroup, int dstGroup, int srcIp, int dstIp) {
+            this.srcGroup = srcGroup;
+            this.dstGroup = dstGroup;
+            this.srcIp = srcIp;
+            this.dstIp = dstIp;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = srcGroup;
+            result = 31 * result + dstGroup;
+            result = 31 * result + srcIp;
+            result = 31 * result + dstIp;
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof DecisionKey)) return false;
+            DecisionKey other = (DecisionKey) obj;
+            return srcGroup == other.srcGroup && dstGroup == other.dstGroup &&
+                   srcIp == other.srcIp && dstIp == other.dstIp;
+        }
+    }
+
+    /* Stands for "no rule matches" in the decision cache */
+    protected static final ForwardingRule NO_MATCH =
+            new ForwardingRule(new RuleEntity(null, null, null, null),
+                               new RuleEntity(null, null, null, null),
+                               null, null, RuleAction.DROP, null);
+    protected static final int MAX_CACHED_DECISIONS = 8192;
+
     /* Name of this router */
     protected String name;
     /* Name of tenant owning this router */
@@ -365,6 +407,8 @@ public class VRouterImpl implements IVRouter {
     protected Map<String, VRouterInterface> tenantIfaceMap;
     /* Store all rules having a source host name or a /32 IP address */
     protected Map<String, DestinationMatcher> srcHostRuleMap;
+    /* The same rules keyed by the source IP address */
+    protected Map<Integer, DestinationMatcher> srcHostIpRuleMap;
     /* Store all rules having a source NetVirt name */
     protected Map<String, DestinationMatcher> srcNetVirtRuleMap;
     /* Store all rules having a source Tenant name */
@@ -375,6 +419,8 @@ public class VRouterImpl implements IVRouter {
     protected IPV4SubnetTrie<DestinationMatcher> srcSubnetRuleTrie;
     /* The map of all gateway pools on this router based on their names */
     protected Map<String, GatewayPoolImpl> gatewayPoolMap;
+    /* Spread the sources over the closest nodes of the gateway pools */
+    protected boolean gatewayPoolEqualCostSpread;
     /* The default router interface. This is the interface connecting a tenant
      * router to the system router
      */
@@ -384,6 +430,14 @@ public class VRouterImpl implements IVRouter {
 
     VirtualRouterManager vRtrManager;
 
+    /* Interned IDs of the device group names seen by getForwardingAction */
+    protected ConcurrentHashMap<String, Integer> groupIds;
+    /* The matching rule, or NO_MATCH, of the recent lookups. The map is
+     * replaced whenever the configuration of the router changes.
+     */
+    protected volatile ConcurrentHashMap<DecisionKey, ForwardingRule>
+            decisionCache;
+
     public VRouterImpl(String name, String tenant, Long vMac,
                        VirtualRouterManager vRtrManager) {
         this.name = name;
@@ -393,6 +447,7 @@ public class VRouterImpl implements IVRouter {
         entityIfaceMap = new HashMap<String, VRouterInterface>();
         tenantIfaceMap = new HashMap<String, VRouterInterface>();
         srcHostRuleMap = new HashMap<String, DestinationMatcher>();
+        srcHostIpRuleMap = new HashMap<Integer, DestinationMatcher>();
         srcNetVirtRuleMap = new HashMap<String, DestinationMatcher>();
         srcTenantRuleMap = new HashMap<String, DestinationMatcher>();
         gatewayPoolMap = new HashMap<String, GatewayPoolImpl>();
@@ -400,6 +455,51 @@ public class VRouterImpl implements IVRouter {
         subnetTrie = new IPV4SubnetTrie<VRouterInterface>();
         this.vMac = vMac;
         this.vRtrManager = vRtrManager;
+        groupIds = new ConcurrentHashMap<String, Integer>();
+        decisionCache = new ConcurrentHashMap<DecisionKey, ForwardingRule>();
+    }
+
+    /**
+     * @param tenantName A tenant name
+     * @param netVirtName A name of the format <tenant>|<netVirt>
+     * @return true if the NetVirt belongs to the tenant
+     */
+    protected static boolean isTenantOf(String tenantName, String netVirtName) {
+        int len = tenantName.length();
+        return netVirtName.startsWith(tenantName) &&
+               (netVirtName.length() == len || netVirtName.charAt(len) == '|');
+    }
+
+    /**
+     * @param netVirtName A name of the format <tenant>|<netVirt>
+     * @return The tenant name
+     */
+    protected static String getTenantName(String netVirtName) {
+        int sep = netVirtName.indexOf('|');
+        return (sep < 0) ? netVirtName : netVirtName.substring(0, sep);
+    }
+
+    /**
+     * Drop all cached rule decisions. Called on every configuration change
+     * of the router. The forwarding action itself is built for every
+     * lookup, so the cache does not depend on the state of other routers.
+     */
+    protected void invalidateDecisions() {
+        decisionCache = new ConcurrentHashMap<DecisionKey, ForwardingRule>();
+    }
+
+    private int getGroupId(IDeviceGroup group) {
+        if (group == null)
+            return -1;
+        String groupName = group.getName();
+        Integer id = groupIds.get(groupName);
+        if (id == null) {
+            Integer newId = Integer.valueOf(groupIds.size());
+            id = groupIds.putIfAbsent(groupName, newId);
+            if (id == null)
+                id = newId;
+        }
+        return id.intValue();
     }
 
     @Override
@@ -417,6 +517,7 @@ public class VRouterImpl implements IVRouter {
                                 String rtrName, boolean active) {
         VRouterInterface iface = new VRouterInterface(this, ifaceName, netVirtName,
                                                       rtrName, active);
+        invalidateDecisions();
         interfaceMap.put(ifaceName, iface);
         String tenantName;
         if (netVirtName != null) {
@@ -446,6 +547,7 @@ public class VRouterImpl implements IVRouter {
             throw new IllegalArgumentException(err);
         }
         IPV4Subnet addr = new IPV4Subnet(ipAddr, maskLen);
+        invalidateDecisions();
         iface.addAddr(addr);
         subnetTrie.put(addr, iface);
         vRtrManager.addSubnetOwner(addr, name);
@@ -484,15 +586,17 @@ public class VRouterImpl implements IVRouter {
         ForwardingRule rule = new ForwardingRule(srcEntity, dstEntity, outIface,
                                                  nextHop, act,
                                                  nextHopGatewayPool);
+        invalidateDecisions();
         DestinationMatcher destMatcher;
         /* Find the Source map to store the rule */
         switch (srcEntity.type) {
             case HOST:
-                destMatcher = srcHostRuleMap.get(srcEntity.name);
+                destMatcher = srcHostIpRuleMap.get(srcEntity.ip.address);
                 if (destMatcher == null) {
                     destMatcher = new DestinationMatcher();
-                    srcHostRuleMap.put(srcEntity.name, destMatcher);
+                    srcHostIpRuleMap.put(srcEntity.ip.address, destMatcher);
                 }
+                srcHostRuleMap.put(srcEntity.name, destMatcher);
                 destMatcher.addRule(rule);
                 return;
 
@@ -621,8 +725,7 @@ public class VRouterImpl implements IVRouter {
             iface = entityIfaceMap.get(dstNetVirt);
             if (iface == null) {
                 /* The NetVirt is not directly connected, get the tenant router */
-                String[] n = dstNetVirt.split("\\|");
-                iface = tenantIfaceMap.get(n[0]);
+                iface = tenantIfaceMap.get(getTenantName(dstNetVirt));
                 if (iface == null) {
                     /* If the tenant router is unavailable, use the default
                      * interface. For tenant routers, this is the system router
@@ -653,8 +756,7 @@ public class VRouterImpl implements IVRouter {
                  */
                 String ownerRtr = vRtrManager.findSubnetOwner(dstIpSubnet);
                 if (ownerRtr != null) {
-                    String[] n = ownerRtr.split("\\|");
-                    iface = tenantIfaceMap.get(n[0]);
+                    iface = tenantIfaceMap.get(getTenantName(ownerRtr));
                 }
                 if (iface == null) {
                     /* Select the default interface */
@@ -748,40 +850,56 @@ public class VRouterImpl implements IVRouter {
             return action;
         }
 
-        String srcNetVirtName = src.getName();
-
-        /* The names are assumed to be of the format <tenant>|<netVirt> */
-        String srcTenantName = srcNetVirtName.split("\\|")[0];
+        /* The rule depends only on the source and dest groups and IPs */
+        ConcurrentHashMap<DecisionKey, ForwardingRule> cache = decisionCache;
+        DecisionKey key = new DecisionKey(getGroupId(src), getGroupId(dst),
+                                          srcIp, dstIp);
+        ForwardingRule rule = cache.get(key);
+        if (rule == null) {
+            rule = findRule(src, srcIp, dst, dstIp);
+            if (cache.size() >= MAX_CACHED_DECISIONS)
+                cache.clear();
+            /* A lookup racing with a config change fills the old map */
+            cache.put(key, (rule != null) ? rule : NO_MATCH);
+        } else if (rule == NO_MATCH) {
+            rule = null;
+        }
+        return createForwardingAction(rule, srcIface, dst, srcIp, dstIp);
+    }
 
-        String srcIpStr = IPv4.fromIPv4Address(srcIp);
+    /**
+     * Finds the highest priority rule matching the source and the dest
+     * @return The matching rule, or null if no rule matches
+     */
+    protected ForwardingRule findRule(IDeviceGroup src, int srcIp,
+                                      IDeviceGroup dst, int dstIp) {
+        String srcNetVirtName = src.getName();
         DestinationMatcher dm;
         ForwardingRule rule;
 
-        dm = srcHostRuleMap.get(srcIpStr);
+        dm = srcHostIpRuleMap.get(srcIp);
         if (dm != null) {
             /* Check whether destination matches */
             rule = dm.findMatch(src, srcIp, dst, dstIp);
             if (rule != null)
-                return createForwardingAction(rule, srcIface, dst, srcIp,
-                                              dstIp);
+                return rule;
         }
 
         dm = srcNetVirtRuleMap.get(srcNetVirtName);
         if (dm != null) {
-            /* Check whether destination matches */
             rule = dm.findMatch(src, srcIp, dst, dstIp);
             if (rule != null)
-                return createForwardingAction(rule, srcIface, dst, srcIp,
-                                              dstIp);
+                return rule;
         }
 
-        dm = srcTenantRuleMap.get(srcTenantName);
-        if (dm != null) {
-            /* Check whether destination matches */
-            rule = dm.findMatch(src, srcIp, dst, dstIp);
-            if (rule != null)
-                return createForwardingAction(rule, srcIface, dst, srcIp,
-                                              dstIp);
+        if (!srcTenantRuleMap.isEmpty()) {
+            /* The names are assumed to be of the format <tenant>|<netVirt> */
+            dm = srcTenantRuleMap.get(getTenantName(srcNetVirtName));
+            if (dm != null) {
+                rule = dm.findMatch(src, srcIp, dst, dstIp);
+                if (rule != null)
+                    return rule;
+            }
         }
 
         List<Entry<IPV4Subnet, DestinationMatcher>> dmList;
@@ -797,12 +915,10 @@ public class VRouterImpl implements IVRouter {
                 dm = li.previous().getValue();
                 rule = dm.findMatch(src, srcIp, dst, dstIp);
                 if (rule != null)
-                    return createForwardingAction(rule, srcIface, dst, srcIp,
-                                                  dstIp);
+                    return rule;
             }
         }
-
-        return createForwardingAction(null, srcIface, dst, srcIp, dstIp);
+        return null;
     }
 
     @Override
@@ -841,13 +957,26 @@ public class VRouterImpl implements IVRouter {
         return 0;
     }
 
+    public void setGatewayPoolEqualCostSpread(boolean equalCostSpread) {
+        this.gatewayPoolEqualCostSpread = equalCostSpread;
+    }
+
     @Override
     public void createGatewayPool(String gatewayPoolName) {
         GatewayPoolImpl gatewayPool = new GatewayPoolImpl(gatewayPoolName,
                                                           vRtrManager);
+        gatewayPool.setEqualCostSpread(gatewayPoolEqualCostSpread);
         gatewayPoolMap.put(gatewayPoolName, gatewayPool);
     }
 
+    @Override
+    public void invalidateGatewayPoolCaches(IDevice device) {
+        for (GatewayPoolImpl gatewayPool : gatewayPoolMap.values()) {
+            if (device == null || gatewayPool.hasGatewayDevice(device))
+                gatewayPool.invalidateCache();
+        }
+    }
+
     @Override
     public GatewayPoolImpl getGatewayPool(String gatewayPoolName) {
         return gatewayPoolMap.get(gatewayPoolName);
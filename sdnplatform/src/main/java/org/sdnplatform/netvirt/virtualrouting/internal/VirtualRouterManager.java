@@ -126,6 +126,8 @@ public class VirtualRouterManager {
 
     /* The static ARP table */
     protected Map<Integer, MACAddress> staticArpTable;
+    /* Spread the sources over the closest nodes of a gateway pool */
+    protected boolean gatewayPoolEqualCostSpread;
     /* The trie of all subnets to tenant routers owning them */
     protected IPV4SubnetTrie<String> subnetTrie;
     /* Map of router interface IP address to the netVirt name that router interface
@@ -155,6 +157,22 @@ public class VirtualRouterManager {
 
     public void setStaticArpTable(Map<Integer, MACAddress> staticArpTable) {
         this.staticArpTable = staticArpTable;
+        /* The gateway devices are looked up in the static ARP table */
+        invalidateGatewayPoolCaches(null);
+    }
+
+    public void setGatewayPoolEqualCostSpread(boolean equalCostSpread) {
+        this.gatewayPoolEqualCostSpread = equalCostSpread;
+    }
+
+    /**
+     * Drop the cached gateway node selections of the gateway pools
+     * @param device a device that changed, or null for all pools
+     */
+    public void invalidateGatewayPoolCaches(IDevice device) {
+        for (IVRouter router : vRouters.values()) {
+            router.invalidateGatewayPoolCaches(device);
+        }
     }
 
     public void setNetVirtManager(INetVirtManagerService netVirtManager) {
@@ -261,7 +279,8 @@ public class VirtualRouterManager {
         linkDiscovery.addMACToIgnoreList(VIRTUAL_ROUTING_MAC, 0);
 
         Long vMac = Long.valueOf(VIRTUAL_ROUTING_MAC);
-        IVRouter router = new VRouterImpl(name, tenantName, vMac, this);
+        VRouterImpl router = new VRouterImpl(name, tenantName, vMac, this);
+        router.setGatewayPoolEqualCostSpread(gatewayPoolEqualCostSpread);
         vRouters.put(name, router);
 
         /* XXX Using only one MAC for all routers
@@ -666,10 +685,10 @@ public class VirtualRouterManager {
 
             if (retAction.getAction() != RoutingAction.DROP) {
                 NetVirtExplainPacket.explainPacketSetContext(cntx,
-                                    NetVirtExplainPacket.KEY_EXPLAIN_PKT_SRC_NetVirt,
+                                    NetVirtExplainPacket.EXPLAIN_PKT_SRC_NetVirt_KEY,
                                     srcIface.getParentVNS().getName());
                 NetVirtExplainPacket.explainPacketSetContext(cntx,
-                                    NetVirtExplainPacket.KEY_EXPLAIN_PKT_DST_NetVirt,
+                                    NetVirtExplainPacket.EXPLAIN_PKT_DST_NetVirt_KEY,
                                     dstIface.getParentVNS().getName());
             }
         }
@@ -743,11 +762,9 @@ public class VirtualRouterManager {
     private IDevice
     updateDestDevice(ListenerContext cntx, short vlan, int dstIp) {
         IDevice srcDevice =
-                IDeviceService.fcStore.get(cntx,
-                                           IDeviceService.CONTEXT_SRC_DEVICE);
+                IDeviceService.SRC_DEVICE_KEY.get(cntx);
         IDevice origDstDevice =
-                IDeviceService.fcStore.get(cntx,
-                                           IDeviceService.CONTEXT_DST_DEVICE);
+                IDeviceService.DST_DEVICE_KEY.get(cntx);
         if (origDstDevice == null) {
             return null;
         }
@@ -773,10 +790,8 @@ public class VirtualRouterManager {
             }
         }
 
-        IDeviceService.fcStore.remove(cntx,
-                                      IDeviceService.CONTEXT_DST_DEVICE);
-        INetVirtManagerService.bcStore.remove(cntx,
-                                        INetVirtManagerService.CONTEXT_DST_IFACES);
+        IDeviceService.DST_DEVICE_KEY.remove(cntx);
+        INetVirtManagerService.DST_IFACES_KEY.remove(cntx);
         return origDstDevice;
     }
 
@@ -809,18 +824,14 @@ public class VirtualRouterManager {
         ForwardingAction retAction = new ForwardingAction();
         List<VNSInterface> srcIfaces, dstIfaces, oldDstIfaces;
 
-        srcIfaces = INetVirtManagerService.bcStore.
-                get(cntx, INetVirtManagerService.CONTEXT_SRC_IFACES);
+        srcIfaces = INetVirtManagerService.SRC_IFACES_KEY.get(cntx);
         if (srcIfaces == null) return new ForwardingAction();
 
-        src = IDeviceService.fcStore.get(cntx,
-                                         IDeviceService.CONTEXT_SRC_DEVICE);
+        src = IDeviceService.SRC_DEVICE_KEY.get(cntx);
 
         origTunnDst = updateDestDevice(cntx, vlan, dstIp);
-        origDst = IDeviceService.fcStore.get(cntx,
-                                             IDeviceService.CONTEXT_DST_DEVICE);
-        oldDstIfaces = INetVirtManagerService.bcStore.
-                get(cntx, INetVirtManagerService.CONTEXT_DST_IFACES);
+        origDst = IDeviceService.DST_DEVICE_KEY.get(cntx);
+        oldDstIfaces = INetVirtManagerService.DST_IFACES_KEY.get(cntx);
         dstIfaces = oldDstIfaces;
         if (dstIfaces == null) {
             // We may have a static arp configured for this IP. Alternately we
@@ -1018,12 +1029,10 @@ public class VirtualRouterManager {
 
             if (!newDst.equals(origDst)) {
                 /* The next hop has changed. Update the context */
-                IDeviceService.fcStore.put(cntx,
-                                           IDeviceService.CONTEXT_DST_DEVICE,
+                IDeviceService.DST_DEVICE_KEY.put(cntx,
                                            newDst);
                 if (origTunnDst != null) {
-                    IDeviceService.fcStore.put(cntx,
-                                       IDeviceService.CONTEXT_ORIG_DST_DEVICE,
+                    IDeviceService.ORIG_DST_DEVICE_KEY.put(cntx,
                                        origTunnDst);
                 }
             }
@@ -1035,7 +1044,7 @@ public class VirtualRouterManager {
             retAction.setNewSrcMac(vMac);
             setRewriteActions(cntx, retAction, origDstMAC, origSrcMAC, dst,
                               vRouterMac);
-            IDeviceService.fcStore.put(cntx, IDeviceService.CONTEXT_DST_DEVICE,
+            IDeviceService.DST_DEVICE_KEY.put(cntx,
                                        dst);
         }
 
@@ -1045,35 +1054,29 @@ public class VirtualRouterManager {
          */
         if (vRouterMac || (ret && !srcNetVirtChosen.equals(dstNetVirtChosen))) {
             /* Annotate the flow cache with virtual routing service */
-            IFlowCacheService.fcStore.
-            put(cntx, IFlowCacheService.FLOWCACHE_APP_INSTANCE_NAME,
+            IFlowCacheService.APP_INSTANCE_NAME_KEY.put(cntx,
                 IVirtualRoutingService.VRS_FLOWCACHE_NAME);
             retAction.setVirtualRouted(true);
         } else if (ret) {
-            IFlowCacheService.fcStore.
-            put(cntx, IFlowCacheService.FLOWCACHE_APP_INSTANCE_NAME,
+            IFlowCacheService.APP_INSTANCE_NAME_KEY.put(cntx,
                 srcNetVirtChosen.getName());
         } else {
-            IFlowCacheService.fcStore.
-            put(cntx, IFlowCacheService.FLOWCACHE_APP_INSTANCE_NAME,
+            IFlowCacheService.APP_INSTANCE_NAME_KEY.put(cntx,
                 IVirtualRoutingService.VRS_FLOWCACHE_NAME);
         }
 
         if (ret) {
             if (srcIfaces.size() > 1) {
                 srcIfaces = Collections.singletonList(srcIfaceChosen);
-                INetVirtManagerService.bcStore.
-                put(cntx, INetVirtManagerService.CONTEXT_SRC_IFACES, srcIfaces);
+                INetVirtManagerService.SRC_IFACES_KEY.put(cntx, srcIfaces);
             }
             if (oldDstIfaces == null || oldDstIfaces.size() > 1) {
                 dstIfaces = Collections.singletonList(dstIfaceChosen);
-                INetVirtManagerService.bcStore.
-                put(cntx, INetVirtManagerService.CONTEXT_DST_IFACES, dstIfaces);
+                INetVirtManagerService.DST_IFACES_KEY.put(cntx, dstIfaces);
             }
 
             // Annotate netVirtName if the packetIn belongs to a NetVirt
-            IVirtualRoutingService.vrStore.
-            put(cntx, IVirtualRoutingService.NetVirt_NAME,
+            IVirtualRoutingService.NetVirt_NAME_KEY.put(cntx,
                 srcNetVirtChosen.getName());
             retAction.setAction(RoutingAction.FORWARD);
             updateExplainPacket(cntx, srcIfaceChosen, dstIfaceChosen,
@@ -1081,10 +1084,8 @@ public class VirtualRouterManager {
             return retAction;
         } else if (dstIfaces != null) {
             /* The two sets of interfaces are not allowed to communicate */
-            INetVirtManagerService.bcStore.
-            remove(cntx, INetVirtManagerService.CONTEXT_SRC_IFACES);
-            INetVirtManagerService.bcStore.
-            remove(cntx, INetVirtManagerService.CONTEXT_DST_IFACES);
+            INetVirtManagerService.SRC_IFACES_KEY.remove(cntx);
+            INetVirtManagerService.DST_IFACES_KEY.remove(cntx);
         }
 
         return retAction;
@@ -1173,11 +1174,7 @@ public class VirtualRouterManager {
      *         0 otherwise
      */
     public long getRtrVMac(VNS srcNetVirt, int srcIp, int dstIp) {
-        String srcNetVirtName = srcNetVirt.getName();
-        IVRouter vRouter = netVirtToRouterMap.get(srcNetVirtName);
-        if (vRouter == null) return 0;
-
-        long vMac = vRouter.getVMac(srcNetVirtName, dstIp);
+        long vMac = getDirectRtrVMac(srcNetVirt, dstIp);
         if (vMac != 0) {
             /* The dstIp is configured on an interface that is directly
              * connected to the srcNetVirt
@@ -1210,6 +1207,22 @@ public class VirtualRouterManager {
         return 0;
     }
 
+    /**
+     * Returns the router MAC if a router IP is configured on the router
+     * interface that is directly connected to the source NetVirt. This does
+     * not depend on the source IP or on any routing rule.
+     * @param srcNetVirt The source NetVirt
+     * @param dstIp The router IP
+     * @return the router MAC, 0 if the interface connected to the source
+     *         NetVirt is not configured with the IP
+     */
+    public long getDirectRtrVMac(VNS srcNetVirt, int dstIp) {
+        String srcNetVirtName = srcNetVirt.getName();
+        IVRouter vRouter = netVirtToRouterMap.get(srcNetVirtName);
+        if (vRouter == null) return 0;
+        return vRouter.getVMac(srcNetVirtName, dstIp);
+    }
+
     /**
      * Returns a virtual router IP.
      * If the dstIp is a virtual router IP reachable from the srcNetVirt and srcIp,
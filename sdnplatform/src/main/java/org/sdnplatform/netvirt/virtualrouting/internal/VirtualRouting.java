@@ -57,6 +57,7 @@ import org.sdnplatform.core.util.ListenerDispatcher;
 import org.sdnplatform.core.util.MutableInteger;
 import org.sdnplatform.core.util.SingletonTask;
 import org.sdnplatform.devicemanager.IDevice;
+import org.sdnplatform.devicemanager.IDeviceListener;
 import org.sdnplatform.devicemanager.IDeviceService;
 import org.sdnplatform.devicemanager.SwitchPort;
 import org.sdnplatform.flowcache.FCQueryObj;
@@ -103,8 +104,10 @@ import org.sdnplatform.storage.IResultSet;
 import org.sdnplatform.storage.IStorageSourceListener;
 import org.sdnplatform.storage.IStorageSourceService;
 import org.sdnplatform.threadpool.IThreadPoolService;
+import org.sdnplatform.topology.ITopologyListener;
 import org.sdnplatform.topology.ITopologyService;
 import org.sdnplatform.tunnelmanager.ITunnelManagerService;
+import org.sdnplatform.util.BitmapAllocator;
 import org.sdnplatform.util.MACAddress;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -282,9 +285,14 @@ public class VirtualRouting implements IModule, IOFMessageListener,
     public static final short TRACEROUTE_PORT_START = (short) 33434;
     public static final short TRACEROUTE_PORT_END = (short) 33534;
 
+    // Spread the sources over the closest nodes of a gateway pool
+    protected boolean gatewayPoolEqualCostSpread;
+    // Invalidates the gateway selections of the gateway pools
+    protected GatewayListener gatewayListener;
+
     //TODO: the vMAC should be grouped by vlan
-    protected List<Long> reclaimedVMacs;
-    protected long nextAvailableVMac;
+    // Bit i is set if MIN_VIRTUAL_MAC + i is in use
+    protected BitmapAllocator vMacAllocator;
 
     // ***************
     // Getters and Setters
@@ -453,8 +461,7 @@ public class VirtualRouting implements IModule, IOFMessageListener,
             return Command.STOP;    // no DROP flow-mod for broadcast packets
 
         IDevice srcDev =
-                IDeviceService.fcStore.
-                    get(cntx, IDeviceService.CONTEXT_SRC_DEVICE);
+                IDeviceService.SRC_DEVICE_KEY.get(cntx);
 
         RoutingDecision d =
             new RoutingDecision(swDpid, inPort, srcDev, action);
@@ -463,7 +470,7 @@ public class VirtualRouting implements IModule, IOFMessageListener,
 
         // Add destination devices if action is multicast (within the VNS)
         List<VNSInterface> srcIfaces =
-                INetVirtManagerService.bcStore.get(cntx, INetVirtManagerService.CONTEXT_SRC_IFACES);
+                INetVirtManagerService.SRC_IFACES_KEY.get(cntx);
         if (action == RoutingAction.MULTICAST) {
             for (VNSInterface iface : srcIfaces) {
                 VNS vns = iface.getParentVNS();
@@ -490,8 +497,7 @@ public class VirtualRouting implements IModule, IOFMessageListener,
                                              ListenerContext cntx) {
         RoutingAction action;
         BroadcastMode config = BroadcastMode.DROP;
-        List<VNSInterface> srcIfaces = INetVirtManagerService.bcStore.get(cntx,
-                                           INetVirtManagerService.CONTEXT_SRC_IFACES);
+        List<VNSInterface> srcIfaces = INetVirtManagerService.SRC_IFACES_KEY.get(cntx);
         List<VNSInterface> newSrcIfaces = Collections.synchronizedList(new ArrayList<VNSInterface>());
 
         if (srcIfaces != null) {
@@ -513,7 +519,7 @@ public class VirtualRouting implements IModule, IOFMessageListener,
             }
         }
 
-        INetVirtManagerService.bcStore.put(cntx, INetVirtManagerService.CONTEXT_SRC_IFACES, newSrcIfaces);
+        INetVirtManagerService.SRC_IFACES_KEY.put(cntx, newSrcIfaces);
 
         switch (config) {
             case ALWAYS_FLOOD:
@@ -560,10 +566,8 @@ public class VirtualRouting implements IModule, IOFMessageListener,
 
         // Forward packet if there is a matching VNS and ACL permits
         if (fAction.getAction() == RoutingAction.FORWARD) {
-            VNSInterface sIface = INetVirtManagerService.bcStore.get(
-                                      cntx, INetVirtManagerService.CONTEXT_SRC_IFACES).get(0);
-            List<VNSInterface> dstIfaces = INetVirtManagerService.bcStore.get(
-                                               cntx, INetVirtManagerService.CONTEXT_DST_IFACES);
+            VNSInterface sIface = INetVirtManagerService.SRC_IFACES_KEY.get(cntx).get(0);
+            List<VNSInterface> dstIfaces = INetVirtManagerService.DST_IFACES_KEY.get(cntx);
             VNSInterface dIface;
             if (dstIfaces != null)
                 dIface = dstIfaces.get(0);
@@ -579,11 +583,9 @@ public class VirtualRouting implements IModule, IOFMessageListener,
         }
         // Annotate with action and src/dst physical ports
         IDevice srcDev =
-                IDeviceService.fcStore.
-                    get(cntx, IDeviceService.CONTEXT_SRC_DEVICE);
+                IDeviceService.SRC_DEVICE_KEY.get(cntx);
         IDevice dstDev =
-                IDeviceService.fcStore.
-                    get(cntx, IDeviceService.CONTEXT_DST_DEVICE);
+                IDeviceService.DST_DEVICE_KEY.get(cntx);
         if (srcDev == null) {
             if (logger.isDebugEnabled()) {
                 logger.debug("No source device. Dropping packet {} -> {} ethType 0x{}"
@@ -598,7 +600,7 @@ public class VirtualRouting implements IModule, IOFMessageListener,
             }
             // Update context if this is an explain packet
             if (NetVirtExplainPacket.isExplainPktCntx(cntx)) {
-                NetVirtExplainPacket.explainPacketSetContext(cntx, NetVirtExplainPacket.KEY_EXPLAIN_PKT_ACTION,
+                NetVirtExplainPacket.explainPacketSetContext(cntx, NetVirtExplainPacket.EXPLAIN_PKT_ACTION_KEY,
                         "Source MAC is not part of any VNS - Explain packet is dropped");
             }
             return Command.STOP;
@@ -693,11 +695,11 @@ public class VirtualRouting implements IModule, IOFMessageListener,
                 if (NetVirtExplainPacket.isExplainPktCntx(cntx)) {
                     NetVirtExplainPacket.
                         explainPacketSetContext(cntx,
-                                                NetVirtExplainPacket.KEY_EXPLAIN_PKT_INP_ACL_NAME,
+                                                NetVirtExplainPacket.EXPLAIN_PKT_INP_ACL_NAME_KEY,
                                                 acl.getName().split("\\|", 2)[1]);
                     NetVirtExplainPacket.
                         explainPacketSetContext(cntx,
-                                                NetVirtExplainPacket.KEY_EXPLAIN_PKT_INP_ACL_RESULT,
+                                                NetVirtExplainPacket.EXPLAIN_PKT_INP_ACL_RESULT_KEY,
                                                 ret.toString());
                 }
 
@@ -712,11 +714,11 @@ public class VirtualRouting implements IModule, IOFMessageListener,
                     if (NetVirtExplainPacket.isExplainPktCntx(cntx)) {
                         NetVirtExplainPacket.
                             explainPacketSetContext(cntx,
-                                                    NetVirtExplainPacket.KEY_EXPLAIN_PKT_OUT_ACL_NAME,
+                                                    NetVirtExplainPacket.EXPLAIN_PKT_OUT_ACL_NAME_KEY,
                                                     acl.getName().split("\\|", 2)[1]);
                         NetVirtExplainPacket.
                             explainPacketSetContext(cntx,
-                                                    NetVirtExplainPacket.KEY_EXPLAIN_PKT_OUT_ACL_RESULT,
+                                                    NetVirtExplainPacket.EXPLAIN_PKT_OUT_ACL_RESULT_KEY,
                                                     ret.toString());
                     }
                     logger.trace("Apply acl {} to {} on output: {}", new Object[] {acl, eth, ret});
@@ -852,18 +854,17 @@ public class VirtualRouting implements IModule, IOFMessageListener,
             return Command.CONTINUE;
         }
         OFPacketIn pi = (OFPacketIn) msg;
-        Ethernet eth = IControllerService.bcStore.get(cntx,
-                IControllerService.CONTEXT_PI_PAYLOAD);
+        Ethernet eth = IControllerService.PI_PAYLOAD_KEY.get(cntx);
 
         List<VNSInterface> srcIfaces =
-            INetVirtManagerService.bcStore.get(cntx, INetVirtManagerService.CONTEXT_SRC_IFACES);
+            INetVirtManagerService.SRC_IFACES_KEY.get(cntx);
         List<VNSInterface> dstIfaces =
-            INetVirtManagerService.bcStore.get(cntx, INetVirtManagerService.CONTEXT_DST_IFACES);
+            INetVirtManagerService.DST_IFACES_KEY.get(cntx);
 
         // Set default APPName and may be overwritten if netVirt is found.
         if (srcIfaces != null) {
-            IFlowCacheService.fcStore.put(cntx, IFlowCacheService.FLOWCACHE_APP_INSTANCE_NAME,
-                                          srcIfaces.get(0).getParentVNS().getName());
+            IFlowCacheService.APP_INSTANCE_NAME_KEY.put(cntx,
+                    srcIfaces.get(0).getParentVNS().getName());
         }
 
         ForwardingAction fAction = null;
@@ -953,8 +954,7 @@ public class VirtualRouting implements IModule, IOFMessageListener,
         }
 
         IRoutingDecision decision =
-            IRoutingDecision.rtStore.get(cntx,
-                                         IRoutingDecision.CONTEXT_DECISION);
+            IRoutingDecision.DECISION_KEY.get(cntx);
 
         if (null == decision) {
             if (eth.isBroadcast()) {
@@ -1189,6 +1189,7 @@ public class VirtualRouting implements IModule, IOFMessageListener,
         vRtrManager.setTopology(topology);
         vRtrManager.setRoutingService(routingService);
         vRtrManager.setTunnelManager(tunnelManager);
+        vRtrManager.setGatewayPoolEqualCostSpread(gatewayPoolEqualCostSpread);
 
         IResultSet tenantSet = storageSource.executeQuery(TENANT_TABLE_NAME,
                                                           null, null, null);
@@ -1326,6 +1327,9 @@ public class VirtualRouting implements IModule, IOFMessageListener,
         if (old != null)
             vRtrManager.setStaticArpTable(old.getStaticArpTable());
         this.vRouterManager = vRtrManager;
+        /* Router replies may have changed */
+        if (arpManager != null)
+            arpManager.clearResponders();
         /* The new virtual router manager has its own virtual MACs. Let go of
          * old MACs
          */
@@ -1594,6 +1598,11 @@ public class VirtualRouting implements IModule, IOFMessageListener,
         routingService =
                 context.getServiceImpl(IRoutingService.class);
 
+        Map<String, String> configOptions = context.getConfigParams(this);
+        gatewayPoolEqualCostSpread =
+                Boolean.parseBoolean(configOptions.get("gatewaypoolecmp"));
+        gatewayListener = new GatewayListener();
+
         // initialize global locks and maps
         acls = new ConcurrentHashMap<String, VNSAccessControlList>();
         inIfToAcls =
@@ -1613,6 +1622,8 @@ public class VirtualRouting implements IModule, IOFMessageListener,
         arpManager.setVirtualRouting(this);
         arpManager.setTopology(topology);
         arpManager.setTunnelManager(tunnelManager);
+        arpManager.setNetVirtManager(netVirtManager);
+        arpManager.setForwarding(forwarding);
         arpManager.addArpListener(this);
 
         dhcpManager = new DhcpManager();
@@ -1624,8 +1635,8 @@ public class VirtualRouting implements IModule, IOFMessageListener,
         this.addPacketListener(icmpManager);
         icmpManager.addIcmpListener(this);
 
-        reclaimedVMacs = new ArrayList<Long>();
-        nextAvailableVMac = MIN_VIRTUAL_MAC;
+        vMacAllocator = new BitmapAllocator(
+                (int)(MAX_VIRTUAL_MAC - MIN_VIRTUAL_MAC + 1));
     }
 
     @Override
@@ -1704,6 +1715,8 @@ public class VirtualRouting implements IModule, IOFMessageListener,
         storageSource.addListener(STATIC_ARP_TABLE_NAME, this);
 
         deviceManager.addListener(dhcpManager.getDeviceListener());
+        deviceManager.addListener(gatewayListener);
+        topology.addListener(gatewayListener);
 
         // Listen for flow reconciliation
         flowReconcileMgr.addFlowReconcileListener(this);
@@ -1736,8 +1749,7 @@ public class VirtualRouting implements IModule, IOFMessageListener,
             }
 
             List<VNSInterface> srcIfaces =
-                    INetVirtManagerService.bcStore.get(ofm.cntx,
-                                        INetVirtManagerService.CONTEXT_SRC_IFACES);
+                    INetVirtManagerService.SRC_IFACES_KEY.get(ofm.cntx);
             if (srcIfaces == null) {
                 logger.debug("Null src vnsInterface for {}",
                        HexString.toHexString(
@@ -1785,17 +1797,15 @@ public class VirtualRouting implements IModule, IOFMessageListener,
                 continue;
             }
 
-            VNSInterface dIface = INetVirtManagerService.bcStore.get(ofm.cntx,
-                                  INetVirtManagerService.CONTEXT_DST_IFACES).get(0);
-            VNSInterface sIface = INetVirtManagerService.bcStore.
-                    get(ofm.cntx, INetVirtManagerService.CONTEXT_SRC_IFACES).get(0);
+            VNSInterface dIface = INetVirtManagerService.DST_IFACES_KEY.get(ofm.cntx).get(0);
+            VNSInterface sIface = INetVirtManagerService.SRC_IFACES_KEY.get(ofm.cntx).get(0);
             if (logger.isTraceEnabled()) {
                 logger.trace("Reconcile flow: {} dIface {}",
                              new Object[]{ofm, dIface});
             }
 
-            String newAppName = (String)ofm.cntx.getStorage().
-                    get(IFlowCacheService.FLOWCACHE_APP_INSTANCE_NAME);
+            String newAppName =
+                    IFlowCacheService.APP_INSTANCE_NAME_KEY.get(ofm.cntx);
             /* The flow is allowed to be forwarded, remove drop flows
              * if any */
             if (ofm.action == FlowCacheObj.FCActionDENY) {
@@ -1882,16 +1892,12 @@ public class VirtualRouting implements IModule, IOFMessageListener,
                 if (logger.isTraceEnabled()) {
                     logger.trace("Virtual Routing Reconciled flowmod {}", ofm);
                 }
-                IRoutingDecision decision = IRoutingDecision.rtStore.get(
-                                            ofm.cntx,
-                                            IRoutingDecision.CONTEXT_DECISION);
+                IRoutingDecision decision = IRoutingDecision.DECISION_KEY.get(ofm.cntx);
                 if (decision == null) {
                     IDevice srcDevice =
-                            IDeviceService.fcStore.
-                                get(ofm.cntx, IDeviceService.CONTEXT_SRC_DEVICE);
+                            IDeviceService.SRC_DEVICE_KEY.get(ofm.cntx);
                     IDevice dstDevice =
-                            IDeviceService.fcStore.
-                                get(ofm.cntx, IDeviceService.CONTEXT_DST_DEVICE);
+                            IDeviceService.DST_DEVICE_KEY.get(ofm.cntx);
                     RoutingDecision d = new RoutingDecision(
                                         ofm.ofmWithSwDpid.getSwitchDataPathId(),
                                         ofm.ofmWithSwDpid.getOfMatch().getInputPort(),
@@ -2007,6 +2013,68 @@ public class VirtualRouting implements IModule, IOFMessageListener,
         // ignore
     }
 
+    // ***************
+    // Gateway pool selection cache
+    // ***************
+
+    /**
+     * Invalidates the cached gateway selections of the gateway pools when
+     * the topology changes, and when a gateway node device appears, moves
+     * or changes its IP addresses
+     */
+    class GatewayListener implements IDeviceListener, ITopologyListener {
+        protected void gatewayDeviceChanged(IDevice device) {
+            VirtualRouterManager vRtrManager = vRouterManager;
+            if (vRtrManager != null)
+                vRtrManager.invalidateGatewayPoolCaches(device);
+        }
+
+        @Override
+        public void topologyChanged() {
+            gatewayDeviceChanged(null);
+        }
+
+        @Override
+        public void deviceAdded(IDevice device) {
+            gatewayDeviceChanged(device);
+        }
+
+        @Override
+        public void deviceRemoved(IDevice device) {
+            gatewayDeviceChanged(device);
+        }
+
+        @Override
+        public void deviceMoved(IDevice device) {
+            gatewayDeviceChanged(device);
+        }
+
+        @Override
+        public void deviceIPV4AddrChanged(IDevice device) {
+            gatewayDeviceChanged(device);
+        }
+
+        @Override
+        public void deviceVlanChanged(IDevice device) {
+            gatewayDeviceChanged(device);
+        }
+
+        @Override
+        public String getName() {
+            return VirtualRouting.this.getName();
+        }
+
+        @Override
+        public boolean isCallbackOrderingPrereq(String type, String name) {
+            return false;
+        }
+
+        @Override
+        public boolean isCallbackOrderingPostreq(String type, String name) {
+            return false;
+        }
+    }
+
     // ***************
     // IVirtualMacService
     // ***************
@@ -2017,46 +2085,16 @@ public class VirtualRouting implements IModule, IOFMessageListener,
         if (vMac < MIN_VIRTUAL_MAC || vMac > MAX_VIRTUAL_MAC) {
             return true;
         }
-        synchronized (reclaimedVMacs) {
-            if (vMac < nextAvailableVMac) {
-                if (reclaimedVMacs.contains(vMac)) {
-                    // The request vMac is available.
-                    reclaimedVMacs.remove(Long.valueOf(vMac));
-                    return true;
-                } else {
-                    // The request vMac is not available.
-                    return false;
-                }
-            } else if (vMac == nextAvailableVMac) {
-                nextAvailableVMac++;
-                return true;
-            } else {
-                // Add MAC addresses between nextAvailableVMac and vMAC to
-                // reclaimedVMacs list.
-                for (long mac = nextAvailableVMac; mac < vMac; mac++) {
-                    reclaimedVMacs.add(mac);
-                }
-                nextAvailableVMac = vMac + 1;
-                return true;
-            }
-        }
+        return vMacAllocator.reserve((int)(vMac - MIN_VIRTUAL_MAC));
     }
 
     @Override
     public long acquireVirtualMac() throws VirtualMACExhaustedException {
-        long vMac = 0;
-        synchronized (reclaimedVMacs) {
-            if (!reclaimedVMacs.isEmpty()) {
-                vMac = reclaimedVMacs.remove(0);
-            } else {
-                if (nextAvailableVMac <= MAX_VIRTUAL_MAC) {
-                    vMac = nextAvailableVMac++;
-                } else {
-                    throw new VirtualMACExhaustedException();
-                }
-            }
-            return vMac;
+        int index = vMacAllocator.allocate();
+        if (index < 0) {
+            throw new VirtualMACExhaustedException();
         }
+        return MIN_VIRTUAL_MAC + index;
     }
 
     @Override
@@ -2065,9 +2103,7 @@ public class VirtualRouting implements IModule, IOFMessageListener,
         if (vMac < MIN_VIRTUAL_MAC || vMac > MAX_VIRTUAL_MAC) {
             return;
         }
-        synchronized (reclaimedVMacs) {
-            reclaimedVMacs.add(vMac);
-        }
+        vMacAllocator.release((int)(vMac - MIN_VIRTUAL_MAC));
     }
 
     // ***************
@@ -2115,13 +2151,15 @@ public class VirtualRouting implements IModule, IOFMessageListener,
                                         ListenerContext cntx,
                                         ARPMode configMode) {
         IDevice srcDevice =
-                IDeviceService.fcStore.get(cntx,
-                                           IDeviceService.CONTEXT_SRC_DEVICE);
+                IDeviceService.SRC_DEVICE_KEY.get(cntx);
         if (srcDevice == null) return ARPCommand.CONTINUE;
 
+        /* Read before the configuration the reply is based on */
+        int responderGeneration =
+                arpManager.getResponders().getGeneration();
+        VirtualRouterManager vRtrManager = vRouterManager;
         Ethernet eth =
-                IControllerService.bcStore.get(cntx,
-                        IControllerService.CONTEXT_PI_PAYLOAD);
+                IControllerService.PI_PAYLOAD_KEY.get(cntx);
         ARP arp = (ARP) eth.getPayload();
         int dstip = IPv4.toIPv4Address(arp.getTargetProtocolAddress());
         int srcip = IPv4.toIPv4Address(arp.getSenderProtocolAddress());
@@ -2132,12 +2170,15 @@ public class VirtualRouting implements IModule, IOFMessageListener,
         long vMacChosen = 0;
         String addressSpace = null;
         VNS vnsChosen = null;
+        VNS vnsTop = null;
         for (VNSInterface iface : vnsIfaces) {
             /* Choose the highest priority VNS connected to a router with an
              * interface IP of dstip
              */
             VNS vns = iface.getParentVNS();
-            long vMac = vRouterManager.getRtrVMac(vns, srcip, dstip);
+            if (vnsTop == null || vns.compareTo(vnsTop) < 0)
+                vnsTop = vns;
+            long vMac = vRtrManager.getRtrVMac(vns, srcip, dstip);
             if (vMac != 0 &&
                     (vnsChosen == null || vns.compareTo(vnsChosen) < 0)) {
                 vMacChosen = vMac;
@@ -2163,6 +2204,18 @@ public class VirtualRouting implements IModule, IOFMessageListener,
                                                  null, true)) {
             logger.trace("Writing fake ARP reply for virtual routing {}," +
                     "ARP = {}", arpReply.getPayload());
+            /* The reply only depends on the highest priority VNS of the
+             * host if that VNS is connected to the interface with dstip,
+             * so later requests can be answered by the ARP manager directly
+             */
+            if (vnsChosen == vnsTop && srcDevice.getEntityClass() != null &&
+                    vRtrManager.getDirectRtrVMac(vnsChosen, dstip) ==
+                        vMacChosen) {
+                arpManager.learnResponder(this, responderGeneration,
+                                          srcDevice.getEntityClass().getName(),
+                                          eth.getVlanID(), dstip,
+                                          vnsChosen.getName(), vMacChosen);
+            }
         } else {
             logger.warn("Failed to send fake ARP reply for virtual " +
                     "routing, at {}/{} from inPort={}",
@@ -2232,14 +2285,12 @@ public class VirtualRouting implements IModule, IOFMessageListener,
     @Override
     public ICMPCommand ICMPRequestHandler(IOFSwitch sw, OFPacketIn pi,
                                           ListenerContext cntx) {
-        List<VNSInterface> srcIfaces = INetVirtManagerService.bcStore.get(cntx,
-                INetVirtManagerService.CONTEXT_SRC_IFACES);
+        List<VNSInterface> srcIfaces = INetVirtManagerService.SRC_IFACES_KEY.get(cntx);
         if (srcIfaces == null)
             return ICMPCommand.CONTINUE;
 
         Ethernet eth =
-                IControllerService.bcStore.get(cntx,
-                        IControllerService.CONTEXT_PI_PAYLOAD);
+                IControllerService.PI_PAYLOAD_KEY.get(cntx);
         IPv4 ipv4 = (IPv4) eth.getPayload();
         int srcIp = ipv4.getSourceAddress();
         int dstIp = ipv4.getDestinationAddress();
@@ -2383,8 +2434,7 @@ public class VirtualRouting implements IModule, IOFMessageListener,
      */
     public static boolean isTraceroutePacket(ListenerContext cntx) {
         Ethernet eth =
-                IControllerService.bcStore.get(cntx,
-                        IControllerService.CONTEXT_PI_PAYLOAD);
+                IControllerService.PI_PAYLOAD_KEY.get(cntx);
 
         if (eth.getEtherType() != Ethernet.TYPE_IPv4)
             return false;
@@ -2411,14 +2461,12 @@ public class VirtualRouting implements IModule, IOFMessageListener,
      */
     private boolean handleTraceroute(IOFSwitch sw, OFPacketIn pi,
                                      ListenerContext cntx) {
-        List<VNSInterface> srcIfaces = INetVirtManagerService.bcStore.get(cntx,
-                INetVirtManagerService.CONTEXT_SRC_IFACES);
+        List<VNSInterface> srcIfaces = INetVirtManagerService.SRC_IFACES_KEY.get(cntx);
         if (srcIfaces == null)
             return false;
 
         Ethernet eth =
-                IControllerService.bcStore.get(cntx,
-                        IControllerService.CONTEXT_PI_PAYLOAD);
+                IControllerService.PI_PAYLOAD_KEY.get(cntx);
 
         IPv4 ipv4 = (IPv4) eth.getPayload();
         int srcIp = ipv4.getSourceAddress();
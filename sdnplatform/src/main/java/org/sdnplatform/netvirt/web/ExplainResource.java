@@ -580,15 +580,12 @@ public class ExplainResource extends ServerResource {
         ListenerContext cntx = new ListenerContext();
 
         // set appropriate context 
-        NetVirtExplainPacket.ExplainStore.put(cntx, 
-                        NetVirtExplainPacket.KEY_EXPLAIN_PKT, NetVirtExplainPacket.VAL_EXPLAIN_PKT);
+        NetVirtExplainPacket.EXPLAIN_PKT_KEY.put(cntx, NetVirtExplainPacket.VAL_EXPLAIN_PKT);
         NetVirtExplainPacket.ExplainPktRoute epr = new NetVirtExplainPacket.ExplainPktRoute();
-        NetVirtExplainPacket.ExplainRouteStore.put(cntx, 
-                            NetVirtExplainPacket.KEY_EXPLAIN_PKT_ROUTE, epr);
+        NetVirtExplainPacket.EXPLAIN_PKT_ROUTE_KEY.put(cntx, epr);
         NetVirtExplainPacket.ExplainPktVRouting vr =
                 new NetVirtExplainPacket.ExplainPktVRouting();
-        NetVirtExplainPacket.VRoutingStore.put(cntx,
-                            NetVirtExplainPacket.KEY_EXPLAIN_PKT_VROUTING, vr);
+        NetVirtExplainPacket.EXPLAIN_PKT_VROUTING_KEY.put(cntx, vr);
 
         // Create the packet
         OFPacketIn ExplainPacketIn = CreateExplainPacket(params, controllerProvider);
@@ -597,49 +594,36 @@ public class ExplainResource extends ServerResource {
         controllerProvider.injectOfMessage(ofSwitch, ExplainPacketIn, cntx);
 
         // Prepare the output
-        String srcNetVirtName = NetVirtExplainPacket.ExplainStore.get(
-                            cntx, NetVirtExplainPacket.KEY_EXPLAIN_PKT_SRC_NetVirt);
+        String srcNetVirtName = NetVirtExplainPacket.EXPLAIN_PKT_SRC_NetVirt_KEY.get(cntx);
         output.setSrcNetVirtName(srcNetVirtName);
-        String dstNetVirtName = NetVirtExplainPacket.ExplainStore.get(
-                            cntx, NetVirtExplainPacket.KEY_EXPLAIN_PKT_DST_NetVirt);
+        String dstNetVirtName = NetVirtExplainPacket.EXPLAIN_PKT_DST_NetVirt_KEY.get(cntx);
         output.setDestNetVirtName(dstNetVirtName);
-        String inAclName   = NetVirtExplainPacket.ExplainStore.get(
-                        cntx, NetVirtExplainPacket.KEY_EXPLAIN_PKT_INP_ACL_NAME);
+        String inAclName   = NetVirtExplainPacket.EXPLAIN_PKT_INP_ACL_NAME_KEY.get(cntx);
         output.inputAcl.setAclName(inAclName); 
-        String outAclName  = NetVirtExplainPacket.ExplainStore.get(
-                        cntx, NetVirtExplainPacket.KEY_EXPLAIN_PKT_OUT_ACL_NAME);
+        String outAclName  = NetVirtExplainPacket.EXPLAIN_PKT_OUT_ACL_NAME_KEY.get(cntx);
         output.outputAcl.setAclName(outAclName); 
-        String inAclEntry  = NetVirtExplainPacket.ExplainStore.get(
-                        cntx, NetVirtExplainPacket.KEY_EXPLAIN_PKT_INP_ACL_ENTRY);
+        String inAclEntry  = NetVirtExplainPacket.EXPLAIN_PKT_INP_ACL_ENTRY_KEY.get(cntx);
         output.inputAcl.setAclEntry(inAclEntry); 
-        String outAclEntry  = NetVirtExplainPacket.ExplainStore.get(
-                        cntx, NetVirtExplainPacket.KEY_EXPLAIN_PKT_OUT_ACL_ENTRY);
+        String outAclEntry  = NetVirtExplainPacket.EXPLAIN_PKT_OUT_ACL_ENTRY_KEY.get(cntx);
         output.outputAcl.setAclEntry(outAclEntry); 
-        String inAclResult   = NetVirtExplainPacket.ExplainStore.get(
-                        cntx, NetVirtExplainPacket.KEY_EXPLAIN_PKT_INP_ACL_RESULT);
+        String inAclResult   = NetVirtExplainPacket.EXPLAIN_PKT_INP_ACL_RESULT_KEY.get(cntx);
         output.inputAcl.setAclResult(inAclResult); 
-        String outAclResult  = NetVirtExplainPacket.ExplainStore.get(
-                        cntx, NetVirtExplainPacket.KEY_EXPLAIN_PKT_OUT_ACL_RESULT);
+        String outAclResult  = NetVirtExplainPacket.EXPLAIN_PKT_OUT_ACL_RESULT_KEY.get(cntx);
         output.outputAcl.setAclResult(outAclResult);
-        String serviceNameResult  = NetVirtExplainPacket.ExplainStore.get(
-                        cntx, NetVirtExplainPacket.KEY_EXPLAIN_PKT_SERVICE_NAME);
+        String serviceNameResult  = NetVirtExplainPacket.EXPLAIN_PKT_SERVICE_NAME_KEY.get(cntx);
         output.setServiceName(serviceNameResult);
-        String serviceNodeResult  = NetVirtExplainPacket.ExplainStore.get(
-                        cntx, NetVirtExplainPacket.KEY_EXPLAIN_PKT_SERVICE_NODE);
+        String serviceNodeResult  = NetVirtExplainPacket.EXPLAIN_PKT_SERVICE_NODE_KEY.get(cntx);
         output.setServiceNode(serviceNodeResult);
         IRoutingDecision vrd;
-        vrd = IRoutingDecision.rtStore.get(
-                                    cntx, IRoutingDecision.CONTEXT_DECISION);
+        vrd = IRoutingDecision.DECISION_KEY.get(cntx);
         if (vrd != null) {
             output.setRoutingAction(vrd.getRoutingAction().toString());
         } else {
-            String ExpPktAction = NetVirtExplainPacket.ExplainStore.get(cntx, 
-                                    NetVirtExplainPacket.KEY_EXPLAIN_PKT_ACTION);
+            String ExpPktAction = NetVirtExplainPacket.EXPLAIN_PKT_ACTION_KEY.get(cntx);
             output.setRoutingAction(ExpPktAction);
         }
         NetVirtExplainPacket.ExplainPktVRouting vrOut =
-                NetVirtExplainPacket.VRoutingStore.
-                    get(cntx, NetVirtExplainPacket.KEY_EXPLAIN_PKT_VROUTING);
+                NetVirtExplainPacket.EXPLAIN_PKT_VROUTING_KEY.get(cntx);
         if (vrOut != null) {
             output.numVRIterations = vrOut.numIterations;
             output.expPktVRouting =
@@ -669,8 +653,7 @@ public class ExplainResource extends ServerResource {
         }
 
         NetVirtExplainPacket.ExplainPktRoute eprOut = 
-                NetVirtExplainPacket.ExplainRouteStore.get(
-                                cntx, NetVirtExplainPacket.KEY_EXPLAIN_PKT_ROUTE);
+                NetVirtExplainPacket.EXPLAIN_PKT_ROUTE_KEY.get(cntx);
 
         if (eprOut != null) {
             output.numClusters = eprOut.numClusters;
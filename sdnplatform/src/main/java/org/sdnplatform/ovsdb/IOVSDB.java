@@ -18,10 +18,14 @@ package org.sdnplatform.ovsdb;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
 
 import org.sdnplatform.ovsdb.internal.JSONShowReplyMsg;
 import org.sdnplatform.ovsdb.internal.JSONShowReplyMsg.ShowResult;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 
 /**
  * Allows manipulating the OVS configuration database (ovsdb) for a particular
@@ -94,6 +98,43 @@ public interface IOVSDB {
      */
     public void delPort(String name);
 
+    /**
+     * Asynchronous version of addPort. The request is sent on the
+     * persistent JSON RPC session to this OVS, so many of these can be
+     * outstanding at the same time.
+     * @return a future that is set to true once ovsdb-server confirmed the
+     *         port exists, or false if the request failed
+     */
+    public ListenableFuture<Boolean> addPortAsync(String name,
+                                                  String localIPAddr,
+                                                  String remoteIPAddr,
+                                                  boolean isTunnelPort);
+
+    /**
+     * Asynchronous version of delPort.
+     * @return a future that is set to true once ovsdb-server confirmed the
+     *         port is gone, or false if the request failed
+     */
+    public ListenableFuture<Boolean> delPortAsync(String name);
+
+    /**
+     * Bring the tunnel-ports ("vta" ports) on this OVS in line with the
+     * desired set in a single OVSDB transaction: missing tunnel-ports are
+     * added, desired tunnel-ports that point at a different remote IP are
+     * re-created and tunnel-ports to the given gone switches are removed.
+     * Tunnel-ports to any other remote IP are left alone.
+     * @param localIPAddr IP addr of the local tunnel-endpoint
+     * @param desired desired tunnel-port names mapped to the remote IP addr
+     * @param goneRemoteIPs tunnel IPs of the switches known to be gone
+     * @return a future that is set to true once ovsdb-server committed the
+     *         transaction or nothing needed to change, or false if the
+     *         request failed
+     */
+    public ListenableFuture<Boolean> reconcileTunnelPortsAsync(
+                                            String localIPAddr,
+                                            Map<String, String> desired,
+                                            Set<String> goneRemoteIPs);
+
     /**
      * sendShowMessage sends a JSON RPC show command to this OVS and updates
      * the OVSDB state to mirror the OVS state learned from the reply to this
@@ -102,6 +143,13 @@ public interface IOVSDB {
      * method; and then try to add or delete a port. 
      */
     public void sendShowMessage();
+
+    /**
+     * Asynchronous version of sendShowMessage.
+     * @return a future that is set to true once the OVSDB state has been
+     *         updated from the show reply, or false if the request failed
+     */
+    public ListenableFuture<Boolean> sendShowMessageAsync();
     
     /**
      * get the OVS's dpid as a long. This method returns the value cached in
@@ -137,8 +185,12 @@ public interface IOVSDB {
     public void updateTunnelSwitchFromShow(JSONShowReplyMsg showReply);
     
     public void updateTunnelSwitchFromUpdate(ShowResult update);
-    
-    public int getExpectedMessage(int messageReplyId);
+
+    /**
+     * Close the JSON RPC session to this OVS. A new session is opened by
+     * the next request.
+     */
+    public void closeSession();
 
     public ArrayList<String> getControllerIPs();
 
@@ -142,6 +142,16 @@ public interface IOVSDBManagerService extends IPlatformService {
       *         The list may be empty if no controller-IP's have been configured
       */
      ArrayList<String> getControllerIPAddresses(long dpid);
+
+     /**
+      * Reconcile the full mesh of tunnel-ports between all connected OVS
+      * switches that have a tunnel IP address. Each switch is brought in
+      * line with a single batched ovsdb transaction; switches are
+      * reconciled concurrently.
+      * @return the time in ms it took for the mesh to converge or -1 if
+      *         some switches failed to converge
+      */
+     long reconcileTunnelMesh();
      
      
 }
@@ -16,17 +16,9 @@
 
 package org.sdnplatform.ovsdb.internal;
 
-import java.io.ByteArrayOutputStream;
-import java.io.EOFException;
-
-import org.codehaus.jackson.JsonNode;
-import org.codehaus.jackson.JsonParser;
-import org.codehaus.jackson.JsonProcessingException;
-import org.codehaus.jackson.map.MappingJsonFactory;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBufferInputStream;
-import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.frame.FrameDecoder;
@@ -34,61 +26,73 @@ import org.jboss.netty.handler.codec.frame.FrameDecoder;
 /**
  * FrameDecoder for using Jackson to read JSON-RPC as used by
  * the OVS DB.
+ *
+ * The frame boundaries are found by scanning the bytes for the end of the
+ * top-level JSON object, keeping track of the nesting depth and of whether
+ * we are inside a string.  The scan state is kept across calls, so the
+ * bytes of a partially received message are looked at only once, and
+ * Jackson only gets to parse complete messages.
  * @author readams
  *
  */
 public class JSONDecoder extends FrameDecoder {
-    // remainderBytes is used to save any bytes left over from
-    // the previous frame, since Jackson will aggressively read
-    // ahead in the buffer
-    byte[] remainderBytes = null;
     ObjectMapper mapper = new ObjectMapper();
-    MappingJsonFactory mjf = new MappingJsonFactory(mapper);
-    int ctr = -1;
-    
+
+    // Scan state for the frame starting at the reader index of the
+    // buffer: number of bytes scanned so far, the nesting depth of
+    // objects and arrays and the string state at that point.
+    int scanned = 0;
+    int depth = 0;
+    boolean inString = false;
+    boolean escaped = false;
+
     @Override
     protected Object decode(ChannelHandlerContext chc, Channel channel,
                             ChannelBuffer cb) throws Exception {
-        ctr++;
-        cb.markReaderIndex();
-        ChannelBuffer compositeBuffer = cb;
-        if (remainderBytes != null) {
+        int start = cb.readerIndex();
+        int end = cb.writerIndex();
+        int i = start + scanned;
 
-            ChannelBuffer remainderBuffer =
-                    ChannelBuffers.wrappedBuffer(remainderBytes);
-            compositeBuffer = 
-                    ChannelBuffers.wrappedBuffer(remainderBuffer, cb);
-
-            remainderBytes = null;
+        if (depth == 0) {
+            // skip whitespace and anything else that cannot start a
+            // JSON-RPC message
+            while (i < end) {
+                byte b = cb.getByte(i);
+                if (b == '{' || b == '[') break;
+                i++;
+            }
+            cb.readerIndex(i);
+            start = i;
+            scanned = 0;
         }
-        
-        ChannelBufferInputStream cbis =
-                new ChannelBufferInputStream(compositeBuffer);
-        JsonParser jp = mjf.createJsonParser(cbis);
-        JsonNode node = null;
-        try {
-            node = jp.readValueAsTree();
-        } catch (EOFException e) {
 
-            return null;
-        } catch (JsonProcessingException e) {
-            // This is pretty inefficient but seems to be the only way
-            // to deal with this.
-            if (e.getMessage().contains("end-of-input")) {
-                cb.resetReaderIndex();
-
-                return null;
-            } else {
-                throw e;
+        for (; i < end; i++) {
+            byte b = cb.getByte(i);
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (b == '\\') {
+                    escaped = true;
+                } else if (b == '"') {
+                    inString = false;
+                }
+            } else if (b == '"') {
+                inString = true;
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                if (--depth == 0) {
+                    // consume the frame before parsing it so that a
+                    // malformed message does not stall the stream
+                    ChannelBuffer frame = cb.readSlice(i + 1 - start);
+                    scanned = 0;
+                    return mapper.readTree(new ChannelBufferInputStream(frame));
+                }
             }
         }
-        
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
-        jp.releaseBuffered(os);
-        if (os.size() > 0) {
-            remainderBytes = os.toByteArray();
-        } 
-        return node;
+
+        scanned = i - start;
+        return null;
     }
 
 }
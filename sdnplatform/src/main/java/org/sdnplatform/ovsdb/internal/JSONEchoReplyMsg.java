@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.ovsdb.internal;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * Reply to the echo requests ovsdb-server uses to probe idle sessions.
+ * Without a reply the server drops the session.
+ */
+public class JSONEchoReplyMsg extends JSONMsg {
+    String replystr;
+
+    public JSONEchoReplyMsg(String params) {
+        replystr = " {\"id\":\"echo\",\"error\":null,\"result\":"+params+"} ";
+    }
+
+    @Override
+    public int getLengthU() {
+        return replystr.length();
+    }
+
+    @Override
+    public void writeTo(ChannelBuffer buf) {
+        buf.writeBytes(replystr.getBytes());
+    }
+
+}
@@ -19,6 +19,9 @@ package org.sdnplatform.ovsdb.internal;
 import java.io.IOException;
 import java.net.ConnectException;
 import java.nio.channels.ClosedChannelException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 
 import org.codehaus.jackson.JsonNode;
@@ -26,16 +29,25 @@ import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.map.exc.UnrecognizedPropertyException;
+import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
 import org.openflow.util.HexString;
+import org.sdnplatform.core.annotations.LogMessageDoc;
 import org.sdnplatform.ovsdb.IOVSDB;
 import org.sdnplatform.ovsdb.internal.JSONShowReplyMsg.ShowResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
 
 public class JSONMsgHandler extends SimpleChannelUpstreamHandler {
     protected static Logger logger = 
@@ -48,12 +60,115 @@ public class JSONMsgHandler extends SimpleChannelUpstreamHandler {
     private static final int DEL_PORT_REPLY = 2;
     private static final int SET_DPID_REPLY = 3;
     private static final int SET_CIP_REPLY = 4;
-    private static int MSG = -1;
+    private static final int TUNNEL_PORTS_REPLY = 6;
+    
+    /**
+     * A JSON RPC request waiting for its reply
+     */
+    protected static class PendingRequest {
+        final int type;
+        final JSONMsg request;
+        final SettableFuture<Boolean> future;
+        volatile Timeout timeout;
+        
+        PendingRequest(int type, JSONMsg request) {
+            this.type = type;
+            this.request = request;
+            this.future = SettableFuture.create();
+        }
+    }
     
+    // requests outstanding on this session by message id
+    private ConcurrentHashMap<Integer, PendingRequest> pendingRequests;
+    private volatile boolean closed = false;
+    private volatile Channel channel;
+    private Timer timer;
+    private long requestTimeoutMs;
     
-    public JSONMsgHandler(IOVSDB tsw, Object statusObject) {
+    /**
+     * @param tsw the switch of this session
+     * @param statusObject notified when a reply has been handled
+     * @param timer times out requests, or null for no timeout
+     * @param requestTimeoutMs how long a request waits for its reply
+     *                         before it fails and the session is closed
+     */
+    public JSONMsgHandler(IOVSDB tsw, Object statusObject, Timer timer,
+                          long requestTimeoutMs) {
         this.tsw = tsw;
         this.statusObject = statusObject;
+        this.timer = timer;
+        this.requestTimeoutMs = requestTimeoutMs;
+        this.pendingRequests = new ConcurrentHashMap<Integer, PendingRequest>();
+    }
+
+    /**
+     * Register a request that is about to be sent on this session
+     * @param id the message id of the request
+     * @param type the expected reply type
+     * @return a future that is set to whether the request succeeded once
+     *         the reply has been handled, or to false if the session is 
+     *         closed before that
+     */
+    public ListenableFuture<Boolean> registerRequest(int id, int type) {
+        return registerRequest(id, type, null);
+    }
+
+    /**
+     * Register a request that is about to be sent on this session
+     * @param id the message id of the request
+     * @param type the expected reply type
+     * @param request the request, used to interpret the reply
+     * @return a future that is set to whether the request succeeded once
+     *         the reply has been handled, or to false if the session is 
+     *         closed before that
+     */
+    public ListenableFuture<Boolean> registerRequest(final int id, int type,
+                                                     JSONMsg request) {
+        final PendingRequest req = new PendingRequest(type, request);
+        pendingRequests.put(id, req);
+        if (timer != null) {
+            req.timeout = timer.newTimeout(new TimerTask() {
+                @Override
+                public void run(Timeout timeout) {
+                    requestTimedOut(id, req);
+                }
+            }, requestTimeoutMs, TimeUnit.MILLISECONDS);
+        }
+        if (closed) {
+            // lost the race with channelClosed
+            failPendingRequests();
+        }
+        return req.future;
+    }
+
+    /**
+     * A request without a reply in time fails and closes the session,
+     * which fails all the other requests outstanding on it
+     */
+    private void requestTimedOut(int id, PendingRequest req) {
+        if (!pendingRequests.remove(id, req)) return;
+        logger.debug("Timed out waiting for ovsdb reply {} from {}, " +
+                     "closing session", id, tsw);
+        req.future.set(false);
+        Channel ch = channel;
+        if (ch != null) ch.close();
+    }
+
+    private void failPendingRequests() {
+        for (Integer id : pendingRequests.keySet()) {
+            PendingRequest req = pendingRequests.remove(id);
+            if (req != null) {
+                if (req.timeout != null) req.timeout.cancel();
+                req.future.set(false);
+            }
+        }
+    }
+
+    @Override
+    public void channelConnected(ChannelHandlerContext ctx,
+                                 ChannelStateEvent e) throws Exception {
+        channel = e.getChannel();
+        super.channelConnected(ctx, e);
     }
 
     @Override
@@ -64,49 +179,61 @@ public class JSONMsgHandler extends SimpleChannelUpstreamHandler {
             logger.trace("receveid message: {}", e.toString());
         if (jn.get("id") == null) return;
         if (jn.get("id").isNumber()) {
+            int id = jn.get("id").getValueAsInt();
             if(logger.isDebugEnabled()) {
-                logger.debug("got result for id: {}",
-                        jn.get("id").getValueAsInt());
+                logger.debug("got result for id: {}", id);
             }
             
-            MSG = tsw.getExpectedMessage(jn.get("id").getValueAsInt());
-            switch (MSG) {
-                case SHOW_REPLY:
-                    handleShowReply(jn);
-                    synchronized(statusObject) {
-                        statusObject.notify();
-                    }
-                    break;
-                case ADD_PORT_REPLY:
-                    handleAddPortReply(jn);
-                    synchronized(statusObject) {
-                        statusObject.notify();
-                    }
-                    break;
-                case DEL_PORT_REPLY:
-                    handleDelPortReply(jn);
-                    synchronized(statusObject) {
-                        statusObject.notify();
-                    }
-                    break;
-                case SET_DPID_REPLY:
-                    //noop
-                    break;
-                case SET_CIP_REPLY:
-                    //noop
-                    break; //FIXME check for errors
-                default :
-                    //noop
-                    logger.error("Unexpected Message Reply id {}", 
-                            jn.get("id").getValueAsInt());
-                    
+            PendingRequest req = pendingRequests.remove(id);
+            if (req != null && req.timeout != null) req.timeout.cancel();
+            int type = (req != null) ? req.type : -1;
+            boolean success = false;
+            try {
+                switch (type) {
+                    case SHOW_REPLY:
+                        handleShowReply(jn);
+                        success = true;
+                        synchronized(statusObject) {
+                            statusObject.notify();
+                        }
+                        break;
+                    case ADD_PORT_REPLY:
+                        success = handleAddPortReply(jn);
+                        synchronized(statusObject) {
+                            statusObject.notify();
+                        }
+                        break;
+                    case DEL_PORT_REPLY:
+                        success = handleDelPortReply(jn);
+                        synchronized(statusObject) {
+                            statusObject.notify();
+                        }
+                        break;
+                    case TUNNEL_PORTS_REPLY:
+                        success = handleTunnelPortsReply(jn,
+                                (JSONTunnelPortsMsg) req.request);
+                        break;
+                    case SET_DPID_REPLY:
+                    case SET_CIP_REPLY:
+                        //FIXME check for errors
+                        success = true;
+                        break;
+                    default :
+                        //noop
+                        logger.error("Unexpected Message Reply id {}", id);
+                        
+                }
+            } catch (Exception ex) {
+                if (req != null) req.future.set(false);
+                throw ex;
             }
+            if (req != null) req.future.set(success);
             
            
         } else {
             if (jn.get("method") == null) return;
             // handle JSON RPC notifications
-            if (jn.get("id").getValueAsText().equals("null") &&
+            if (jn.get("id").isNull() &&
                     jn.get("method").getValueAsText().equals("update")) {
                 // got an update message
                 if (logger.isDebugEnabled()) logger.debug("GOT an UPDATE");
@@ -116,19 +243,32 @@ public class JSONMsgHandler extends SimpleChannelUpstreamHandler {
                 }
             } else if (jn.get("id").getValueAsText().equals("echo") &&
                     jn.get("method").getValueAsText().equals("echo")) {
-                // no op
+                // keep the session alive
+                JsonNode params = jn.get("params");
+                e.getChannel().write(new JSONEchoReplyMsg(
+                        (params == null) ? "[]" : params.toString()));
             }
         }
     }
 
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx,
+                              ChannelStateEvent e) throws Exception {
+        closed = true;
+        failPendingRequests();
+        super.channelClosed(ctx, e);
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e)
         throws Exception {
+        // The session is shared by all the requests to the switch and is
+        // kept open. A request whose reply could not be handled has
+        // already failed its future, and a broken connection fails the
+        // outstanding requests in channelClosed, so errors are only logged.
         if (e.getCause() instanceof IllegalStateException) {
-            // hiding exception logging - expected because of the way we do
-            // JSON message decoding
-            // logger.debug("Illegal State exception ", 
-            //        e.getCause().toString());
+            logger.debug("Illegal state on ovsdb session to {}: {}",
+                         tsw, e.getCause().toString());
         } else if (e.getCause() instanceof UnrecognizedPropertyException) {
             logger.error("Jackson unrecognized property error {}", 
                     e.getCause());
@@ -149,7 +289,7 @@ public class JSONMsgHandler extends SimpleChannelUpstreamHandler {
         }
     }
     
-    private void handleAddPortReply(JsonNode jn) throws Exception {
+    private boolean handleAddPortReply(JsonNode jn) throws Exception {
         ObjectMapper mapper = new ObjectMapper();
         JSONAddPortReplyMsg rep = 
             mapper.treeToValue(jn, JSONAddPortReplyMsg.class);
@@ -159,11 +299,12 @@ public class JSONMsgHandler extends SimpleChannelUpstreamHandler {
             logger.error("ovsdb-server at sw {} returned error {}",
                     HexString.toHexString(tsw.getDpid()), 
                     returned.substring(returned.indexOf("error")));
+            return false;
         }
-        
+        return true;
     }
     
-    private void handleDelPortReply(JsonNode jn) throws Exception {
+    private boolean handleDelPortReply(JsonNode jn) throws Exception {
         ObjectMapper mapper = new ObjectMapper();
         JSONDelPortReplyMsg rep = 
             mapper.treeToValue(jn, JSONDelPortReplyMsg.class);
@@ -173,14 +314,61 @@ public class JSONMsgHandler extends SimpleChannelUpstreamHandler {
             logger.error("ovsdb-server at sw {} returned error {}",
                     HexString.toHexString(tsw.getDpid()), 
                     returned.substring(returned.indexOf("error")));
+            return false;
         }
-        
+        return true;
+    }
+    
+    /**
+     * Check the result of each operation of a tunnel-ports transaction.
+     * ovsdb-server stops at the first failed operation and may append an
+     * error for the commit itself.
+     */
+    @LogMessageDoc(level="ERROR",
+            message="ovsdb-server at sw {switch} failed to {operation} " +
+                    "of a tunnel-ports transaction: {error}",
+            explanation="An operation of the transaction that reconciles " +
+                    "the tunnel-ports of a switch failed; none of the " +
+                    "changes of the transaction were applied",
+            recommendation=LogMessageDoc.CHECK_SWITCH)
+    private boolean handleTunnelPortsReply(JsonNode jn,
+                                           JSONTunnelPortsMsg msg) {
+        String sw = HexString.toHexString(tsw.getDpid());
+        JsonNode error = jn.get("error");
+        if (error != null && !error.isNull()) {
+            logger.error("ovsdb-server at sw {} rejected tunnel-ports " +
+                    "transaction: {}", sw, error);
+            return false;
+        }
+        JsonNode result = jn.get("result");
+        if (result == null || !result.isArray()) return false;
+        List<String> ops = msg.getOperations();
+        for (int i = 0; i < result.size(); i++) {
+            JsonNode opError = result.get(i).get("error");
+            if (opError == null) continue;
+            String op = (i < ops.size()) ? ops.get(i) : "commit";
+            if (i == 0) {
+                // the bridge ports changed since our last show, the next
+                // reconciliation works from fresh state
+                logger.debug("ovsdb-server at sw {} failed to {}: {}",
+                        new Object[] { sw, op, opError });
+            } else {
+                logger.error("ovsdb-server at sw {} failed to {} of a " +
+                        "tunnel-ports transaction: {}",
+                        new Object[] { sw, op, opError });
+            }
+            return false;
+        }
+        return true;
     }
     
     private void handleUpdateNotification(JsonNode jn) throws Exception {
+        // params are the monitor id and the table updates
+        JsonNode params = jn.get("params");
+        if (params == null || !params.isArray() || params.size() < 2)
+            return;
         ObjectMapper mapper = new ObjectMapper();
-        JSONUpdateMsg rep = mapper.treeToValue(jn, JSONUpdateMsg.class);
-        ShowResult res = rep.getParams().get(1);
+        ShowResult res = mapper.treeToValue(params.get(1), ShowResult.class);
         tsw.updateTunnelSwitchFromUpdate(res);
         //debugUpdateOrShow(res);
     }
@@ -23,6 +23,9 @@ import org.jboss.netty.buffer.ChannelBuffer;
 
 /**
  * show-message RPC to request database state from ovsdb-server
+ * The request id is also used as the monitor id. The monitor stays in
+ * place for the session and ovsdb-server sends an update notification for
+ * every later change.
  * @author Saurav Das
  *
  */
@@ -32,7 +35,7 @@ public class JSONShowMsg extends JSONMsg{
     public JSONShowMsg(int id) {
         showstr = " {\"method\":\"monitor\",\"id\":"+id+",\"params\":[ "+
         " \"Open_vSwitch\", "+
-        " null, "+
+        " "+id+", "+
         " {\"Port\":{\"columns\":[\"interfaces\",\"name\",\"tag\",\"trunks\"]},"
         +
         " \"Controller\":{\"columns\":[\"is_connected\",\"target\"]}, "+
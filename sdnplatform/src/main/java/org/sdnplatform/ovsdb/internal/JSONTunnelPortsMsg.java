@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.ovsdb.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.openflow.util.HexString;
+
+/**
+ * JSONTunnelPortsMsg builds a single JSON RPC transaction that adds and
+ * removes any number of tunnel ports on the bridge of a switch. Compared
+ * to one JSONAddPortMsg or JSONDelPortMsg per port this is one round trip
+ * and one reconfiguration of the switch for the whole change.
+ */
+public class JSONTunnelPortsMsg extends JSONMsg {
+    private Map<String, String> addPorts;
+    private String localIPAddr;
+    private Collection<String> delPortUuids;
+    private String completeString;
+    // description of each operation of the transaction, in order
+    private List<String> operations = new ArrayList<String>();
+    private OVSDBImpl tsw;
+    private int id;
+
+    private String dbuuid = "";
+    private String bridgeuuid;
+
+    /**
+     * Constructor
+     * @param addPorts      names of the tunnel-ports to add, mapped to the
+     *                      IP addr of the remote tunnel-endpoint
+     * @param localIPAddr   IP addr of the local tunnel-endpoint
+     * @param delPortUuids  uuids of the ports to remove
+     * @param tsw           the tunnel-switch on which to change ports
+     * @param messageId     message-id for this RPC message
+     */
+    public JSONTunnelPortsMsg(Map<String, String> addPorts,
+            String localIPAddr, Collection<String> delPortUuids,
+            OVSDBImpl tsw, int messageId) throws OVSDBBridgeUnknown {
+        this.addPorts = addPorts;
+        this.localIPAddr = localIPAddr;
+        this.delPortUuids = delPortUuids;
+        this.tsw = tsw;
+        this.id = messageId;
+        buildTunnelPortsMsg();
+    }
+
+    private void buildTunnelPortsMsg() throws OVSDBBridgeUnknown {
+        bridgeuuid = getBridgeuuid();
+        for (String uuid : tsw.open_vswitch.keySet()) {
+            dbuuid = uuid;
+            break; // only one database
+        }
+        OVSBridge br = tsw.bridge.get(bridgeuuid);
+        ArrayList<String> pl = br.getNew().getPortUuids();
+
+        completeString = "{\"method\":\"transact\",\"id\":"+id+",\"params\":["+
+        " \"Open_vSwitch\", ";
+        completeString += waitPorts(pl) + inserts() + update(pl) +
+                mutations() + comment();
+    }
+
+    private String portSet(Collection<String> uuids, boolean skipDeleted) {
+        StringBuilder sb = new StringBuilder();
+        for (String uuid : uuids) {
+            if (skipDeleted && delPortUuids.contains(uuid)) continue;
+            if (sb.length() > 0) sb.append(",");
+            sb.append("[\"uuid\",\"").append(uuid).append("\"]");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Abort the transaction if the ports of the bridge changed since we
+     * last read them, as the update below replaces the whole set.
+     */
+    private String waitPorts(ArrayList<String> pl) {
+        operations.add("wait for the ports of bridge " + bridgeuuid);
+        return "{\"rows\":[{\"ports\":[\"set\",[" + portSet(pl, false) +
+        "]]}],\"until\":\"==\",\"where\":[[\"_uuid\",\"==\",[\"uuid\",\"" +
+        bridgeuuid + "\"]]],\"timeout\":0,\"op\":\"wait\",\"table\":" +
+        "\"Bridge\",\"columns\":[\"ports\"]},";
+    }
+
+    private String inserts() {
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        for (Entry<String, String> e : addPorts.entrySet()) {
+            String name = e.getKey();
+            operations.add("insert interface " + name);
+            operations.add("insert port " + name);
+            sb.append("{\"uuid-name\":\"newintf").append(i).append("\",")
+              .append("\"op\":\"insert\",\"table\":\"Interface\",\"row\":")
+              .append("{\"name\":\"").append(name)
+              .append("\",\"type\":\"gre\",\"options\":[\"map\",")
+              .append("[[\"remote_ip\",\"").append(e.getValue())
+              .append("\"],[\"local_ip\",\"").append(localIPAddr)
+              .append("\"]]]}},");
+            sb.append("{\"uuid-name\":\"newport").append(i).append("\",")
+              .append("\"op\":\"insert\",\"table\":\"Port\",\"row\":")
+              .append("{\"interfaces\":[\"named-uuid\",\"newintf").append(i)
+              .append("\"],\"name\":\"").append(name).append("\"}},");
+            i++;
+        }
+        return sb.toString();
+    }
+
+    private String update(ArrayList<String> pl) {
+        operations.add("update the ports of bridge " + bridgeuuid);
+        StringBuilder ports = new StringBuilder(portSet(pl, true));
+        for (int i = 0; i < addPorts.size(); i++) {
+            if (ports.length() > 0) ports.append(",");
+            ports.append("[\"named-uuid\",\"newport").append(i).append("\"]");
+        }
+        return "{\"where\":[[\"_uuid\",\"==\",[\"uuid\",\"" + bridgeuuid +
+        "\"]]],\"op\":\"update\",\"table\":\"Bridge\"," +
+        "\"row\":{\"ports\":[\"set\",[" + ports + "]]}},";
+    }
+
+    private String getBridgeuuid() throws OVSDBBridgeUnknown {
+        long dpid = tsw.getDpid();
+        Iterator<Entry<String, OVSBridge>> iter = tsw.bridge.entrySet().
+                                                        iterator();
+        while (iter.hasNext()) {
+            Entry<String, OVSBridge> e = iter.next();
+            if (e.getValue().getNew().getReportedDpid() == dpid) {
+                return e.getKey();
+            }
+        }
+        throw new OVSDBBridgeUnknown(tsw.getDpid());
+    }
+
+    private String mutations() {
+        operations.add("increment next_cfg");
+        operations.add("select next_cfg");
+        return "{\"mutations\":[[\"next_cfg\",\"+=\",1]]," +
+        "\"where\":[[\"_uuid\",\"==\",[\"uuid\",\"" + dbuuid + "\"]]]," +
+        "\"op\":\"mutate\",\"table\":\"Open_vSwitch\"}," +
+        "{\"where\":[[\"_uuid\",\"==\",[\"uuid\",\"" + dbuuid + "\"]]]," +
+        "\"op\":\"select\",\"table\":\"Open_vSwitch\"," +
+        "\"columns\":[\"next_cfg\"]},";
+    }
+
+    private String comment() {
+        operations.add("comment");
+        return "{\"comment\":\"tunnel mesh: add " + addPorts.size() +
+        " del " + delPortUuids.size() + " ports\",\"op\":\"comment\"}]}";
+    }
+
+    /**
+     * @return a description of each operation of the transaction, in the
+     *         order of the results in the reply
+     */
+    public List<String> getOperations() {
+        return operations;
+    }
+
+    @Override
+    public void writeTo(ChannelBuffer buf) {
+        if (log.isTraceEnabled()) {
+            log.trace("sent tunnel-ports message msg-id:"+ id +
+                    " @sw: {} ", HexString.toHexString(tsw.getDpid()));
+        }
+        buf.writeBytes(completeString.getBytes());
+    }
+
+    @Override
+    public int getLengthU() {
+        return completeString.length();
+    }
+}
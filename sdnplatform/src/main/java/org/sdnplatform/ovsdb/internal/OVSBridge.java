@@ -30,7 +30,7 @@ import org.slf4j.LoggerFactory;
  * @author Saurav Das
  *
  */
-public class OVSBridge {
+public class OVSBridge implements OVSDBRow {
     private static Logger logger = LoggerFactory.getLogger(OVSBridge.class);
 
     private BridgeMap newmap;
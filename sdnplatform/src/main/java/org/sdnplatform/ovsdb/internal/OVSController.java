@@ -25,7 +25,7 @@ import org.codehaus.jackson.annotate.JsonProperty;
  * @author Saurav Das
  *
  */
-public class OVSController {
+public class OVSController implements OVSDBRow {
 
     private ControllerMap newmap;
     private ControllerMap oldmap;
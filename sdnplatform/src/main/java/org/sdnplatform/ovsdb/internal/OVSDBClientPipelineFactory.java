@@ -23,6 +23,9 @@ import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.Channels;
 import org.jboss.netty.handler.ssl.SslHandler;
+import org.jboss.netty.util.ExternalResourceReleasable;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
 import org.sdnplatform.ovsdb.IOVSDB;
 
 
@@ -33,10 +36,13 @@ import org.sdnplatform.ovsdb.IOVSDB;
  * @author Gregor
  *
  */
-public class OVSDBClientPipelineFactory implements ChannelPipelineFactory {
+public class OVSDBClientPipelineFactory
+    implements ChannelPipelineFactory, ExternalResourceReleasable {
     private IOVSDB currtsw;
     private Object statusObject;
     private boolean useSSL;
+    // times out the requests of all sessions
+    private Timer timer = new HashedWheelTimer();
     
     public void setCurSwitch(IOVSDB tsw) {
         currtsw = tsw; 
@@ -65,7 +71,8 @@ public class OVSDBClientPipelineFactory implements ChannelPipelineFactory {
         pipeline.addLast("jsondecoder", jsonRpcDecoder);
         pipeline.addLast("jsonencoder", jsonRpcEncoder);
         pipeline.addLast("jsonhandler", 
-                new JSONMsgHandler(currtsw, statusObject));
+                new JSONMsgHandler(currtsw, statusObject, timer,
+                                   OVSDBImpl.REQUEST_TIMEOUT_MS));
         return pipeline;
     }
 
@@ -73,4 +80,12 @@ public class OVSDBClientPipelineFactory implements ChannelPipelineFactory {
         this.statusObject = statusObject;
     }
 
+    /**
+     * Stop the timer thread of the request timeouts
+     */
+    @Override
+    public void releaseExternalResources() {
+        timer.stop();
+    }
+
 }
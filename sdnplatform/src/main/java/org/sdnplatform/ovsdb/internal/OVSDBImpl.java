@@ -20,7 +20,11 @@ import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jboss.netty.bootstrap.ClientBootstrap;
@@ -33,6 +37,10 @@ import org.sdnplatform.ovsdb.internal.JSONShowReplyMsg.ShowResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
 
 
 /**
@@ -41,6 +49,11 @@ import org.slf4j.LoggerFactory;
  * ovsdb-server. It offers a public API for managing tunnels in this switch
  * potentially used by TunnelManager and  VCenterManager
  * 
+ * All requests go over a single persistent JSON RPC session to 
+ * ovsdb-server. Replies are correlated with requests by the message id, 
+ * so any number of requests can be outstanding at a time; the blocking 
+ * methods simply wait for the future of their request.
+ * 
  * @author Saurav Das
  *
  */
@@ -48,7 +61,7 @@ public class OVSDBImpl implements IOVSDB {
     private static Logger logger = LoggerFactory.getLogger(OVSDBImpl.class);
     private long dpid;
     private String hexDpid;
-    private Channel channel;
+    private volatile Channel channel;
     private boolean useSSL;
     private AtomicInteger messageid;
     private String mgmtIPAddr;
@@ -72,13 +85,23 @@ public class OVSDBImpl implements IOVSDB {
     private static final int DEL_PORT_REPLY = 2;
     private static final int SET_DPID_REPLY = 3;
     private static final int SET_CIP_REPLY = 4;
+    private static final int TUNNEL_PORTS_REPLY = 6;
     private static int OVSDB_SERVER_PORT = 6635;
     private static int OVSDB_SSL_SERVER_PORT = 6636;
     
-    private int expectedMessage;
-    private int expectedMessageReplyId;
+    // How long a request waits for its reply before the session is
+    // given up on
+    protected static final long REQUEST_TIMEOUT_MS = 2000;
+    
+    // serializes connection setup for the session
+    private final Object sessionLock = new Object();
+    
+    // the monitor of the current session, which keeps our copy of the db
+    // up to date through update notifications
+    private final Object monitorLock = new Object();
+    private Channel monitorChannel;
+    private ListenableFuture<Boolean> monitor;
     
-   
     
     /**
      * Constructor
@@ -175,31 +198,20 @@ public class OVSDBImpl implements IOVSDB {
         dpid = Long.parseLong(dpidstr, 16);
         hexDpid = HexString.toHexString(dpid);
         // set dpid in ovs
-        sendShowMessage(false);
-        expectedMessageReplyId = peekNextMessageId();
-        expectedMessage = SET_DPID_REPLY;
-        synchronized(this) {
-            JSONSetDpidMsg jsdpid;
-            try {
-                jsdpid = new JSONSetDpidMsg(dpidstr, this, getNextMessageId());
-                if (channel != null) channel.write(jsdpid);
-            } catch (OVSDBBridgeUnknown e) {
-                logger.error("Couldn't set-bridge-dpid {} for sw @ {}: could" +
-                             " not find ovs-br0 bridge", dpidstr, mgmtIPAddr);
-            }
-        }   
-        //wait for an update
-        synchronized(statusObj) {
-            try {
-                statusObj.wait(1000);
-            } catch (InterruptedException e) {
-                logger.error("Interrupted while waiting for set bridge", e);
+        Channel ch = getSession();
+        if (!await(sendShowMessage(ch))) return;
+        int id = getNextMessageId();
+        JSONSetDpidMsg jsdpid;
+        try {
+            synchronized(this) {
+                jsdpid = new JSONSetDpidMsg(dpidstr, this, id);
             }
+        } catch (OVSDBBridgeUnknown e) {
+            logger.error("Couldn't set-bridge-dpid {} for sw @ {}: could" +
+                         " not find ovs-br0 bridge", dpidstr, mgmtIPAddr);
+            return;
         }
-        if (logger.isDebugEnabled()) 
-            logger.debug("channel closing - set bridge");
-        if (channel != null) channel.close();
-        resetMessageId();
+        await(sendRequest(ch, jsdpid, id, SET_DPID_REPLY));
     }
 
     //*********************
@@ -223,33 +235,20 @@ public class OVSDBImpl implements IOVSDB {
     
     @Override
     public void setControllerIPs(ArrayList<String> cntrIP) {
-        sendShowMessage(false);
-        // set dpid
-        expectedMessageReplyId = peekNextMessageId();
-        expectedMessage = SET_CIP_REPLY;
-        synchronized(this) {
-            JSONSetCIPMsg jsetcip;
-            try {
-                jsetcip = new JSONSetCIPMsg(cntrIP, this, getNextMessageId());
-                if (channel != null) channel.write(jsetcip);
-            } catch (OVSDBBridgeUnknown e) {
-                logger.error("Couldn't set-controller-ips for  {}: could" +
-                             " not find ovs-br0 bridge", dpid);
-            }
-        }   
-        //wait for an update
-        synchronized(statusObj) {
-            try {
-                statusObj.wait(1000);
-            } catch (InterruptedException e) {
-                // ignore
+        Channel ch = getSession();
+        if (!await(sendShowMessage(ch))) return;
+        int id = getNextMessageId();
+        JSONSetCIPMsg jsetcip;
+        try {
+            synchronized(this) {
+                jsetcip = new JSONSetCIPMsg(cntrIP, this, id);
             }
+        } catch (OVSDBBridgeUnknown e) {
+            logger.error("Couldn't set-controller-ips for  {}: could" +
+                         " not find ovs-br0 bridge", dpid);
+            return;
         }
-        if (logger.isDebugEnabled()) 
-            logger.debug("channel closing - set controller IP");
-        if (channel != null) channel.close();
-        resetMessageId();
-        
+        await(sendRequest(ch, jsetcip, id, SET_CIP_REPLY));
     }
 
     //*********************
@@ -334,32 +333,43 @@ public class OVSDBImpl implements IOVSDB {
     
     /**
      * Transaction id for JSON RPC messages. Calling this function 
-     * returns the next message Id and internally increments the counter
-     * To query messageId without changing it use peekNextMessageId
-     * 
+     * returns the next message Id and internally increments the counter.
+     * Ids are never reused on a session, so a late reply cannot be taken
+     * for the reply to a newer request.
      */
     private int getNextMessageId() {
         return messageid.getAndIncrement();
     }
     
-    /** 
-     * Transaction id for JSON RPC messages. Calling this function returns
-     * the next message id, but does NOT increment the counter.
-     * No message should be sent by the caller with the returned messageId
-     */
-    private int peekNextMessageId() {
-        return messageid.get();
-    }
-    
-    private void resetMessageId() {
-        messageid.set(0);
-    }
-    
-    
     //**************************
     // JSON Show related  
     //**************************
         
+    /**
+     * Return the JSON RPC session to the OVS DB server, connecting if there
+     * is no open session.
+     * @return the session channel or null if we could not connect
+     */
+    protected Channel getSession() {
+        synchronized(sessionLock) {
+            Channel ch = channel;
+            if (ch == null || !ch.isConnected()) {
+                ch = connect();
+                setChannel(ch);
+            }
+            return ch;
+        }
+    }
+
+    @Override
+    public void closeSession() {
+        synchronized(sessionLock) {
+            Channel ch = channel;
+            setChannel(null);
+            if (ch != null) ch.close().awaitUninterruptibly();
+        }
+    }
+
     /**
      * Start a connection to the OVS DB server.
      * 
@@ -368,13 +378,8 @@ public class OVSDBImpl implements IOVSDB {
      * If *any* SSL connection attempt fails we retry with plaintext and will  
      * use plaintext from then on. 
      */
-    protected Channel connect(boolean newChannelForShow) {
-        // Make a new connection. For standalone show-commands a separate 
-        // channel is created which wouldn't clash with other commands
-        Channel showCh = null;
-        if (!newChannelForShow) { 
-           setChannel(null);
-        }
+    protected Channel connect() {
+        Channel ch = null;
         synchronized(ovsdbcfact) {
             ovsdbcfact.setCurSwitch(this);
             ovsdbcfact.setStatusObject(statusObj);
@@ -391,10 +396,7 @@ public class OVSDBImpl implements IOVSDB {
                     ChannelFuture hsFuture = h.handshake();
                     hsFuture.awaitUninterruptibly();
                     if (hsFuture.isDone() && hsFuture.isSuccess()) {
-                        if (!newChannelForShow)
-                            setChannel(connectFuture.getChannel());
-                        else 
-                            showCh = connectFuture.getChannel();
+                        ch = connectFuture.getChannel();
                     } else { 
                         useSSL = false;
                     }
@@ -418,69 +420,81 @@ public class OVSDBImpl implements IOVSDB {
                         new InetSocketAddress(mgmtIPAddr, OVSDB_SERVER_PORT));
                 connectFuture.awaitUninterruptibly();
                 if (connectFuture.isDone() && connectFuture.isSuccess()) { 
-                    if (!newChannelForShow)
-                        setChannel(connectFuture.getChannel());
-                    else
-                        showCh = connectFuture.getChannel();
+                    ch = connectFuture.getChannel();
                 }
             }  
         }
-        if (channel == null && showCh == null)
+        if (ch == null)
             logger.error("Failed to connect to OVSDB on tunnel switch {} <{}>", 
                     hexDpid, mgmtIPAddr);
-        return showCh;
+        return ch;
     }
-    
+
+    /**
+     * Send a request on the given session and register it for the reply
+     * with the same message id.
+     * @return the future for the reply
+     */
+    protected ListenableFuture<Boolean> sendRequest(Channel ch, JSONMsg msg,
+                                                    int id, int type) {
+        if (ch == null || !ch.isConnected()) {
+            return Futures.immediateFuture(false);
+        }
+        JSONMsgHandler h = ch.getPipeline().get(JSONMsgHandler.class);
+        ListenableFuture<Boolean> future = h.registerRequest(id, type, msg);
+        ch.write(msg);
+        return future;
+    }
+
+    /**
+     * Wait for the result of a request. A request without a reply in time
+     * fails and closes the session (see {@link JSONMsgHandler}), so this
+     * does not block for long. The next request opens a new session.
+     */
+    protected boolean await(ListenableFuture<Boolean> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.error("ovsdb request to {} failed", hexDpid, e.getCause());
+        }
+        return false;
+    }
+
     /**
      * sendShowMessage sends a JSON RPC show command to this OVS and updates
      * the OVSDB state to mirror the OVS state learned from the reply to this
      * show message. addTunnelPort and delTunnelPort method implementations
      * first synchronize the OVSDB state with the OVS's state by calling this
      * method; and then try to add or delete a port. 
+     * The show is a monitor that stays in place for the session, so it is
+     * only sent once per session; the update notifications of the monitor
+     * keep the OVSDB state in sync after that.
      */
     public void sendShowMessage() {
-        sendShowMessage(true);
+        await(sendShowMessageAsync());
     }
-    
-    private void sendShowMessage(boolean closeAfterReceive) {
-        Channel showCh = null;
-        showCh  = connect(closeAfterReceive);
-        
-        expectedMessageReplyId = peekNextMessageId();
-        expectedMessage = SHOW_REPLY;
-        synchronized(this) {
-            JSONShowMsg jshow = new JSONShowMsg(getNextMessageId()); 
-            if (closeAfterReceive) {
-                if (showCh != null) showCh.write(jshow);
-                else logger.error("Show failed on connect to ovs {}", hexDpid);
-            } else {
-                if (channel != null) channel.write(jshow);
-                else logger.error("Show failed to connect to ovs {}", hexDpid);
-            }
-        }
-        
-        //wait for a reply
-        synchronized(statusObj) {
-            try {
-                statusObj.wait(1000);
-            } catch (InterruptedException e) {
-                // ignore
-            }
-        }
 
-        if (closeAfterReceive) {
-            if (showCh != null) {
-                if (logger.isDebugEnabled())
-                    logger.debug("closing channel {} after show-only",
-                                    showCh.toString());
-                showCh.close();
-            } else {
-                logger.error("Failed to connect to ovsdb on switch {}", 
-                        hexDpid);
+    @Override
+    public ListenableFuture<Boolean> sendShowMessageAsync() {
+        return sendShowMessage(getSession());
+    }
+
+    private ListenableFuture<Boolean> sendShowMessage(Channel ch) {
+        if (ch == null) {
+            logger.error("Show failed to connect to ovs {}", hexDpid);
+        }
+        synchronized(monitorLock) {
+            if (ch != null && ch == monitorChannel &&
+                    !(monitor.isDone() && !Futures.getUnchecked(monitor))) {
+                return monitor;
             }
-            resetMessageId();
+            int id = getNextMessageId();
+            monitor = sendRequest(ch, new JSONShowMsg(id), id, SHOW_REPLY);
+            monitorChannel = ch;
+            return monitor;
         }
-        
     }
     
     
@@ -499,62 +513,52 @@ public class OVSDBImpl implements IOVSDB {
      */
     public void addPort(String name, String localIPAddr, String remoteIPAddr, 
                         boolean isTunnelPort) {
+        await(addPortAsync(name, localIPAddr, remoteIPAddr, isTunnelPort));
+    }
+
+    @Override
+    public ListenableFuture<Boolean> addPortAsync(final String name,
+                                                  final String localIPAddr,
+                                                  final String remoteIPAddr,
+                                                  final boolean isTunnelPort) {
         if ((localIPAddr == null || remoteIPAddr == null) && isTunnelPort) {
             logger.debug("Error in call: cannot add a tunnel-port on switch " +
                     hexDpid + " local IP " + localIPAddr +
                     " remote IP " + remoteIPAddr);
-            return;
-        }
-        
-        //Make a new connection with the show message
-        sendShowMessage(false);
-        //ensure port does not exist
-        boolean exists = false;
-        for(OVSPort p : port.values()) {
-            if (p.getNew().getName().equals(name)) {
-                exists = true;
-                break;
-            }
-        }
-        if (exists) {
-            logger.debug("port {} already exists on switch {}",
-                    name, hexDpid);
-            if (channel != null) channel.close();
-            resetMessageId();
-            return;
+            return Futures.immediateFuture(false);
         }
         
-        //otherwise create port
-        expectedMessageReplyId = peekNextMessageId();
-        expectedMessage = ADD_PORT_REPLY;
-        synchronized(this) {
-            JSONAddPortMsg jadd;
-            try {
-                jadd = new JSONAddPortMsg(name, localIPAddr, remoteIPAddr, this,
-                        getNextMessageId(), isTunnelPort);
-                if (channel != null) channel.write(jadd);
-            } catch (OVSDBBridgeUnknown e) {
-                logger.error(String.format(
-                        "Couldn't add port %s for sw %s with remote IP %s ::"+
-                                " no bridge found", name, hexDpid, 
-                                remoteIPAddr));
-            }
-        }
-        //wait for a reply and an update
-        for (int i=0; i<2; i++) {
-            synchronized(statusObj) {
+        // refresh our copy of the db with a show, then add the port
+        final Channel ch = getSession();
+        AsyncFunction<Boolean, Boolean> add = 
+                new AsyncFunction<Boolean, Boolean>() {
+            @Override
+            public ListenableFuture<Boolean> apply(Boolean shown) {
+                if (!shown) return Futures.immediateFuture(false);
+                if (findPortHash(name) != null) {
+                    logger.debug("port {} already exists on switch {}",
+                            name, hexDpid);
+                    return Futures.immediateFuture(true);
+                }
+                int id = getNextMessageId();
+                JSONAddPortMsg jadd;
                 try {
-                    statusObj.wait(1000);
-                } catch (InterruptedException e) {
-                    // ignore
+                    synchronized(OVSDBImpl.this) {
+                        jadd = new JSONAddPortMsg(name, localIPAddr, 
+                                remoteIPAddr, OVSDBImpl.this, id, 
+                                isTunnelPort);
+                    }
+                } catch (OVSDBBridgeUnknown e) {
+                    logger.error(String.format(
+                            "Couldn't add port %s for sw %s with remote IP %s ::"+
+                                    " no bridge found", name, hexDpid, 
+                                    remoteIPAddr));
+                    return Futures.immediateFuture(false);
                 }
+                return sendRequest(ch, jadd, id, ADD_PORT_REPLY);
             }
-        }
-        if (logger.isDebugEnabled()) 
-            logger.debug("channel {} closing - add port", channel.toString());
-        if (channel != null) channel.close();
-        resetMessageId();
-
+        };
+        return Futures.transform(sendShowMessage(ch), add);
     }
 
     /**
@@ -565,82 +569,147 @@ public class OVSDBImpl implements IOVSDB {
      * effect. 
      */ 
     public void delPort(String name) {
-        //Make a new connection with the show message
-        sendShowMessage(false);
-        // ensure port exists
+        await(delPortAsync(name));
+    }
+
+    @Override
+    public ListenableFuture<Boolean> delPortAsync(final String name) {
+        // refresh our copy of the db with a show, then delete the port
+        final Channel ch = getSession();
+        AsyncFunction<Boolean, Boolean> del = 
+                new AsyncFunction<Boolean, Boolean>() {
+            @Override
+            public ListenableFuture<Boolean> apply(Boolean shown) {
+                if (!shown) return Futures.immediateFuture(false);
+                String portHash = findPortHash(name);
+                if (portHash == null) {
+                    logger.debug("port {} does not exist on switch {}",
+                            name, hexDpid);
+                    return Futures.immediateFuture(true);
+                }
+                int id = getNextMessageId();
+                JSONDelPortMsg jdel;
+                try {
+                    synchronized(OVSDBImpl.this) {
+                        jdel = new JSONDelPortMsg(name, portHash, 
+                                OVSDBImpl.this, id);
+                    }
+                } catch (OVSDBBridgeUnknown e) {
+                    logger.error(String.format(
+                            "Couldn't del port %s for switch %s ::"+
+                                    " no bridge found", name, hexDpid));
+                    return Futures.immediateFuture(false);
+                }
+                return sendRequest(ch, jdel, id, DEL_PORT_REPLY);
+            }
+        };
+        return Futures.transform(sendShowMessage(ch), del);
+    }
+
+    @Override
+    public ListenableFuture<Boolean> reconcileTunnelPortsAsync(
+                                        final String localIPAddr,
+                                        final Map<String, String> desired,
+                                        final Set<String> goneRemoteIPs) {
+        if (localIPAddr == null) {
+            logger.debug("Error in call: cannot reconcile tunnel-ports on " +
+                    "switch {} without a local IP", hexDpid);
+            return Futures.immediateFuture(false);
+        }
+
+        // refresh our copy of the db with a show, then send a single
+        // transaction with all the tunnel-port adds and deletes
+        final Channel ch = getSession();
+        AsyncFunction<Boolean, Boolean> reconcile =
+                new AsyncFunction<Boolean, Boolean>() {
+            @Override
+            public ListenableFuture<Boolean> apply(Boolean shown) {
+                if (!shown) return Futures.immediateFuture(false);
+                int id = getNextMessageId();
+                JSONTunnelPortsMsg jmsg;
+                try {
+                    synchronized(OVSDBImpl.this) {
+                        Map<String, String> adds =
+                                new HashMap<String, String>(desired);
+                        List<String> dels = new ArrayList<String>();
+                        diffTunnelPorts(adds, dels, goneRemoteIPs);
+                        if (adds.isEmpty() && dels.isEmpty()) {
+                            return Futures.immediateFuture(true);
+                        }
+                        jmsg = new JSONTunnelPortsMsg(adds, localIPAddr,
+                                dels, OVSDBImpl.this, id);
+                    }
+                } catch (OVSDBBridgeUnknown e) {
+                    logger.error("Couldn't reconcile tunnel-ports for " +
+                            "switch {} :: no bridge found", hexDpid);
+                    return Futures.immediateFuture(false);
+                }
+                return sendRequest(ch, jmsg, id, TUNNEL_PORTS_REPLY);
+            }
+        };
+        return Futures.transform(sendShowMessage(ch), reconcile);
+    }
+
+    /**
+     * Compare the tunnel-ports on the OVS with the desired ones. Tunnel
+     * ports that are up to date are removed from adds; desired tunnel
+     * ports that point to a different remote IP and tunnel ports to a
+     * gone switch are added to dels (the former stay in adds to be
+     * re-created). Tunnel ports to any other remote IP are kept.
+     * @param adds desired tunnel-port names mapped to their remote IP
+     * @param dels uuids of the ports to remove
+     * @param gone tunnel IPs of the switches known to be gone
+     */
+    private void diffTunnelPorts(Map<String, String> adds, List<String> dels,
+                                 Set<String> gone) {
+        for (Entry<String, OVSPort> e : port.entrySet()) {
+            String name = e.getValue().getNew().getName();
+            if (name == null || !name.startsWith("vta")) continue;
+            String want = adds.get(name);
+            String have = null;
+            for (String ih : e.getValue().getNew().getInterfaces()) {
+                OVSInterface i = intf.get(ih);
+                if (i != null && name.equals(i.getNew().getName())) {
+                    have = i.getNew().getRemoteIP();
+                    break;
+                }
+            }
+            if (want != null && want.equals(have)) {
+                adds.remove(name);
+            } else if (want != null || (have != null && gone.contains(have))) {
+                dels.add(e.getKey());
+            }
+        }
+    }
+
+    /**
+     * Find the port that has an interface with the given name
+     * @return the uuid of the port or null if there is no such port
+     */
+    private synchronized String findPortHash(String name) {
         Iterator<Entry<String, OVSPort>> iter = port.entrySet().iterator();
-        String portHash = null;
         while(iter.hasNext()) {
             Entry<String, OVSPort> e = iter.next();
+            if (e.getValue().getNew().getName().equals(name)) {
+                return e.getKey();
+            }
             ArrayList<String> intfHash = e.getValue().getNew().getInterfaces();
             for (int j=0; j<intfHash.size(); j++) {
                 if (intf.containsKey(intfHash.get(j))) {
                     if (intf.get(intfHash.get(j)).getNew().getName()
                             .equals(name)) {
-                        portHash = e.getKey();
-                        break;
+                        return e.getKey();
                     }
                 }
             }
-            if (portHash != null) break;
-        }
-        if (portHash == null) {
-            logger.debug("port {} does not exist on switch {}",
-                    name, HexString.toHexString(dpid));
-            if (channel != null) channel.close();
-            resetMessageId();
-            return;
-        }
-        //otherwise delete port
-        expectedMessageReplyId = peekNextMessageId();
-        expectedMessage = DEL_PORT_REPLY;
-        synchronized(this) {
-            JSONDelPortMsg jdel;
-            try {
-                jdel = new JSONDelPortMsg(name, portHash, this,
-                        getNextMessageId());
-                if (channel != null) channel.write(jdel);
-            } catch (OVSDBBridgeUnknown e) {
-                logger.error(String.format(
-                        "Couldn't del port %s for switch %s ::"+
-                                " no bridge found", name, hexDpid));
-            }
-            
-        }
-        //wait for a reply and an update
-        for (int i=0; i<2; i++) {
-            synchronized(statusObj) {
-                try {
-                    statusObj.wait(1000);
-                } catch (InterruptedException e) {
-                    // ingore
-                }
-            }
         }
-        if (logger.isDebugEnabled()) 
-            logger.debug("channel {} closing - del port", channel.toString());
-        if (channel != null) channel.close();
-        resetMessageId();
-        
+        return null;
     }
 
     //**************************
     // JSON RPC Message 'from' OVS 
     //**************************
 
-    /**
-     * public method not exposed by interface - called by JSONMsgHandler
-     * to correlate a received JSON RPC transaction id to the id of a sent 
-     * JSON RPC request.
-     */
-    public int getExpectedMessage(int messageReplyId) {
-        if (messageReplyId == expectedMessageReplyId) {
-            return expectedMessage;
-        } else {
-            return -1;
-        }
-    }
-    
     /**
      * public method not exposed by interface - called by JSONMsgHandler
      * to update OVSDB with a showReply received in response to a sent showMsg
@@ -672,10 +741,30 @@ public class OVSDBImpl implements IOVSDB {
         
     }
     
+    /**
+     * public method not exposed by interface - called by JSONMsgHandler
+     * to update OVSDB with the changes in an update notification of the
+     * monitor
+     */
     public synchronized void updateTunnelSwitchFromUpdate(
             ShowResult update) {
-        // FIXME - not needed or used right now
-        
+        applyUpdate(open_vswitch, update.getOpen_vSwitch());
+        applyUpdate(controller, update.getController());
+        applyUpdate(intf, update.getInterface());
+        applyUpdate(port, update.getPort());
+        applyUpdate(bridge, update.getBridge());
+    }
+
+    private static <T extends OVSDBRow> void applyUpdate(
+            HashMap<String, T> table, HashMap<String, T> rows) {
+        if (rows == null) return;
+        for (Entry<String, T> e : rows.entrySet()) {
+            if (e.getValue().getNew() == null) {
+                table.remove(e.getKey());
+            } else {
+                table.put(e.getKey(), e.getValue());
+            }
+        }
     }
 
   
@@ -22,6 +22,9 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.jboss.netty.bootstrap.ClientBootstrap;
 import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
@@ -34,9 +37,12 @@ import org.sdnplatform.core.module.ModuleContext;
 import org.sdnplatform.core.module.ModuleException;
 import org.sdnplatform.core.module.IModule;
 import org.sdnplatform.core.module.IPlatformService;
+import org.sdnplatform.core.util.SingletonTask;
 import org.sdnplatform.ovsdb.IOVSDB;
 import org.sdnplatform.ovsdb.IOVSDBListener;
 import org.sdnplatform.ovsdb.IOVSDBManagerService;
+import org.sdnplatform.tunnelmanager.ITunnelManagerListener;
+import org.sdnplatform.tunnelmanager.ITunnelManagerService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,7 +52,7 @@ import org.slf4j.LoggerFactory;
  */
 public class OVSDBManagerImpl 
     implements IModule, IOVSDBManagerService,
-               IHAListener {
+               IHAListener, ITunnelManagerListener {
     protected static Logger logger = 
         LoggerFactory.getLogger(OVSDBManagerImpl.class);
 
@@ -69,9 +75,27 @@ public class OVSDBManagerImpl
     OVSDBClientPipelineFactory ovsdbcFact;
 
     public Collection<IOVSDBListener> listeners;
+    protected TunnelMeshReconciler meshReconciler =
+        new TunnelMeshReconciler();
+
+    // delay before reconciling the tunnel mesh after a tunnel-port
+    // change, so that switches connecting together are handled at once
+    protected static final int MESH_TASK_DELAY = 1000; // ms
+    // Reconcile the mesh on tunnel-port changes. Off by default, since
+    // the tunnel manager sets up tunnels through flows on tun-bsn and
+    // this would change how tunnels are set up in existing deployments.
+    protected boolean autoMeshReconcile = false;
+    // The reconcile waits for the switches, so it runs on its own thread
+    protected ScheduledExecutorService meshExecutor;
+    protected SingletonTask meshTask;
 
     public void shutDown() {
-        
+        if (meshExecutor != null)
+            meshExecutor.shutdownNow();
+        if (bootstrap != null)
+            bootstrap.releaseExternalResources();
+        if (ovsdbcFact != null)
+            ovsdbcFact.releaseExternalResources();
     }
     
     //*****************************
@@ -107,8 +131,12 @@ public class OVSDBManagerImpl
     @Override
     public IOVSDB removeOVSDB(long dpid) {
         IOVSDB o = ovsSwitchMap.remove(dpid);
-        if (logger.isDebugEnabled() && o != null) {
-            logger.debug("removing OVSDB obj from ovs map for dpid {}", dpid);
+        if (o != null) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("removing OVSDB obj from ovs map for dpid {}",
+                             dpid);
+            }
+            o.closeSession();
         }
         return o;
     }    
@@ -127,7 +155,7 @@ public class OVSDBManagerImpl
                                     .getInetAddress().toString();
                 mgmtIPAddr = mgmtIPAddr.substring(1, mgmtIPAddr.indexOf(':'));
                 if (ovsSwitchMapNC.containsKey(mgmtIPAddr)) {
-                    ovsSwitchMapNC.remove(mgmtIPAddr);
+                    ovsSwitchMapNC.remove(mgmtIPAddr).closeSession();
                     logger.debug("removed ovsdb object in NC map " +
                             "for ovs @ {}", mgmtIPAddr);
                 }
@@ -153,6 +181,16 @@ public class OVSDBManagerImpl
         return false;
     }
 
+    @Override
+    public long reconcileTunnelMesh() {
+        try {
+            return meshReconciler.reconcile(ovsSwitchMap.values());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+
     @Override
     public boolean delPort(long dpid, String portname) {
         IOVSDB ovs = ovsSwitchMap.get(dpid);
@@ -233,6 +271,7 @@ public class OVSDBManagerImpl
                                 mgmtIPAddr, dpidstr);
                 }
                 ovsSwitchMapNC.remove(o.getMgmtIPAddr());
+                o.closeSession();
              }
         }
         IOVSDB dsw = findOrCreateBridge(mgmtIPAddr);
@@ -293,6 +332,11 @@ public class OVSDBManagerImpl
             throws ModuleException {
         controllerProvider =
                 context.getServiceImpl(IControllerService.class);
+        Map<String, String> configOptions = context.getConfigParams(this);
+        String option = configOptions.get("automeshreconcile");
+        if (option != null) {
+            autoMeshReconcile = Boolean.parseBoolean(option);
+        }
     }
 
     @Override
@@ -300,6 +344,43 @@ public class OVSDBManagerImpl
         
         controllerProvider.addHAListener(this);
         setupNettyClient();
+        if (!autoMeshReconcile) return;
+        // the tunnel manager depends on us, so it is optional here
+        ITunnelManagerService tunnelManager =
+                context.getServiceImpl(ITunnelManagerService.class);
+        if (tunnelManager == null) return;
+        meshExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "TunnelMeshReconcile");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        meshTask = new SingletonTask(meshExecutor, new Runnable() {
+            @Override
+            public void run() {
+                reconcileTunnelMesh();
+            }
+        });
+        tunnelManager.addListener(this);
+    }
+
+    // ITunnelManagerListener
+
+    @Override
+    public void tunnelPortActive(long dpid, short tunnelPortNumber) {
+        if (ovsSwitchMap.containsKey(dpid)) {
+            meshTask.reschedule(MESH_TASK_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void tunnelPortInactive(long dpid, short tunnelPortNumber) {
+        // the switch is already gone from ovsSwitchMap; the remaining
+        // switches drop their tunnel-ports to it
+        meshTask.reschedule(MESH_TASK_DELAY, TimeUnit.MILLISECONDS);
     }
 
     @Override
@@ -319,6 +400,10 @@ public class OVSDBManagerImpl
             case SLAVE:
                 logger.debug("Clearing OVS Switch Maps due to " +
                         "HA change to SLAVE");
+                for (IOVSDB o : ovsSwitchMap.values())
+                    o.closeSession();
+                for (IOVSDB o : ovsSwitchMapNC.values())
+                    o.closeSession();
                 ovsSwitchMap.clear();
                 ovsSwitchMapNC.clear();
                 break;
@@ -25,7 +25,7 @@ import java.util.ArrayList;
  * @author Saurav Das
  *
  */
-public class OVSDatabase {
+public class OVSDatabase implements OVSDBRow {
 
     private DbMap newmap;
     private DbMap oldmap;
@@ -25,7 +25,7 @@ import java.util.ArrayList;
  * @author Saurav Das
  *
  */
-public class OVSInterface {
+public class OVSInterface implements OVSDBRow {
 
     private InterfaceMap newmap;
     private InterfaceMap oldmap;
@@ -28,7 +28,7 @@ import org.codehaus.jackson.annotate.JsonProperty;
  * 
  */
 
-public class OVSPort {
+public class OVSPort implements OVSDBRow {
     
     private PortMap newmap;
     private PortMap oldmap;
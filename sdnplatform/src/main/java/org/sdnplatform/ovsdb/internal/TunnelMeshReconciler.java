@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.ovsdb.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sdnplatform.ovsdb.IOVSDB;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Reconciles the full mesh of tunnel-ports between a set of tunnel capable
+ * OVS switches. For every switch the desired tunnel-ports (one per peer
+ * switch, named after the peer's tunnel IP) are compared with the ports in
+ * ovsdb and all differences are sent in a single transaction. Switches are
+ * reconciled concurrently over their JSON RPC sessions with a bound on the
+ * number of outstanding transactions.
+ * 
+ * Tunnel-ports are only removed if they point at a switch that was part of
+ * an earlier mesh and has since left it; tunnel-ports to peers we never
+ * knew about are left alone.
+ */
+public class TunnelMeshReconciler {
+    protected static Logger logger =
+        LoggerFactory.getLogger(TunnelMeshReconciler.class);
+
+    public static final int DEFAULT_MAX_OUTSTANDING = 16;
+    public static final long DEFAULT_TIMEOUT_MS = 30000;
+
+    protected final int maxOutstanding;
+    protected final long timeoutMs;
+
+    // results of the last reconciliation
+    protected volatile long lastConvergenceMs = -1;
+    protected volatile int lastFailed = 0;
+
+    // tunnel IPs of the switches in the last reconciled mesh
+    protected Set<String> knownEndpoints = new HashSet<String>();
+    // tunnel IPs of the switches that left the mesh
+    protected Set<String> goneEndpoints = new HashSet<String>();
+
+    public TunnelMeshReconciler() {
+        this(DEFAULT_MAX_OUTSTANDING, DEFAULT_TIMEOUT_MS);
+    }
+
+    public TunnelMeshReconciler(int maxOutstanding, long timeoutMs) {
+        this.maxOutstanding = maxOutstanding;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Compute the desired tunnel-ports of every switch: a tunnel-port to
+     * each of the other switches that have a tunnel IP
+     * @return desired tunnel-port names mapped to the remote IP, by switch.
+     *         Switches without a tunnel IP are left out.
+     */
+    protected Map<IOVSDB, Map<String, String>>
+            computeDesired(Collection<IOVSDB> switches) {
+        List<IOVSDB> endpoints = new ArrayList<IOVSDB>();
+        for (IOVSDB o : switches) {
+            if (o.getTunnelIPAddress() != null &&
+                    o.getTunnelIPAddrName() != null) {
+                endpoints.add(o);
+            }
+        }
+        Map<IOVSDB, Map<String, String>> desired =
+                new HashMap<IOVSDB, Map<String, String>>();
+        for (IOVSDB o : endpoints) {
+            Map<String, String> ports = new HashMap<String, String>();
+            for (IOVSDB peer : endpoints) {
+                if (peer == o ||
+                    peer.getTunnelIPAddress().equals(o.getTunnelIPAddress()))
+                    continue;
+                ports.put(peer.getTunnelIPAddrName(),
+                          peer.getTunnelIPAddress());
+            }
+            desired.put(o, ports);
+        }
+        return desired;
+    }
+
+    /**
+     * Update the switches known to have left the mesh: switches of the
+     * last mesh that are not in the new one are added, switches of the new
+     * mesh are removed.
+     * @return the tunnel IPs of the switches that left the mesh
+     */
+    protected Set<String> updateGoneEndpoints(
+                            Map<IOVSDB, Map<String, String>> desired) {
+        Set<String> current = new HashSet<String>();
+        for (IOVSDB o : desired.keySet()) {
+            current.add(o.getTunnelIPAddress());
+        }
+        for (String ip : knownEndpoints) {
+            if (!current.contains(ip)) goneEndpoints.add(ip);
+        }
+        goneEndpoints.removeAll(current);
+        knownEndpoints = current;
+        return new HashSet<String>(goneEndpoints);
+    }
+
+    /**
+     * Reconcile the tunnel mesh between the given switches and wait for
+     * all switches to converge or the timeout to expire.
+     * @return the time in ms it took for all switches to converge or -1
+     *         if some switches failed or did not converge in time
+     */
+    public synchronized long reconcile(Collection<IOVSDB> switches)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        Map<IOVSDB, Map<String, String>> desired = computeDesired(switches);
+        Set<String> gone = updateGoneEndpoints(desired);
+
+        final Semaphore outstanding = new Semaphore(maxOutstanding);
+        final CountDownLatch done = new CountDownLatch(desired.size());
+        final AtomicInteger failed = new AtomicInteger();
+        for (Map.Entry<IOVSDB, Map<String, String>> e : desired.entrySet()) {
+            final IOVSDB o = e.getKey();
+            if (!outstanding.tryAcquire(remaining(deadline),
+                                        TimeUnit.NANOSECONDS)) {
+                logger.debug("Timed out waiting to reconcile tunnel-ports " +
+                             "on switch {}", o);
+                failed.incrementAndGet();
+                done.countDown();
+                continue;
+            }
+            ListenableFuture<Boolean> f;
+            try {
+                f = o.reconcileTunnelPortsAsync(o.getTunnelIPAddress(),
+                                                e.getValue(), gone);
+            } catch (RuntimeException ex) {
+                logger.warn("Failed to reconcile tunnel-ports on switch " +
+                        o + ": {}", ex.getMessage());
+                failed.incrementAndGet();
+                outstanding.release();
+                done.countDown();
+                continue;
+            }
+            f.addListener(new ReconcileListener(o, f, failed, outstanding,
+                                                done),
+                          MoreExecutors.sameThreadExecutor());
+        }
+
+        boolean converged = done.await(remaining(deadline),
+                                       TimeUnit.NANOSECONDS);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() -
+                                                      start);
+        lastFailed = converged ? failed.get() : (int)done.getCount() +
+                                                failed.get();
+        lastConvergenceMs = (lastFailed == 0) ? elapsed : -1;
+        if (lastFailed == 0) {
+            logger.info("Tunnel mesh of {} switches converged in {} ms",
+                        desired.size(), elapsed);
+        } else {
+            logger.warn("Tunnel mesh of {} switches did not converge: " +
+                        "{} switches failed", desired.size(), lastFailed);
+        }
+        return lastConvergenceMs;
+    }
+
+    private static long remaining(long deadline) {
+        return Math.max(0, deadline - System.nanoTime());
+    }
+
+    /**
+     * @return the convergence time in ms of the last reconciliation or -1
+     *         if it did not converge or no reconciliation ran yet
+     */
+    public long getLastConvergenceMs() {
+        return lastConvergenceMs;
+    }
+
+    /**
+     * @return the number of switches that failed to converge in the last
+     *         reconciliation
+     */
+    public int getLastFailed() {
+        return lastFailed;
+    }
+
+    private static class ReconcileListener implements Runnable {
+        private final IOVSDB ovs;
+        private final ListenableFuture<Boolean> future;
+        private final AtomicInteger failed;
+        private final Semaphore outstanding;
+        private final CountDownLatch done;
+
+        ReconcileListener(IOVSDB ovs, ListenableFuture<Boolean> future,
+                          AtomicInteger failed, Semaphore outstanding,
+                          CountDownLatch done) {
+            this.ovs = ovs;
+            this.future = future;
+            this.failed = failed;
+            this.outstanding = outstanding;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            boolean ok = false;
+            try {
+                ok = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                logger.debug("Reconcile of switch {} failed: {}", ovs,
+                             e.getCause());
+            }
+            if (!ok) failed.incrementAndGet();
+            outstanding.release();
+            done.countDown();
+        }
+    }
+}
@@ -20,42 +20,173 @@ import org.sdnplatform.packetstreamer.thrift.*;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.sdnplatform.core.annotations.LogMessageCategory;
 import org.sdnplatform.core.annotations.LogMessageDoc;
-import org.sdnplatform.core.annotations.LogMessageDocs;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * The PacketStreamer handler class that implements the service APIs.
+ * 
+ * Every session has a bounded queue. When a session does not keep up
+ * with the packets that match its filter, the oldest packets are dropped
+ * and the client is told how many were lost, so the memory used by the
+ * packetstreamer does not depend on how fast its clients are. Sessions
+ * that are not polled for a while are reaped.
  */
 @LogMessageCategory("OpenFlow Message Tracing")
 public class PacketStreamerHandler implements PacketStreamer.Iface {
 
+    public static final int DEFAULT_MAX_QUEUE_PACKETS = 1000;
+    public static final int DEFAULT_MAX_QUEUE_BYTES = 4 << 20;
+    public static final int DEFAULT_MAX_SESSIONS = 64;
+    public static final int DEFAULT_MAX_BATCH = 1000;
+    public static final long DEFAULT_MAX_WAIT_MS = 5000;
+    public static final long DEFAULT_SESSION_IDLE_MS = 60000;
+
+    protected static final String FILTER_TIMEOUT = "FilterTimeout";
+
 	/**
 	 * The queue wrapper class that contains the queue for the streamed packets.
+	 * The packets are kept in a fixed size ring; when the ring or the byte
+	 * budget is full the oldest packets are dropped.
 	 */
     protected class SessionQueue {
-        protected BlockingQueue<ByteBuffer> pQueue;
+        protected final ByteBuffer[] ring;
+        protected int head = 0;
+        protected int count = 0;
+        protected int bytes = 0;
+        protected long dropped = 0;
+        // dropped packets not yet reported to the client
+        protected long unreported = 0;
+        protected boolean terminated = false;
+        protected int waiters = 0;
+        protected volatile long lastAccess;
+
+        protected final ReentrantLock lock = new ReentrantLock();
+        protected final Condition notEmpty = lock.newCondition();
 
         /**
          * The queue wrapper constructor
          */
         public SessionQueue() {
-            this.pQueue = new LinkedBlockingQueue<ByteBuffer>();
+            this.ring = new ByteBuffer[maxQueuePackets];
+            this.lastAccess = System.nanoTime();
+        }
+
+        /**
+         * Add a packet, dropping the oldest packets if the queue is full
+         */
+        public void offer(ByteBuffer bb) {
+            lock.lock();
+            try {
+                while (count > 0 && (count == ring.length ||
+                        bytes + bb.remaining() > maxQueueBytes)) {
+                    removeHead();
+                    dropped++;
+                    unreported++;
+                }
+                ring[(head + count) % ring.length] = bb;
+                count++;
+                bytes += bb.remaining();
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private ByteBuffer removeHead() {
+            ByteBuffer bb = ring[head];
+            ring[head] = null;
+            head = (head + 1) % ring.length;
+            count--;
+            bytes -= bb.remaining();
+            return bb;
+        }
+
+        /**
+         * Mark the session as terminated and wake up the waiting clients
+         */
+        public void terminate() {
+            lock.lock();
+            try {
+                terminated = true;
+                notEmpty.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Wait until there are packets or maxWaitMs expired, then move up
+         * to maxBatch packets to the given list.
+         */
+        public void poll(List<ByteBuffer> packets, int maxBatch,
+                         long maxWaitMs) throws InterruptedException {
+            lastAccess = System.nanoTime();
+            long nanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+            lock.lock();
+            try {
+                waiters++;
+                try {
+                    while (count == 0 && !terminated && nanos > 0) {
+                        nanos = notEmpty.awaitNanos(nanos);
+                    }
+                } finally {
+                    waiters--;
+                }
+                if (unreported > 0 && maxBatch > 0) {
+                    String data = "Dropped " + unreported + " packets";
+                    packets.add(ByteBuffer.wrap(data.getBytes()));
+                    unreported = 0;
+                    maxBatch--;
+                }
+                for (int i = 0; i < maxBatch && count > 0; i++) {
+                    packets.add(removeHead());
+                }
+            } finally {
+                lock.unlock();
+                lastAccess = System.nanoTime();
+            }
+        }
+
+        public int size() {
+            lock.lock();
+            try {
+                return count;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public long getDropped() {
+            lock.lock();
+            try {
+                return dropped;
+            } finally {
+                lock.unlock();
+            }
         }
 
         /**
-         * The access method to get to the internal queue.
+         * @return true if no client waits on this queue and it was not
+         * accessed since the given time
          */
-        public BlockingQueue<ByteBuffer> getQueue() {
-            return this.pQueue;
+        public boolean isIdle(long since) {
+            lock.lock();
+            try {
+                return waiters == 0 && lastAccess - since < 0;
+            } finally {
+                lock.unlock();
+            }
         }
     }
     
@@ -70,59 +201,107 @@ public class PacketStreamerHandler implements PacketStreamer.Iface {
      */
     protected Map<String, SessionQueue> msgQueues;
 
+    protected final int maxQueuePackets;
+    protected final int maxQueueBytes;
+    protected final int maxSessions;
+    protected final long sessionIdleMs;
+
     /**
      * The handler's constructor
      */
     public PacketStreamerHandler() {
+        this(DEFAULT_MAX_QUEUE_PACKETS, DEFAULT_MAX_QUEUE_BYTES,
+             DEFAULT_MAX_SESSIONS, DEFAULT_SESSION_IDLE_MS);
+    }
+
+    /**
+     * @param maxQueuePackets the maximum number of packets per session
+     * @param maxQueueBytes the maximum number of bytes per session
+     * @param maxSessions the maximum number of sessions
+     * @param sessionIdleMs how long a session may go without being polled
+     *        before it is reaped
+     */
+    public PacketStreamerHandler(int maxQueuePackets, int maxQueueBytes,
+                                 int maxSessions, long sessionIdleMs) {
         this.msgQueues = new ConcurrentHashMap<String, SessionQueue>();
+        this.maxQueuePackets = maxQueuePackets;
+        this.maxQueueBytes = maxQueueBytes;
+        this.maxSessions = maxSessions;
+        this.sessionIdleMs = sessionIdleMs;
+    }
+
+    /**
+     * Get the queue of the session, creating it if it does not exist
+     * @return the queue or null if there are too many sessions
+     */
+    @LogMessageDoc(level="WARN",
+            message="Too many packet streamer sessions, ignoring " +
+                    "session {sessionId}",
+            explanation="The maximum number of packet streamer sessions " +
+                    "was reached",
+            recommendation="Terminate unused packet trace sessions")
+    protected SessionQueue getSessionQueue(String sessionid) {
+        SessionQueue pQueue = msgQueues.get(sessionid);
+        if (pQueue != null) return pQueue;
+        synchronized (msgQueues) {
+            pQueue = msgQueues.get(sessionid);
+            if (pQueue == null) {
+                if (msgQueues.size() >= maxSessions) {
+                    log.warn("Too many packet streamer sessions, ignoring " +
+                             "session {}", sessionid);
+                    return null;
+                }
+                pQueue = new SessionQueue();
+                msgQueues.put(sessionid, pQueue);
+            }
+        }
+        return pQueue;
     }
 
     /**
      * The implementation for getPackets() function.
-     * This is a blocking API.
+     * This is a blocking API that waits at most DEFAULT_MAX_WAIT_MS for
+     * packets and returns at most DEFAULT_MAX_BATCH packets.
      * 
      * @param sessionid
      * @return A list of packets associated with the session
      */
     @Override
-    @LogMessageDocs({
-        @LogMessageDoc(level="ERROR",
-                message="Interrupted while waiting for session start",
-                explanation="The thread was interrupted waiting " +
-                     "for the packet streamer session to start",
-                recommendation=LogMessageDoc.CHECK_CONTROLLER),
-        @LogMessageDoc(level="ERROR",
-                message="Interrupted while waiting for packets",
-                explanation="The thread was interrupted waiting " +
-                        "for packets",
-                recommendation=LogMessageDoc.CHECK_CONTROLLER)
-    })
     public List<ByteBuffer> getPackets(String sessionid)
             throws org.apache.thrift.TException {
+        return getPackets(sessionid, DEFAULT_MAX_BATCH, DEFAULT_MAX_WAIT_MS);
+    }
+
+    /**
+     * Long-poll for the packets of a session. Returns as soon as there is
+     * at least one packet, or the session was terminated, or maxWaitMs
+     * expired, whichever comes first.
+     * 
+     * @param sessionid
+     * @param maxBatch the maximum number of packets to return
+     * @param maxWaitMs the maximum time to wait for a packet
+     * @return A list of packets associated with the session, empty if
+     *         there were none or there is no such session
+     */
+    @LogMessageDoc(level="ERROR",
+            message="Interrupted while waiting for packets",
+            explanation="The thread was interrupted waiting " +
+                    "for packets",
+            recommendation=LogMessageDoc.CHECK_CONTROLLER)
+    public List<ByteBuffer> getPackets(String sessionid, int maxBatch,
+                                       long maxWaitMs) {
         List<ByteBuffer> packets = new ArrayList<ByteBuffer>();
-        int count = 0;
-        
-        while (!msgQueues.containsKey(sessionid) && count++ < 100) {
-            log.debug("Queue for session {} doesn't exist yet.", sessionid);
-            try {
-                Thread.sleep(100);    // Wait 100 ms to check again.
-            } catch (InterruptedException e) {
-                log.error("Interrupted while waiting for session start");
-            }
-        }
+        // Sessions are only created by pushes; polling an unknown or
+        // terminated session must not bring it back
+        SessionQueue pQueue = msgQueues.get(sessionid);
+        if (pQueue == null) return packets;
 
-        if (count < 100) {
-	        SessionQueue pQueue = msgQueues.get(sessionid);
-	        BlockingQueue<ByteBuffer> queue = pQueue.getQueue();
-	        // Block if queue is empty
-	        try {
-	            packets.add(queue.take());
-	            queue.drainTo(packets);
-	        } catch (InterruptedException e) {
-	            log.error("Interrupted while waiting for packets");
-	        }
+        try {
+            pQueue.poll(packets, maxBatch, maxWaitMs);
+        } catch (InterruptedException e) {
+            log.error("Interrupted while waiting for packets");
+            Thread.currentThread().interrupt();
         }
-
         return packets;
     }
 
@@ -134,18 +313,10 @@ public class PacketStreamerHandler implements PacketStreamer.Iface {
      * @throws TException
      */
     @Override
-    @LogMessageDocs({
-        @LogMessageDoc(level="ERROR",
+    @LogMessageDoc(level="ERROR",
                 message="Could not push empty message",
                 explanation="An empty message was sent to the packet streamer",
-                recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG),
-        @LogMessageDoc(level="ERROR",
-                message="queue for session {sessionId} is null",
-                explanation="The queue for the packet streamer session " +
-                		"is missing",
                 recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
-    })
-
     public int pushMessageSync(Message msg)
             throws org.apache.thrift.TException {
 
@@ -156,29 +327,14 @@ public class PacketStreamerHandler implements PacketStreamer.Iface {
 
         List<String> sessionids = msg.getSessionIDs();
         for (String sid : sessionids) {
-            SessionQueue pQueue = null;
-
-            if (!msgQueues.containsKey(sid)) {
-                pQueue = new SessionQueue();
-                msgQueues.put(sid, pQueue);
-            } else {
-                pQueue = msgQueues.get(sid);
-            }
+            SessionQueue pQueue = getSessionQueue(sid);
+            if (pQueue == null) continue;
 
-            log.debug("pushMessageSync: SessionId: " + sid + 
-                      " Receive a message, " + msg.toString() + "\n");
-            ByteBuffer bb = ByteBuffer.wrap(msg.getPacket().getData());
-            //ByteBuffer dst = ByteBuffer.wrap(msg.getPacket().toString().getBytes());
-            BlockingQueue<ByteBuffer> queue = pQueue.getQueue();
-            if (queue != null) {
-                if (!queue.offer(bb)) {
-                    log.error("Failed to queue message for session: " + sid);
-                } else {
-                    log.debug("insert a message to session: " + sid);
-                }
-            } else {
-                log.error("queue for session {} is null", sid);
+            if (log.isDebugEnabled()) {
+                log.debug("pushMessageSync: SessionId: " + sid + 
+                          " Receive a message, " + msg.toString() + "\n");
             }
+            pQueue.offer(ByteBuffer.wrap(msg.getPacket().getData()));
         }
 
         return 1;
@@ -206,24 +362,53 @@ public class PacketStreamerHandler implements PacketStreamer.Iface {
     @Override
     public void terminateSession(String sessionid)
             throws org.apache.thrift.TException {
-        if (!msgQueues.containsKey(sessionid)) {
+        SessionQueue pQueue = msgQueues.remove(sessionid);
+        if (pQueue == null) {
             return;
         }
 
-        SessionQueue pQueue = msgQueues.get(sessionid);
-
         log.debug("terminateSession: SessionId: " + sessionid + "\n");
-        String data = "FilterTimeout";
-        ByteBuffer bb = ByteBuffer.wrap(data.getBytes());
-        BlockingQueue<ByteBuffer> queue = pQueue.getQueue();
-        if (queue != null) {
-            if (!queue.offer(bb)) {
-                log.error("Failed to queue message for session: " + sessionid);
+        pQueue.offer(ByteBuffer.wrap(FILTER_TIMEOUT.getBytes()));
+        pQueue.terminate();
+    }
+
+    /**
+     * Remove the sessions that no client polled for sessionIdleMs
+     * @return the number of sessions removed
+     */
+    @LogMessageDoc(level="INFO",
+            message="Reaped idle packet streamer session {sessionId}, " +
+                    "{count} packets discarded",
+            explanation="No client retrieved the packets of a packet " +
+                    "trace session for a while",
+            recommendation=LogMessageDoc.NO_ACTION)
+    public int reapIdleSessions() {
+        long since = System.nanoTime() - 
+                TimeUnit.MILLISECONDS.toNanos(sessionIdleMs);
+        int reaped = 0;
+        Iterator<Map.Entry<String, SessionQueue>> it = 
+                msgQueues.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, SessionQueue> e = it.next();
+            if (e.getValue().isIdle(since)) {
+                it.remove();
+                e.getValue().terminate();
+                log.info("Reaped idle packet streamer session {}, " +
+                         "{} packets discarded", e.getKey(), 
+                         e.getValue().size());
+                reaped++;
             }
-            msgQueues.remove(sessionid);
-        } else {
-            log.error("queue for session {} is null", sessionid);
         }
+        return reaped;
     }
-}
 
+    /**
+     * @return the number of packets dropped for the session because its
+     * queue was full, or 0 if there is no such session
+     */
+    public long getDropped(String sessionid) {
+        SessionQueue pQueue = msgQueues.get(sessionid);
+        if (pQueue == null) return 0;
+        return pQueue.getDropped();
+    }
+}
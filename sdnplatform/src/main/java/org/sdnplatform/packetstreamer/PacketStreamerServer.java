@@ -16,6 +16,11 @@
 
 package org.sdnplatform.packetstreamer;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.server.TServer;
 import org.apache.thrift.server.THsHaServer;
@@ -38,6 +43,9 @@ import org.sdnplatform.packetstreamer.thrift.*;
 public class PacketStreamerServer {
     protected static Logger log = LoggerFactory.getLogger(PacketStreamerServer.class);
     protected static int port = 9090;
+    // getPackets long-polls, so every waiting client holds a worker
+    protected static int workerThreads = 16;
+    protected static final long REAP_INTERVAL_MS = 10000;
     protected static PacketStreamerHandler handler;
     protected static PacketStreamer.Processor<PacketStreamerHandler> processor;
 
@@ -50,7 +58,19 @@ public class PacketStreamerServer {
         try {
             port = Integer.parseInt(System.getProperty("org.sdnplatform.packetstreamer.port", "9090"));
             
-            handler = new PacketStreamerHandler();
+            workerThreads = Integer.parseInt(System.getProperty("org.sdnplatform.packetstreamer.workers", "16"));
+            int queuePackets = Integer.parseInt(System.getProperty(
+                    "org.sdnplatform.packetstreamer.queuesize", 
+                    Integer.toString(PacketStreamerHandler.DEFAULT_MAX_QUEUE_PACKETS)));
+            int queueBytes = Integer.parseInt(System.getProperty(
+                    "org.sdnplatform.packetstreamer.queuebytes", 
+                    Integer.toString(PacketStreamerHandler.DEFAULT_MAX_QUEUE_BYTES)));
+            long idleMs = Long.parseLong(System.getProperty(
+                    "org.sdnplatform.packetstreamer.sessionidlems", 
+                    Long.toString(PacketStreamerHandler.DEFAULT_SESSION_IDLE_MS)));
+            
+            handler = new PacketStreamerHandler(queuePackets, queueBytes,
+                    PacketStreamerHandler.DEFAULT_MAX_SESSIONS, idleMs);
             processor = new PacketStreamer.Processor<PacketStreamerHandler>(handler);
 
             Runnable simple = new Runnable() {
@@ -60,6 +80,20 @@ public class PacketStreamerServer {
             };
 
             new Thread(simple).start();
+
+            ScheduledExecutorService reaper = 
+                    Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "PacketStreamerReaper");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            reaper.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    handler.reapIdleSessions();
+                }
+            }, REAP_INTERVAL_MS, REAP_INTERVAL_MS, TimeUnit.MILLISECONDS);
         } catch (Exception x) {
             x.printStackTrace();
         }
@@ -75,6 +109,7 @@ public class PacketStreamerServer {
             TNonblockingServerTransport serverTransport = new TNonblockingServerSocket(port);
             THsHaServer.Args args = new THsHaServer.Args(serverTransport);
             args.processor(processor);
+            args.workerThreads(workerThreads);
             args.transportFactory(new TFramedTransport.Factory());
             args.protocolFactory(new TBinaryProtocol.Factory(true, true));
             TServer server = new THsHaServer(args);
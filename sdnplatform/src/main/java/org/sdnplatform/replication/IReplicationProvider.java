@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.replication;
+
+import java.io.DataInput;
+import java.io.IOException;
+
+/**
+ * Provides the state of one replication domain (e.g., the devices of the
+ * device manager). On the master the provider produces records, on the
+ * standby it applies them. Records are opaque to the replication service;
+ * every record must be self-contained so that applying the latest record
+ * for a key converges the standby to the state of the master.
+ */
+public interface IReplicationProvider {
+    /**
+     * @return the name of the replication domain
+     */
+    public String getReplicationDomain();
+
+    /**
+     * Write records for the complete state of the domain. Called on the
+     * master when a standby connects and periodically afterwards.
+     * @param sink the sink to write the records to
+     */
+    public void writeSnapshot(IReplicationSink sink);
+
+    /**
+     * Write records for the state that changed since the last call and
+     * forget about the changes. Called periodically on the master.
+     * @param sink the sink to write the records to
+     */
+    public void writeChanges(IReplicationSink sink);
+
+    /**
+     * Drop the replicated state. Called on the standby when a new snapshot
+     * starts.
+     */
+    public void clearReplicatedState();
+
+    /**
+     * Apply a record written by the master
+     * @param in the record
+     * @throws IOException if the record is malformed
+     */
+    public void applyRecord(DataInput in) throws IOException;
+}
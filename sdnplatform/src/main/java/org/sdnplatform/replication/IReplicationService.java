@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.replication;
+
+import org.sdnplatform.core.module.IPlatformService;
+
+/**
+ * Replicates in-memory state from the master controller to standby
+ * controllers so that a standby that is promoted to master starts with
+ * warm state. Modules register an {@link IReplicationProvider} for their
+ * state and record the keys that changed; the service takes care of
+ * the connections to the standby controllers, of streaming the changes
+ * and of sending periodic snapshots.
+ * <p>
+ * If a state file is configured the snapshots are also saved locally and
+ * the state saved by the previous run of the controller is restored to a
+ * provider when it is registered.
+ */
+public interface IReplicationService extends IPlatformService {
+    /**
+     * Register a replication provider. A provider registered for a
+     * domain that already has a provider replaces it.
+     * @param provider the provider
+     */
+    public void addReplicationProvider(IReplicationProvider provider);
+
+    /**
+     * Register a provider whose state is only saved to and restored from
+     * the local state file and is not replicated to the standby
+     * controllers, e.g., because every controller discovers it by itself.
+     * Only {@link IReplicationProvider#writeSnapshot(IReplicationSink)}
+     * and {@link IReplicationProvider#applyRecord(java.io.DataInput)} are
+     * called on such a provider.
+     * @param provider the provider
+     */
+    public void addSnapshotProvider(IReplicationProvider provider);
+
+    /**
+     * Check whether changes are currently being replicated, i.e., this
+     * controller is the master and at least one standby is connected.
+     * Providers should only record changed keys while this returns true.
+     * @return true if changes are being replicated
+     */
+    public boolean isReplicating();
+}
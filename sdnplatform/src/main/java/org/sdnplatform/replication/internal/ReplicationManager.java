@@ -0,0 +1,1129 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.replication.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.frame.LengthFieldBasedFrameDecoder;
+import org.sdnplatform.core.IControllerService;
+import org.sdnplatform.core.IHAListener;
+import org.sdnplatform.core.IControllerService.Role;
+import org.sdnplatform.core.annotations.LogMessageDoc;
+import org.sdnplatform.core.annotations.LogMessageDocs;
+import org.sdnplatform.core.module.IModule;
+import org.sdnplatform.core.module.IPlatformService;
+import org.sdnplatform.core.module.ModuleContext;
+import org.sdnplatform.core.module.ModuleException;
+import org.sdnplatform.core.util.SingletonTask;
+import org.sdnplatform.replication.IReplicationProvider;
+import org.sdnplatform.replication.IReplicationService;
+import org.sdnplatform.replication.IReplicationSink;
+import org.sdnplatform.threadpool.IThreadPoolService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replicates the state of the registered providers from the master to the
+ * standby controllers over TCP.
+ * <p>
+ * The master connects to every configured peer. When a connection comes up
+ * it sends a snapshot of every replication domain and from then on streams
+ * the records for the keys that changed, coalesced over a short flush
+ * interval. A fresh snapshot is sent periodically, and to any peer that
+ * could not keep up with the change stream, so a standby converges even if
+ * individual changes were dropped. A standby accepts connections on the
+ * listen port and applies the records to the providers.
+ * <p>
+ * A standby listens on the configured listen address only and accepts
+ * connections from the configured peers only. If a shared secret is
+ * configured, the first frame from the master must carry it, otherwise
+ * the connection is closed before any state is applied.
+ * <p>
+ * Every message is a frame with a 4 byte length, a 1 byte frame type, the
+ * replication domain (2 byte length and UTF-8 bytes) and, for records,
+ * the record written by the provider. Snapshots are written in chunks of
+ * several frames on a thread of their own, and the next chunk is only
+ * written once the previous one was sent, so a large snapshot does not
+ * pile up in memory. The changes for a peer that is receiving a snapshot
+ * are queued and sent after the snapshot.
+ * <p>
+ * If a state file is configured, a snapshot of every provider is also
+ * periodically written to that file on every controller. The file is read
+ * when the module is initialized and the saved records of a domain are
+ * applied to its provider when the provider is registered, so the
+ * controller restarts with provisional state. The providers' usual aging
+ * revalidates that state against the live network.
+ * The file has a 4 byte magic number, a 2 byte version, the 8 byte save
+ * time and the number of domains, followed by each domain's name, the
+ * number of records and the records, each prefixed with a 4 byte length.
+ */
+public class ReplicationManager
+    implements IModule, IReplicationService, IHAListener {
+    protected static Logger logger =
+            LoggerFactory.getLogger(ReplicationManager.class);
+
+    protected static final byte SNAPSHOT_BEGIN = 1;
+    protected static final byte RECORD = 2;
+    protected static final byte SNAPSHOT_END = 3;
+    protected static final byte AUTH = 4;
+
+    protected static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+    protected static final int SNAPSHOT_CHUNK_SIZE = 64 * 1024;
+    protected static final int STATE_FILE_MAGIC = 0x53444e53;
+    protected static final short STATE_FILE_VERSION = 1;
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Time between two connection attempts to a peer
+     */
+    protected static final long RECONNECT_INTERVAL_MS = 5000;
+
+    /**
+     * How long a snapshot waits for a chunk to be sent before the
+     * connection is given up on
+     */
+    protected static final long SNAPSHOT_WRITE_TIMEOUT_MS = 10000;
+
+    /**
+     * Changes queued for a peer while it receives a snapshot. If more
+     * changes pile up, they are dropped and the peer gets a new snapshot.
+     */
+    protected static final int MAX_QUEUED_CHANGES_SIZE = 4 * 1024 * 1024;
+
+    protected IControllerService controllerProvider;
+    protected IThreadPoolService threadPool;
+
+    protected Map<String, IReplicationProvider> providers =
+            new ConcurrentHashMap<String, IReplicationProvider>();
+    /**
+     * Providers that are only saved to the state file
+     */
+    protected Map<String, IReplicationProvider> snapshotProviders =
+            new ConcurrentHashMap<String, IReplicationProvider>();
+    /**
+     * The records of each domain read from the state file that were not
+     * applied yet because the domain's provider is not registered
+     */
+    protected Map<String, ChannelBuffer> restoredState =
+            new ConcurrentHashMap<String, ChannelBuffer>();
+
+    /**
+     * Port on which standby state is received, 0 to not accept connections
+     */
+    protected int listenPort = 0;
+    /**
+     * Local address on which standby state is received
+     */
+    protected String listenAddress;
+    /**
+     * Secret the master has to present, null to accept any configured peer
+     */
+    protected byte[] secret;
+    protected int flushIntervalMs = 100;
+    protected long snapshotIntervalMs = 300 * 1000;
+    /**
+     * Path of the state file, null to not save state locally
+     */
+    protected String stateFile;
+    protected long stateFileIntervalMs = 60 * 1000;
+
+    protected volatile Role role;
+    protected List<Peer> peers = new CopyOnWriteArrayList<Peer>();
+    protected long lastSnapshotTime;
+    protected SingletonTask replicationTask;
+    protected SingletonTask stateFileTask;
+    /**
+     * Writes the snapshots, which may wait for slow standby controllers
+     */
+    protected ExecutorService snapshotExecutor;
+
+    protected ServerBootstrap serverBootstrap;
+    protected ClientBootstrap clientBootstrap;
+    protected ChannelGroup allChannels =
+            new DefaultChannelGroup("replication");
+
+    /**
+     * A standby controller the master replicates to
+     */
+    protected class Peer {
+        protected final InetSocketAddress address;
+        protected volatile Channel channel;
+        protected volatile boolean connecting;
+        protected volatile boolean needsSnapshot;
+        protected long lastConnectAttempt;
+        /**
+         * Change frames to send after the snapshot being written, null if
+         * no snapshot is being written
+         */
+        protected List<ChannelBuffer> queuedChanges;
+        protected int queuedChangesSize;
+
+        protected Peer(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        protected synchronized boolean isSnapshotting() {
+            return queuedChanges != null;
+        }
+
+        protected synchronized void startSnapshot() {
+            queuedChanges = new ArrayList<ChannelBuffer>();
+            queuedChangesSize = 0;
+        }
+
+        /**
+         * Send the changes queued during the snapshot
+         * @param c the channel the snapshot was written to
+         * @param sent false if the snapshot could not be sent
+         */
+        protected synchronized void endSnapshot(Channel c, boolean sent) {
+            if (sent && queuedChangesSize <= MAX_QUEUED_CHANGES_SIZE) {
+                for (ChannelBuffer frame : queuedChanges) {
+                    c.write(frame);
+                }
+            }
+            queuedChanges = null;
+        }
+
+        /**
+         * Send a change frame, or queue it if a snapshot is being written
+         */
+        protected synchronized void writeChange(Channel c,
+                                                ChannelBuffer frame) {
+            if (queuedChanges == null) {
+                c.write(frame);
+                return;
+            }
+            if (queuedChangesSize > MAX_QUEUED_CHANGES_SIZE) return;
+            queuedChangesSize += frame.readableBytes();
+            if (queuedChangesSize > MAX_QUEUED_CHANGES_SIZE) {
+                queuedChanges.clear();
+                needsSnapshot = true;
+            } else {
+                queuedChanges.add(frame);
+            }
+        }
+
+        protected boolean isConnected() {
+            Channel c = channel;
+            return c != null && c.isConnected();
+        }
+    }
+
+    /**
+     * Writes the records of a domain as change frames to a set of peers
+     */
+    protected class ChannelSink implements IReplicationSink {
+        protected final String domain;
+        protected final Map<Peer, Channel> targets;
+        protected int records;
+
+        protected ChannelSink(String domain, Map<Peer, Channel> targets) {
+            this.domain = domain;
+            this.targets = targets;
+        }
+
+        @Override
+        public void write(byte[] record) {
+            records++;
+            if (targets.isEmpty()) return;
+            ChannelBuffer frame = encodeFrame(RECORD, domain, record);
+            for (Map.Entry<Peer, Channel> e : targets.entrySet()) {
+                e.getKey().writeChange(e.getValue(), frame.duplicate());
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot to a channel in chunks of frames. Waits for the
+     * previous chunk to be sent before writing the next one, so at most
+     * one chunk is buffered per channel. If a chunk is not sent in time
+     * the channel is closed and the rest of the snapshot is dropped; the
+     * standby gets a new snapshot when the master reconnects.
+     */
+    protected class SnapshotSink implements IReplicationSink {
+        protected final Channel channel;
+        protected String domain;
+        protected int records;
+        protected ChannelBuffer chunk =
+                ChannelBuffers.dynamicBuffer(SNAPSHOT_CHUNK_SIZE);
+        protected ChannelFuture lastWrite;
+        protected boolean failed;
+
+        protected SnapshotSink(Channel channel) {
+            this.channel = channel;
+        }
+
+        protected void writeFrame(byte type, byte[] record) {
+            if (failed) return;
+            ReplicationManager.writeFrame(chunk, type, domain, record);
+            if (chunk.readableBytes() >= SNAPSHOT_CHUNK_SIZE)
+                flush();
+        }
+
+        @Override
+        public void write(byte[] record) {
+            records++;
+            writeFrame(RECORD, record);
+        }
+
+        @LogMessageDoc(level="WARN",
+                message="Timed out sending snapshot to {remote}",
+                explanation="A standby controller did not receive the " +
+                        "snapshot in time, the connection is closed and " +
+                        "the snapshot is resent when the master reconnects",
+                recommendation=LogMessageDoc.CHECK_CONTROLLER)
+        protected void flush() {
+            if (failed || !chunk.readable()) return;
+            if (lastWrite != null &&
+                !lastWrite.awaitUninterruptibly(SNAPSHOT_WRITE_TIMEOUT_MS)) {
+                logger.warn("Timed out sending snapshot to {}",
+                            channel.getRemoteAddress());
+                failed = true;
+                channel.close();
+                return;
+            }
+            lastWrite = channel.write(chunk);
+            chunk = ChannelBuffers.dynamicBuffer(SNAPSHOT_CHUNK_SIZE);
+        }
+    }
+
+    /**
+     * Writes the records of a domain to the state file buffer
+     */
+    protected static class FileSink implements IReplicationSink {
+        protected final ChannelBuffer buf;
+        protected int records;
+
+        protected FileSink(ChannelBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public void write(byte[] record) {
+            records++;
+            buf.writeInt(record.length);
+            buf.writeBytes(record);
+        }
+    }
+
+    // *******************
+    // IReplicationService
+    // *******************
+
+    @Override
+    public void addReplicationProvider(IReplicationProvider provider) {
+        providers.put(provider.getReplicationDomain(), provider);
+        applyRestoredState(provider);
+    }
+
+    @Override
+    public void addSnapshotProvider(IReplicationProvider provider) {
+        snapshotProviders.put(provider.getReplicationDomain(), provider);
+        applyRestoredState(provider);
+    }
+
+    @Override
+    public boolean isReplicating() {
+        if (role != Role.MASTER) return false;
+        for (Peer p : peers) {
+            if (p.isConnected()) return true;
+        }
+        return false;
+    }
+
+    // *************
+    // IHAListener
+    // *************
+
+    @Override
+    public void roleChanged(Role oldRole, Role newRole) {
+        role = newRole;
+        if (newRole == Role.MASTER) {
+            logger.info("Replicating state to {} standby controllers",
+                        peers.size());
+            for (Peer p : peers) {
+                p.needsSnapshot = true;
+            }
+            lastSnapshotTime = System.currentTimeMillis();
+            if (replicationTask != null)
+                replicationTask.reschedule(0, TimeUnit.MILLISECONDS);
+        } else {
+            for (Peer p : peers) {
+                Channel c = p.channel;
+                if (c != null) c.close();
+                p.channel = null;
+            }
+        }
+    }
+
+    @Override
+    public void controllerNodeIPsChanged(
+            Map<String, String> curControllerNodeIPs,
+            Map<String, String> addedControllerNodeIPs,
+            Map<String, String> removedControllerNodeIPs) {
+        // no-op
+    }
+
+    // ****************
+    // Internal methods
+    // ****************
+
+    /**
+     * Append a frame, including its length, to a buffer
+     */
+    protected static void writeFrame(ChannelBuffer buf, byte type,
+                                     String domain, byte[] record) {
+        byte[] d = domain.getBytes(UTF8);
+        buf.writeInt(1 + 2 + d.length +
+                     (record == null ? 0 : record.length));
+        buf.writeByte(type);
+        buf.writeShort(d.length);
+        buf.writeBytes(d);
+        if (record != null)
+            buf.writeBytes(record);
+    }
+
+    protected static ChannelBuffer encodeFrame(byte type, String domain,
+                                               byte[] record) {
+        byte[] d = domain.getBytes(UTF8);
+        int len = 4 + 1 + 2 + d.length + (record == null ? 0 : record.length);
+        ChannelBuffer frame = ChannelBuffers.buffer(len);
+        writeFrame(frame, type, domain, record);
+        return frame;
+    }
+
+    /**
+     * Connect, snapshot and flush the changes to the peers. Runs
+     * periodically on the master.
+     */
+    protected void replicate() {
+        if (role != Role.MASTER) return;
+
+        long now = System.currentTimeMillis();
+        boolean periodic = (now - lastSnapshotTime >= snapshotIntervalMs);
+        if (periodic) lastSnapshotTime = now;
+
+        Map<Peer, Channel> changeTargets = new HashMap<Peer, Channel>();
+        for (Peer p : peers) {
+            Channel c = p.channel;
+            if (c == null || !c.isConnected()) {
+                connect(p, now);
+                continue;
+            }
+            if (p.isSnapshotting()) {
+                // the changes are queued until the snapshot is sent
+                changeTargets.put(p, c);
+                continue;
+            }
+            if (!c.isWritable()) {
+                // the standby is not keeping up. Stop streaming changes
+                // to it and resync with a snapshot once it drained
+                p.needsSnapshot = true;
+                continue;
+            }
+            if (p.needsSnapshot || periodic) {
+                p.needsSnapshot = false;
+                sendSnapshot(p, c);
+            }
+            // Records carry the full state of a key, so changes that are
+            // also in the snapshot can safely be applied again after it
+            changeTargets.put(p, c);
+        }
+
+        // Always collect the changes so they don't pile up while no
+        // peer is ready for them; a peer that missed them gets a snapshot
+        for (IReplicationProvider provider : providers.values()) {
+            ChannelSink sink =
+                    new ChannelSink(provider.getReplicationDomain(),
+                                    changeTargets);
+            provider.writeChanges(sink);
+            if (sink.records > 0 && logger.isTraceEnabled()) {
+                logger.trace("Replicated {} changes for {}",
+                             sink.records, sink.domain);
+            }
+        }
+    }
+
+    /**
+     * Send a snapshot to a peer on the snapshot thread. The changes for
+     * the peer are queued until the snapshot is sent.
+     */
+    @LogMessageDoc(level="ERROR",
+            message="Exception sending snapshot to {remote}",
+            explanation="Could not send a snapshot to a standby " +
+                    "controller, the connection is closed",
+            recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
+    protected void sendSnapshot(final Peer p, final Channel c) {
+        p.startSnapshot();
+        snapshotExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean sent = false;
+                try {
+                    sent = writeSnapshot(c);
+                } catch (Exception e) {
+                    logger.error("Exception sending snapshot to " +
+                                 c.getRemoteAddress(), e);
+                    c.close();
+                } finally {
+                    p.endSnapshot(c, sent);
+                }
+            }
+        });
+    }
+
+    /**
+     * Write a snapshot of every provider to a channel
+     * @return true if the snapshot was written
+     */
+    protected boolean writeSnapshot(Channel c) {
+        SnapshotSink sink = new SnapshotSink(c);
+        for (IReplicationProvider provider : providers.values()) {
+            sink.domain = provider.getReplicationDomain();
+            sink.records = 0;
+            sink.writeFrame(SNAPSHOT_BEGIN, null);
+            provider.writeSnapshot(sink);
+            sink.writeFrame(SNAPSHOT_END, null);
+            if (sink.failed) return false;
+            if (logger.isDebugEnabled()) {
+                logger.debug("Sent snapshot of {} with {} records to {}",
+                             new Object[] {sink.domain, sink.records,
+                                           c.getRemoteAddress()});
+            }
+        }
+        sink.flush();
+        return !sink.failed;
+    }
+
+    protected void connect(final Peer p, long now) {
+        if (p.connecting ||
+            now - p.lastConnectAttempt < RECONNECT_INTERVAL_MS)
+            return;
+        p.connecting = true;
+        p.lastConnectAttempt = now;
+        ChannelFuture f = clientBootstrap.connect(p.address);
+        f.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) {
+                p.connecting = false;
+                if (future.isSuccess()) {
+                    logger.info("Connected to standby controller {}",
+                                p.address);
+                    p.needsSnapshot = true;
+                    if (secret != null) {
+                        future.getChannel().write(
+                                encodeFrame(AUTH, "", secret));
+                    }
+                    p.channel = future.getChannel();
+                    allChannels.add(p.channel);
+                    replicationTask.reschedule(0, TimeUnit.MILLISECONDS);
+                } else if (logger.isDebugEnabled()) {
+                    logger.debug("Could not connect to standby controller "
+                                 + "{}: {}", p.address, future.getCause());
+                }
+            }
+        });
+    }
+
+    /**
+     * Apply a frame received from the master
+     * @throws IOException if the frame is malformed
+     */
+    @LogMessageDoc(level="WARN",
+            message="Ignoring replicated state while master",
+            explanation="Another controller replicates its state to this " +
+                    "controller although this controller is the master",
+            recommendation=LogMessageDoc.CHECK_CONTROLLER)
+    protected void applyFrame(Channel c, ChannelBuffer frame)
+            throws IOException {
+        if (role == Role.MASTER) {
+            logger.warn("Ignoring replicated state while master");
+            c.close();
+            return;
+        }
+        byte type = frame.readByte();
+        byte[] d = new byte[frame.readUnsignedShort()];
+        frame.readBytes(d);
+        String domain = new String(d, UTF8);
+
+        IReplicationProvider provider = providers.get(domain);
+        if (provider == null) {
+            if (logger.isTraceEnabled()) {
+                logger.trace("No replication provider for {}", domain);
+            }
+            return;
+        }
+        switch (type) {
+            case SNAPSHOT_BEGIN:
+                logger.debug("Receiving snapshot of {}", domain);
+                provider.clearReplicatedState();
+                break;
+            case RECORD:
+                provider.applyRecord(new ChannelBufferInputStream(frame));
+                break;
+            case SNAPSHOT_END:
+                logger.debug("Received snapshot of {}", domain);
+                break;
+            default:
+                throw new IOException("Unknown frame type " + type);
+        }
+    }
+
+    /**
+     * Check whether a connection comes from one of the configured peers
+     */
+    protected boolean isPeer(SocketAddress remote) {
+        if (!(remote instanceof InetSocketAddress)) return false;
+        InetAddress addr = ((InetSocketAddress)remote).getAddress();
+        for (Peer p : peers) {
+            if (addr != null && addr.equals(p.address.getAddress()))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Check the secret presented by the master
+     * @return true if the frame is an authentication frame with the
+     * configured secret
+     */
+    protected boolean authenticate(ChannelBuffer frame) {
+        if (frame.readByte() != AUTH) return false;
+        frame.skipBytes(frame.readUnsignedShort());
+        byte[] presented = new byte[frame.readableBytes()];
+        frame.readBytes(presented);
+        return MessageDigest.isEqual(secret, presented);
+    }
+
+    /**
+     * Handles the connections from the master on a standby
+     */
+    protected class StandbyHandler extends SimpleChannelUpstreamHandler {
+        protected volatile boolean accepted;
+        protected volatile boolean authenticated;
+
+        @Override
+        public void channelOpen(ChannelHandlerContext ctx,
+                                ChannelStateEvent e) {
+            allChannels.add(e.getChannel());
+        }
+
+        @Override
+        @LogMessageDoc(level="WARN",
+                message="Rejecting replication connection from {remote}, " +
+                        "not a configured peer",
+                explanation="A host that is not a configured replication " +
+                        "peer connected to the replication port",
+                recommendation=LogMessageDoc.CHECK_CONTROLLER)
+        public void channelConnected(ChannelHandlerContext ctx,
+                                     ChannelStateEvent e) {
+            SocketAddress remote = e.getChannel().getRemoteAddress();
+            if (!isPeer(remote)) {
+                logger.warn("Rejecting replication connection from {}, " +
+                            "not a configured peer", remote);
+                e.getChannel().close();
+                return;
+            }
+            accepted = true;
+            authenticated = (secret == null);
+            logger.info("Master controller {} connected", remote);
+        }
+
+        @Override
+        @LogMessageDoc(level="WARN",
+                message="Rejecting replication connection from {remote}, " +
+                        "authentication failed",
+                explanation="A replication peer did not present the " +
+                        "configured secret",
+                recommendation=LogMessageDoc.CHECK_CONTROLLER)
+        public void messageReceived(ChannelHandlerContext ctx,
+                                    MessageEvent e) throws Exception {
+            if (!accepted) return;
+            ChannelBuffer frame = (ChannelBuffer)e.getMessage();
+            if (!authenticated) {
+                if (!authenticate(frame)) {
+                    logger.warn("Rejecting replication connection from {}, " +
+                                "authentication failed",
+                                e.getChannel().getRemoteAddress());
+                    accepted = false;
+                    e.getChannel().close();
+                    return;
+                }
+                authenticated = true;
+                return;
+            }
+            applyFrame(e.getChannel(), frame);
+        }
+
+        @Override
+        @LogMessageDoc(level="WARN",
+                message="Error on replication channel {remote}: {exception}",
+                explanation="Could not receive or apply replicated state, " +
+                        "the connection is closed and the master resends " +
+                        "a snapshot when it reconnects",
+                recommendation=LogMessageDoc.CHECK_CONTROLLER)
+        public void exceptionCaught(ChannelHandlerContext ctx,
+                                    ExceptionEvent e) {
+            logger.warn("Error on replication channel {}: {}",
+                        e.getChannel().getRemoteAddress(), e.getCause());
+            e.getChannel().close();
+        }
+    }
+
+    /**
+     * Handles the connections to the standbys on the master
+     */
+    protected class MasterHandler extends SimpleChannelUpstreamHandler {
+        @Override
+        public void channelClosed(ChannelHandlerContext ctx,
+                                  ChannelStateEvent e) {
+            logger.info("Replication channel to {} closed",
+                        e.getChannel().getRemoteAddress());
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx,
+                                    ExceptionEvent e) {
+            logger.warn("Error on replication channel {}: {}",
+                        e.getChannel().getRemoteAddress(), e.getCause());
+            e.getChannel().close();
+        }
+    }
+
+    protected void setupNetty() {
+        clientBootstrap = new ClientBootstrap(
+                new NioClientSocketChannelFactory(
+                        Executors.newCachedThreadPool(),
+                        Executors.newCachedThreadPool()));
+        clientBootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() throws Exception {
+                // frames are written with their length
+                ChannelPipeline pipeline = Channels.pipeline();
+                pipeline.addLast("handler", new MasterHandler());
+                return pipeline;
+            }
+        });
+        clientBootstrap.setOption("tcpNoDelay", true);
+        clientBootstrap.setOption("keepAlive", true);
+
+        if (listenPort <= 0) return;
+        serverBootstrap = new ServerBootstrap(
+                new NioServerSocketChannelFactory(
+                        Executors.newCachedThreadPool(),
+                        Executors.newCachedThreadPool()));
+        serverBootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() throws Exception {
+                ChannelPipeline pipeline = Channels.pipeline();
+                pipeline.addLast("framer",
+                        new LengthFieldBasedFrameDecoder(MAX_FRAME_SIZE,
+                                                         0, 4, 0, 4));
+                pipeline.addLast("handler", new StandbyHandler());
+                return pipeline;
+            }
+        });
+        serverBootstrap.setOption("reuseAddress", true);
+        serverBootstrap.setOption("child.tcpNoDelay", true);
+        serverBootstrap.setOption("child.keepAlive", true);
+        allChannels.add(serverBootstrap.bind(
+                new InetSocketAddress(listenAddress, listenPort)));
+    }
+
+    // **********
+    // State file
+    // **********
+
+    protected static void writeDomain(ChannelBuffer buf, String domain) {
+        byte[] d = domain.getBytes(UTF8);
+        buf.writeShort(d.length);
+        buf.writeBytes(d);
+    }
+
+    protected static String readDomain(ChannelBuffer buf) {
+        byte[] d = new byte[buf.readUnsignedShort()];
+        buf.readBytes(d);
+        return new String(d, UTF8);
+    }
+
+    /**
+     * Write a snapshot of every provider to the state file. The snapshot
+     * is written to a temporary file that then replaces the state file,
+     * so a crash while saving leaves the previous state file intact.
+     * @throws IOException if the file could not be written
+     */
+    protected void writeStateFile() throws IOException {
+        List<IReplicationProvider> all =
+                new ArrayList<IReplicationProvider>(providers.values());
+        all.addAll(snapshotProviders.values());
+
+        ChannelBuffer buf = ChannelBuffers.dynamicBuffer(64 * 1024);
+        buf.writeInt(STATE_FILE_MAGIC);
+        buf.writeShort(STATE_FILE_VERSION);
+        buf.writeLong(System.currentTimeMillis());
+        buf.writeInt(all.size());
+        for (IReplicationProvider provider : all) {
+            writeDomain(buf, provider.getReplicationDomain());
+            int countIndex = buf.writerIndex();
+            buf.writeInt(0);
+            FileSink sink = new FileSink(buf);
+            provider.writeSnapshot(sink);
+            buf.setInt(countIndex, sink.records);
+        }
+
+        File f = new File(stateFile);
+        File tmp = new File(stateFile + ".tmp");
+        RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+        try {
+            raf.setLength(buf.readableBytes());
+            MappedByteBuffer out = raf.getChannel().map(MapMode.READ_WRITE,
+                                                        0, buf.readableBytes());
+            buf.getBytes(buf.readerIndex(), out);
+            out.force();
+        } finally {
+            raf.close();
+        }
+        if (!tmp.renameTo(f)) {
+            throw new IOException("Could not rename " + tmp + " to " + f);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Saved {} bytes of state to {}",
+                         buf.readableBytes(), stateFile);
+        }
+    }
+
+    /**
+     * Map the state file and split it into the records of each domain
+     * @return the records of each domain
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    protected static Map<String, ChannelBuffer> readStateFile(File f)
+            throws IOException {
+        Map<String, ChannelBuffer> state =
+                new HashMap<String, ChannelBuffer>();
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        ChannelBuffer buf;
+        try {
+            // the mapping stays valid after the file is closed
+            buf = ChannelBuffers.wrappedBuffer(
+                    raf.getChannel().map(MapMode.READ_ONLY, 0, raf.length()));
+        } finally {
+            raf.close();
+        }
+
+        try {
+            if (buf.readInt() != STATE_FILE_MAGIC)
+                throw new IOException("Not a state file");
+            short version = buf.readShort();
+            if (version != STATE_FILE_VERSION)
+                throw new IOException("Unsupported state file version " +
+                                      version);
+            buf.readLong();
+            int domains = buf.readInt();
+            for (int i = 0; i < domains; i++) {
+                String domain = readDomain(buf);
+                int records = buf.readInt();
+                int start = buf.readerIndex();
+                for (int r = 0; r < records; r++) {
+                    buf.skipBytes(buf.readInt());
+                }
+                state.put(domain, buf.slice(start, buf.readerIndex() - start));
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Truncated state file");
+        }
+        return state;
+    }
+
+    @LogMessageDoc(level="WARN",
+            message="Could not read state file {file}: {exception}",
+            explanation="The state saved by the previous run of the " +
+                    "controller could not be read, the controller starts " +
+                    "without it",
+            recommendation=LogMessageDoc.NO_ACTION)
+    protected void loadStateFile() {
+        File f = new File(stateFile);
+        if (!f.exists()) return;
+        try {
+            restoredState.putAll(readStateFile(f));
+            logger.info("Read state of {} domains from {}",
+                        restoredState.size(), stateFile);
+        } catch (IOException e) {
+            logger.warn("Could not read state file {}: {}", stateFile, e);
+        }
+    }
+
+    /**
+     * Apply the records restored from the state file to the provider
+     */
+    @LogMessageDoc(level="WARN",
+            message="Could not restore {domain} from the state file: " +
+                    "{exception}",
+            explanation="The saved state of a module could not be applied, " +
+                    "the module starts with partial state",
+            recommendation=LogMessageDoc.NO_ACTION)
+    protected void applyRestoredState(IReplicationProvider provider) {
+        String domain = provider.getReplicationDomain();
+        ChannelBuffer records = restoredState.remove(domain);
+        if (records == null) return;
+        int count = 0;
+        try {
+            while (records.readable()) {
+                ChannelBuffer record = records.readSlice(records.readInt());
+                provider.applyRecord(new ChannelBufferInputStream(record));
+                count++;
+            }
+        } catch (Exception e) {
+            logger.warn("Could not restore {} from the state file: {}",
+                        domain, e);
+        }
+        logger.info("Restored {} records of {} from the state file",
+                    count, domain);
+    }
+
+    /**
+     * Close all replication connections and release the network resources
+     */
+    protected void stop() {
+        role = null;
+        stateFileTask = null;
+        if (snapshotExecutor != null)
+            snapshotExecutor.shutdownNow();
+        allChannels.close().awaitUninterruptibly();
+        if (clientBootstrap != null)
+            clientBootstrap.releaseExternalResources();
+        if (serverBootstrap != null)
+            serverBootstrap.releaseExternalResources();
+    }
+
+    // *****************
+    // IModule
+    // *****************
+
+    @Override
+    public Collection<Class<? extends IPlatformService>> getModuleServices() {
+        Collection<Class<? extends IPlatformService>> l =
+                new ArrayList<Class<? extends IPlatformService>>();
+        l.add(IReplicationService.class);
+        return l;
+    }
+
+    @Override
+    public Map<Class<? extends IPlatformService>, IPlatformService>
+            getServiceImpls() {
+        Map<Class<? extends IPlatformService>, IPlatformService> m =
+                new HashMap<Class<? extends IPlatformService>,
+                            IPlatformService>();
+        m.put(IReplicationService.class, this);
+        return m;
+    }
+
+    @Override
+    public Collection<Class<? extends IPlatformService>>
+            getModuleDependencies() {
+        Collection<Class<? extends IPlatformService>> l =
+                new ArrayList<Class<? extends IPlatformService>>();
+        l.add(IControllerService.class);
+        l.add(IThreadPoolService.class);
+        return l;
+    }
+
+    @Override
+    @LogMessageDocs({
+        @LogMessageDoc(level="ERROR",
+                message="Invalid replication peer {peer}",
+                explanation="A replication peer is not of the form host:port",
+                recommendation=LogMessageDoc.CHECK_CONTROLLER),
+        @LogMessageDoc(level="ERROR",
+                message="No replication listen address configured",
+                explanation="A replication listen port is configured but " +
+                        "not the local address to listen on",
+                recommendation=LogMessageDoc.CHECK_CONTROLLER)
+    })
+    public void init(ModuleContext context) throws ModuleException {
+        controllerProvider = context.getServiceImpl(IControllerService.class);
+        threadPool = context.getServiceImpl(IThreadPoolService.class);
+
+        Map<String, String> configOptions = context.getConfigParams(this);
+        String option = configOptions.get("listenport");
+        if (option != null) {
+            listenPort = Integer.parseInt(option);
+        }
+        option = configOptions.get("listenaddress");
+        if (option != null && option.trim().length() > 0) {
+            listenAddress = option.trim();
+        }
+        if (listenPort > 0 && listenAddress == null) {
+            logger.error("No replication listen address configured");
+            throw new ModuleException("No replication listen address " +
+                                      "configured");
+        }
+        option = configOptions.get("secret");
+        if (option != null && option.length() > 0) {
+            secret = option.getBytes(UTF8);
+        }
+        option = configOptions.get("flushintervalms");
+        if (option != null) {
+            flushIntervalMs = Integer.parseInt(option);
+        }
+        option = configOptions.get("snapshotinterval");
+        if (option != null) {
+            snapshotIntervalMs = Long.parseLong(option) * 1000;
+        }
+        option = configOptions.get("statefile");
+        if (option != null && option.trim().length() > 0) {
+            stateFile = option.trim();
+        }
+        option = configOptions.get("statefileinterval");
+        if (option != null) {
+            stateFileIntervalMs = Long.parseLong(option) * 1000;
+        }
+        option = configOptions.get("peers");
+        if (option != null) {
+            for (String peer : option.split(",")) {
+                peer = peer.trim();
+                if (peer.length() == 0) continue;
+                int idx = peer.lastIndexOf(':');
+                if (idx <= 0) {
+                    logger.error("Invalid replication peer {}", peer);
+                    throw new ModuleException("Invalid replication peer " +
+                                              peer);
+                }
+                peers.add(new Peer(new InetSocketAddress(
+                        peer.substring(0, idx),
+                        Integer.parseInt(peer.substring(idx + 1)))));
+            }
+        }
+        // Read the state file before any provider registers in startUp
+        if (stateFile != null)
+            loadStateFile();
+    }
+
+    @Override
+    public void startUp(ModuleContext context) {
+        if (stateFile != null) {
+            stateFileTask = new SingletonTask(threadPool.getScheduledExecutor(),
+                                              new Runnable() {
+                @Override
+                @LogMessageDoc(level="WARN",
+                        message="Could not save state file {file}: " +
+                                "{exception}",
+                        explanation="The in-memory state could not be saved, " +
+                                "a restarted controller will not be able " +
+                                "to restore it",
+                        recommendation=LogMessageDoc.CHECK_CONTROLLER)
+                public void run() {
+                    try {
+                        writeStateFile();
+                    } catch (Exception e) {
+                        logger.warn("Could not save state file {}: {}",
+                                    stateFile, e);
+                    } finally {
+                        // drop the records of domains that never registered
+                        restoredState.clear();
+                        if (stateFileTask != null)
+                            stateFileTask.reschedule(stateFileIntervalMs,
+                                                     TimeUnit.MILLISECONDS);
+                    }
+                }
+            });
+            stateFileTask.reschedule(stateFileIntervalMs,
+                                     TimeUnit.MILLISECONDS);
+        }
+        if (listenPort <= 0 && peers.isEmpty()) {
+            logger.debug("No replication peers configured");
+            return;
+        }
+        setupNetty();
+        snapshotExecutor = Executors.newSingleThreadExecutor(
+                new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ReplicationSnapshot");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        replicationTask = new SingletonTask(threadPool.getScheduledExecutor(),
+                                            new Runnable() {
+            @Override
+            @LogMessageDoc(level="ERROR",
+                    message="Exception in replication task",
+                    explanation="Could not replicate state to the " +
+                            "standby controllers",
+                    recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
+            public void run() {
+                try {
+                    replicate();
+                } catch (Exception e) {
+                    logger.error("Exception in replication task", e);
+                } finally {
+                    if (role == Role.MASTER)
+                        replicationTask.reschedule(flushIntervalMs,
+                                                   TimeUnit.MILLISECONDS);
+                }
+            }
+        });
+        controllerProvider.addHAListener(this);
+        role = controllerProvider.getRole();
+        if (role == Role.MASTER) {
+            lastSnapshotTime = System.currentTimeMillis();
+            replicationTask.reschedule(0, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -21,6 +21,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.restlet.Application;
 import org.restlet.Component;
@@ -184,7 +185,7 @@ public class RestApiServer
             throws ModuleException {
         // This has to be done here since we don't know what order the
         // startUp methods will be called
-        this.restlets = new ArrayList<RestletRoutable>();
+        this.restlets = new CopyOnWriteArrayList<RestletRoutable>();
         this.fmlContext = context;
         
         // read our config options
@@ -54,6 +54,7 @@ import org.sdnplatform.core.ListenerContext;
 import org.sdnplatform.core.IControllerService;
 import org.sdnplatform.core.IOFMessageListener;
 import org.sdnplatform.core.IOFSwitch;
+import org.sdnplatform.core.IOFSwitchListener;
 import org.sdnplatform.core.annotations.LogMessageCategory;
 import org.sdnplatform.core.annotations.LogMessageDoc;
 import org.sdnplatform.core.annotations.LogMessageDocs;
@@ -69,7 +70,7 @@ import org.sdnplatform.routing.Route;
 import org.sdnplatform.topology.ITopologyService;
 import org.sdnplatform.topology.NodePortTuple;
 import org.sdnplatform.util.OFMessageDamper;
-import org.sdnplatform.util.TimedCache;
+import org.sdnplatform.util.LongTimedCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -80,7 +81,7 @@ import org.slf4j.LoggerFactory;
  */
 @LogMessageCategory("Flow Programming")
 public abstract class ForwardingBase 
-    implements IOFMessageListener {
+    implements IOFMessageListener, IOFSwitchListener {
     
     protected static Logger log =
             LoggerFactory.getLogger(ForwardingBase.class);
@@ -103,8 +104,8 @@ public abstract class ForwardingBase
     protected boolean broadcastCacheFeature = true;
     public final int prime1 = 2633;  // for hash calculation
     public final static int prime2 = 4357;  // for hash calculation
-    public TimedCache<Long> broadcastCache =
-        new TimedCache<Long>(100, 5*1000);  // 5 seconds interval;
+    public LongTimedCache broadcastCache =
+        new LongTimedCache(100, 5*1000);  // 5 seconds interval;
 
     // flow-mod - for use in the cookie
     public static final int FORWARDING_APP_ID = 2; // TODO: This must be managed
@@ -131,7 +132,8 @@ public abstract class ForwardingBase
     protected void init() {
         messageDamper = new OFMessageDamper(OFMESSAGE_DAMPER_CAPACITY, 
                                             EnumSet.of(OFType.FLOW_MOD),
-                                            OFMESSAGE_DAMPER_TIMEOUT);
+                                            OFMESSAGE_DAMPER_TIMEOUT,
+                                            true);
     }
 
     /**
@@ -139,6 +141,24 @@ public abstract class ForwardingBase
      */
     protected void startUp() {
         controllerProvider.addOFMessageListener(OFType.PACKET_IN, this);
+        controllerProvider.addOFSwitchListener(this);
+    }
+
+    // IOFSwitchListener
+
+    @Override
+    public void addedSwitch(IOFSwitch sw) {
+    }
+
+    @Override
+    public void removedSwitch(IOFSwitch sw) {
+        // the damper only knows DPIDs. Drop the entries of the old
+        // connection so the flow mods get pushed again on reconnect
+        messageDamper.clearSwitch(sw);
+    }
+
+    @Override
+    public void switchPortChanged(Long switchId) {
     }
 
     /**
@@ -173,8 +193,7 @@ public abstract class ForwardingBase
                 IRoutingDecision decision = null;
                 if (cntx != null)
                      decision =
-                             IRoutingDecision.rtStore.get(cntx,
-                                                          IRoutingDecision.CONTEXT_DECISION);
+                             IRoutingDecision.DECISION_KEY.get(cntx);
 
                 return this.processPacketInMessage(sw,
                                                    (OFPacketIn) msg,
@@ -519,10 +538,9 @@ public abstract class ForwardingBase
         if (!broadcastCacheFeature) return false;
 
         Ethernet eth = 
-            IControllerService.bcStore.get(cntx,
-                IControllerService.CONTEXT_PI_PAYLOAD);
+            IControllerService.PI_PAYLOAD_KEY.get(cntx);
         
-        Long broadcastHash;
+        long broadcastHash;
         broadcastHash = topology.getL2DomainId(sw.getId()) * prime1 +
                         pi.getInPort() * prime2 + eth.hashCode();
         if (broadcastCache.update(broadcastHash)) {
@@ -541,7 +559,7 @@ public abstract class ForwardingBase
 
         // Get the hash of the Ethernet packet.
         Ethernet eth =
-                IControllerService.bcStore.get(cntx, IControllerService.CONTEXT_PI_PAYLOAD);
+                IControllerService.PI_PAYLOAD_KEY.get(cntx);
 
         long hash =  pi.getInPort() * prime2 + eth.hashCode();
 
@@ -36,6 +36,7 @@ package org.sdnplatform.routing;
 import java.util.List;
 
 import org.sdnplatform.core.ListenerContext;
+import org.sdnplatform.core.ListenerContextKey;
 import org.sdnplatform.core.ListenerContextStore;
 import org.sdnplatform.devicemanager.IDevice;
 import org.sdnplatform.devicemanager.SwitchPort;
@@ -64,6 +65,8 @@ public interface IRoutingDecision {
         new ListenerContextStore<IRoutingDecision>();
     public static final String CONTEXT_DECISION =
             "org.sdnplatform.routing.decision";
+    public static final ListenerContextKey<IRoutingDecision> DECISION_KEY =
+            ListenerContextKey.register(CONTEXT_DECISION);
 
     public void addToContext(ListenerContext cntx);
     public RoutingAction getRoutingAction();
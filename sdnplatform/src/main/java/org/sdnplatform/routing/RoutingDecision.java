@@ -115,7 +115,7 @@ public class RoutingDecision implements IRoutingDecision {
 
     @Override
     public void addToContext(ListenerContext cntx) {
-        rtStore.put(cntx, IRoutingDecision.CONTEXT_DECISION, this);
+        IRoutingDecision.DECISION_KEY.put(cntx, this);
     }
     
     public String toString() {
@@ -189,11 +189,11 @@ public class StaticFlowEntries {
         if (match.getNetworkProtocol() != 0)
         	entry.put(StaticFlowEntryPusher.COLUMN_NW_PROTO, Short.toString(match.getNetworkProtocol()));
         
-        if (match.getNetworkSource() != 0)
-        	entry.put(StaticFlowEntryPusher.COLUMN_NW_SRC, IPv4.fromIPv4Address(match.getNetworkSource()));
+        if (match.getNetworkSource() != 0 || isPrefix(match.getNetworkSourceMaskLen()))
+        	entry.put(StaticFlowEntryPusher.COLUMN_NW_SRC, cidrToString(match.getNetworkSource(), match.getNetworkSourceMaskLen()));
         
-        if (match.getNetworkDestination() != 0)
-        	entry.put(StaticFlowEntryPusher.COLUMN_NW_DST, IPv4.fromIPv4Address(match.getNetworkDestination()));
+        if (match.getNetworkDestination() != 0 || isPrefix(match.getNetworkDestinationMaskLen()))
+        	entry.put(StaticFlowEntryPusher.COLUMN_NW_DST, cidrToString(match.getNetworkDestination(), match.getNetworkDestinationMaskLen()));
         
         if (match.getTransportSource() != 0)
         	entry.put(StaticFlowEntryPusher.COLUMN_TP_SRC, Short.toString(match.getTransportSource()));
@@ -204,6 +204,20 @@ public class StaticFlowEntries {
         return entry;
     }
     
+    /**
+     * Encodes an IP address and prefix length the way the nw_src and
+     * nw_dst columns store them, leaving off the prefix for an exact match.
+     */
+    private static String cidrToString(int address, int maskLen) {
+        if (!isPrefix(maskLen))
+            return IPv4.fromIPv4Address(address);
+        return IPv4.fromIPv4Address(address) + "/" + maskLen;
+    }
+    
+    private static boolean isPrefix(int maskLen) {
+        return maskLen > 0 && maskLen < 32;
+    }
+    
     /**
      * Returns a String representation of all the openflow actions.
      * @param fmActions A list of OFActions to encode into one string
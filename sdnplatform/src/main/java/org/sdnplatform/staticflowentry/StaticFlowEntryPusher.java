@@ -28,13 +28,27 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 
 import org.openflow.protocol.OFFlowMod;
 import org.openflow.protocol.OFFlowRemoved;
 import org.openflow.protocol.OFMatch;
 import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.OFStatisticsReply;
+import org.openflow.protocol.OFStatisticsRequest;
 import org.openflow.protocol.OFType;
+import org.openflow.protocol.Wildcards;
+import org.openflow.protocol.OFStatisticsReply.OFStatisticsReplyFlags;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.statistics.OFFlowStatisticsReply;
+import org.openflow.protocol.statistics.OFFlowStatisticsRequest;
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
 import org.openflow.util.HexString;
 import org.openflow.util.U16;
 import org.sdnplatform.core.ListenerContext;
@@ -53,10 +67,14 @@ import org.sdnplatform.core.module.IPlatformService;
 import org.sdnplatform.core.util.AppCookie;
 import org.sdnplatform.restserver.IRestApiService;
 import org.sdnplatform.staticflowentry.web.StaticFlowEntryWebRoutable;
+import org.sdnplatform.storage.CompoundPredicate;
+import org.sdnplatform.storage.IPredicate;
 import org.sdnplatform.storage.IResultSet;
 import org.sdnplatform.storage.IStorageSourceListener;
 import org.sdnplatform.storage.IStorageSourceService;
+import org.sdnplatform.storage.OperatorPredicate;
 import org.sdnplatform.storage.StorageException;
+import org.sdnplatform.threadpool.IThreadPoolService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -109,12 +127,111 @@ public class StaticFlowEntryPusher
     protected IControllerService controllerProvider;
     protected IStorageSourceService storageSource;
     protected IRestApiService restApi;
+    protected ScheduledExecutorService ses;
 
     // Map<DPID, Map<Name, FlowMod>>; FlowMod can be null to indicate non-active
     protected Map<String, Map<String, OFFlowMod>> entriesFromStorage;
     // Entry Name -> DPID of Switch it's on
     protected Map<String, String> entry2dpid;
 
+    // If true, a connecting switch is sent only the entries that are
+    // missing or different in its flow table
+    protected boolean resyncOnConnect = false;
+    // Time to wait for the flow table of a switch before pushing all
+    // static flows to it instead
+    protected long resyncTimeoutMs = 10000;
+    // DPID -> resync waiting for the flow table of the switch
+    protected ConcurrentMap<Long, FlowTableResync> pendingResyncs =
+            new ConcurrentHashMap<Long, FlowTableResync>();
+
+    /**
+     * The static flows read from the flow table of a switch. A flow
+     * stats reply may span several messages.
+     */
+    protected static class FlowTableResync {
+        final int xid;
+        final List<OFFlowStatisticsReply> flows =
+                new ArrayList<OFFlowStatisticsReply>();
+        volatile ScheduledFuture<?> timeout;
+
+        FlowTableResync(int xid) {
+            this.xid = xid;
+        }
+    }
+
+    /**
+     * Identifies a flow in the flow table of a switch for OFPFC_*_STRICT
+     * commands. The match is normalized since switches report the
+     * wildcards and wildcarded fields of a flow differently from how it
+     * was written.
+     */
+    protected static class FlowKey {
+        final OFMatch match;
+        final short priority;
+
+        FlowKey(OFMatch match, short priority) {
+            this.match = normalizeMatch(match);
+            this.priority = priority;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * match.hashCode() + priority;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof FlowKey)) return false;
+            FlowKey other = (FlowKey) obj;
+            return priority == other.priority && match.equals(other.match);
+        }
+    }
+
+    /**
+     * Returns a copy of the match with canonical wildcards (nw_src and
+     * nw_dst masks of at most 32 bits) and with the wildcarded fields and
+     * the masked bits of nw_src and nw_dst zeroed, so that equivalent
+     * matches compare equal.
+     * @param match The match to normalize
+     * @return The normalized copy
+     */
+    protected static OFMatch normalizeMatch(OFMatch match) {
+        OFMatch m = match.clone();
+        int wildcards = Wildcards.sanitizeInt(m.getWildcards() &
+                                              OFMatch.OFPFW_ALL);
+        m.setWildcards(wildcards);
+        if ((wildcards & OFMatch.OFPFW_IN_PORT) != 0)
+            m.setInputPort((short) 0);
+        if ((wildcards & OFMatch.OFPFW_DL_VLAN) != 0)
+            m.setDataLayerVirtualLan((short) 0);
+        if ((wildcards & OFMatch.OFPFW_DL_SRC) != 0)
+            m.setDataLayerSource(new byte[6]);
+        if ((wildcards & OFMatch.OFPFW_DL_DST) != 0)
+            m.setDataLayerDestination(new byte[6]);
+        if ((wildcards & OFMatch.OFPFW_DL_TYPE) != 0)
+            m.setDataLayerType((short) 0);
+        if ((wildcards & OFMatch.OFPFW_NW_PROTO) != 0)
+            m.setNetworkProtocol((byte) 0);
+        if ((wildcards & OFMatch.OFPFW_TP_SRC) != 0)
+            m.setTransportSource((short) 0);
+        if ((wildcards & OFMatch.OFPFW_TP_DST) != 0)
+            m.setTransportDestination((short) 0);
+        if ((wildcards & OFMatch.OFPFW_DL_VLAN_PCP) != 0)
+            m.setDataLayerVirtualLanPriorityCodePoint((byte) 0);
+        if ((wildcards & OFMatch.OFPFW_NW_TOS) != 0)
+            m.setNetworkTypeOfService((byte) 0);
+        m.setNetworkSource(m.getNetworkSource() &
+                           prefixMask(m.getNetworkSourceMaskLen()));
+        m.setNetworkDestination(m.getNetworkDestination() &
+                                prefixMask(m.getNetworkDestinationMaskLen()));
+        return m;
+    }
+
+    private static int prefixMask(int len) {
+        return (len == 0) ? 0 : (0xffffffff << (32 - len));
+    }
+
     // Class to sort FlowMod's by priority, from lowest to highest
     class FlowModSorter implements Comparator<String> {
         private String dpid;
@@ -191,6 +308,174 @@ public class StaticFlowEntryPusher
         }
     }
     
+    /**
+     * Asks the switch for the flows with the static flow cookie. The
+     * entries are synchronized with {@link #resyncSwitch} once the
+     * reply is complete.
+     * @param sw The switch to resync
+     */
+    @LogMessageDoc(level="WARN",
+            message="Failed to read the flow table of switch {switch}, " +
+                    "pushing all static flows: {error}",
+            explanation="The flow table of a switch could not be read " +
+                    "to find the static flows missing on the switch",
+            recommendation=LogMessageDoc.CHECK_SWITCH)
+    protected void startResync(final IOFSwitch sw) {
+        OFStatisticsRequest req = new OFStatisticsRequest();
+        req.setStatisticType(OFStatisticsType.FLOW);
+        int requestLength = req.getLengthU();
+
+        // OF 1.0 can't match on the cookie, we filter the reply instead
+        OFFlowStatisticsRequest specificReq = new OFFlowStatisticsRequest();
+        OFMatch match = new OFMatch();
+        match.setWildcards(OFMatch.OFPFW_ALL);
+        specificReq.setMatch(match);
+        specificReq.setOutPort(OFPort.OFPP_NONE.getValue());
+        specificReq.setTableId((byte) 0xff);
+        req.setStatistics(Collections.singletonList(
+                                            (OFStatistics)specificReq));
+        requestLength += specificReq.getLength();
+        req.setLengthU(requestLength);
+
+        int xid = sw.getNextTransactionId();
+        final FlowTableResync resync = new FlowTableResync(xid);
+        pendingResyncs.put(sw.getId(), resync);
+        try {
+            sw.sendStatsQuery(req, xid, this);
+        } catch (IOException e) {
+            log.warn("Failed to read the flow table of switch {}, " +
+                     "pushing all static flows: {}",
+                     sw.getStringId(), e.getMessage());
+            pendingResyncs.remove(sw.getId());
+            sendEntriesToSwitch(sw);
+            return;
+        }
+        resync.timeout = ses.schedule(new Runnable() {
+            @Override
+            public void run() {
+                resyncTimedOut(sw, resync);
+            }
+        }, resyncTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gives up on a resync the switch did not answer in time and pushes
+     * all static flows to the switch instead
+     * @param sw The switch being resynced
+     * @param resync The resync that timed out
+     */
+    @LogMessageDoc(level="WARN",
+            message="Timed out reading the flow table of switch {switch}, " +
+                    "pushing all static flows",
+            explanation="The switch did not answer the flow table read " +
+                    "used to find the static flows missing on the switch",
+            recommendation=LogMessageDoc.CHECK_SWITCH)
+    protected void resyncTimedOut(IOFSwitch sw, FlowTableResync resync) {
+        if (!pendingResyncs.remove(sw.getId(), resync))
+            return;
+        log.warn("Timed out reading the flow table of switch {}, " +
+                 "pushing all static flows", sw.getStringId());
+        sw.cancelStatisticsReply(resync.xid);
+        sendEntriesToSwitch(sw);
+    }
+
+    /**
+     * Handles a flow stats reply for a pending resync
+     * @param sw The switch that sent the reply
+     * @param reply The flow stats reply
+     * @return Whether to continue processing this message
+     */
+    protected Command handleStatsReply(IOFSwitch sw, OFStatisticsReply reply) {
+        FlowTableResync resync = pendingResyncs.get(sw.getId());
+        if (resync == null || resync.xid != reply.getXid())
+            return Command.CONTINUE;
+
+        for (OFStatistics stat : reply.getStatistics()) {
+            OFFlowStatisticsReply flow = (OFFlowStatisticsReply) stat;
+            if (AppCookie.extractApp(flow.getCookie()) == STATIC_FLOW_APP_ID)
+                resync.flows.add(flow);
+        }
+        if ((reply.getFlags() &
+             OFStatisticsReplyFlags.REPLY_MORE.getTypeValue()) != 0)
+            return Command.STOP;
+
+        sw.cancelStatisticsReply(resync.xid);
+        if (pendingResyncs.remove(sw.getId(), resync)) {
+            if (resync.timeout != null)
+                resync.timeout.cancel(false);
+            resyncSwitch(sw, resync.flows);
+        }
+        return Command.STOP;
+    }
+
+    /**
+     * Compares the static flows in the flow table of a switch with
+     * entriesFromStorage and sends, in one batch, deletes for the flows
+     * that should not be on the switch followed by the entries that are
+     * missing or have different actions, in the same order as
+     * {@link #sendEntriesToSwitch}.
+     * @param sw The switch to resync
+     * @param switchFlows The flows with the static flow cookie on the switch
+     */
+    protected void resyncSwitch(IOFSwitch sw,
+                                List<OFFlowStatisticsReply> switchFlows) {
+        String dpid = sw.getStringId();
+        Map<FlowKey, String> expected = new HashMap<FlowKey, String>();
+        Map<String, OFFlowMod> entries = null;
+        if (entriesFromStorage != null)
+            entries = entriesFromStorage.get(dpid);
+        if (entries != null) {
+            for (Entry<String, OFFlowMod> e : entries.entrySet()) {
+                OFFlowMod flowMod = e.getValue();
+                if (flowMod != null) {
+                    expected.put(new FlowKey(flowMod.getMatch(),
+                                             flowMod.getPriority()),
+                                 e.getKey());
+                }
+            }
+        }
+
+        List<OFMessage> outQueue = new ArrayList<OFMessage>();
+        List<String> toPush = new ArrayList<String>();
+        for (OFFlowStatisticsReply flow : switchFlows) {
+            String entryName = expected.remove(
+                    new FlowKey(flow.getMatch(), flow.getPriority()));
+            if (entryName == null) {
+                OFFlowMod delete = (OFFlowMod) controllerProvider
+                        .getOFMessageFactory().getMessage(OFType.FLOW_MOD);
+                delete.setMatch(flow.getMatch());
+                delete.setPriority(flow.getPriority());
+                delete.setCookie(flow.getCookie());
+                delete.setCommand(OFFlowMod.OFPFC_DELETE_STRICT);
+                delete.setOutPort(OFPort.OFPP_NONE.getValue());
+                outQueue.add(delete);
+            } else if (!actionsEqual(entries.get(entryName).getActions(),
+                                     flow.getActions())) {
+                toPush.add(entryName);
+            }
+        }
+        toPush.addAll(expected.values());
+
+        Collections.sort(toPush, new FlowModSorter(dpid));
+        for (String entryName : toPush) {
+            outQueue.add(entries.get(entryName));
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Resync of switch {}: {} static flows on the switch, " +
+                      "sending {} flow mods",
+                      new Object[] { dpid, switchFlows.size(),
+                                     outQueue.size() });
+        }
+        if (!outQueue.isEmpty())
+            writeOFMessagesToSwitch(sw.getId(), outQueue);
+    }
+
+    private static boolean actionsEqual(List<OFAction> a, List<OFAction> b) {
+        if (a == null || a.isEmpty())
+            return b == null || b.isEmpty();
+        return a.equals(b);
+    }
+
     /**
      * Used only for bundle-local indexing
      * 
@@ -331,11 +616,17 @@ public class StaticFlowEntryPusher
     @Override
     public void addedSwitch(IOFSwitch sw) {
         log.debug("Switch {} connected; processing its static entries", HexString.toHexString(sw.getId()));
-        sendEntriesToSwitch(sw);
+        if (resyncOnConnect)
+            startResync(sw);
+        else
+            sendEntriesToSwitch(sw);
     }
 
     @Override
     public void removedSwitch(IOFSwitch sw) {
+        FlowTableResync resync = pendingResyncs.remove(sw.getId());
+        if (resync != null && resync.timeout != null)
+            resync.timeout.cancel(false);
         // do NOT delete from our internal state; we're tracking the rules,
         // not the switches
     }
@@ -352,13 +643,31 @@ public class StaticFlowEntryPusher
         HashMap<String, Map<String, OFFlowMod>> entriesToAdd = 
             new HashMap<String, Map<String, OFFlowMod>>();
         // build up list of what was added 
-        for (Object key: rowKeys) {
-            IResultSet resultSet = storageSource.getRow(tableName, key);
+        if (rowKeys.size() == 1) {
+            IResultSet resultSet = 
+                    storageSource.getRow(tableName, rowKeys.iterator().next());
             Iterator<IResultSet> it = resultSet.iterator();
             while (it.hasNext()) {
                 Map<String, Object> row = it.next().getRow();
                 parseRow(row, entriesToAdd);
             }
+        } else {
+            // read all changed rows in one query instead of one per key
+            IPredicate[] keyPredicates = new IPredicate[rowKeys.size()];
+            int i = 0;
+            for (Object key : rowKeys) {
+                keyPredicates[i++] = new OperatorPredicate(COLUMN_NAME,
+                        OperatorPredicate.Operator.EQ, (Comparable<?>) key);
+            }
+            IResultSet resultSet = storageSource.executeQuery(tableName,
+                    ColumnNames,
+                    new CompoundPredicate(CompoundPredicate.Operator.OR,
+                                          false, keyPredicates),
+                    null);
+            for (Iterator<IResultSet> it = resultSet.iterator(); it.hasNext();) {
+                Map<String, Object> row = it.next().getRow();
+                parseRow(row, entriesToAdd);
+            }
         }
         // batch updates by switch and blast them out
         for (String dpid : entriesToAdd.keySet()) {
@@ -585,6 +894,8 @@ public class StaticFlowEntryPusher
         switch (msg.getType()) {
         case FLOW_REMOVED:
             return handleFlowRemoved(sw, (OFFlowRemoved) msg, cntx);
+        case STATS_REPLY:
+            return handleStatsReply(sw, (OFStatisticsReply) msg);
         default:
             return Command.CONTINUE;
         }
@@ -627,6 +938,7 @@ public class StaticFlowEntryPusher
         l.add(IControllerService.class);
         l.add(IStorageSourceService.class);
         l.add(IRestApiService.class);
+        l.add(IThreadPoolService.class);
         return l;
     }
 
@@ -639,6 +951,16 @@ public class StaticFlowEntryPusher
             context.getServiceImpl(IStorageSourceService.class);
         restApi =
             context.getServiceImpl(IRestApiService.class);
+        ses = context.getServiceImpl(IThreadPoolService.class)
+                .getScheduledExecutor();
+        
+        Map<String, String> configOptions = context.getConfigParams(this);
+        String resync = configOptions.get("resynconconnect");
+        if (resync != null)
+            resyncOnConnect = Boolean.parseBoolean(resync);
+        String timeout = configOptions.get("resynctimeoutms");
+        if (timeout != null)
+            resyncTimeoutMs = Long.parseLong(timeout);
     }
 
     @Override
@@ -1663,7 +1663,7 @@ public class BetterTopologyInstance extends TopologyInstance {
 
     @Override
     protected void calculateShortestPathTreeInClusters() {
-        pathcache.invalidateAll();
+        nextHopTables.clear();
         destinationRootedTrees.clear();
         destinationRootedTreesMultipath.clear();
 
@@ -1687,6 +1687,29 @@ public class BetterTopologyInstance extends TopologyInstance {
 
                 destinationRootedTreesMultipath.put(node, treeMultipath);
             }
+            buildNextHopTable(c);
+        }
+    }
+
+    /**
+     * Fill the next hop table of the cluster with all the equal cost
+     * next hop links from the multipath trees.
+     */
+    @Override
+    protected void buildNextHopTable(Cluster c) {
+        NextHopTable table = new NextHopTable(c.getNodes());
+        for (int d = 0; d < table.size(); d++) {
+            BroadcastTreeMultipath tree =
+                    destinationRootedTreesMultipath.get(table.getNode(d));
+            if (tree == null) continue;
+            for (int s = 0; s < table.size(); s++) {
+                ArrayList<Link> links = tree.getLinks(table.getNode(s));
+                if (links == null || links.isEmpty()) continue;
+                table.setNextHops(s, d, links.toArray(new Link[links.size()]));
+            }
+        }
+        for (Long node : c.getNodes()) {
+            nextHopTables.put(node, table);
         }
     }
 
@@ -1700,11 +1723,12 @@ public class BetterTopologyInstance extends TopologyInstance {
 
         LinkedList<NodePortTuple> switchPorts = new LinkedList<NodePortTuple>();
 
-        if (destinationRootedTreesMultipath == null) return null;
-        if (destinationRootedTreesMultipath.get(dstId) == null) return null;
+        NextHopTable table = nextHopTables.get(dstId);
+        if (table == null) return null;
+
+        int s = table.indexOf(srcId);
+        int d = table.indexOf(dstId);
 
-        HashMap<Long, ArrayList<Link>> nexthoplinks = destinationRootedTreesMultipath.get(dstId)
-              .getLinks();
         if (log.isTraceEnabled()) {
             log.trace("buildrouteMultipath: find multipath for srcId {} to dstId {} cookie "
                     + cookie, HexString.toHexString(srcId), HexString.toHexString(dstId));
@@ -1719,12 +1743,13 @@ public class BetterTopologyInstance extends TopologyInstance {
             // The only possible non-null path for this case is
             // if srcId equals dstId --- and that too is an 'empty' path []
 
-        } else if ((nexthoplinks != null) && (nexthoplinks.get(srcId) != null)) {
-            while (srcId != dstId) {
-                int choicesThisHop = nexthoplinks.get(srcId).size();
+        } else if (s >= 0 && table.getNextHops(s, d).length > 0) {
+            while (s != d) {
+                Link[] choices = table.getNextHops(s, d);
+                int choicesThisHop = choices.length;
 
                 long linkIndex = cookie % choicesThisHop;
-                Link l = nexthoplinks.get(srcId).get((int) linkIndex);
+                Link l = choices[(int) linkIndex];
 
                 routeCount = (routeCount > choicesThisHop) ? routeCount : choicesThisHop;
 
@@ -1734,7 +1759,7 @@ public class BetterTopologyInstance extends TopologyInstance {
                 switchPorts.addLast(npt);
 
                 // proceed to next hop
-                srcId = l.getDst();
+                s = table.indexOf(l.getDst());
             }
         }
         // else, no path exists, and path equals null
@@ -1766,9 +1791,7 @@ public class BetterTopologyInstance extends TopologyInstance {
     // cookie based getRoute, needed by multipath
     // The only difference between this and the super method is that
     // the route id uses cookie here, the super does not.
-    // NOTE: Return a null route if srcId equals dstId.  The null route
-    // need not be stored in the cache.  Moreover, the LoadingCache will
-    // throw an exception if null route is returned.
+    // NOTE: Return a null route if srcId equals dstId.
     @Override
     protected Route getRoute(long srcId, long dstId, long cookie) {
         cookie=0;
@@ -1777,13 +1800,7 @@ public class BetterTopologyInstance extends TopologyInstance {
         if (srcId == dstId) return null;
 
         RouteId id = new RouteId(srcId, dstId, cookie);
-        Route result = null;
-
-        try {
-            result = pathcache.get(id);
-        } catch (Exception e) {
-            log.error("{}", e);
-        }
+        Route result = getTableRoute(id);
 
         if (log.isTraceEnabled()) {
             log.trace("getRoute: {} -> {} cookie: " + cookie, id, result);
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.topology;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.sdnplatform.routing.Link;
+import org.sdnplatform.routing.Route;
+
+/**
+ * All-pairs next hop table for the switches of a single cluster. Switches
+ * are given a dense index and the next hop links from every source switch
+ * towards every destination switch are kept in a matrix indexed by
+ * [destination][source], so a route is assembled by walking the matrix
+ * without consulting the per-destination shortest path trees. Routes
+ * are assembled lazily and remembered in a slot per switch pair, so the
+ * amount of cached routes follows the size of the cluster.
+ */
+public class NextHopTable {
+    protected static final Link[] NO_LINKS = new Link[0];
+
+    protected final long[] nodes;
+    protected final Map<Long, Integer> nodeIndex;
+    // next hop links indexed by [dst][src]; more than one link for
+    // equal cost multipath.
+    protected final Link[][][] nextHops;
+    // assembled routes indexed by dst * nodes.length + src
+    protected final AtomicReferenceArray<Route> routes;
+
+    public NextHopTable(Collection<Long> clusterNodes) {
+        nodes = new long[clusterNodes.size()];
+        int i = 0;
+        for (Long n : clusterNodes) {
+            nodes[i++] = n;
+        }
+        Arrays.sort(nodes);
+
+        nodeIndex = new HashMap<Long, Integer>();
+        for (i = 0; i < nodes.length; i++) {
+            nodeIndex.put(nodes[i], i);
+        }
+        nextHops = new Link[nodes.length][nodes.length][];
+        routes = new AtomicReferenceArray<Route>(nodes.length * nodes.length);
+    }
+
+    /**
+     * @return the number of switches in the table
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * @return the dense index of the switch or -1 if the switch is not
+     * part of this table
+     */
+    public int indexOf(long node) {
+        Integer idx = nodeIndex.get(node);
+        if (idx == null) return -1;
+        return idx.intValue();
+    }
+
+    public long getNode(int idx) {
+        return nodes[idx];
+    }
+
+    /**
+     * Set the next hop links from src towards dst
+     */
+    public void setNextHops(int srcIdx, int dstIdx, Link[] links) {
+        nextHops[dstIdx][srcIdx] = links;
+    }
+
+    /**
+     * @return the next hop links from src towards dst, empty if there
+     * is no path or src equals dst.
+     */
+    public Link[] getNextHops(int srcIdx, int dstIdx) {
+        Link[] links = nextHops[dstIdx][srcIdx];
+        if (links == null) return NO_LINKS;
+        return links;
+    }
+
+    /**
+     * @return the previously assembled route from src to dst or null
+     */
+    public Route getRoute(int srcIdx, int dstIdx) {
+        return routes.get(dstIdx * nodes.length + srcIdx);
+    }
+
+    /**
+     * Remember the route from src to dst.  If another thread assembled
+     * the same route concurrently the first one stored wins.
+     * @return the route stored in the table
+     */
+    public Route putRoute(int srcIdx, int dstIdx, Route route) {
+        int slot = dstIdx * nodes.length + srcIdx;
+        if (routes.compareAndSet(slot, null, route))
+            return route;
+        return routes.get(slot);
+    }
+}
@@ -36,8 +36,6 @@ import org.sdnplatform.util.ClusterDFS;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.cache.*;
-
 /**
  * A representation of a network topology.  Used internally by
  * {@link TopologyManager}
@@ -51,7 +49,6 @@ public class TopologyInstance {
 
     public static final int MAX_LINK_WEIGHT = 10000;
     public static final int MAX_PATH_WEIGHT = Integer.MAX_VALUE - MAX_LINK_WEIGHT - 1;
-    public static final int PATH_CACHE_SIZE = 1000;
 
     protected static Logger log = LoggerFactory.getLogger(TopologyInstance.class);
 
@@ -77,22 +74,9 @@ public class TopologyInstance {
     protected Map<Long, Set<NodePortTuple>> clusterBroadcastNodePorts;
     protected Map<Long, BroadcastTree> clusterBroadcastTrees;
 
-    protected class PathCacheLoader extends CacheLoader<RouteId, Route> {
-        TopologyInstance ti;
-        PathCacheLoader(TopologyInstance ti) {
-            this.ti = ti;
-        }
-
-        @Override
-        public Route load(RouteId rid) {
-            return ti.buildroute(rid);
-        }
-    }
-
-    // Path cache loader is defined for loading a path when it not present
-    // in the cache.
-    private final PathCacheLoader pathCacheLoader = new PathCacheLoader(this);
-    protected LoadingCache<RouteId, Route> pathcache;
+    // All-pairs next hop table of the cluster a switch belongs to.
+    // Routes are assembled from these tables and kept in them.
+    protected Map<Long, NextHopTable> nextHopTables;
 
     public TopologyInstance() {
         this.switches = new HashSet<Long>();
@@ -148,15 +132,7 @@ public class TopologyInstance {
         destinationRootedTrees = new HashMap<Long, BroadcastTree>();
         clusterBroadcastTrees = new HashMap<Long, BroadcastTree>();
         clusterBroadcastNodePorts = new HashMap<Long, Set<NodePortTuple>>();
-
-        pathcache = CacheBuilder.newBuilder().concurrencyLevel(4)
-                    .maximumSize(1000L)
-                    .build(
-                            new CacheLoader<RouteId, Route>() {
-                                public Route load(RouteId rid) {
-                                    return pathCacheLoader.load(rid);
-                                }
-                            });
+        nextHopTables = new HashMap<Long, NextHopTable>();
     }
 
     public void compute() {
@@ -535,7 +511,7 @@ public class TopologyInstance {
     }
 
     protected void calculateShortestPathTreeInClusters() {
-        pathcache.invalidateAll();
+        nextHopTables.clear();
         destinationRootedTrees.clear();
 
         Map<Link, Integer> linkCost = new HashMap<Link, Integer>();
@@ -554,6 +530,27 @@ public class TopologyInstance {
                 BroadcastTree tree = dijkstra(c, node, linkCost, true);
                 destinationRootedTrees.put(node, tree);
             }
+            buildNextHopTable(c);
+        }
+    }
+
+    /**
+     * Fill the all-pairs next hop table of the cluster from the
+     * destination rooted trees of its switches.
+     */
+    protected void buildNextHopTable(Cluster c) {
+        NextHopTable table = new NextHopTable(c.links.keySet());
+        for (int d = 0; d < table.size(); d++) {
+            BroadcastTree tree = destinationRootedTrees.get(table.getNode(d));
+            if (tree == null) continue;
+            for (int s = 0; s < table.size(); s++) {
+                Link l = tree.getLinks().get(table.getNode(s));
+                if (l == null) continue;
+                table.setNextHops(s, d, new Link[] { l });
+            }
+        }
+        for (Long node : c.links.keySet()) {
+            nextHopTables.put(node, table);
         }
     }
 
@@ -599,11 +596,11 @@ public class TopologyInstance {
         LinkedList<NodePortTuple> switchPorts =
                 new LinkedList<NodePortTuple>();
 
-        if (destinationRootedTrees == null) return null;
-        if (destinationRootedTrees.get(dstId) == null) return null;
+        NextHopTable table = nextHopTables.get(dstId);
+        if (table == null) return null;
 
-        Map<Long, Link> nexthoplinks =
-                destinationRootedTrees.get(dstId).getLinks();
+        int s = table.indexOf(srcId);
+        int d = table.indexOf(dstId);
 
         if (!switches.contains(srcId) || !switches.contains(dstId)) {
             // This is a switch that is not connected to any other switch
@@ -614,15 +611,15 @@ public class TopologyInstance {
             // The only possible non-null path for this case is
             // if srcId equals dstId --- and that too is an 'empty' path []
 
-        } else if ((nexthoplinks!=null) && (nexthoplinks.get(srcId)!=null)) {
-            while (srcId != dstId) {
-                Link l = nexthoplinks.get(srcId);
+        } else if (s >= 0 && table.getNextHops(s, d).length > 0) {
+            while (s != d) {
+                Link l = table.getNextHops(s, d)[0];
 
                 npt = new NodePortTuple(l.getSrc(), l.getSrcPort());
                 switchPorts.addLast(npt);
                 npt = new NodePortTuple(l.getDst(), l.getDstPort());
                 switchPorts.addLast(npt);
-                srcId = nexthoplinks.get(srcId).getDst();
+                s = table.indexOf(l.getDst());
             }
         }
         // else, no path exists, and path equals null
@@ -636,6 +633,27 @@ public class TopologyInstance {
         return result;
     }
 
+    /**
+     * Get the route from the next hop table of the destination cluster,
+     * assembling it on first use.
+     * @return the route or null if there is no route
+     */
+    protected Route getTableRoute(RouteId id) {
+        NextHopTable table = nextHopTables.get(id.getDst());
+        if (table == null) return null;
+        int s = table.indexOf(id.getSrc());
+        int d = table.indexOf(id.getDst());
+        if (s < 0) return null;
+
+        Route result = table.getRoute(s, d);
+        if (result == null) {
+            result = buildroute(id);
+            if (result == null) return null;
+            result = table.putRoute(s, d, result);
+        }
+        return result;
+    }
+
     protected int getCost(long srcId, long dstId) {
         BroadcastTree bt = destinationRootedTrees.get(dstId);
         if (bt == null) return -1;
@@ -688,22 +706,13 @@ public class TopologyInstance {
         return r;
     }
 
-    // NOTE: Return a null route if srcId equals dstId.  The null route
-    // need not be stored in the cache.  Moreover, the LoadingCache will
-    // throw an exception if null route is returned.
+    // NOTE: Return a null route if srcId equals dstId.
     protected Route getRoute(long srcId, long dstId, long cookie) {
         // Return null route if srcId equals dstId
         if (srcId == dstId) return null;
 
-
         RouteId id = new RouteId(srcId, dstId);
-        Route result = null;
-
-        try {
-            result = pathcache.get(id);
-        } catch (Exception e) {
-            log.error("{}", e);
-        }
+        Route result = getTableRoute(id);
 
         if (log.isTraceEnabled()) {
             log.trace("getRoute: {} -> {}", id, result);
@@ -947,8 +947,7 @@ public class TopologyManager implements
 
         // get the packet-in switch.
         Ethernet eth =
-                IControllerService.bcStore.
-                get(cntx,IControllerService.CONTEXT_PI_PAYLOAD);
+                IControllerService.PI_PAYLOAD_KEY.get(cntx);
 
         if (eth.getEtherType() == Ethernet.TYPE_BSN) {
             BSN bsn = (BSN) eth.getPayload();
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Allocates the indexes of a fixed range [0, size) using a hierarchy of
+ * bitmaps. The bottom level has one bit per index, set if the index is
+ * allocated. Each level above has one bit per word of the level below,
+ * set if that word is full, up to a single word at the top. Allocating
+ * the lowest free index, reserving and releasing a specific index all take
+ * O(log64 size) word operations, and the whole range costs about one bit
+ * per index.
+ *
+ * The allocator is lock-free. The upper levels are hints that are kept
+ * consistent by setting a parent bit only after a word became full and
+ * checking the word again afterwards, and by clearing the parent bit after
+ * a bit of the word was cleared.
+ */
+public class BitmapAllocator {
+
+    private final int size;
+    // levels[0] is the bottom level
+    private final AtomicLongArray[] levels;
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    /**
+     * @param size the number of indexes
+     */
+    public BitmapAllocator(int size) {
+        if (size <= 0)
+            throw new IllegalArgumentException("Invalid size " + size);
+        this.size = size;
+        int depth = 1;
+        for (long n = words(size); n > 1; n = words(n)) {
+            depth++;
+        }
+        levels = new AtomicLongArray[depth];
+        long bits = size;
+        for (int l = 0; l < depth; l++) {
+            int words = (int) words(bits);
+            levels[l] = new AtomicLongArray(words);
+            // the bits past the end are always set
+            int used = (int) (bits & 63);
+            if (used != 0)
+                levels[l].set(words - 1, -1L << used);
+            bits = words;
+        }
+        // the padding may have filled words
+        for (int l = 0; l < depth - 1; l++) {
+            for (int w = 0; w < levels[l].length(); w++) {
+                if (levels[l].get(w) == -1L)
+                    setBit(levels[l + 1], w);
+            }
+        }
+    }
+
+    private static long words(long bits) {
+        return (bits + 63) >>> 6;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of allocated indexes
+     */
+    public int getAllocatedCount() {
+        return allocated.get();
+    }
+
+    /**
+     * @param index an index
+     * @return true if the index is allocated
+     */
+    public boolean isAllocated(int index) {
+        checkIndex(index);
+        return (levels[0].get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    /**
+     * Allocate the lowest free index
+     * @return the index, or -1 if all indexes are allocated
+     */
+    public int allocate() {
+        int top = levels.length - 1;
+        while (true) {
+            if (levels[top].get(0) == -1L)
+                return -1;
+            // descend along the lowest words that are not full
+            int word = 0;
+            int l = top;
+            for (; l > 0; l--) {
+                long bits = levels[l].get(word);
+                if (bits == -1L)
+                    break;
+                word = (word << 6) | Long.numberOfTrailingZeros(~bits);
+            }
+            if (l > 0) {
+                // a stale hint, fix it and retry
+                wordFull(l, word);
+                continue;
+            }
+            AtomicLongArray leaf = levels[0];
+            while (true) {
+                long bits = leaf.get(word);
+                if (bits == -1L) {
+                    wordFull(0, word);
+                    break;
+                }
+                long bit = Long.lowestOneBit(~bits);
+                if (leaf.compareAndSet(word, bits, bits | bit)) {
+                    allocated.incrementAndGet();
+                    if ((bits | bit) == -1L)
+                        wordFull(0, word);
+                    return (word << 6) | Long.numberOfTrailingZeros(bit);
+                }
+            }
+        }
+    }
+
+    /**
+     * Allocate a specific index
+     * @param index the index
+     * @return true if the index was free
+     */
+    public boolean reserve(int index) {
+        checkIndex(index);
+        AtomicLongArray leaf = levels[0];
+        int word = index >>> 6;
+        long bit = 1L << index;
+        while (true) {
+            long bits = leaf.get(word);
+            if ((bits & bit) != 0)
+                return false;
+            if (leaf.compareAndSet(word, bits, bits | bit)) {
+                allocated.incrementAndGet();
+                if ((bits | bit) == -1L)
+                    wordFull(0, word);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Free an index
+     * @param index the index
+     * @return true if the index was allocated
+     */
+    public boolean release(int index) {
+        checkIndex(index);
+        AtomicLongArray leaf = levels[0];
+        int word = index >>> 6;
+        long bit = 1L << index;
+        while (true) {
+            long bits = leaf.get(word);
+            if ((bits & bit) == 0)
+                return false;
+            if (leaf.compareAndSet(word, bits, bits & ~bit)) {
+                allocated.decrementAndGet();
+                if (bits == -1L)
+                    wordNotFull(0, word);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Free all indexes
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            if (isAllocated(i))
+                release(i);
+        }
+    }
+
+    /**
+     * Mark a word of a level as full in the level above, as long as it
+     * stays full
+     */
+    private void wordFull(int level, int word) {
+        for (int l = level; l < levels.length - 1; l++) {
+            AtomicLongArray parent = levels[l + 1];
+            int parentWord = word >>> 6;
+            setBit(parent, word);
+            if (levels[l].get(word) != -1L) {
+                // released in the meantime
+                wordNotFull(l, word);
+                return;
+            }
+            if (parent.get(parentWord) != -1L)
+                return;
+            word = parentWord;
+        }
+    }
+
+    /**
+     * Mark a word of a level as not full in the levels above
+     */
+    private void wordNotFull(int level, int word) {
+        for (int l = level; l < levels.length - 1; l++) {
+            AtomicLongArray parent = levels[l + 1];
+            int parentWord = word >>> 6;
+            if (!clearBit(parent, word))
+                return;
+            word = parentWord;
+        }
+    }
+
+    private static void setBit(AtomicLongArray a, int index) {
+        int word = index >>> 6;
+        long bit = 1L << index;
+        while (true) {
+            long bits = a.get(word);
+            if ((bits & bit) != 0 || a.compareAndSet(word, bits, bits | bit))
+                return;
+        }
+    }
+
+    /**
+     * @return true if the word was full before the bit was cleared
+     */
+    private static boolean clearBit(AtomicLongArray a, int index) {
+        int word = index >>> 6;
+        long bit = 1L << index;
+        while (true) {
+            long bits = a.get(word);
+            if ((bits & bit) == 0)
+                return false;
+            if (a.compareAndSet(word, bits, bits & ~bit))
+                return bits == -1L;
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index " + index +
+                                                " not in [0, " + size + ")");
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.util;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A thread-safe set that keeps its elements in insertion order and can be
+ * drained from the head like a queue. Membership is kept in a concurrent
+ * hash map so that contains is O(1) and takes no lock; add, remove and
+ * poll are O(1) and serialized by a lock on the ordered set.
+ *
+ * Iteration is over a snapshot of the set taken in insertion order, and
+ * the iterator supports remove.
+ *
+ * @param <E> the type of the elements
+ */
+public class ConcurrentLinkedHashSet<E> extends AbstractSet<E> {
+    private final ConcurrentHashMap<E, Boolean> members =
+            new ConcurrentHashMap<E, Boolean>();
+    // guarded by itself
+    private final LinkedHashSet<E> order = new LinkedHashSet<E>();
+
+    @Override
+    public boolean add(E e) {
+        if (e == null)
+            throw new NullPointerException();
+        synchronized (order) {
+            if (!order.add(e))
+                return false;
+            members.put(e, Boolean.TRUE);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        // avoid the lock for the common case of a non-member
+        if (o == null || !members.containsKey(o))
+            return false;
+        synchronized (order) {
+            if (!order.remove(o))
+                return false;
+            members.remove(o);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o != null && members.containsKey(o);
+    }
+
+    /**
+     * Remove and return the oldest element
+     * @return the oldest element or null if the set is empty
+     */
+    public E poll() {
+        synchronized (order) {
+            Iterator<E> it = order.iterator();
+            if (!it.hasNext())
+                return null;
+            E e = it.next();
+            it.remove();
+            members.remove(e);
+            return e;
+        }
+    }
+
+    /**
+     * @return the oldest element or null if the set is empty
+     */
+    public E peek() {
+        synchronized (order) {
+            Iterator<E> it = order.iterator();
+            return it.hasNext() ? it.next() : null;
+        }
+    }
+
+    @Override
+    public int size() {
+        return members.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return members.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        synchronized (order) {
+            order.clear();
+            members.clear();
+        }
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        final List<E> snapshot;
+        synchronized (order) {
+            snapshot = new ArrayList<E>(order);
+        }
+        return new Iterator<E>() {
+            int next = 0;
+            E last = null;
+
+            @Override
+            public boolean hasNext() {
+                return next < snapshot.size();
+            }
+
+            @Override
+            public E next() {
+                if (next >= snapshot.size())
+                    throw new NoSuchElementException();
+                last = snapshot.get(next++);
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null)
+                    throw new IllegalStateException();
+                ConcurrentLinkedHashSet.this.remove(last);
+                last = null;
+            }
+        };
+    }
+}
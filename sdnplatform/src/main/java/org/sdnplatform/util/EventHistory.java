@@ -16,9 +16,27 @@
 
 package org.sdnplatform.util;
 
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * A fixed size history of the most recent events of one type.
+ *
+ * Producers never take a lock. Each put claims the next sequence number
+ * from an atomic counter and writes the preallocated event at that
+ * sequence modulo the history size. Every slot carries the sequence of the
+ * event it holds, so a reader copies the latest events into a snapshot
+ * (the copy constructor) and drops any slot a producer touched while it
+ * was being copied, without ever blocking the producers.
+ *
  * @author subrata
  *
  */
@@ -26,19 +44,36 @@ import java.util.ArrayList;
 public class EventHistory<T> {
     public static final int EV_HISTORY_DEFAULT_SIZE = 1024;
 
+    /**
+     * Marks the binary format written by {@link #writeTo}
+     */
+    protected static final int SPILL_MAGIC = 0x45564831;
+
+    // Slot version while a producer writes the slot
+    private static final long BUSY = Long.MIN_VALUE;
+
     public int     event_history_size;
     public int     current_index;
     public boolean full; // true if all are in use
     public ArrayList<Event> events;
 
+    // Next sequence to claim; null for a snapshot
+    private final AtomicLong sequence;
+    // Events with a lower sequence were cleared
+    private volatile long clearedSequence;
+
     public int getEvent_history_size() {
         return event_history_size;
     }
     public int getCurrent_index() {
-        return current_index;
+        if (sequence == null)
+            return current_index;
+        return (int)(sequence.get() % event_history_size);
     }
     public boolean isFull() {
-        return full;
+        if (sequence == null)
+            return full;
+        return sequence.get() - clearedSequence >= event_history_size;
     }
     public ArrayList<Event> getEvents() {
         return events;
@@ -46,7 +81,12 @@ public class EventHistory<T> {
 
     public class Event {
         public EventHistoryBaseInfo base_info;
-        public T info;
+        public volatile T info;
+
+        // Sequence of the event in the slot, BUSY while it is written
+        volatile long version;
+        // Set when a snapshot references info, so it is not recycled
+        volatile boolean captured;
     }
 
     public enum EvState {
@@ -73,6 +113,15 @@ public class EventHistory<T> {
         CLUSTER_ID_CHANGED_FOR_A_SWITCH,
     }
 
+    /**
+     * Writes and reads the event type of an event history in the binary
+     * format used by {@link EventHistory#spill}
+     */
+    public interface IEventCodec<T> {
+        public void write(T info, DataOutput out) throws IOException;
+        public T read(DataInput in) throws IOException;
+    }
+
     // Constructor
     public EventHistory(int maxEvents) {
         events = new ArrayList<Event>(maxEvents);
@@ -83,12 +132,15 @@ public class EventHistory<T> {
             evH.info      = null;
             evH.base_info.state = EvState.FREE;
             evH.base_info.idx   = idx;
+            // the slot is free for the first producer that claims idx
+            evH.version   = idx - maxEvents;
             events.add(idx, evH);
         }
         
         event_history_size   = maxEvents;
         current_index        = 0;
         full                 = false;
+        sequence             = new AtomicLong();
     }
 
     // Constructor for default size
@@ -96,54 +148,61 @@ public class EventHistory<T> {
         this(EV_HISTORY_DEFAULT_SIZE);
     }
 
-    // Copy constructor - copy latest k items of the event history
+    // Copy constructor - copy latest k items of the event history, newest
+    // first. The event info objects are shared with the source history,
+    // which no longer recycles them.
     public EventHistory(EventHistory<T> eventHist, int latestK) {
+        sequence = null;
         if (eventHist == null) {
             return;
         }
-        int curSize = (eventHist.full)?eventHist.event_history_size:
-                                                    eventHist.current_index;
-        int size  = (latestK < curSize)?latestK:curSize;
-        int evIdx = eventHist.current_index;
-        int topSz = (evIdx >= size)?size:evIdx;
-
-        // Need to create a new one since size is different
-        events = new ArrayList<Event>(size);
-
-        // Get the top part
-        int origIdx = evIdx;
-        for (int idx = 0; idx < topSz; idx++) {
-            Event evH         = eventHist.events.get(--origIdx);
-            evH.base_info.idx = idx;
-            events.add(idx, evH);
-        }
-
-        // Get the bottom part
-        origIdx = eventHist.event_history_size;
-        for (int idx = topSz; idx < size; idx++) {
-            Event evH = eventHist.events.get(--origIdx);
-            evH.base_info.idx = idx;
-            events.add(idx, evH);
-        }
-        
-        event_history_size   = size;
+        events = eventHist.snapshot(latestK);
+        event_history_size   = events.size();
         current_index        = 0; // since it is full
         full                 = true;
     }
 
-    // Get an index for writing a new event. This method is synchronized for
-    // this event history infra. to be thread-safe. Once the index is obtained
-    // by the caller event at the index is updated without any lock
-    public synchronized int NextIdx() {
-        // curIdx should be in the 0 to evArraySz-1
-        if (current_index == (event_history_size-1)) {
-            current_index = 0;
-            full = true;
-            return (event_history_size-1);
-        } else {
-            current_index++;
-            return (current_index-1);
+    // Snapshot read back from a spilled history
+    private EventHistory(ArrayList<Event> events) {
+        sequence = null;
+        this.events = events;
+        event_history_size   = events.size();
+        current_index        = 0;
+        full                 = true;
+    }
+
+    /**
+     * Copy the latest k events, newest first. Events that are overwritten
+     * while they are copied are left out.
+     */
+    protected ArrayList<Event> snapshot(int latestK) {
+        long head = sequence.get();
+        long oldest = Math.max(clearedSequence,
+                               head - Math.min(latestK, event_history_size));
+        ArrayList<Event> snap =
+                new ArrayList<Event>((int)Math.max(0, head - oldest));
+        for (long seq = head - 1; seq >= oldest; seq--) {
+            Event evH = events.get((int)(seq % event_history_size));
+            if (evH.version != seq) continue;
+            evH.captured = true;
+            EventHistoryBaseInfo base = evH.base_info;
+            long time_ms = base.time_ms;
+            EvAction action = base.action;
+            T info = evH.info;
+            // the producer of a later sequence changed the slot meanwhile
+            if (evH.version != seq) continue;
+
+            Event copy = new Event();
+            copy.base_info = new EventHistoryBaseInfo();
+            copy.base_info.idx = snap.size();
+            copy.base_info.time_ms = time_ms;
+            copy.base_info.action = action;
+            copy.base_info.state = EvState.ACTIVE;
+            copy.info = info;
+            copy.version = seq;
+            snap.add(copy);
         }
+        return snap;
     }
 
     /**
@@ -152,33 +211,121 @@ public class EventHistory<T> {
      * Supplied object t is used to populate the event history array
      * and the current object at that array location is returned to the
      * calling process so that the calling process can use that object
-     * for the next event of the same type
+     * for the next event of the same type. Null is returned instead if a
+     * snapshot may still reference that object.
      * @param t
      * @param op
      * @return
      */
 
     public T put(T t, EvAction action) {
-        int idx = NextIdx();
-        Event evH = events.get(idx);
-        evH.base_info.state = EvState.BEING_MODIFIED;
+        long seq = sequence.getAndIncrement();
+        Event evH = events.get((int)(seq % event_history_size));
+        // Wait for the producer of the previous lap to finish the slot.
+        // It is only behind when the history wrapped around during its
+        // write, so this practically never spins.
+        long prev = seq - event_history_size;
+        while (evH.version != prev) {
+            Thread.yield();
+        }
+        // the version guards the slot, snapshots do not read its state
+        evH.version = BUSY;
         evH.base_info.time_ms = System.currentTimeMillis();
         evH.base_info.action = action;
         T temp = evH.info;
+        boolean recycle = !evH.captured;
+        if (!recycle) evH.captured = false;
         evH.info = t;
-        evH.base_info.state = EvState.ACTIVE;
-        return temp;
+        if (seq < event_history_size)
+            evH.base_info.state = EvState.ACTIVE;
+        evH.version = seq;
+        return recycle ? temp : null;
     }
 
     /***
-     * Clear the event history, needs to be done under lock
+     * Clear the event history. Producers may keep adding events while the
+     * history is cleared.
      */
     public void clear() {
-        for (int idx = 0; idx < event_history_size; idx++) {
-            Event evH = events.get(idx);
-            evH.base_info.state = EvState.FREE;
-            current_index = 0;
-            full = false;
+        clearedSequence = sequence.get();
+    }
+
+    /**
+     * Write a snapshot of the event history in a binary format that
+     * {@link #readFrom} reads back
+     */
+    public void writeTo(DataOutput out, IEventCodec<T> codec)
+            throws IOException {
+        List<Event> snap = (sequence == null) ? events :
+                                                snapshot(event_history_size);
+        out.writeInt(SPILL_MAGIC);
+        out.writeInt(snap.size());
+        for (Event evH : snap) {
+            out.writeLong(evH.version);
+            out.writeLong(evH.base_info.time_ms);
+            out.writeByte((evH.base_info.action == null) ? -1 :
+                                evH.base_info.action.ordinal());
+            out.writeBoolean(evH.info != null);
+            if (evH.info != null)
+                codec.write(evH.info, out);
+        }
+    }
+
+    /**
+     * Write a snapshot of the event history to the given file for
+     * post-mortem analysis. The file is replaced only once the snapshot
+     * is completely written.
+     */
+    public void spill(File file, IEventCodec<T> codec) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            writeTo(out, codec);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            // renameTo does not replace an existing file on every platform
+            if (!file.delete() || !tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("Could not replace " + file);
+            }
+        }
+    }
+
+    /**
+     * Read an event history written by {@link #writeTo}, newest event
+     * first
+     */
+    public static <T> EventHistory<T> readFrom(DataInput in,
+                                               IEventCodec<T> codec)
+            throws IOException {
+        if (in.readInt() != SPILL_MAGIC)
+            throw new IOException("Not an event history");
+        int count = in.readInt();
+        if (count < 0)
+            throw new IOException("Invalid event count " + count);
+        EvAction[] actions = EvAction.values();
+        ArrayList<EventHistory<T>.Event> events =
+                new ArrayList<EventHistory<T>.Event>(count);
+        EventHistory<T> evHist = new EventHistory<T>(events);
+        for (int idx = 0; idx < count; idx++) {
+            EventHistory<T>.Event evH = evHist.new Event();
+            evH.version = in.readLong();
+            evH.base_info = new EventHistoryBaseInfo();
+            evH.base_info.idx = idx;
+            evH.base_info.time_ms = in.readLong();
+            int action = in.readByte();
+            if (action >= actions.length)
+                throw new IOException("Unknown event action " + action);
+            evH.base_info.action = (action < 0) ? null : actions[action];
+            evH.base_info.state = EvState.ACTIVE;
+            if (in.readBoolean())
+                evH.info = codec.read(in);
+            events.add(evH);
         }
+        evHist.event_history_size = count;
+        return evHist;
     }
 }
@@ -21,9 +21,9 @@ import org.codehaus.jackson.map.annotate.JsonSerialize;
 @JsonSerialize(using=EventHistoryBaseInfoJSONSerializer.class)
 public class EventHistoryBaseInfo {
     public int              idx;
-    public long             time_ms; // timestamp in milliseconds
-    public EventHistory.EvState          state;
-    public EventHistory.EvAction         action;
+    public volatile long    time_ms; // timestamp in milliseconds
+    public volatile EventHistory.EvState  state;
+    public volatile EventHistory.EvAction action;
 
     // Getters
     public int getIdx() {
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.util;
+
+/**
+ * A fixed size cache of 128 bit fingerprints. Each fingerprint is stored
+ * together with its expiry time in primitive arrays that are allocated
+ * once, so the cache never allocates and never holds on to the objects the
+ * fingerprints were computed from.
+ *
+ * The slots are grouped into buckets, and a fingerprint may only live in
+ * the bucket given by its hash. If the bucket has no free or expired slot,
+ * a victim is chosen with the clock algorithm: slots that were hit since
+ * the bucket's hand last passed them get a second chance.
+ *
+ * Buckets are independent of each other, so updates are only serialized
+ * per stripe of buckets rather than on the whole cache.
+ *
+ * Each entry can carry a tag (e.g., the switch DPID) so that all entries
+ * with the same tag can be dropped at once with {@link #invalidate(long)}.
+ */
+public class FingerprintCache {
+    /**
+     * Number of slots in a bucket. Must be a power of 2
+     */
+    protected static final int PROBE_LENGTH = 8;
+
+    /**
+     * Maximum number of locks guarding the buckets. Must be a power of 2
+     */
+    protected static final int MAX_STRIPES = 64;
+
+    private final long timeoutInterval;    // specified in milliseconds
+    private final int bucketMask;
+    private final long[] fingerprintHigh;
+    private final long[] fingerprintLow;
+    private final long[] tags;
+    // expiry time of each slot. 0 if the slot was never used
+    private final long[] expiry;
+    private final boolean[] referenced;
+    // clock hand of each bucket
+    private final byte[] clockHands;
+    private final Object[] stripes;
+
+    /**
+     *
+     * @param capacity the number of entries the cache should hold. The
+     * table is sized to the next power of 2.
+     * @param timeToLive specified in milliseconds
+     */
+    public FingerprintCache(int capacity, int timeToLive) {
+        int size = PROBE_LENGTH;
+        while (size < capacity)
+            size <<= 1;
+        int buckets = size / PROBE_LENGTH;
+        bucketMask = buckets - 1;
+        fingerprintHigh = new long[size];
+        fingerprintLow = new long[size];
+        tags = new long[size];
+        expiry = new long[size];
+        referenced = new boolean[size];
+        clockHands = new byte[buckets];
+        stripes = new Object[Math.min(buckets, MAX_STRIPES)];
+        for (int i = 0; i < stripes.length; i++)
+            stripes[i] = new Object();
+        timeoutInterval = timeToLive;
+    }
+
+    public long getTimeoutInterval() {
+        return this.timeoutInterval;
+    }
+
+    /**
+     * @return the number of slots in the cache
+     */
+    public int getSize() {
+        return expiry.length;
+    }
+
+    /**
+     * Always try to update the cache and set the expiry time for this
+     * fingerprint.
+     *
+     * Return true, if a valid existing entry was found, else return false.
+     *
+     * @param high the upper 64 bit of the fingerprint
+     * @param low the lower 64 bit of the fingerprint
+     * @return boolean
+     */
+    public boolean update(long high, long low) {
+        return update(high, low, 0);
+    }
+
+    /**
+     * Same as {@link #update(long, long)} but records a tag with the
+     * entry that can later be passed to {@link #invalidate(long)}
+     *
+     * @param high the upper 64 bit of the fingerprint
+     * @param low the lower 64 bit of the fingerprint
+     * @param tag the tag of the entry
+     * @return boolean
+     */
+    public boolean update(long high, long low, long tag) {
+        int bucket = (int)(high ^ (high >>> 32)) & bucketMask;
+        synchronized (stripes[bucket & (stripes.length - 1)]) {
+            return update(bucket, high, low, tag);
+        }
+    }
+
+    /**
+     * Drop all entries with the given tag. This walks the whole table,
+     * so it is meant for rare events like a switch disconnecting.
+     *
+     * @param tag the tag of the entries to drop
+     */
+    public void invalidate(long tag) {
+        int bucketsPerStripe = (bucketMask + 1) / stripes.length;
+        for (int stripe = 0; stripe < stripes.length; stripe++) {
+            synchronized (stripes[stripe]) {
+                // buckets are assigned to stripes by their low bits
+                for (int i = 0; i < bucketsPerStripe; i++) {
+                    int base = (i * stripes.length + stripe) * PROBE_LENGTH;
+                    for (int slot = base; slot < base + PROBE_LENGTH; slot++) {
+                        if (expiry[slot] != 0 && tags[slot] == tag) {
+                            expiry[slot] = 0;
+                            referenced[slot] = false;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Update a fingerprint in its bucket. Must be called with the
+     * bucket's stripe lock held.
+     */
+    private boolean update(int bucket, long high, long low, long tag) {
+        long now = System.currentTimeMillis();
+        int base = bucket * PROBE_LENGTH;
+        int free = -1;
+        for (int slot = base; slot < base + PROBE_LENGTH; slot++) {
+            if (expiry[slot] != 0 &&
+                fingerprintHigh[slot] == high &&
+                fingerprintLow[slot] == low) {
+                referenced[slot] = true;
+                if (now <= expiry[slot])
+                    return true;
+                expiry[slot] = now + timeoutInterval;
+                tags[slot] = tag;
+                return false;
+            }
+            if (free < 0 && expiry[slot] < now)
+                free = slot;
+        }
+
+        if (free < 0) {
+            // every slot in the bucket is live. Sweep the bucket starting
+            // at the clock hand, clearing the reference bits as we go. The
+            // second round is guaranteed to find a slot.
+            int hand = clockHands[bucket];
+            for (int i = 0; ; i++) {
+                int slot = base + ((hand + i) & (PROBE_LENGTH - 1));
+                if (!referenced[slot]) {
+                    free = slot;
+                    clockHands[bucket] =
+                            (byte)((hand + i + 1) & (PROBE_LENGTH - 1));
+                    break;
+                }
+                referenced[slot] = false;
+            }
+        }
+        fingerprintHigh[free] = high;
+        fingerprintLow[free] = low;
+        tags[free] = tag;
+        expiry[free] = now + timeoutInterval;
+        referenced[free] = false;
+        return false;
+    }
+}
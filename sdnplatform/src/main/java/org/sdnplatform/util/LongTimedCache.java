@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size, lock-free cache from long keys to 16 bit values, such as
+ * the port a MAC address and VLAN were learned on. Readers and writers
+ * never block each other and lookups do not allocate.
+ *
+ * A key hashes to a bucket of PROBE_LENGTH slots. A new key takes a free
+ * or expired slot of its bucket. If there is none, a victim is chosen with
+ * the clock algorithm: entries that were read since the hand last passed
+ * them get a second chance. The cache holds at most its capacity rounded up
+ * to a power of 2, and a key may be evicted while other buckets still have
+ * room.
+ *
+ * Each slot is a key word and a state word holding the value, the time it
+ * was written, a tag of the key hash and the referenced bit. Writers take a
+ * slot over by swapping its state word to BUSY first, so readers check the
+ * state word before and after reading the key. Two threads adding the same
+ * key at once may leave it in two slots; lookups return the newer one and
+ * the stale one ages out.
+ */
+public class LongTimedCache {
+    /**
+     * Number of slots in a bucket. Must be a power of 2
+     */
+    protected static final int PROBE_LENGTH = 8;
+
+    // Layout of a state word
+    private static final long VALID = 1L << 63;
+    private static final long REFERENCED = 1L << 62;
+    private static final int TAG_SHIFT = 54;
+    private static final long TAG_MASK = 0xffL;
+    private static final int TIME_SHIFT = 16;
+    private static final long TIME_MASK = (1L << 38) - 1;
+    private static final long VALUE_MASK = 0xffffL;
+    // States of a slot that holds no entry
+    private static final long EMPTY = 0;
+    private static final long BUSY = 1;
+
+    private final long timeoutInterval;    // specified in milliseconds
+    private final long baseTime;
+    private final int bucketMask;
+    private final AtomicLongArray keys;
+    private final AtomicLongArray states;
+
+    /**
+     * @param capacity the number of entries the cache should hold. The
+     * table is sized to the next power of 2.
+     * @param timeToLive specified in milliseconds. Entries never expire if
+     * it is 0
+     */
+    public LongTimedCache(int capacity, int timeToLive) {
+        int size = PROBE_LENGTH;
+        while (size < capacity)
+            size <<= 1;
+        bucketMask = size / PROBE_LENGTH - 1;
+        keys = new AtomicLongArray(size);
+        states = new AtomicLongArray(size);
+        timeoutInterval = timeToLive;
+        baseTime = System.currentTimeMillis();
+    }
+
+    public long getTimeoutInterval() {
+        return this.timeoutInterval;
+    }
+
+    /**
+     * @return the number of slots in the cache
+     */
+    public int getSize() {
+        return states.length();
+    }
+
+    /**
+     * Get the value of a key
+     * @param key the key
+     * @return the value between 0 and 65535, or -1 if the key is not in the
+     * cache or has expired
+     */
+    public int get(long key) {
+        long hash = mix(key);
+        int base = bucket(hash);
+        long tag = tag(hash);
+        long now = now();
+        long newest = -1;
+        long value = -1;
+        for (int i = base; i < base + PROBE_LENGTH; i++) {
+            long state = read(i, key, tag);
+            if (state == EMPTY || isExpired(state, now))
+                continue;
+            if ((state & REFERENCED) == 0)
+                states.compareAndSet(i, state, state | REFERENCED);
+            long age = (now - time(state)) & TIME_MASK;
+            if (newest < 0 || age < newest) {
+                newest = age;
+                value = state & VALUE_MASK;
+            }
+        }
+        return (int) value;
+    }
+
+    /**
+     * Set the value of a key, evicting another key if its bucket is full
+     * @param key the key
+     * @param value the value; only the lower 16 bits are kept
+     */
+    public void put(long key, int value) {
+        long hash = mix(key);
+        long now = now();
+        long state = VALID | (tag(hash) << TAG_SHIFT) |
+                (now << TIME_SHIFT) | (value & VALUE_MASK);
+        if (!replace(hash, key, state, now, false))
+            insert(hash, key, state, now);
+    }
+
+    /**
+     * Always try to update the cache and set the last-seen time for this
+     * key, like {@link TimedCache#update(Object)}.
+     *
+     * Return true, if a valid existing entry was found, else return false.
+     * (note: if multiple threads update simultaneously, more than one of
+     * them may return false)
+     *
+     * @param key
+     * @return boolean
+     */
+    public boolean update(long key) {
+        long hash = mix(key);
+        int base = bucket(hash);
+        long tag = tag(hash);
+        long now = now();
+        for (int i = base; i < base + PROBE_LENGTH; i++) {
+            long state = read(i, key, tag);
+            if (state != EMPTY && !isExpired(state, now)) {
+                if ((state & REFERENCED) == 0)
+                    states.compareAndSet(i, state, state | REFERENCED);
+                return true;
+            }
+        }
+        long state = VALID | (tag << TAG_SHIFT) | (now << TIME_SHIFT);
+        if (!replace(hash, key, state, now, true))
+            insert(hash, key, state, now);
+        return false;
+    }
+
+    /**
+     * Remove a key
+     * @param key the key
+     * @return true if the key was in the cache
+     */
+    public boolean remove(long key) {
+        long hash = mix(key);
+        int base = bucket(hash);
+        long tag = tag(hash);
+        boolean removed = false;
+        for (int i = base; i < base + PROBE_LENGTH; i++) {
+            long state = read(i, key, tag);
+            if (state != EMPTY && states.compareAndSet(i, state, EMPTY))
+                removed = true;
+        }
+        return removed;
+    }
+
+    /**
+     * Remove all keys. Keys written concurrently may survive.
+     */
+    public void clear() {
+        for (int i = 0; i < states.length(); i++) {
+            states.set(i, EMPTY);
+        }
+    }
+
+    /**
+     * @return the number of keys in the cache that have not expired
+     */
+    public int size() {
+        long now = now();
+        int size = 0;
+        for (int i = 0; i < states.length(); i++) {
+            long state = states.get(i);
+            if ((state & VALID) != 0 && !isExpired(state, now))
+                size++;
+        }
+        return size;
+    }
+
+    /**
+     * @return a copy of the keys that have not expired with their values
+     */
+    public Map<Long, Integer> toMap() {
+        Map<Long, Integer> map = new HashMap<Long, Integer>();
+        Map<Long, Long> ages = new HashMap<Long, Long>();
+        long now = now();
+        for (int i = 0; i < states.length(); i++) {
+            long state = states.get(i);
+            if ((state & VALID) == 0 || isExpired(state, now))
+                continue;
+            long key = keys.get(i);
+            if ((states.get(i) | REFERENCED) != (state | REFERENCED))
+                continue;
+            // of duplicates, keep the newest
+            long age = (now - time(state)) & TIME_MASK;
+            Long other = ages.get(key);
+            if (other == null || age < other) {
+                ages.put(key, age);
+                map.put(key, (int) (state & VALUE_MASK));
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Read the state of a slot if it holds the given key
+     * @return the state, or EMPTY if the slot holds another key
+     */
+    private long read(int i, long key, long tag) {
+        long state = states.get(i);
+        if ((state & VALID) == 0 ||
+                ((state >>> TAG_SHIFT) & TAG_MASK) != tag)
+            return EMPTY;
+        if (keys.get(i) != key)
+            return EMPTY;
+        // the slot must not have been taken over while reading the key;
+        // a reader may have set the referenced bit in the meantime
+        if ((states.get(i) | REFERENCED) != (state | REFERENCED))
+            return EMPTY;
+        return state;
+    }
+
+    /**
+     * Replace the state of the slot holding the key
+     * @param expiredOnly only replace an expired entry
+     * @return true if the key was found and replaced, or is live while
+     * only an expired entry was to be replaced
+     */
+    private boolean replace(long hash, long key, long newState, long now,
+                            boolean expiredOnly) {
+        int base = bucket(hash);
+        long tag = tag(hash);
+        for (int i = base; i < base + PROBE_LENGTH; i++) {
+            long state = read(i, key, tag);
+            while (state != EMPTY) {
+                if (expiredOnly && !isExpired(state, now))
+                    return true;
+                if (states.compareAndSet(i, state, newState | REFERENCED))
+                    return true;
+                state = read(i, key, tag);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Take over a free, expired or unreferenced slot of the bucket for the
+     * key. Gives up if all slots are being written by other threads.
+     */
+    private void insert(long hash, long key, long newState, long now) {
+        int base = bucket(hash);
+        for (int i = base; i < base + PROBE_LENGTH; i++) {
+            long state = states.get(i);
+            if ((state == EMPTY || ((state & VALID) != 0 &&
+                                    isExpired(state, now))) &&
+                    states.compareAndSet(i, state, BUSY)) {
+                write(i, key, newState);
+                return;
+            }
+        }
+        // the clock hand starts at a different slot for every key and
+        // write, so that no slot is always the first victim
+        int hand = (int) (hash ^ now);
+        for (int n = 0; n < 2 * PROBE_LENGTH; n++) {
+            int i = base + ((hand + n) & (PROBE_LENGTH - 1));
+            long state = states.get(i);
+            if (state == EMPTY) {
+                if (states.compareAndSet(i, state, BUSY)) {
+                    write(i, key, newState);
+                    return;
+                }
+            } else if ((state & VALID) == 0) {
+                continue;
+            } else if ((state & REFERENCED) != 0) {
+                states.compareAndSet(i, state, state & ~REFERENCED);
+            } else if (states.compareAndSet(i, state, BUSY)) {
+                write(i, key, newState);
+                return;
+            }
+        }
+    }
+
+    private void write(int i, long key, long state) {
+        keys.set(i, key);
+        states.set(i, state);
+    }
+
+    private boolean isExpired(long state, long now) {
+        return timeoutInterval > 0 &&
+                ((now - time(state)) & TIME_MASK) > timeoutInterval;
+    }
+
+    private int bucket(long hash) {
+        return ((int) hash & bucketMask) * PROBE_LENGTH;
+    }
+
+    private static long tag(long hash) {
+        return (hash >>> 56) & TAG_MASK;
+    }
+
+    private static long time(long state) {
+        return (state >>> TIME_SHIFT) & TIME_MASK;
+    }
+
+    private long now() {
+        return (System.currentTimeMillis() - baseTime) & TIME_MASK;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
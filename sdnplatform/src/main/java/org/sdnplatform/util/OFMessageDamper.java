@@ -21,6 +21,8 @@ import java.util.EnumSet;
 import java.util.Set;
 
 
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFType;
 import org.sdnplatform.core.ListenerContext;
@@ -30,6 +32,14 @@ import org.sdnplatform.core.IOFSwitch;
  * Dampens OFMessages sent to an OF switch. A message is only written to 
  * a switch if the same message (as defined by .equals()) has not been written
  * in the last n milliseconds. Timer granularity is based on TimedCache
+ * 
+ * In fingerprint mode the damper does not keep the messages. Instead it 
+ * serializes each message and stores a 128 bit fingerprint of the bytes 
+ * and the switch DPID in a {@link FingerprintCache}. Equal messages 
+ * serialize to the same bytes, so the result is the same as with .equals() 
+ * unless two fingerprints collide. Since the fingerprint only knows the 
+ * DPID, the owner must call {@link #clearSwitch(IOFSwitch)} when a switch 
+ * disconnects.
  * @author gregor
  *
  */
@@ -87,7 +97,23 @@ public class OFMessageDamper {
         
       
     }
+    // Constants from MurmurHash3
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    /**
+     * Per thread buffer the messages are serialized to for fingerprinting
+     */
+    private static final ThreadLocal<ChannelBuffer> fingerprintBuffer =
+            new ThreadLocal<ChannelBuffer>() {
+        @Override
+        protected ChannelBuffer initialValue() {
+            return ChannelBuffers.dynamicBuffer(256);
+        }
+    };
+
     TimedCache<DamperEntry> cache;
+    FingerprintCache fingerprintCache;
     EnumSet<OFType> msgTypesToCache;
     /**
      * 
@@ -102,7 +128,29 @@ public class OFMessageDamper {
     public OFMessageDamper(int capacity, 
                            Set<OFType> typesToDampen,  
                            int timeout) {
-        cache = new TimedCache<DamperEntry>(capacity, timeout);
+        this(capacity, typesToDampen, timeout, false);
+    }        
+    
+    /**
+     * 
+     * @param capacity the maximum number of messages that should be 
+     * kept
+     * @param typesToDampen The set of OFMessageTypes that should be 
+     * dampened by this instance. Other types will be passed through
+     * @param timeout The dampening timeout. A message will only be
+     * written if the last write for the an equal message more than
+     * timeout ms ago. 
+     * @param fingerprint true to keep fingerprints of the messages 
+     * instead of the messages themselves
+     */
+    public OFMessageDamper(int capacity, 
+                           Set<OFType> typesToDampen,  
+                           int timeout,
+                           boolean fingerprint) {
+        if (fingerprint)
+            fingerprintCache = new FingerprintCache(capacity, timeout);
+        else
+            cache = new TimedCache<DamperEntry>(capacity, timeout);
         msgTypesToCache = EnumSet.copyOf(typesToDampen);
     }        
     
@@ -141,8 +189,7 @@ public class OFMessageDamper {
             return true;
         }
         
-        DamperEntry entry = new DamperEntry(msg, sw);
-        if (cache.update(entry)) {
+        if (isDampened(sw, msg)) {
             // entry exists in cache. Dampening.
             return false; 
         } else {
@@ -153,4 +200,74 @@ public class OFMessageDamper {
             return true;
         }
     }
+    
+    /**
+     * Update the cache with the given message
+     * @param sw
+     * @param msg
+     * @return true if an equal message was written to the switch within
+     * the timeout
+     */
+    protected boolean isDampened(IOFSwitch sw, OFMessage msg) {
+        if (fingerprintCache == null)
+            return cache.update(new DamperEntry(msg, sw));
+        
+        ChannelBuffer buf = fingerprintBuffer.get();
+        buf.clear();
+        msg.writeTo(buf);
+        long swKey = sw.getId() * C1;
+        long h1 = swKey;
+        long h2 = ~swKey;
+        int len = buf.readableBytes();
+        int i = 0;
+        for (; i + 8 <= len; i += 8) {
+            long k = buf.getLong(i);
+            k *= C1;
+            k = Long.rotateLeft(k, 31);
+            k *= C2;
+            h1 ^= k;
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= Long.rotateLeft(k, 33);
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+        long tail = 0;
+        for (; i < len; i++) {
+            tail = (tail << 8) | (buf.getByte(i) & 0xff);
+        }
+        tail *= C1;
+        tail = Long.rotateLeft(tail, 31);
+        tail *= C2;
+        h1 ^= tail ^ len;
+        h2 ^= len;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return fingerprintCache.update(h1, h2, sw.getId());
+    }
+    
+    /**
+     * Forget the messages written to the given switch, so messages to 
+     * a new connection of the switch are not dampened. Only needed in 
+     * fingerprint mode, the TimedCache entries reference the switch 
+     * object itself.
+     * @param sw
+     */
+    public void clearSwitch(IOFSwitch sw) {
+        if (fingerprintCache != null)
+            fingerprintCache.invalidate(sw.getId());
+    }
+    
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
 }
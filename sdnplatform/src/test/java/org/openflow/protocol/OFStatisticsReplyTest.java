@@ -25,12 +25,14 @@ import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.openflow.protocol.factory.BasicFactory;
 import org.openflow.protocol.factory.OFMessageFactory;
+import org.openflow.protocol.statistics.OFFlowStatisticsCursor;
+import org.openflow.protocol.statistics.OFFlowStatisticsReply;
 import org.openflow.protocol.statistics.OFStatisticsType;
 import org.openflow.util.OFTestCase;
+import org.sdnplatform.packet.Ethernet;
 
 public class OFStatisticsReplyTest extends OFTestCase {
-    public void testOFFlowStatisticsReply() throws Exception {
-        byte[] packet = new byte[] { 0x01, 0x11, 0x01, 0x2c, 0x00, 0x00, 0x00,
+    protected static final byte[] packet = new byte[] { 0x01, 0x11, 0x01, 0x2c, 0x00, 0x00, 0x00,
                 0x01, 0x00, 0x01, 0x00, 0x00, 0x00, 0x60, 0x00, 0x00, 0x00,
                 0x00, 0x00, 0x00, 0x00, 0x02, 0x00, 0x00, 0x00, 0x00, 0x00,
                 0x03, 0x00, 0x00, 0x00, 0x00, 0x00, 0x02, (byte) 0xff,
@@ -64,6 +66,7 @@ public class OFStatisticsReplyTest extends OFTestCase {
                 0x00, 0x00, 0x00, 0x00, 0x00, (byte) 0xc4, 0x00, 0x00, 0x00,
                 0x08, 0x00, 0x02, 0x00, 0x00 };
 
+    public void testOFFlowStatisticsReply() throws Exception {
         OFMessageFactory factory = new BasicFactory();
         ChannelBuffer packetBuf = ChannelBuffers.wrappedBuffer(packet);
         List<OFMessage> msg = factory.parseMessage(packetBuf);
@@ -74,4 +77,71 @@ public class OFStatisticsReplyTest extends OFTestCase {
         TestCase.assertEquals(OFStatisticsType.FLOW, sr.getStatisticType());
         TestCase.assertEquals(3, sr.getStatistics().size());
     }
+
+    public void testOFFlowStatisticsCursor() throws Exception {
+        OFMessageFactory factory = new BasicFactory();
+        OFStatisticsReply sr = (OFStatisticsReply)
+                factory.parseMessage(ChannelBuffers.wrappedBuffer(packet))
+                       .get(0);
+
+        // the raw entries are written back unchanged
+        ChannelBuffer out = ChannelBuffers.dynamicBuffer();
+        sr.writeTo(out);
+        TestCase.assertEquals(ChannelBuffers.wrappedBuffer(packet), out);
+
+        @SuppressWarnings("unchecked")
+        List<OFFlowStatisticsReply> stats =
+                (List<OFFlowStatisticsReply>) sr.getStatistics();
+        TestCase.assertEquals(3, stats.size());
+
+        // a reply built from statistics objects can be walked as well
+        OFStatisticsReply built = new OFStatisticsReply();
+        built.setStatisticType(OFStatisticsType.FLOW);
+        built.setStatistics(stats);
+
+        for (OFStatisticsReply reply : new OFStatisticsReply[] {sr, built}) {
+            OFFlowStatisticsCursor c = new OFFlowStatisticsCursor();
+            c.reset(reply.getStatisticsData());
+            OFMatch match = new OFMatch();
+            for (OFFlowStatisticsReply fs : stats) {
+                TestCase.assertTrue(c.next());
+                TestCase.assertEquals(fs.getLength(), c.getLength());
+                TestCase.assertEquals(fs.getTableId(), c.getTableId());
+                TestCase.assertEquals(fs.getMatch(), c.readMatch(match));
+                TestCase.assertEquals(fs.getMatch().getWildcards(),
+                                      c.getWildcards());
+                TestCase.assertEquals(
+                        Ethernet.toLong(fs.getMatch().getDataLayerSource()),
+                        c.getDataLayerSource());
+                TestCase.assertEquals(
+                        Ethernet.toLong(
+                                fs.getMatch().getDataLayerDestination()),
+                        c.getDataLayerDestination());
+                TestCase.assertEquals(fs.getMatch().getDataLayerType(),
+                                      c.getDataLayerType());
+                TestCase.assertEquals(fs.getDurationSeconds(),
+                                      c.getDurationSeconds());
+                TestCase.assertEquals(fs.getPriority(), c.getPriority());
+                TestCase.assertEquals(fs.getIdleTimeout(),
+                                      c.getIdleTimeout());
+                TestCase.assertEquals(fs.getHardTimeout(),
+                                      c.getHardTimeout());
+                TestCase.assertEquals(fs.getCookie(), c.getCookie());
+                TestCase.assertEquals(fs.getPacketCount(),
+                                      c.getPacketCount());
+                TestCase.assertEquals(fs.getByteCount(), c.getByteCount());
+                TestCase.assertEquals(!fs.getActions().isEmpty(),
+                                      c.hasActions());
+            }
+            TestCase.assertFalse(c.next());
+        }
+
+        // a truncated entry is ignored
+        ChannelBuffer data = sr.getStatisticsData();
+        OFFlowStatisticsCursor c = new OFFlowStatisticsCursor();
+        c.reset(data.slice(data.readerIndex(), data.readableBytes() - 1));
+        TestCase.assertTrue(c.next());
+        TestCase.assertTrue(c.next());
+        TestCase.assertFalse(c.next());
+    }
 }
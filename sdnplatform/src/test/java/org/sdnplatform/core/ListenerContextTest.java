@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.core;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ListenerContextTest {
+    protected static final ListenerContextStore<String> store =
+            new ListenerContextStore<String>();
+
+    @Test
+    public void testKeys() {
+        ListenerContextKey<String> key1 =
+                ListenerContextKey.register("test.key1");
+        ListenerContextKey<String> key2 =
+                ListenerContextKey.register("test.key2");
+        assertSame(key1, ListenerContextKey.register("test.key1"));
+        assertSame(key1, ListenerContextKey.lookup("test.key1"));
+        assertNull(ListenerContextKey.lookup("test.unknown"));
+        assertEquals(key1.getSlot() + 1, key2.getSlot());
+
+        ListenerContext cntx = new ListenerContext();
+        assertNull(key1.get(cntx));
+        key1.put(cntx, "a");
+        key2.put(cntx, "b");
+        assertEquals("a", key1.get(cntx));
+        assertEquals("b", key2.get(cntx));
+        key1.remove(cntx);
+        assertNull(key1.get(cntx));
+        assertEquals("b", key2.get(cntx));
+        key2.put(cntx, null);
+        assertNull(key2.get(cntx));
+
+        // values don't survive a reset
+        key1.put(cntx, "a");
+        cntx.reset();
+        assertNull(key1.get(cntx));
+        key2.put(cntx, "c");
+        assertNull(key1.get(cntx));
+        assertEquals("c", key2.get(cntx));
+    }
+
+    @Test
+    public void testSlotsRegisteredLater() {
+        ListenerContext cntx = new ListenerContext();
+        ListenerContextKey<Integer> key = null;
+        for (int i = 0; i < 40; i++) {
+            key = ListenerContextKey.register("test.later" + i);
+        }
+        assertNull(key.get(cntx));
+        key.put(cntx, 42);
+        assertEquals(Integer.valueOf(42), key.get(cntx));
+    }
+
+    @Test
+    public void testStringApi() {
+        ListenerContextKey<String> key =
+                ListenerContextKey.register("test.string1");
+        ListenerContext cntx = new ListenerContext();
+
+        store.put(cntx, "test.string1", "a");
+        store.put(cntx, "test.string2", "b");
+        assertEquals("a", key.get(cntx));
+        assertEquals("a", store.get(cntx, "test.string1"));
+        assertEquals("b", store.get(cntx, "test.string2"));
+        store.remove(cntx, "test.string1");
+        assertNull(store.get(cntx, "test.string1"));
+
+        Map<String, Object> storage = cntx.getStorage();
+        assertEquals("b", storage.get("test.string2"));
+        assertNull(storage.get("test.unknown"));
+        assertNull(storage.put("test.string3", "c"));
+        assertEquals("c", store.get(cntx, "test.string3"));
+        assertEquals(2, storage.size());
+        assertEquals("b", storage.remove("test.string2"));
+        assertEquals(1, storage.size());
+        storage.clear();
+        assertTrue(storage.isEmpty());
+        assertNull(store.get(cntx, "test.string3"));
+    }
+}
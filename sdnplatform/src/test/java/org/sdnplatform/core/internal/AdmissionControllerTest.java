@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.core.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFPacketIn;
+import org.sdnplatform.core.internal.AdmissionController.AdmissionClass;
+import org.sdnplatform.packet.Data;
+import org.sdnplatform.packet.Ethernet;
+import org.sdnplatform.packet.IPv4;
+import org.sdnplatform.packet.TCP;
+import org.sdnplatform.packet.UDP;
+
+public class AdmissionControllerTest {
+    protected AdmissionController admission;
+
+    @Before
+    public void setUp() {
+        admission = new AdmissionController(100, 50, 10);
+    }
+
+    protected byte[] makePacket(short etherType, short vlan) {
+        Ethernet eth = new Ethernet();
+        eth.setSourceMACAddress("00:00:00:00:00:01");
+        eth.setDestinationMACAddress("ff:ff:ff:ff:ff:ff");
+        eth.setEtherType(etherType);
+        eth.setVlanID(vlan);
+        eth.setPayload(new Data(new byte[28]));
+        return eth.serialize();
+    }
+
+    protected byte[] makeIPv4(int srcIp, byte proto, short srcPort,
+                              short dstPort) {
+        Ethernet eth = new Ethernet();
+        eth.setSourceMACAddress("00:00:00:00:00:01");
+        eth.setDestinationMACAddress("00:00:00:00:00:02");
+        eth.setEtherType(Ethernet.TYPE_IPv4);
+        IPv4 ip = new IPv4();
+        ip.setSourceAddress(srcIp);
+        ip.setDestinationAddress("10.0.0.2");
+        ip.setTtl((byte)64);
+        ip.setProtocol(proto);
+        if (proto == IPv4.PROTOCOL_UDP) {
+            UDP udp = new UDP();
+            udp.setSourcePort(srcPort);
+            udp.setDestinationPort(dstPort);
+            udp.setPayload(new Data(new byte[8]));
+            ip.setPayload(udp);
+        } else {
+            TCP tcp = new TCP();
+            tcp.setSourcePort(srcPort);
+            tcp.setDestinationPort(dstPort);
+            tcp.setPayload(new Data(new byte[8]));
+            ip.setPayload(tcp);
+        }
+        eth.setPayload(ip);
+        return eth.serialize();
+    }
+
+    protected OFPacketIn makePacketIn(short inPort, byte[] data) {
+        OFPacketIn pi = new OFPacketIn();
+        pi.setInPort(inPort);
+        pi.setPacketData(data);
+        return pi;
+    }
+
+    /**
+     * Report one interval with the given processing delay
+     */
+    protected void overload(boolean overloaded) {
+        int count = overloaded ? 1000 : 1;
+        for (int i = 0; i < count; i++) {
+            admission.messageDequeued(i * 1000000L);
+        }
+        admission.messagesProcessed(count, count * 1000000L);
+        admission.updateBudget();
+    }
+
+    @Test
+    public void testClassify() {
+        admission.limiting = true;
+        assertEquals(AdmissionClass.LLDP,
+                     admission.classify(1L, (short)1,
+                             makePacket(Ethernet.TYPE_LLDP, (short)-1)));
+        assertEquals(AdmissionClass.LLDP,
+                     admission.classify(1L, (short)1,
+                             makePacket(Ethernet.TYPE_BSN, (short)-1)));
+        assertEquals(AdmissionClass.ARP,
+                     admission.classify(1L, (short)1,
+                             makePacket(Ethernet.TYPE_ARP, (short)-1)));
+        assertEquals(AdmissionClass.ARP,
+                     admission.classify(1L, (short)1,
+                             makePacket(Ethernet.TYPE_ARP, (short)10)));
+        assertEquals(AdmissionClass.DHCP,
+                     admission.classify(1L, (short)1,
+                             makeIPv4(0, IPv4.PROTOCOL_UDP,
+                                      UDP.DHCP_CLIENT_PORT,
+                                      UDP.DHCP_SERVER_PORT)));
+        assertEquals(AdmissionClass.OTHER,
+                     admission.classify(1L, (short)1, new byte[4]));
+
+        byte[] flow = makeIPv4(IPv4.toIPv4Address("10.0.0.1"),
+                               IPv4.PROTOCOL_TCP, (short)1000, (short)80);
+        assertEquals(AdmissionClass.FIRST_PACKET,
+                     admission.classify(1L, (short)1, flow));
+        assertEquals(AdmissionClass.OTHER,
+                     admission.classify(1L, (short)1, flow));
+        // the same flow from another switch is a new flow
+        assertEquals(AdmissionClass.FIRST_PACKET,
+                     admission.classify(2L, (short)1, flow));
+        // as is another connection between the same hosts
+        assertEquals(AdmissionClass.FIRST_PACKET,
+                     admission.classify(1L, (short)1,
+                             makeIPv4(IPv4.toIPv4Address("10.0.0.1"),
+                                      IPv4.PROTOCOL_TCP, (short)1001,
+                                      (short)80)));
+    }
+
+    @Test
+    public void testFairShare() {
+        assertEquals(100, AdmissionController.fairShare(new long[0], 100));
+        assertEquals(50, AdmissionController.fairShare(new long[] {100, 100},
+                                                       100));
+        assertEquals(90, AdmissionController.fairShare(new long[] {1000, 10},
+                                                       100));
+        assertEquals(35, AdmissionController.fairShare(new long[] {30, 40, 50},
+                                                       100));
+        // the unused budget is shared when all demands are met
+        assertEquals(43, AdmissionController.fairShare(new long[] {10, 20, 30},
+                                                       100));
+        assertEquals(1, AdmissionController.fairShare(new long[] {5, 5}, 0));
+    }
+
+    @Test
+    public void testAdmitWithoutOverload() {
+        byte[] flow = makeIPv4(IPv4.toIPv4Address("10.0.0.1"),
+                               IPv4.PROTOCOL_TCP, (short)1000, (short)80);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(admission.admit(1L, makePacketIn((short)1, flow)));
+        }
+        overload(false);
+        assertFalse(admission.isLimiting());
+        // the flows are not tracked while not limiting
+        assertEquals(0, admission.getAdmittedCount(1L,
+                                                   AdmissionClass.FIRST_PACKET));
+        assertEquals(1000, admission.getAdmittedCount(1L, AdmissionClass.OTHER));
+        assertEquals(0, admission.getShedCount(1L, AdmissionClass.OTHER));
+    }
+
+    @Test
+    public void testStormIsolation() {
+        byte[] storm = makePacket((short)0x86dd, (short)-1);
+        byte[] lldp = makePacket(Ethernet.TYPE_LLDP, (short)-1);
+        byte[] arp = makePacket(Ethernet.TYPE_ARP, (short)-1);
+
+        // switch 1 floods the controller from port 1, switch 2 is quiet
+        for (int i = 0; i < 1000; i++) {
+            admission.admit(1L, makePacketIn((short)1, storm));
+        }
+        for (int i = 0; i < 20; i++) {
+            admission.admit(2L, makePacketIn((short)1, arp));
+        }
+        overload(true);
+        assertTrue(admission.isLimiting());
+
+        int stormAdmitted = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (admission.admit(1L, makePacketIn((short)1, storm)))
+                stormAdmitted++;
+        }
+        assertTrue(stormAdmitted > 0);
+        assertTrue(stormAdmitted < 1000);
+        assertEquals(1000 - stormAdmitted,
+                     admission.getShedCount(1L, AdmissionClass.OTHER));
+
+        // the quiet switch, the LLDPs and the priority classes on other
+        // ports of the flooding switch are still admitted
+        for (int i = 0; i < 20; i++) {
+            assertTrue(admission.admit(2L, makePacketIn((short)1, arp)));
+            assertTrue(admission.admit(1L, makePacketIn((short)1, lldp)));
+            assertTrue(admission.admit(1L, makePacketIn((short)2, arp)));
+        }
+        assertEquals(0, admission.getShedCount(2L, AdmissionClass.ARP));
+        assertEquals(20, admission.getAdmittedCount(1L, AdmissionClass.LLDP));
+
+        // the next interval shares the budget by the demand
+        overload(true);
+        int quietAdmitted = 0;
+        for (int i = 0; i < 20; i++) {
+            if (admission.admit(1L, makePacketIn((short)2, storm)))
+                quietAdmitted++;
+        }
+        assertEquals(20, quietAdmitted);
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> switches =
+                (Map<String, Object>)admission.getInfo("admission")
+                                              .get("switches");
+        assertEquals(2, switches.size());
+
+        // the limit is lifted once the delay stays low
+        for (int i = 0; i < 100 && admission.isLimiting(); i++) {
+            overload(false);
+        }
+        assertFalse(admission.isLimiting());
+        admission.removeSwitch(1L);
+        assertEquals(0, admission.getAdmittedCount(1L, AdmissionClass.LLDP));
+    }
+}
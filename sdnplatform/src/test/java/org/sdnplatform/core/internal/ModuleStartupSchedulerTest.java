@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.core.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sdnplatform.core.module.IModule;
+import org.sdnplatform.core.module.IPlatformService;
+import org.sdnplatform.core.module.ModuleContext;
+import org.sdnplatform.core.module.ModuleException;
+import org.sdnplatform.core.module.ModuleStartupScheduler;
+
+public class ModuleStartupSchedulerTest {
+    interface IServiceA extends IPlatformService {}
+    interface IServiceB extends IPlatformService {}
+    interface IServiceC extends IPlatformService {}
+    interface IServiceD extends IPlatformService {}
+    interface IServiceE extends IPlatformService {}
+
+    protected List<String> events;
+
+    protected class TestModule implements IModule {
+        final String name;
+        final Class<? extends IPlatformService> service;
+        final List<Class<? extends IPlatformService>> dependencies;
+        CountDownLatch initLatch;
+        RuntimeException initFailure;
+
+        TestModule(String name, Class<? extends IPlatformService> service,
+                   List<Class<? extends IPlatformService>> dependencies) {
+            this.name = name;
+            this.service = service;
+            this.dependencies = dependencies;
+        }
+
+        @Override
+        public Collection<Class<? extends IPlatformService>>
+                getModuleServices() {
+            List<Class<? extends IPlatformService>> l =
+                    new ArrayList<Class<? extends IPlatformService>>();
+            l.add(service);
+            return l;
+        }
+
+        @Override
+        public Map<Class<? extends IPlatformService>, IPlatformService>
+                getServiceImpls() {
+            return null;
+        }
+
+        @Override
+        public Collection<Class<? extends IPlatformService>>
+                getModuleDependencies() {
+            return dependencies;
+        }
+
+        @Override
+        public void init(ModuleContext context) throws ModuleException {
+            if (initLatch != null) {
+                // wait for a module that must run at the same time
+                initLatch.countDown();
+                try {
+                    if (!initLatch.await(10, TimeUnit.SECONDS))
+                        throw new ModuleException(name + " ran alone");
+                } catch (InterruptedException e) {
+                    throw new ModuleException(name + " interrupted");
+                }
+            }
+            if (initFailure != null)
+                throw initFailure;
+            events.add("init " + name);
+        }
+
+        @Override
+        public void startUp(ModuleContext context) {
+            events.add("startUp " + name);
+        }
+    }
+
+    protected TestModule a, b, c, d, e;
+    protected List<IModule> moduleSet;
+    protected Map<IModule, Collection<Class<? extends IPlatformService>>>
+            moduleServiceMap;
+
+    protected static List<Class<? extends IPlatformService>>
+            dependsOn(Class<? extends IPlatformService> service) {
+        return Collections.<Class<? extends IPlatformService>>
+                singletonList(service);
+    }
+
+    @Before
+    public void setUp() {
+        events = Collections.synchronizedList(new ArrayList<String>());
+        // load order lists the modules before their dependencies; c and d
+        // depend on each other, b and e depend on a only
+        List<Class<? extends IPlatformService>> cDeps =
+                new ArrayList<Class<? extends IPlatformService>>();
+        cDeps.add(IServiceD.class);
+        cDeps.add(IServiceB.class);
+        c = new TestModule("c", IServiceC.class, cDeps);
+        d = new TestModule("d", IServiceD.class, dependsOn(IServiceC.class));
+        b = new TestModule("b", IServiceB.class, dependsOn(IServiceA.class));
+        e = new TestModule("e", IServiceE.class, dependsOn(IServiceA.class));
+        a = new TestModule("a", IServiceA.class,
+                Collections.<Class<? extends IPlatformService>>emptyList());
+        moduleSet = new ArrayList<IModule>(Arrays.asList(c, d, b, e, a));
+        moduleServiceMap =
+                new HashMap<IModule,
+                            Collection<Class<? extends IPlatformService>>>();
+        for (IModule m : moduleSet) {
+            moduleServiceMap.put(m, m.getModuleServices());
+        }
+    }
+
+    protected void run(ModuleStartupScheduler scheduler) {
+        ModuleContext context = new ModuleContext();
+        scheduler.initModules(context);
+        scheduler.startupModules(context);
+    }
+
+    protected void assertBefore(String first, String second) {
+        assertTrue(first + " before " + second + " in " + events,
+                   events.indexOf(first) >= 0 &&
+                   events.indexOf(first) < events.indexOf(second));
+    }
+
+    @Test
+    public void testSequential() {
+        ModuleStartupScheduler scheduler =
+                new ModuleStartupScheduler(moduleSet, moduleServiceMap, 1);
+        run(scheduler);
+        assertEquals(Arrays.asList("init c", "init d", "init b", "init e",
+                                   "init a", "startUp c", "startUp d",
+                                   "startUp b", "startUp e", "startUp a"),
+                     events);
+        assertEquals(5, scheduler.getInitTimes().size());
+        assertEquals(5, scheduler.getStartupTimes().size());
+    }
+
+    @Test
+    public void testCycles() {
+        ModuleStartupScheduler scheduler =
+                new ModuleStartupScheduler(moduleSet, moduleServiceMap, 4);
+        assertEquals(1, scheduler.getCycles().size());
+        assertEquals(Arrays.<IModule>asList(c, d),
+                     scheduler.getCycles().get(0));
+    }
+
+    @Test
+    public void testParallel() {
+        // b and e share no dependencies, so their init must overlap
+        CountDownLatch latch = new CountDownLatch(2);
+        b.initLatch = latch;
+        e.initLatch = latch;
+        ModuleStartupScheduler scheduler =
+                new ModuleStartupScheduler(moduleSet, moduleServiceMap, 4);
+        run(scheduler);
+        assertEquals(10, events.size());
+
+        for (String phase : new String[] {"init ", "startUp "}) {
+            assertBefore(phase + "a", phase + "b");
+            assertBefore(phase + "a", phase + "e");
+            assertBefore(phase + "b", phase + "c");
+            // the cycle runs in load order
+            assertBefore(phase + "c", phase + "d");
+        }
+        // every module is initialized before any is started
+        for (String m : new String[] {"a", "b", "c", "d", "e"}) {
+            assertBefore("init " + m, "startUp a");
+        }
+        assertEquals(5, scheduler.getInitTimes().size());
+        assertEquals(5, scheduler.getStartupTimes().size());
+    }
+
+    @Test
+    public void testFailure() {
+        b.initFailure = new ModuleException("b failed");
+        ModuleStartupScheduler scheduler =
+                new ModuleStartupScheduler(moduleSet, moduleServiceMap, 4);
+        try {
+            scheduler.initModules(new ModuleContext());
+            fail("Expected the init failure");
+        } catch (ModuleException ex) {
+            assertEquals("b failed", ex.getMessage());
+        }
+        // the modules depending on b are not initialized
+        assertTrue(events.contains("init a"));
+        assertFalse(events.contains("init c"));
+        assertFalse(events.contains("init d"));
+    }
+}
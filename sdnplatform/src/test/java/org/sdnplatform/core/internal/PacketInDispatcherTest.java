@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.core.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+import org.sdnplatform.core.IOFMessageListener;
+import org.sdnplatform.core.IOFSwitch;
+import org.sdnplatform.core.IPacketInFilter;
+import org.sdnplatform.core.ListenerContext;
+import org.sdnplatform.core.PacketInClass;
+import org.sdnplatform.core.PacketInClass.Destination;
+import org.sdnplatform.core.PacketInClass.Protocol;
+import org.sdnplatform.packet.ARP;
+import org.sdnplatform.packet.BSN;
+import org.sdnplatform.packet.Data;
+import org.sdnplatform.packet.Ethernet;
+import org.sdnplatform.packet.ICMP;
+import org.sdnplatform.packet.IPv4;
+import org.sdnplatform.packet.LLDP;
+import org.sdnplatform.packet.TCP;
+import org.sdnplatform.packet.UDP;
+
+public class PacketInDispatcherTest {
+    protected static class TestListener implements IOFMessageListener {
+        String name;
+
+        TestListener(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public boolean isCallbackOrderingPrereq(OFType type, String name) {
+            return false;
+        }
+
+        @Override
+        public boolean isCallbackOrderingPostreq(OFType type, String name) {
+            return false;
+        }
+
+        @Override
+        public Command receive(IOFSwitch sw, OFMessage msg,
+                               ListenerContext cntx) {
+            return Command.CONTINUE;
+        }
+    }
+
+    protected static class ArpListener extends TestListener
+            implements IPacketInFilter {
+        ArpListener(String name) {
+            super(name);
+        }
+
+        @Override
+        public boolean isInterested(PacketInClass packetClass) {
+            return packetClass.getProtocol() == Protocol.ARP;
+        }
+    }
+
+    protected Ethernet makeEthernet(String dst, short etherType) {
+        Ethernet eth = new Ethernet();
+        eth.setSourceMACAddress("00:00:00:00:00:01");
+        eth.setDestinationMACAddress(dst);
+        eth.setEtherType(etherType);
+        return eth;
+    }
+
+    protected Ethernet makeIPv4(String dst, byte proto, UDP udp) {
+        Ethernet eth = makeEthernet(dst, Ethernet.TYPE_IPv4);
+        IPv4 ip = new IPv4();
+        ip.setProtocol(proto);
+        if (udp != null)
+            ip.setPayload(udp);
+        else if (proto == IPv4.PROTOCOL_TCP)
+            ip.setPayload(new TCP());
+        else if (proto == IPv4.PROTOCOL_ICMP)
+            ip.setPayload(new ICMP());
+        else
+            ip.setPayload(new Data());
+        eth.setPayload(ip);
+        return eth;
+    }
+
+    @Test
+    public void testClassify() {
+        String unicast = "00:00:00:00:00:02";
+        String broadcast = "ff:ff:ff:ff:ff:ff";
+        String multicast = "01:80:c2:00:00:0e";
+
+        Ethernet eth = makeEthernet(multicast, Ethernet.TYPE_LLDP);
+        eth.setPayload(new LLDP());
+        assertSame(PacketInClass.valueOf(Protocol.LLDP, Destination.MULTICAST),
+                   PacketInClass.classify(eth));
+
+        eth = makeEthernet(broadcast, Ethernet.TYPE_BSN);
+        BSN bsn = new BSN();
+        bsn.setPayload(new LLDP());
+        eth.setPayload(bsn);
+        assertSame(PacketInClass.valueOf(Protocol.LLDP, Destination.BROADCAST),
+                   PacketInClass.classify(eth));
+
+        eth = makeEthernet(broadcast, Ethernet.TYPE_ARP);
+        eth.setPayload(new ARP());
+        assertSame(PacketInClass.valueOf(Protocol.ARP, Destination.BROADCAST),
+                   PacketInClass.classify(eth));
+
+        UDP udp = new UDP();
+        udp.setSourcePort(UDP.DHCP_CLIENT_PORT);
+        udp.setDestinationPort(UDP.DHCP_SERVER_PORT);
+        eth = makeIPv4(broadcast, IPv4.PROTOCOL_UDP, udp);
+        assertSame(PacketInClass.valueOf(Protocol.DHCP, Destination.BROADCAST),
+                   PacketInClass.classify(eth));
+
+        udp = new UDP();
+        udp.setSourcePort((short)5000);
+        udp.setDestinationPort((short)53);
+        eth = makeIPv4(unicast, IPv4.PROTOCOL_UDP, udp);
+        assertSame(PacketInClass.valueOf(Protocol.UDP, Destination.UNICAST),
+                   PacketInClass.classify(eth));
+
+        eth = makeIPv4(unicast, IPv4.PROTOCOL_TCP, null);
+        assertSame(PacketInClass.valueOf(Protocol.TCP, Destination.UNICAST),
+                   PacketInClass.classify(eth));
+
+        eth = makeIPv4(unicast, IPv4.PROTOCOL_ICMP, null);
+        assertSame(PacketInClass.valueOf(Protocol.ICMP, Destination.UNICAST),
+                   PacketInClass.classify(eth));
+
+        eth = makeIPv4(multicast, (byte)2, null);
+        assertSame(PacketInClass.valueOf(Protocol.IPV4, Destination.MULTICAST),
+                   PacketInClass.classify(eth));
+
+        eth = makeEthernet(unicast, (short)0x86dd);
+        eth.setPayload(new Data());
+        assertSame(PacketInClass.valueOf(Protocol.OTHER, Destination.UNICAST),
+                   PacketInClass.classify(eth));
+
+        PacketInClass[] classes = PacketInClass.values();
+        assertEquals(PacketInClass.count(), classes.length);
+        for (int i = 0; i < classes.length; i++) {
+            assertEquals(i, classes[i].getIndex());
+        }
+    }
+
+    @Test
+    public void testDispatch() {
+        PacketInDispatcher dispatcher = new PacketInDispatcher();
+        TestListener l1 = new TestListener("l1");
+        ArpListener l2 = new ArpListener("l2");
+        TestListener l3 = new TestListener("l3");
+        List<IOFMessageListener> listeners = new ArrayList<IOFMessageListener>();
+        listeners.add(l1);
+        listeners.add(l2);
+        listeners.add(l3);
+
+        PacketInClass arp =
+                PacketInClass.valueOf(Protocol.ARP, Destination.BROADCAST);
+        PacketInClass tcp =
+                PacketInClass.valueOf(Protocol.TCP, Destination.UNICAST);
+
+        List<IOFMessageListener> result = dispatcher.getListeners(listeners, arp);
+        assertEquals(listeners, result);
+        result = dispatcher.getListeners(listeners, tcp);
+        assertEquals(2, result.size());
+        assertSame(l1, result.get(0));
+        assertSame(l3, result.get(1));
+        dispatcher.getListeners(listeners, tcp);
+
+        assertEquals(1, dispatcher.getDispatchCount(arp));
+        assertEquals(0, dispatcher.getSkipCount(arp));
+        assertEquals(2, dispatcher.getDispatchCount(tcp));
+        assertEquals(2, dispatcher.getSkipCount(tcp));
+        assertEquals(2, dispatcher.getInfo("packetin").size());
+
+        // a new ordered list rebuilds the index
+        List<IOFMessageListener> newListeners =
+                new ArrayList<IOFMessageListener>();
+        newListeners.add(l3);
+        newListeners.add(l2);
+        result = dispatcher.getListeners(newListeners, arp);
+        assertEquals(newListeners, result);
+        result = dispatcher.getListeners(newListeners, tcp);
+        assertEquals(1, result.size());
+        assertSame(l3, result.get(0));
+    }
+}
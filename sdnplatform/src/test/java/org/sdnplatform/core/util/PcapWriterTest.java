@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.core.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PcapWriterTest {
+    File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("pcapwriter", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private ByteBuffer read(File f) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        byte[] b = new byte[(int)raf.length()];
+        raf.readFully(b);
+        raf.close();
+        return ByteBuffer.wrap(b).order(ByteOrder.nativeOrder());
+    }
+
+    @Test
+    public void testWriteAndRotate() throws IOException {
+        // room for the file header and two 60 byte frames
+        int fileSize = 24 + 2 * (16 + 60);
+        PcapWriter w = new PcapWriter(dir, "test", fileSize, 2);
+        byte[] frame = new byte[60];
+        for (int i = 0; i < 5; i++) {
+            frame[0] = (byte)i;
+            w.write(1000L * i + 5, frame);
+        }
+        w.close();
+
+        // frames 0,1 went to file 0, 2,3 to file 1, then file 0 was
+        // overwritten with frame 4
+        ByteBuffer b = read(w.getFile(0));
+        assertEquals(24 + 16 + 60, b.limit());
+        assertEquals(0xa1b2c3d4, b.getInt());
+        assertEquals(2, b.getShort());
+        assertEquals(4, b.getShort());
+        b.position(20);
+        assertEquals(1, b.getInt());    // ethernet
+        assertEquals(4, b.getInt());    // seconds
+        assertEquals(5000, b.getInt()); // microseconds
+        assertEquals(60, b.getInt());
+        assertEquals(60, b.getInt());
+        assertEquals(4, b.get());
+
+        b = read(w.getFile(1));
+        assertEquals(fileSize, b.limit());
+        b.position(24 + 16);
+        assertEquals(2, b.get());
+        b.position(24 + 16 + 60 + 16);
+        assertEquals(3, b.get());
+    }
+
+    @Test
+    public void testTruncate() throws IOException {
+        PcapWriter w = new PcapWriter(dir, "test", 24 + 16 + 10, 1);
+        w.write(0, new byte[100]);
+        w.close();
+        ByteBuffer b = read(w.getFile(0));
+        assertEquals(24 + 16 + 10, b.limit());
+        b.position(24 + 8);
+        assertEquals(10, b.getInt());
+        assertEquals(100, b.getInt());
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.core.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class RingBufferTest {
+
+    @Test
+    public void testOfferPoll() {
+        RingBuffer<Integer> rb = new RingBuffer<Integer>(3);
+        assertEquals(4, rb.getCapacity());
+        assertNull(rb.poll());
+        assertTrue(rb.isEmpty());
+
+        // wrap around the ring a few times
+        for (int lap = 0; lap < 3; lap++) {
+            for (int i = 0; i < 4; i++) {
+                assertTrue(rb.offer(i));
+            }
+            assertFalse(rb.offer(4));
+            assertEquals(4, rb.size());
+            for (int i = 0; i < 4; i++) {
+                assertEquals(Integer.valueOf(i), rb.poll());
+            }
+            assertNull(rb.poll());
+        }
+        assertEquals(3, rb.getDropped());
+    }
+
+    @Test
+    public void testDrainTo() {
+        RingBuffer<Integer> rb = new RingBuffer<Integer>(8);
+        for (int i = 0; i < 5; i++) {
+            rb.offer(i);
+        }
+        List<Integer> l = new ArrayList<Integer>();
+        assertEquals(3, rb.drainTo(l, 3));
+        assertEquals(2, rb.drainTo(l, 3));
+        assertEquals(0, rb.drainTo(l, 3));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(Integer.valueOf(i), l.get(i));
+        }
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final int producers = 4;
+        final int perProducer = 50000;
+        final RingBuffer<Integer> rb = new RingBuffer<Integer>(1024);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int base = p * perProducer;
+            threads[p] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perProducer; i++) {
+                        while (!rb.offer(base + i)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+            threads[p].start();
+        }
+        start.countDown();
+
+        // every element arrives once and in order per producer
+        int[] next = new int[producers];
+        int received = 0;
+        while (received < producers * perProducer) {
+            Integer v = rb.poll();
+            if (v == null) {
+                Thread.yield();
+                continue;
+            }
+            int p = v / perProducer;
+            assertEquals(next[p], v % perProducer);
+            next[p]++;
+            received++;
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(rb.isEmpty());
+    }
+}
@@ -29,6 +29,7 @@ import java.util.Set;
 import org.junit.Before;
 import org.junit.Test;
 import org.openflow.util.HexString;
+import org.sdnplatform.addressspace.BetterEntityClass;
 import org.sdnplatform.core.test.MockControllerProvider;
 import org.sdnplatform.devicegroup.AbstractRuleMatcher;
 import org.sdnplatform.devicegroup.DeviceGroupBase;
@@ -39,6 +40,8 @@ import org.sdnplatform.devicegroup.MembershipRule;
 import org.sdnplatform.devicegroup.SwitchPortMatcher;
 import org.sdnplatform.devicegroup.TagMatcher;
 import org.sdnplatform.devicegroup.VlanMatcher;
+import org.sdnplatform.devicemanager.internal.Device;
+import org.sdnplatform.devicemanager.internal.Entity;
 import org.sdnplatform.tagmanager.ITagManagerService;
 
 
@@ -169,4 +172,56 @@ public class RuleMatcherTest {
             }
         }
     }
-} 
\ No newline at end of file
+
+    @Test
+    public void testMatchDevicePriority() throws Exception {
+        // Enough rules to span multiple bitmap words
+        for (int i = 0; i < 300; i++) {
+            MembershipRule<MyDG> r = allocateRule("mac_" + i);
+            r.setMac(HexString.toHexString(1L, 6));
+            r.setPriority(i);
+            dgMatcher.addRuleIfActive(r);
+        }
+        MembershipRule<MyDG> vlanRule = allocateRule("mac_vlan");
+        vlanRule.setMac(HexString.toHexString(1L, 6));
+        vlanRule.setVlans("5");
+        vlanRule.setPriority(1000);
+        dgMatcher.addRuleIfActive(vlanRule);
+        MembershipRule<MyDG> otherRule = allocateRule("mac_other");
+        otherRule.setMac(HexString.toHexString(2L, 6));
+        otherRule.setPriority(2000);
+        dgMatcher.addRuleIfActive(otherRule);
+        assertTrue(dgMatcher.hasMacRules());
+        assertTrue(dgMatcher.hasVlanRules());
+        assertFalse(dgMatcher.hasIpSubnetRules());
+
+        BetterEntityClass ec = new BetterEntityClass("default", null);
+        Device d = new Device(null, 1L,
+                              new Entity(1L, null, null, null, null, null),
+                              ec);
+        List<MembershipRule<MyDG>> matches = dgMatcher.matchDevice(d);
+        assertEquals(1, matches.size());
+        assertEquals("mac_299", matches.get(0).getName());
+
+        // All fields of the higher priority rule match now
+        d = new Device(null, 1L,
+                       new Entity(1L, (short)5, null, null, null, null),
+                       ec);
+        matches = dgMatcher.matchDevice(d);
+        assertEquals(1, matches.size());
+        assertEquals("mac_vlan", matches.get(0).getName());
+
+        d = new Device(null, 3L,
+                       new Entity(3L, null, null, null, null, null),
+                       ec);
+        assertNull(dgMatcher.matchDevice(d));
+
+        // Adding a rule invalidates the compiled rules
+        MembershipRule<MyDG> top = allocateRule("mac_top");
+        top.setMac("00:00:00:00:00:03");
+        dgMatcher.addRuleIfActive(top);
+        matches = dgMatcher.matchDevice(d);
+        assertEquals(1, matches.size());
+        assertEquals("mac_top", matches.get(0).getName());
+    }
+}
@@ -33,6 +33,8 @@ import static org.easymock.EasyMock.reset;
 import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertArrayEquals;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
@@ -41,6 +43,7 @@ import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -80,6 +83,8 @@ import org.sdnplatform.packet.ARP;
 import org.sdnplatform.packet.Ethernet;
 import org.sdnplatform.packet.IPacket;
 import org.sdnplatform.packet.IPv4;
+import org.sdnplatform.replication.IReplicationService;
+import org.sdnplatform.replication.IReplicationSink;
 import org.sdnplatform.restserver.IRestApiService;
 import org.sdnplatform.restserver.RestApiServer;
 import org.sdnplatform.storage.IStorageSourceService;
@@ -1579,6 +1584,43 @@ public class DeviceManagerImplTest extends PlatformTestCase {
         doTestDeviceQuery();
     }
 
+    @Test
+    public void testLateDeviceIndex() throws Exception {
+        ITopologyService mockTopology = createMock(ITopologyService.class);
+        deviceManager.topology = mockTopology;
+        expect(mockTopology.isAttachmentPointPort(anyLong(),
+                                                  anyShort())).
+                                                  andReturn(true).anyTimes();
+        expect(mockTopology.getL2DomainId(EasyMock.anyLong())).andReturn(1L).anyTimes();
+        mockTopology.addListener(deviceManager);
+        expectLastCall().anyTimes();
+        replay(mockTopology);
+
+        Entity entity1 = new Entity(1L, (short)1, 1, 1L, 1, new Date());
+        Entity entity2 = new Entity(2L, (short)2, 1, 1L, 2, new Date());
+        deviceManager.learnDeviceByEntity(entity1);
+        deviceManager.learnDeviceByEntity(entity2);
+
+        // an index added after learning holds the devices already learned
+        EnumSet<IDeviceService.DeviceField> indexFields =
+                EnumSet.of(IDeviceService.DeviceField.IPV4);
+        deviceManager.addIndex(false, indexFields);
+        assertNotNull(deviceManager.secondaryIndexMap.get(indexFields));
+        Iterator<? extends IDevice> iter =
+                deviceManager.queryDevices(null, null, 1, null, null);
+        int count = 0;
+        while (iter.hasNext()) {
+            count += 1;
+            iter.next();
+        }
+        assertEquals(2, count);
+
+        // and is created again when the state is reset
+        deviceManager.roleChanged(IControllerService.Role.MASTER,
+                                  IControllerService.Role.SLAVE);
+        assertNotNull(deviceManager.secondaryIndexMap.get(indexFields));
+    }
+
     @Test
     public void testDeviceQuery() throws Exception {
         ITopologyService mockTopology = createMock(ITopologyService.class);
@@ -2062,4 +2104,74 @@ public class DeviceManagerImplTest extends PlatformTestCase {
 
 
     }
+
+    @Test
+    public void testDeviceReplication() throws Exception {
+        ITopologyService mockTopology = createMock(ITopologyService.class);
+        deviceManager.topology = mockTopology;
+        expect(mockTopology.isAttachmentPointPort(anyLong(),
+                                                  anyShort())).
+                                                  andReturn(true).anyTimes();
+        expect(mockTopology.getL2DomainId(EasyMock.anyLong())).andReturn(1L).anyTimes();
+        replay(mockTopology);
+
+        IReplicationService replication =
+                createMock(IReplicationService.class);
+        expect(replication.isReplicating()).andReturn(true).anyTimes();
+        replay(replication);
+        DeviceReplicationProvider provider =
+                new DeviceReplicationProvider(deviceManager, replication);
+        deviceManager.replicationProvider = provider;
+
+        Entity entity1 = new Entity(1L, (short)1, 1, 1L, 1, new Date());
+        Entity entity1b = new Entity(1L, (short)1, 10, 1L, 1, new Date());
+        Entity entity2 = new Entity(2L, null, null, 2L, 2, new Date());
+        deviceManager.learnDeviceByEntity(entity1);
+        Device d1 = deviceManager.learnDeviceByEntity(entity1b);
+        Device d2 = deviceManager.learnDeviceByEntity(entity2);
+        assertEquals(2, provider.changedDevices.size());
+
+        final List<byte[]> records = new ArrayList<byte[]>();
+        IReplicationSink sink = new IReplicationSink() {
+            @Override
+            public void write(byte[] record) {
+                records.add(record);
+            }
+        };
+        provider.writeChanges(sink);
+        assertEquals(2, records.size());
+        assertTrue(provider.changedDevices.isEmpty());
+
+        // Apply the records to an empty device manager
+        provider.clearReplicatedState();
+        assertEquals(0, deviceManager.getAllDevices().size());
+        long nextKey = deviceManager.deviceKeyCounter;
+        deviceManager.deviceKeyCounter = 0;
+        for (byte[] record : records) {
+            provider.applyRecord(
+                    new DataInputStream(new ByteArrayInputStream(record)));
+        }
+        assertEquals(2, deviceManager.getAllDevices().size());
+        assertEquals(nextKey, deviceManager.deviceKeyCounter);
+
+        for (Device d : new Device[] {d1, d2}) {
+            Device r = deviceManager.deviceMap.get(d.getDeviceKey());
+            assertNotNull(r);
+            assertNotSame(d, r);
+            assertArrayEquals(d.getEntities(), r.getEntities());
+            assertEquals(d.attachmentPoints, r.attachmentPoints);
+            assertEquals(d.getEntityClass(), r.getEntityClass());
+        }
+        IDevice r1 = deviceManager.findDevice(1L, (short)1, 10, 1L, 1);
+        assertEquals(d1.getDeviceKey(), r1.getDeviceKey());
+        assertEquals(d1.getDeviceKey(),
+                     deviceManager.primaryIndex.findByEntity(entity1));
+
+        // A deleted device
+        provider.applyRecord(new DataInputStream(new ByteArrayInputStream(
+                DeviceReplicationProvider.encodeDelete(d2.getDeviceKey()))));
+        assertNull(deviceManager.deviceMap.get(d2.getDeviceKey()));
+        assertNull(deviceManager.findDevice(2L, null, null, 2L, 2));
+        assertEquals(1, deviceManager.getAllDevices().size());
+    }
 }
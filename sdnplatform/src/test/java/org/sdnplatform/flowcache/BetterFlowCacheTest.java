@@ -18,6 +18,8 @@ package org.sdnplatform.flowcache;
 
 import static org.easymock.EasyMock.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -95,6 +97,8 @@ import org.sdnplatform.packet.Ethernet;
 import org.sdnplatform.packet.IPacket;
 import org.sdnplatform.packet.IPv4;
 import org.sdnplatform.packet.UDP;
+import org.sdnplatform.replication.IReplicationService;
+import org.sdnplatform.replication.IReplicationSink;
 import org.sdnplatform.restserver.IRestApiService;
 import org.sdnplatform.restserver.RestApiServer;
 import org.sdnplatform.routing.ForwardingBase;
@@ -2169,4 +2173,90 @@ public class BetterFlowCacheTest extends PlatformTestCase {
             assertTrue((currTime.getTime() - startTime.getTime()) < 10000);
         }
     }
+
+    @Test
+    public void testFlowCacheReplication() throws Exception {
+        betterFlowCacheMgr.fqTask.setEnableFlowQueryTask(false);
+        IReplicationService replication =
+                createMock(IReplicationService.class);
+        expect(replication.isReplicating()).andReturn(true).anyTimes();
+        replay(replication);
+        FlowCacheReplicationProvider provider =
+                new FlowCacheReplicationProvider(betterFlowCacheMgr,
+                                                 replication);
+        betterFlowCacheMgr.replicationProvider = provider;
+
+        OFMatch ofm = new OFMatch();
+        ofm.setDataLayerSource(Ethernet.toByteArray(device1.getMACAddress()));
+        ofm.setDataLayerDestination(Ethernet.
+                                    toByteArray(device2.getMACAddress()));
+        ofm.setDataLayerVirtualLan((short)-1);
+        ofm.setWildcards(FlowCacheObj.WILD_MATCH_INP_VLAN_DLADRS);
+        betterFlowCacheMgr.addFlow("testNetVirt1",
+                new OFMatchWithSwDpid(ofm.clone(), 1L), 2L, 1L, (short)1,
+                (short)0, FlowCacheObj.FCActionPERMIT);
+        betterFlowCacheMgr.addFlow("testNetVirt1",
+                new OFMatchWithSwDpid(ofm.clone(), 2L), 2L, 2L, (short)3,
+                (short)0, FlowCacheObj.FCActionDENY);
+        betterFlowCacheMgr.updateFlush();
+        assertEquals(1, provider.changedFlows.size());
+
+        final List<byte[]> records = new ArrayList<byte[]>();
+        IReplicationSink sink = new IReplicationSink() {
+            @Override
+            public void write(byte[] record) {
+                records.add(record);
+            }
+        };
+        provider.writeChanges(sink);
+        assertEquals(1, records.size());
+        assertTrue(provider.changedFlows.isEmpty());
+
+        // Apply to an empty flow cache
+        provider.clearReplicatedState();
+        assertEquals(0, betterFlowCacheMgr.getBfcCore().getActiveCnt());
+        for (byte[] record : records) {
+            provider.applyRecord(
+                    new DataInputStream(new ByteArrayInputStream(record)));
+        }
+        assertEquals(2, betterFlowCacheMgr.getBfcCore().getActiveCnt());
+        FlowCacheObj fco =
+            betterFlowCacheMgr.getAllFlowsByApplInstVlanSrcDestDevicesInternal(
+                "testNetVirt1", (short)-1, device1.getMACAddress(),
+                device2.getMACAddress());
+        assertNotNull(fco);
+        assertEquals(2L, fco.cookie);
+        assertEquals(1L, fco.fce.getSrcSwitchDpid());
+        assertEquals(1, fco.fce.getInputPort());
+        assertEquals(FlowCacheObj.FCActionPERMIT, fco.fce.getAction());
+        assertEquals(1, fco.fceList.size());
+        assertEquals(2L, fco.fceList.get(0).getSrcSwitchDpid());
+        assertEquals(FlowCacheObj.FCActionDENY,
+                     fco.fceList.get(0).getAction());
+
+        // A replicated flow is not dampened on the new master
+        assertTrue(betterFlowCacheMgr.addFlow("testNetVirt1",
+                new OFMatchWithSwDpid(ofm.clone(), 1L), 2L, 1L, (short)1,
+                (short)0, FlowCacheObj.FCActionPERMIT));
+
+        // Deleting the flows on the master deletes them on the standby
+        byte[] added = records.get(0);
+        betterFlowCacheMgr.deleteFlowCacheBySwitch(1L);
+        betterFlowCacheMgr.deleteFlowCacheBySwitch(2L);
+        betterFlowCacheMgr.updateFlush();
+        records.clear();
+        provider.writeChanges(sink);
+        assertEquals(1, records.size());
+        provider.clearReplicatedState();
+        provider.applyRecord(
+                new DataInputStream(new ByteArrayInputStream(added)));
+        provider.applyRecord(
+                new DataInputStream(new ByteArrayInputStream(records.get(0))));
+        assertNull(
+            betterFlowCacheMgr.getAllFlowsByApplInstVlanSrcDestDevicesInternal(
+                "testNetVirt1", (short)-1, device1.getMACAddress(),
+                device2.getMACAddress()));
+        betterFlowCacheMgr.updateFlush();
+        assertEquals(0, betterFlowCacheMgr.getBfcCore().getActiveCnt());
+    }
 }
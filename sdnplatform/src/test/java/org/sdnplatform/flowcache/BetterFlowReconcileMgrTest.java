@@ -98,6 +98,7 @@ import org.sdnplatform.storage.memory.MemoryStorageSource;
 import org.sdnplatform.tagmanager.ITagManagerService;
 import org.sdnplatform.test.PlatformTestCase;
 import org.sdnplatform.threadpool.IThreadPoolService;
+import org.sdnplatform.topology.ITopologyListener;
 import org.sdnplatform.topology.ITopologyService;
 import org.sdnplatform.topology.NodePortTuple;
 import org.sdnplatform.tunnelmanager.ITunnelManagerService;
@@ -202,6 +203,9 @@ public class BetterFlowReconcileMgrTest extends PlatformTestCase {
         expectLastCall().times(1);
         topology.addListener(betterDeviceManager);
         expectLastCall().times(1);
+        // the gateway pool selection cache of virtual routing
+        topology.addListener(EasyMock.anyObject(ITopologyListener.class));
+        expectLastCall().times(1);
         replay(topology);
 
         forwarding.startUp(fmc);
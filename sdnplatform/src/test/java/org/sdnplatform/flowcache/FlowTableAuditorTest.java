@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.flowcache;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFPhysicalPort;
+import org.sdnplatform.core.IOFMessageListener;
+import org.sdnplatform.core.IOFSwitch;
+import org.sdnplatform.core.test.MockControllerProvider;
+
+public class FlowTableAuditorTest {
+    protected MockControllerProvider controllerProvider;
+    protected BetterFlowCache flowCache;
+    protected FlowTableAuditor auditor;
+    protected Map<Long, IOFSwitch> switches;
+    protected List<String> queries;
+
+    protected IOFSwitch createSwitch(long dpid, int numPorts) {
+        List<OFPhysicalPort> ports = new ArrayList<OFPhysicalPort>();
+        for (int i = 1; i <= numPorts; i++) {
+            OFPhysicalPort p = new OFPhysicalPort();
+            p.setPortNumber((short)i);
+            ports.add(p);
+        }
+        IOFSwitch sw = createNiceMock(IOFSwitch.class);
+        expect(sw.getId()).andReturn(dpid).anyTimes();
+        expect(sw.getPorts()).andReturn(ports).anyTimes();
+        replay(sw);
+        return sw;
+    }
+
+    @Before
+    public void setUp() {
+        queries = new ArrayList<String>();
+        flowCache = new BetterFlowCache() {
+            @Override
+            public void querySwitchStats(long swId, short inPort,
+                                         IOFMessageListener callback) {
+                queries.add(swId + "/" + inPort);
+            }
+        };
+        controllerProvider = new MockControllerProvider();
+        flowCache.controllerProvider = controllerProvider;
+        flowCache.periodicSwScanIntervalMsec = 6000;
+        auditor = new FlowTableAuditor(flowCache, flowCache);
+        flowCache.auditor = auditor;
+
+        switches = new HashMap<Long, IOFSwitch>();
+        switches.put(1L, createSwitch(1L, 2));
+        switches.put(2L, createSwitch(2L, 1));
+        switches.put(3L, createSwitch(3L, 3));
+        controllerProvider.setSwitches(switches);
+    }
+
+    @Test
+    public void testPartitionedAudit() {
+        List<String> cycle = new ArrayList<String>();
+        cycle.add("1/1");
+        cycle.add("1/2");
+        cycle.add("2/1");
+        cycle.add("3/1");
+        cycle.add("3/2");
+        cycle.add("3/3");
+
+        // every partition is queried once per scan interval
+        for (int i = 0; i < cycle.size(); i++) {
+            assertEquals(1000, auditor.auditNext());
+        }
+        assertEquals(cycle, queries);
+        for (long dpid : switches.keySet()) {
+            assertEquals(1, auditor.getSwitchAuditState(dpid).getCycles());
+        }
+
+        queries.clear();
+        for (int i = 0; i < cycle.size(); i++) {
+            auditor.auditNext();
+        }
+        assertEquals(cycle, queries);
+        assertEquals(3, auditor.getSwitchAuditState(3L).getRequests() / 2);
+
+        // a removed switch is no longer audited
+        switches.remove(2L);
+        queries.clear();
+        for (int i = 0; i < 5; i++) {
+            auditor.auditNext();
+        }
+        assertEquals(5, queries.size());
+        assertFalse(queries.contains("2/1"));
+        assertNull(auditor.getSwitchAuditState(2L));
+        assertEquals(1200, auditor.auditNext());
+    }
+
+    protected int count(String query) {
+        int count = 0;
+        for (String q : queries) {
+            if (q.equals(query)) count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void testLossySwitchPriority() {
+        for (int i = 0; i < 6; i++) {
+            auditor.auditNext();
+        }
+
+        // switch 2 lost flow removals since its last audit cycle
+        flowCache.flowRemovalLost(2L);
+        flowCache.flowRemovalLost(2L);
+        assertEquals(2, flowCache.getBfcCore().getFlowModRemovalMsgLossCnt());
+        assertEquals(2, auditor.getSwitchAuditState(2L).getLostFlowRemovals());
+
+        // once its cycle completes it gets an extra query every tick
+        queries.clear();
+        for (int i = 0; i < 6; i++) {
+            auditor.auditNext();
+        }
+        assertTrue(auditor.getSwitchAuditState(2L).isPriority());
+        assertFalse(auditor.getSwitchAuditState(1L).isPriority());
+        assertEquals(10, queries.size());
+        assertEquals(5, count("2/1"));
+
+        // until a cycle completes without new losses
+        queries.clear();
+        for (int i = 0; i < 6; i++) {
+            auditor.auditNext();
+        }
+        assertFalse(auditor.getSwitchAuditState(2L).isPriority());
+        assertEquals(8, queries.size());
+        assertEquals(3, count("2/1"));
+
+        queries.clear();
+        for (int i = 0; i < 6; i++) {
+            auditor.auditNext();
+        }
+        assertEquals(6, queries.size());
+    }
+}
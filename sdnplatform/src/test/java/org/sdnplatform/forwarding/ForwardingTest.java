@@ -104,7 +104,7 @@ import org.sdnplatform.topology.ITopologyService;
 import org.sdnplatform.topology.NodePortTuple;
 import org.sdnplatform.tunnelmanager.ITunnelManagerService;
 import org.sdnplatform.util.OFMessageDamper;
-import org.sdnplatform.util.TimedCache;
+import org.sdnplatform.util.LongTimedCache;
 import org.sdnplatform.vendor.OFActionTunnelDstIP;
 
 import static org.junit.Assert.*;
@@ -1962,7 +1962,7 @@ public class ForwardingTest {
         ///////////////////////////////////////////////////////////////////////
 
         // clear out broadcast cache
-        forwarding.broadcastCache = new TimedCache<Long>(100, 5*1000);
+        forwarding.broadcastCache = new LongTimedCache(100, 5*1000);
         wc1.reset(); wc2.reset(); wc3.reset();
 
         mydecision = createMock(IRoutingDecision.class);
@@ -2101,7 +2101,7 @@ public class ForwardingTest {
                         new Short[] { 3, 4, 5});
         assertPacketOut(wc2.getValue(), ethWithVlanSet.serialize(),
                         new Short[] { 4 });
-        forwarding.broadcastCache = new TimedCache<Long>(100, 5*1000);
+        forwarding.broadcastCache = new LongTimedCache(100, 5*1000);
         // Make sure we didn't change the PI_PAYLOAD in the context
         contextEth = IControllerService.bcStore
                 .get(cntx, IControllerService.CONTEXT_PI_PAYLOAD);
@@ -2150,7 +2150,7 @@ public class ForwardingTest {
                         new Short[] { 3, 4, 5});
         assertPacketOut(wc2.getValue(), ethWithVlanSet.serialize(),
                         new Short[] { 4 });
-        forwarding.broadcastCache = new TimedCache<Long>(100, 5*1000);
+        forwarding.broadcastCache = new LongTimedCache(100, 5*1000);
         myAnswer.value = true;
         // Make sure we didn't change the PI_PAYLOAD in the context
         contextEth = IControllerService.bcStore
@@ -2222,7 +2222,7 @@ public class ForwardingTest {
         }
         assertPacketOut(wc2.getValue(), ethRewrittenSrcMac.serialize(),
                         new Short[] { 4 });
-        forwarding.broadcastCache = new TimedCache<Long>(100, 5*1000);
+        forwarding.broadcastCache = new LongTimedCache(100, 5*1000);
         // Make sure we didn't change the PI_PAYLOAD in the context
         contextEth = IControllerService.bcStore
                 .get(cntx, IControllerService.CONTEXT_PI_PAYLOAD);
@@ -2292,7 +2292,7 @@ public class ForwardingTest {
         }
         assertPacketOut(wc2.getValue(), ethWithVlanSet.serialize(),
                         new Short[] { 4 });
-        forwarding.broadcastCache = new TimedCache<Long>(100, 5*1000);
+        forwarding.broadcastCache = new LongTimedCache(100, 5*1000);
         // Make sure we didn't change the PI_PAYLOAD in the context
         contextEth = IControllerService.bcStore
                 .get(cntx, IControllerService.CONTEXT_PI_PAYLOAD);
@@ -2344,7 +2344,7 @@ public class ForwardingTest {
                         new Short[] { 3, 4, 5});
         assertPacketOut(wc2.getValue(), ethWithVlanSet.serialize(),
                         new Short[] { 4 });
-        forwarding.broadcastCache = new TimedCache<Long>(100, 5*1000);
+        forwarding.broadcastCache = new LongTimedCache(100, 5*1000);
         // Make sure we didn't change the PI_PAYLOAD in the context
         contextEth = IControllerService.bcStore
                 .get(cntx, IControllerService.CONTEXT_PI_PAYLOAD);
@@ -2383,7 +2383,7 @@ public class ForwardingTest {
         assertFalse(wc2.hasCaptured());
         assertFalse(wc3.hasCaptured());
 
-        forwarding.broadcastCache = new TimedCache<Long>(100, 5*1000);
+        forwarding.broadcastCache = new LongTimedCache(100, 5*1000);
         // Make sure we didn't change the PI_PAYLOAD in the context
         contextEth = IControllerService.bcStore
                 .get(cntx, IControllerService.CONTEXT_PI_PAYLOAD);
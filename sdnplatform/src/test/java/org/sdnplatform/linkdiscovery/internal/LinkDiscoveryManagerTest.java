@@ -19,6 +19,8 @@ package org.sdnplatform.linkdiscovery.internal;
 
 import static org.easymock.EasyMock.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.util.Collections;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -55,6 +57,7 @@ import org.sdnplatform.packet.Ethernet;
 import org.sdnplatform.packet.IPacket;
 import org.sdnplatform.packet.IPv4;
 import org.sdnplatform.packet.UDP;
+import org.sdnplatform.replication.IReplicationSink;
 import org.sdnplatform.restserver.IRestApiService;
 import org.sdnplatform.restserver.RestApiServer;
 import org.sdnplatform.routing.IRoutingService;
@@ -145,6 +148,53 @@ public class LinkDiscoveryManagerTest extends PlatformTestCase {
         replay(sw1, sw2);
     }
 
+    @Test
+    public void testLinkSnapshot() throws Exception {
+        LinkDiscoveryManager linkDiscovery = getLinkDiscoveryManager();
+        LinkSnapshotProvider provider = new LinkSnapshotProvider(linkDiscovery);
+
+        Link lt1 = new Link(1L, 2, 2L, 1);
+        Link lt2 = new Link(1L, 3, 3L, 1);
+        linkDiscovery.addOrUpdateLink(lt1, new LinkInfo(1000L, 2000L, null,
+                                                        0, 0));
+        linkDiscovery.addOrUpdateLink(lt2, new LinkInfo(1000L, null, 2000L,
+                                                        0, 0));
+
+        final List<byte[]> records = new ArrayList<byte[]>();
+        provider.writeSnapshot(new IReplicationSink() {
+            @Override
+            public void write(byte[] record) {
+                records.add(record);
+            }
+        });
+        assertEquals(2, records.size());
+
+        linkDiscovery.deleteLinks(Collections.singletonList(lt1), "Test");
+        linkDiscovery.deleteLinks(Collections.singletonList(lt2), "Test");
+        assertTrue(linkDiscovery.links.isEmpty());
+
+        // a link discovered before the restore is kept
+        LinkInfo current = new LinkInfo(3000L, 4000L, null, 0, 0);
+        linkDiscovery.addOrUpdateLink(lt2, current);
+
+        long before = System.currentTimeMillis();
+        for (byte[] record : records) {
+            provider.applyRecord(new DataInputStream(
+                    new ByteArrayInputStream(record)));
+        }
+
+        // restored links are provisional
+        LinkInfo info = linkDiscovery.links.get(lt1);
+        assertNotNull(info);
+        assertEquals(Long.valueOf(1000L), info.getFirstSeenTime());
+        assertTrue(info.getUnicastValidTime() >= before);
+        assertNull(info.getMulticastValidTime());
+        assertTrue(linkDiscovery.switchLinks.get(1L).contains(lt1));
+        assertTrue(linkDiscovery.portLinks.get(
+                new NodePortTuple(2L, 1)).contains(lt1));
+        assertSame(current, linkDiscovery.links.get(lt2));
+    }
+
     @Test
     public void testAddOrUpdateLink() throws Exception {
         LinkDiscoveryManager linkDiscovery = getLinkDiscoveryManager();
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.linkdiscovery.internal;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openflow.protocol.OFFeaturesReply;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPacketIn;
+import org.openflow.protocol.OFPacketIn.OFPacketInReason;
+import org.openflow.protocol.OFPacketOut;
+import org.openflow.protocol.OFPhysicalPort;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.factory.BasicFactory;
+import org.sdnplatform.core.IControllerService;
+import org.sdnplatform.core.IOFSwitch;
+import org.sdnplatform.core.ListenerContext;
+import org.sdnplatform.core.internal.OFSwitchImpl;
+import org.sdnplatform.core.module.ModuleContext;
+import org.sdnplatform.core.test.MockControllerProvider;
+import org.sdnplatform.core.test.MockThreadPoolService;
+import org.sdnplatform.packet.Data;
+import org.sdnplatform.packet.Ethernet;
+import org.sdnplatform.storage.IStorageSourceService;
+import org.sdnplatform.storage.memory.MemoryStorageSource;
+import org.sdnplatform.threadpool.IThreadPoolService;
+
+/**
+ * Scale benchmark of the packet-in path of LinkDiscoveryManager with a
+ * large number of quarantined ports. The switches are added to a started
+ * LinkDiscoveryManager, which quarantines all of their ports. Then
+ * packet-ins are passed to receive(), as the controller dispatches them:
+ * first data packets from quarantined ports, which are dropped by the
+ * quarantine check, then one LLDP per link, which discovers the link and
+ * releases both of its ports. Reports the latency of each receive() call.
+ * Not run as part of the unit tests; run the main method with an optional
+ * number of ports.
+ */
+public class LinkDiscoveryScaleBenchmark {
+    protected static final int PORTS_PER_SWITCH = 48;
+
+    /**
+     * A switch without a channel that drops the messages written to it,
+     * e.g., the LLDPs sent when its ports are quarantined
+     */
+    protected static class BenchmarkSwitch extends OFSwitchImpl {
+        BenchmarkSwitch(long dpid, int ports) {
+            List<OFPhysicalPort> portList = new ArrayList<OFPhysicalPort>();
+            for (int p = 1; p <= ports; p++) {
+                OFPhysicalPort port = new OFPhysicalPort();
+                port.setPortNumber((short) p);
+                port.setHardwareAddress(new byte[] { 0x0a, 0,
+                        (byte) (dpid >> 16), (byte) (dpid >> 8),
+                        (byte) dpid, (byte) p });
+                port.setName("eth" + p);
+                portList.add(port);
+            }
+            OFFeaturesReply featuresReply = new OFFeaturesReply();
+            featuresReply.setDatapathId(dpid);
+            featuresReply.setPorts(portList);
+            setFeaturesReply(featuresReply);
+        }
+
+        @Override
+        public void write(OFMessage m, ListenerContext bc)
+                throws IOException {
+        }
+
+        @Override
+        public void write(List<OFMessage> msglist, ListenerContext bc)
+                throws IOException {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public SocketAddress getInetAddress() {
+            return null;
+        }
+    }
+
+    protected static class PacketIn {
+        IOFSwitch sw;
+        OFPacketIn pi;
+        ListenerContext cntx;
+    }
+
+    protected BasicFactory factory = new BasicFactory();
+    protected MockControllerProvider controller;
+    protected LinkDiscoveryManager ldm;
+    protected Map<Long, IOFSwitch> switches;
+
+    protected static long dpid(int port) {
+        return 1 + port / PORTS_PER_SWITCH;
+    }
+
+    protected static short portNumber(int port) {
+        return (short) (1 + port % PORTS_PER_SWITCH);
+    }
+
+    protected void setUp(int ports) throws Exception {
+        controller = new MockControllerProvider();
+        ldm = new LinkDiscoveryManager();
+        MockThreadPoolService tp = new MockThreadPoolService();
+        ModuleContext context = new ModuleContext();
+        context.addService(IThreadPoolService.class, tp);
+        context.addService(IStorageSourceService.class,
+                           new MemoryStorageSource());
+        context.addService(IControllerService.class, controller);
+        tp.init(context);
+        ldm.init(context);
+        tp.startUp(context);
+        ldm.startUp(context);
+
+        switches = new HashMap<Long, IOFSwitch>();
+        int switchCount = (ports + PORTS_PER_SWITCH - 1) / PORTS_PER_SWITCH;
+        for (int s = 0; s < switchCount; s++) {
+            long dpid = s + 1;
+            int switchPorts =
+                    Math.min(PORTS_PER_SWITCH, ports - s * PORTS_PER_SWITCH);
+            switches.put(dpid, new BenchmarkSwitch(dpid, switchPorts));
+        }
+        controller.setSwitches(switches);
+        // quarantines every port
+        for (IOFSwitch sw : switches.values()) {
+            ldm.addedSwitch(sw);
+        }
+    }
+
+    protected PacketIn packetIn(long dpid, short inPort, byte[] data,
+                                Ethernet eth) {
+        PacketIn p = new PacketIn();
+        p.sw = switches.get(dpid);
+        p.pi = (OFPacketIn) factory.getMessage(OFType.PACKET_IN);
+        p.pi.setBufferId(OFPacketOut.BUFFER_ID_NONE)
+            .setInPort(inPort)
+            .setPacketData(data)
+            .setReason(OFPacketInReason.NO_MATCH)
+            .setTotalLength((short) data.length);
+        // the controller decodes the payload before dispatching
+        p.cntx = new ListenerContext();
+        IControllerService.PI_PAYLOAD_KEY.put(p.cntx, eth);
+        return p;
+    }
+
+    /**
+     * A data packet-in on each of the given ports
+     */
+    protected List<PacketIn> dataPackets(int first, int count, int step) {
+        List<PacketIn> packets = new ArrayList<PacketIn>(count);
+        for (int i = 0; i < count; i++) {
+            int port = first + i * step;
+            Ethernet eth = (Ethernet) new Ethernet()
+                    .setSourceMACAddress(new byte[] { 0x0a, 1, 0, 0,
+                            (byte) (port >> 8), (byte) port })
+                    .setDestinationMACAddress("0a:02:00:00:00:01")
+                    .setEtherType(Ethernet.TYPE_IPv4)
+                    .setPayload(new Data(new byte[46]));
+            byte[] data = eth.serialize();
+            packets.add(packetIn(dpid(port), portNumber(port), data, eth));
+        }
+        return packets;
+    }
+
+    /**
+     * An LLDP sent out of port 2i and received on port 2i + 1 for each
+     * of the given links
+     */
+    protected List<PacketIn> lldpPackets(int links) {
+        List<PacketIn> packets = new ArrayList<PacketIn>(links);
+        for (int l = 0; l < links; l++) {
+            int src = 2 * l;
+            int dst = 2 * l + 1;
+            byte[] data = ldm.generateLLDPMessage(dpid(src), portNumber(src),
+                                                  true, true).getPacketData();
+            Ethernet eth = new Ethernet();
+            eth.deserialize(data, 0, data.length);
+            packets.add(packetIn(dpid(dst), portNumber(dst), data, eth));
+        }
+        return packets;
+    }
+
+    /**
+     * Pass the packet-ins to receive()
+     * @return the latency of each call in nanoseconds
+     */
+    protected long[] run(List<PacketIn> packets) {
+        long[] latencies = new long[packets.size()];
+        int i = 0;
+        for (PacketIn p : packets) {
+            long begin = System.nanoTime();
+            ldm.receive(p.sw, p.pi, p.cntx);
+            latencies[i++] = System.nanoTime() - begin;
+        }
+        return latencies;
+    }
+
+    protected static String report(String name, long[] latencies) {
+        long[] sorted = Arrays.copyOf(latencies, latencies.length);
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long l : sorted) {
+            total += l;
+        }
+        return String.format("%-6s %7d  %8.2f  %8.2f  %8.2f  %9.2f",
+                name, sorted.length,
+                (double) total / sorted.length / 1000,
+                sorted[sorted.length / 2] / 1000.0,
+                sorted[(int) (sorted.length * 0.99)] / 1000.0,
+                sorted[sorted.length - 1] / 1000.0);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int ports = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        int links = ports / 2;
+
+        // warm up
+        LinkDiscoveryScaleBenchmark warmup = new LinkDiscoveryScaleBenchmark();
+        warmup.setUp(10000);
+        warmup.run(warmup.dataPackets(1, 5000, 2));
+        warmup.run(warmup.lldpPackets(5000));
+        warmup.ldm.updatesThread.interrupt();
+
+        LinkDiscoveryScaleBenchmark b = new LinkDiscoveryScaleBenchmark();
+        b.setUp(ports);
+        List<PacketIn> data = b.dataPackets(1, links, 2);
+        List<PacketIn> lldps = b.lldpPackets(links);
+        int quarantined = b.ldm.quarantineQueue.size();
+        long[] dataLatencies = b.run(data);
+        long[] lldpLatencies = b.run(lldps);
+
+        System.out.println(ports + " ports, " + quarantined +
+                           " quarantined at start");
+        System.out.println("packet  count  mean(us)   p50(us)   p99(us)" +
+                           "    max(us)");
+        System.out.println(report("data", dataLatencies));
+        System.out.println(report("lldp", lldpLatencies));
+        System.out.println(b.ldm.quarantineQueue.size() +
+                           " quarantined at end, " + b.ldm.links.size() +
+                           " links");
+        // the link discovery tasks and threads keep running
+        System.exit(0);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.linkdiscovery.internal;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.easymock.Capture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sdnplatform.storage.IStorageSourceService;
+
+public class LinkStorageWriterTest {
+    private static final String TABLE = "controller_link";
+
+    private IStorageSourceService storageSource;
+    private ScheduledExecutorService ses;
+    private LinkStorageWriter writer;
+
+    @Before
+    public void setUp() {
+        storageSource = createMock(IStorageSourceService.class);
+        ses = Executors.newSingleThreadScheduledExecutor();
+        // long enough that only the explicit flushes below run
+        writer = new LinkStorageWriter(storageSource, TABLE, 600000);
+        writer.startUp(ses);
+    }
+
+    @After
+    public void tearDown() {
+        ses.shutdownNow();
+    }
+
+    private static Map<String, Object> row(String id, long validTime) {
+        Map<String, Object> row = new HashMap<String, Object>();
+        row.put("id", id);
+        row.put("valid_time", validTime);
+        return row;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCoalescedFlush() {
+        Capture<List<Map<String, Object>>> updates =
+                new Capture<List<Map<String, Object>>>();
+        Capture<Set<Object>> deletes = new Capture<Set<Object>>();
+        expect(storageSource.deleteRowsAsync(eq(TABLE), capture(deletes)))
+                .andReturn(null).once();
+        expect(storageSource.updateRowsAsync(eq(TABLE), capture(updates)))
+                .andReturn(null).once();
+        replay(storageSource);
+
+        // refreshed links are written once with their last row
+        for (long t = 1; t <= 10; t++) {
+            writer.updateLink("a", row("a", t));
+            writer.updateLink("b", row("b", t));
+        }
+        // a deleted link is only deleted
+        writer.updateLink("c", row("c", 1));
+        writer.removeLink("c");
+        // a link deleted and found again is only written
+        writer.removeLink("b");
+        writer.updateLink("b", row("b", 11));
+        assertEquals(3, writer.getPendingCount());
+
+        writer.flush();
+        verify(storageSource);
+        assertEquals(0, writer.getPendingCount());
+        assertEquals(Collections.singleton("c"), deletes.getValue());
+        assertEquals(2, updates.getValue().size());
+        for (Map<String, Object> r : updates.getValue()) {
+            assertEquals("a".equals(r.get("id")) ? 10L : 11L,
+                         r.get("valid_time"));
+        }
+
+        // nothing is written when nothing changed
+        writer.flush();
+        verify(storageSource);
+    }
+
+    @Test
+    public void testClear() {
+        replay(storageSource);
+        writer.updateLink("a", row("a", 1));
+        writer.removeLink("b");
+        writer.clear();
+        assertEquals(0, writer.getPendingCount());
+        writer.flush();
+        verify(storageSource);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.loadbalancer;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class LBMaglevTableTest {
+
+    private static final int SIZE = 65537;
+
+    private Map<String, Integer> weights(String... ids) {
+        Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+        for (String id : ids) {
+            weights.put(id, 1);
+        }
+        return weights;
+    }
+
+    private String[] slots(LBMaglevTable table) {
+        String[] slots = new String[table.getSize()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = table.lookup((long) i << 1);
+        }
+        return slots;
+    }
+
+    @Test
+    public void testEmpty() {
+        LBMaglevTable table =
+                new LBMaglevTable(new HashMap<String, Integer>(), SIZE);
+        assertNull(table.lookup(LBMaglevTable.hash(42L)));
+        assertEquals(0, table.getMembers().size());
+
+        // members without weight are left out
+        Map<String, Integer> weights = weights("a");
+        weights.put("a", 0);
+        table = new LBMaglevTable(weights, SIZE);
+        assertNull(table.lookup(LBMaglevTable.hash(42L)));
+    }
+
+    @Test
+    public void testBalance() {
+        LBMaglevTable table =
+                new LBMaglevTable(weights("a", "b", "c", "d", "e"), SIZE);
+        assertEquals(SIZE, table.getSize());
+        for (String id : table.getMembers()) {
+            int count = table.getSlotCount(id);
+            assertTrue(id + " has " + count + " slots",
+                       Math.abs(count - SIZE / 5) <= 1);
+        }
+    }
+
+    @Test
+    public void testWeights() {
+        Map<String, Integer> weights = weights("a", "b", "c");
+        weights.put("a", 3);
+        LBMaglevTable table = new LBMaglevTable(weights, SIZE);
+        int a = table.getSlotCount("a");
+        int b = table.getSlotCount("b");
+        int c = table.getSlotCount("c");
+        assertEquals(SIZE, a + b + c);
+        assertTrue(Math.abs(a - 3 * b) <= 3);
+        assertTrue(Math.abs(b - c) <= 1);
+    }
+
+    @Test
+    public void testMemberOrder() {
+        String[] slots1 =
+                slots(new LBMaglevTable(weights("a", "b", "c", "d"), SIZE));
+        String[] slots2 =
+                slots(new LBMaglevTable(weights("d", "b", "a", "c"), SIZE));
+        assertArrayEquals(slots1, slots2);
+    }
+
+    @Test
+    public void testMinimalDisruption() {
+        String[] before =
+                slots(new LBMaglevTable(weights("a", "b", "c", "d", "e"),
+                                        SIZE));
+        String[] after =
+                slots(new LBMaglevTable(weights("a", "b", "c", "d"), SIZE));
+
+        // only the slots of the removed member move, give or take the
+        // few slots the remaining members reshuffle
+        int moved = 0;
+        for (int i = 0; i < before.length; i++) {
+            assertFalse("e".equals(after[i]));
+            if (!"e".equals(before[i]) && !before[i].equals(after[i]))
+                moved++;
+        }
+        assertTrue("moved " + moved + " slots", moved < SIZE / 20);
+
+        // adding the member back restores the table
+        String[] again =
+                slots(new LBMaglevTable(weights("a", "b", "c", "d", "e"),
+                                        SIZE));
+        assertArrayEquals(before, again);
+    }
+}
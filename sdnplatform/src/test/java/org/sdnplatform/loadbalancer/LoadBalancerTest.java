@@ -28,6 +28,7 @@ import static org.easymock.EasyMock.verify;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -45,6 +46,7 @@ import org.openflow.protocol.OFPort;
 import org.openflow.protocol.OFType;
 import org.openflow.protocol.OFPacketIn.OFPacketInReason;
 import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionNetworkLayerDestination;
 import org.openflow.protocol.action.OFActionOutput;
 import org.openflow.util.HexString;
 import org.sdnplatform.core.ListenerContext;
@@ -276,7 +278,7 @@ public class LoadBalancerTest extends PlatformTestCase {
         assertTrue(lb.pools.containsKey(pool2.id));        
         assertTrue(lb.vips.get(pool2.vipId).pools.contains(pool2.id));
         assertTrue(lb.pools.containsKey(pool3.id));
-        assertFalse(lb.vips.containsKey(pool3.vipId));
+        assertNull(pool3.vipId);
         
     }
     
@@ -695,5 +697,150 @@ public class LoadBalancerTest extends PlatformTestCase {
      assertTrue(map.size()==4);
     }
 
+    @Test
+    public void testProactiveVipFlows() throws Exception {
+        lb.proactive = true;
+        lb.proactivePrefixLength = 1;
+
+        /* Test plan:
+         * - switches sw1 and sw2 in one L2 domain, sw2 reaching sw1 on port 5
+         * - members 10.0.0.3 and 10.0.0.4 of vip1 on sw1 port 3 and 4
+         * - creating the members installs one flow per client prefix on
+         *   each switch, rewriting on sw1
+         * - an arp request for vip1 installs the return flows of the client
+         * - removing a member moves all prefixes to the other member
+         */
+        IOFSwitch sw1 = EasyMock.createNiceMock(IOFSwitch.class);
+        expect(sw1.getId()).andReturn(1L).anyTimes();
+        IOFSwitch sw2 = EasyMock.createNiceMock(IOFSwitch.class);
+        expect(sw2.getId()).andReturn(2L).anyTimes();
+        replay(sw1, sw2);
+        Map<Long, IOFSwitch> switches = new HashMap<Long, IOFSwitch>();
+        switches.put(1L, sw1);
+        switches.put(2L, sw2);
+        getMockControllerProvider().setSwitches(switches);
+
+        reset(topology);
+        expect(topology.isIncomingBroadcastAllowed(anyLong(), anyShort())).andReturn(true).anyTimes();
+        expect(topology.isAttachmentPointPort(anyLong(), anyShort())).andReturn(true).anyTimes();
+        expect(topology.getL2DomainId(1L)).andReturn(1L).anyTimes();
+        expect(topology.getL2DomainId(2L)).andReturn(1L).anyTimes();
+        replay(topology);
+
+        Route route21 = new Route(2L, 1L);
+        List<NodePortTuple> path21 = new ArrayList<NodePortTuple>();
+        path21.add(new NodePortTuple(2L, (short)5));
+        path21.add(new NodePortTuple(1L, (short)6));
+        route21.setPath(path21);
+        expect(routingEngine.getRoute(2L, 1L, 0)).andReturn(route21).anyTimes();
+        for (short port = 3; port <= 4; port++) {
+            Route routeOut = new Route(1L, 1L);
+            List<NodePortTuple> pathOut = new ArrayList<NodePortTuple>();
+            pathOut.add(new NodePortTuple(1L, port));
+            pathOut.add(new NodePortTuple(1L, (short)1));
+            routeOut.setPath(pathOut);
+            expect(routingEngine.getRoute(1L, port, 1L, (short)1, 0))
+                    .andReturn(routeOut).anyTimes();
+        }
+        replay(routingEngine);
+
+        deviceManager.learnEntity(1L, null, IPv4.toIPv4Address("10.0.0.1"), 1L, 1);
+        deviceManager.learnEntity(3L, null, IPv4.toIPv4Address("10.0.0.3"), 1L, 3);
+        deviceManager.learnEntity(4L, null, IPv4.toIPv4Address("10.0.0.4"), 1L, 4);
+
+        testCreateMember();
+
+        Map<String, OFFlowMod> flows1 = sfp.getFlows("00:00:00:00:00:00:00:01");
+        Map<String, OFFlowMod> flows2 = sfp.getFlows("00:00:00:00:00:00:00:02");
+        for (int prefix = 0; prefix < 2; prefix++) {
+            String member = lb.pools.get("1").pickMember(prefix << 31, 1);
+            int memberAddress = lb.members.get(member).address;
+            OFFlowMod fm1 = flows1.get("proactive-vip-1-prefix-" + prefix + "-sw-1");
+            OFFlowMod fm2 = flows2.get("proactive-vip-1-prefix-" + prefix + "-sw-2");
+            assertEquals(1, fm1.getMatch().getNetworkSourceMaskLen());
+            assertEquals(prefix << 31, fm1.getMatch().getNetworkSource());
+            assertEquals(IPv4.toIPv4Address("10.0.0.100"),
+                         fm1.getMatch().getNetworkDestination());
+            assertEquals(memberAddress, getRewrittenDestination(fm1));
+            assertEquals((short)(memberAddress == IPv4.toIPv4Address("10.0.0.3") ? 3 : 4),
+                         getOutputPort(fm1));
+            assertEquals(fm1.getMatch(), fm2.getMatch());
+            assertEquals(0, getRewrittenDestination(fm2));
+            assertEquals((short)5, getOutputPort(fm2));
+        }
+
+        // client 10.0.0.1 resolves the vip
+        IPacket arpRequest = new Ethernet()
+            .setSourceMACAddress("00:00:00:00:00:01")
+            .setDestinationMACAddress("ff:ff:ff:ff:ff:ff")
+            .setEtherType(Ethernet.TYPE_ARP)
+            .setPayload(
+                new ARP()
+                .setHardwareType(ARP.HW_TYPE_ETHERNET)
+                .setProtocolType(ARP.PROTO_TYPE_IP)
+                .setHardwareAddressLength((byte) 6)
+                .setProtocolAddressLength((byte) 4)
+                .setOpCode(ARP.OP_REQUEST)
+                .setSenderHardwareAddress(HexString.fromHexString("00:00:00:00:00:01"))
+                .setSenderProtocolAddress(IPv4.toIPv4AddressBytes("10.0.0.1"))
+                .setTargetHardwareAddress(HexString.fromHexString("00:00:00:00:00:00"))
+                .setTargetProtocolAddress(IPv4.toIPv4AddressBytes("10.0.0.100")));
+        byte[] arpRequestSerialized = arpRequest.serialize();
+        OFPacketIn arpRequestPacketIn =
+                ((OFPacketIn) getMockControllerProvider().getOFMessageFactory().
+                        getMessage(OFType.PACKET_IN))
+                        .setBufferId(-1)
+                        .setInPort((short) 1)
+                        .setPacketData(arpRequestSerialized)
+                        .setReason(OFPacketInReason.NO_MATCH)
+                        .setTotalLength((short) arpRequestSerialized.length);
+        IControllerService.bcStore.put(cntx,
+                                       IControllerService.CONTEXT_PI_PAYLOAD,
+                                       (Ethernet) arpRequest);
+        lb.receive(sw1, arpRequestPacketIn, cntx);
+
+        String member = lb.pools.get("1").pickMember(0, 1);
+        OFFlowMod fmOut = flows1.get("proactive-vip-1-client-10.0.0.1-sw-1");
+        assertEquals(lb.members.get(member).address,
+                     fmOut.getMatch().getNetworkSource());
+        assertEquals(IPv4.toIPv4Address("10.0.0.1"),
+                     fmOut.getMatch().getNetworkDestination());
+        assertEquals((short)1, getOutputPort(fmOut));
+
+        // all prefixes and the client move to the remaining member
+        lb.removeMember(member);
+        String other = member.equals("1") ? "2" : "1";
+        int otherAddress = lb.members.get(other).address;
+        for (int prefix = 0; prefix < 2; prefix++) {
+            OFFlowMod fm1 = flows1.get("proactive-vip-1-prefix-" + prefix + "-sw-1");
+            assertEquals(otherAddress, getRewrittenDestination(fm1));
+        }
+        fmOut = flows1.get("proactive-vip-1-client-10.0.0.1-sw-1");
+        assertEquals(otherAddress, fmOut.getMatch().getNetworkSource());
 
+        // removing the vip removes its flows
+        lb.removeVip("1");
+        for (String name : flows1.keySet()) {
+            assertFalse(name, name.startsWith("proactive-vip-1-"));
+        }
+        for (String name : flows2.keySet()) {
+            assertFalse(name, name.startsWith("proactive-vip-1-"));
+        }
+    }
+
+    private int getRewrittenDestination(OFFlowMod fm) {
+        for (OFAction action : fm.getActions()) {
+            if (action instanceof OFActionNetworkLayerDestination)
+                return ((OFActionNetworkLayerDestination) action).getNetworkAddress();
+        }
+        return 0;
+    }
+
+    private short getOutputPort(OFFlowMod fm) {
+        for (OFAction action : fm.getActions()) {
+            if (action instanceof OFActionOutput)
+                return ((OFActionOutput) action).getPort();
+        }
+        return OFPort.OFPP_NONE.getValue();
+    }
 }
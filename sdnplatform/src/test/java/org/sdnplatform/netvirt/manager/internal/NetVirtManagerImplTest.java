@@ -1483,9 +1483,61 @@ public class NetVirtManagerImplTest extends PlatformTestCase {
         netVirtManager.getInterfaces(d);
         netVirtManager.getInterfaces(d2);
         netVirtManager.getInterfaces(d3);
-        
+
     }
-    
+
+    private static final NetVirtTest incrementalUpdateTest;
+    static {
+        incrementalUpdateTest = new NetVirtTest();
+        incrementalUpdateTest.addNetVirt(netVirt1, netVirt2);
+        incrementalUpdateTest.addNetVirtRule(rule1, rule4);
+    }
+    @Test
+    public void testIncrementalConfigUpdate() {
+        NetVirtManagerImpl netVirtManager = getNetVirtManager();
+        setupTest(basicTest);
+
+        IDevice d1 = mockDeviceManager.learnEntity(1L, null, null, null, null);
+        netVirtManager.getInterfaces(d1);
+        IDevice d2 = mockDeviceManager.learnEntity(2L, null, null, null, null);
+        List<VNSInterface> ifaces = netVirtManager.getInterfaces(d2);
+        assertEquals("default|default", ifaces.get(0).getParentVNS().getName());
+        IDevice d3 = mockDeviceManager.learnEntity(3L, null, null, null, null);
+        netVirtManager.getInterfaces(d3);
+
+        // Adding a rule for d2 only must not drop the cached state of
+        // d1 and d3
+        HashSet<String> expectedChangedNetVirtNames = new HashSet<String>();
+        expectedChangedNetVirtNames.add("netVirt1");
+        expectedChangedNetVirtNames.add("netVirt2");
+        setupTest(incrementalUpdateTest, expectedChangedNetVirtNames);
+        Map<Long, List<VNSInterface>> cached =
+                netVirtManager.curConfigState.deviceInterfaceMap;
+        assertTrue(cached.containsKey(d1.getDeviceKey()));
+        assertFalse(cached.containsKey(d2.getDeviceKey()));
+        assertTrue(cached.containsKey(d3.getDeviceKey()));
+
+        // Carried over interfaces refer to the new config
+        ifaces = netVirtManager.getInterfaces(d1);
+        assertEquals(1, ifaces.size());
+        VNSInterface iface = ifaces.get(0);
+        assertEquals("rule1/00:00:00:00:00:01", iface.getName());
+        assertSame(netVirtManager.getVNS("netVirt1"), iface.getParentVNS());
+        assertSame(netVirtManager.getInterface("netVirt1|rule1"),
+                   iface.getParentVNSInterface());
+        assertTrue(iface.getParentVNS().getKnownDevices()
+                   .contains(d1.getDeviceKey()));
+
+        ifaces = netVirtManager.getInterfaces(d2);
+        assertEquals(1, ifaces.size());
+        assertEquals("netVirt2|rule4", ifaces.get(0).getParentRule().getName());
+
+        ifaces = netVirtManager.getInterfaces(d3);
+        assertEquals(1, ifaces.size());
+        assertEquals("default/00:00:00:00:00:03", ifaces.get(0).getName());
+        assertEquals("default|default", ifaces.get(0).getParentVNS().getName());
+    }
+
     private static final NetVirtTest interfacePriorityTest;
     static {
         interfacePriorityTest = new NetVirtTest();
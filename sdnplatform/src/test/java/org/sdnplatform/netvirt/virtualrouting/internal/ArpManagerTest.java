@@ -31,6 +31,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPacketIn;
+import org.openflow.protocol.OFPort;
 import org.openflow.protocol.OFType;
 import org.openflow.protocol.OFPacketIn.OFPacketInReason;
 import org.openflow.protocol.factory.BasicFactory;
@@ -47,14 +48,17 @@ import org.sdnplatform.devicemanager.IEntityClassifierService;
 import org.sdnplatform.devicemanager.internal.BetterDeviceManagerImpl;
 import org.sdnplatform.devicemanager.internal.DefaultEntityClassifier;
 import org.sdnplatform.devicemanager.test.MockDeviceManager;
+import org.sdnplatform.devicemanager.SwitchPort;
 import org.sdnplatform.flowcache.IFlowCacheService;
 import org.sdnplatform.flowcache.IFlowReconcileService;
+import org.sdnplatform.forwarding.IForwardingService;
 import org.sdnplatform.netvirt.core.VNS;
 import org.sdnplatform.netvirt.core.VNSInterface;
 import org.sdnplatform.netvirt.core.VNS.ARPMode;
 import org.sdnplatform.netvirt.core.VNS.BroadcastMode;
 import org.sdnplatform.netvirt.manager.INetVirtListener;
 import org.sdnplatform.netvirt.manager.INetVirtManagerService;
+import org.sdnplatform.netvirt.virtualrouting.IARPListener;
 import org.sdnplatform.netvirt.virtualrouting.IVirtualRoutingService;
 import org.sdnplatform.netvirt.virtualrouting.internal.ArpManager;
 import org.sdnplatform.netvirt.virtualrouting.internal.VirtualRouting;
@@ -71,6 +75,7 @@ import org.sdnplatform.storage.memory.MemoryStorageSource;
 import org.sdnplatform.tagmanager.ITagManagerService;
 import org.sdnplatform.test.PlatformTestCase;
 import org.sdnplatform.threadpool.IThreadPoolService;
+import org.sdnplatform.topology.ITopologyListener;
 import org.sdnplatform.topology.ITopologyService;
 import org.sdnplatform.topology.NodePortTuple;
 import org.sdnplatform.tunnelmanager.ITunnelManagerService;
@@ -223,6 +228,9 @@ public class ArpManagerTest extends PlatformTestCase {
         expectLastCall().times(1);
         topology.addListener(tagManager);
         expectLastCall().times(1);
+        // the gateway pool selection cache of virtual routing
+        topology.addListener(EasyMock.anyObject(ITopologyListener.class));
+        expectLastCall().times(1);
         expect(topology.getL2DomainId(anyLong())).andReturn(1L).anyTimes();
         expect(topology.isAttachmentPointPort(anyLong(), anyShort())).andReturn(true).anyTimes();
         replay(topology);
@@ -1274,6 +1282,101 @@ public class ArpManagerTest extends PlatformTestCase {
                      result.getHardTimeout());
     }
 
+    /**
+     * Tests that an ARP request for a recorded router IP is answered by
+     * the ARP manager without calling the ARP listeners, and that the
+     * listeners are called again once the recorded replies are cleared.
+     */
+    @Test
+    public void testARPResponderTable() throws Exception {
+        ArpManager am = getArpManager();
+        VirtualRouting vr = getVirtualRouting();
+        long vMac = VirtualRouterManager.VIRTUAL_ROUTING_MAC;
+        int routerIp = IPv4.toIPv4Address("192.168.1.2");
+
+        long mac = HexString.toLong("00:44:33:22:11:00");
+        int ip = IPv4.toIPv4Address("192.168.1.1");
+        IDevice src = mockDeviceManager.learnEntity(mac, null, ip, 1L, 1);
+        String addressSpace = src.getEntityClass().getName();
+
+        List<VNSInterface> srcIfaces = new ArrayList<VNSInterface>();
+        srcIfaces.add(new VNSInterface("newSrcIface1", newNetVirt, null, null));
+        srcIfaces.add(new VNSInterface("defaultSrcIface1", defaultNetVirt,
+                                       null, null));
+        VNS top = (newNetVirt.compareTo(defaultNetVirt) < 0) ?
+                newNetVirt : defaultNetVirt;
+        INetVirtManagerService nvm = createMock(INetVirtManagerService.class);
+        expect(nvm.getInterfaces(src)).andReturn(srcIfaces).anyTimes();
+        IForwardingService forwarding = createMock(IForwardingService.class);
+        Capture<Ethernet> replyCapture = new Capture<Ethernet>();
+        expect(forwarding.pushPacketOutToEgressPort(
+                capture(replyCapture),
+                eq(OFPort.OFPP_NONE.getValue()),
+                eq(new SwitchPort(1L, 1)),
+                eq(false),
+                eq(top.getAddressSpaceName()),
+                eq(Ethernet.VLAN_UNTAGGED),
+                (ListenerContext)isNull(),
+                eq(true))).andReturn(true).once();
+        am.setNetVirtManager(nvm);
+        am.setForwarding(forwarding);
+
+        // Only the first ARP listener may record its replies
+        int generation = am.getResponders().getGeneration();
+        am.learnResponder(createMock(IARPListener.class), generation,
+                          addressSpace, Ethernet.VLAN_UNTAGGED, routerIp,
+                          top.getName(), vMac);
+        assertEquals(0, am.getResponders().size());
+        am.learnResponder(vr, generation, addressSpace,
+                          Ethernet.VLAN_UNTAGGED, routerIp, top.getName(),
+                          vMac);
+        assertEquals(1, am.getResponders().size());
+
+        IOFSwitch mockSwitch = createNiceMock(IOFSwitch.class);
+        expect(mockSwitch.getId()).andReturn(1L).anyTimes();
+        MockControllerProvider bp = getMockControllerProvider();
+        bp.clearListeners();
+        bp.addOFMessageListener(OFType.PACKET_IN, vr);
+        replay(mockSwitch, nvm, forwarding);
+
+        ListenerContext bc =
+                parseAndAnnotate(packetInARPRequest, src, null);
+        INetVirtManagerService.SRC_IFACES_KEY.put(bc, srcIfaces);
+        bp.dispatchMessage(mockSwitch, packetInARPRequest, bc);
+        verify(forwarding);
+
+        IRoutingDecision result = IRoutingDecision.DECISION_KEY.get(bc);
+        assertEquals(RoutingAction.NONE, result.getRoutingAction());
+
+        Ethernet eth = replyCapture.getValue();
+        assertEquals(mac, Ethernet.toLong(eth.getDestinationMACAddress()));
+        assertEquals(vMac, Ethernet.toLong(eth.getSourceMACAddress()));
+        byte[] data = eth.serialize();
+        eth = (Ethernet) new Ethernet().deserialize(data, 0, data.length);
+        ARP arp = (ARP) eth.getPayload();
+        assertEquals(ARP.OP_REPLY, arp.getOpCode());
+        assertEquals(vMac, Ethernet.toLong(arp.getSenderHardwareAddress()));
+        assertEquals(routerIp,
+                     IPv4.toIPv4Address(arp.getSenderProtocolAddress()));
+        assertEquals(mac, Ethernet.toLong(arp.getTargetHardwareAddress()));
+        assertEquals(ip, IPv4.toIPv4Address(arp.getTargetProtocolAddress()));
+
+        // A reply that is no longer valid is not recorded
+        am.clearResponders();
+        am.learnResponder(vr, generation, addressSpace,
+                          Ethernet.VLAN_UNTAGGED, routerIp, top.getName(),
+                          vMac);
+        assertEquals(0, am.getResponders().size());
+
+        // Without a recorded reply the request goes to the listeners, and
+        // no router answers for the IP
+        bc = parseAndAnnotate(packetInARPRequest, src, null);
+        INetVirtManagerService.SRC_IFACES_KEY.put(bc, srcIfaces);
+        bp.dispatchMessage(mockSwitch, packetInARPRequest, bc);
+        verify(forwarding);
+        assertEquals(1, replyCapture.getValues().size());
+    }
+
     protected ArpManager getArpManager() {
         return arpManager;
     }
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.netvirt.virtualrouting.internal;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.sdnplatform.netvirt.virtualrouting.internal.ArpResponderTable.Responder;
+import org.sdnplatform.packet.ARP;
+import org.sdnplatform.packet.Ethernet;
+import org.sdnplatform.packet.IPv4;
+
+public class ArpResponderTableTest {
+    @Test
+    public void testLearn() {
+        ArpResponderTable table = new ArpResponderTable();
+        int ip = IPv4.toIPv4Address("10.0.0.1");
+        short vlan = Ethernet.VLAN_UNTAGGED;
+        assertNull(table.get("as1", vlan, ip));
+
+        int generation = table.getGeneration();
+        assertTrue(table.learn(generation, "as1", vlan, ip, "t|n1", 1L));
+        assertTrue(table.learn(generation, "as1", vlan, ip, "t|n2", 2L));
+        assertTrue(table.learn(generation, "as1", vlan, ip, "t|n1", 3L));
+        assertEquals(1, table.size());
+        assertNull(table.get("as2", vlan, ip));
+        assertNull(table.get("as1", (short) 10, ip));
+        assertNull(table.get("as1", vlan, ip + 1));
+
+        Responder responder = table.get("as1", vlan, ip);
+        assertNull(responder.getTemplate("t|n3"));
+        ARP arp = new ARP();
+        byte[] template = responder.getTemplate("t|n1");
+        arp.deserialize(template, 0, template.length);
+        assertEquals(ARP.OP_REPLY, arp.getOpCode());
+        assertEquals(3L, Ethernet.toLong(arp.getSenderHardwareAddress()));
+        assertEquals(ip, IPv4.toIPv4Address(arp.getSenderProtocolAddress()));
+        template = responder.getTemplate("t|n2");
+        arp.deserialize(template, 0, template.length);
+        assertEquals(2L, Ethernet.toLong(arp.getSenderHardwareAddress()));
+
+        // a reply determined before the table was cleared is dropped
+        table.clear();
+        assertEquals(0, table.size());
+        assertNull(table.get("as1", vlan, ip));
+        assertFalse(table.learn(generation, "as1", vlan, ip, "t|n1", 1L));
+        assertTrue(table.learn(table.getGeneration(), "as1", vlan, ip,
+                               "t|n1", 1L));
+    }
+
+    @Test
+    public void testCapacity() {
+        ArpResponderTable table = new ArpResponderTable();
+        int generation = table.getGeneration();
+        for (int i = 0; i < ArpResponderTable.MAX_RESPONDERS; i++) {
+            assertTrue(table.learn(generation, "as" + (i % 3), (short) i,
+                                   i, "n", i + 1));
+        }
+        assertFalse(table.learn(generation, "as0", (short) 0, -1, "n", 1));
+        assertEquals(ArpResponderTable.MAX_RESPONDERS, table.size());
+        for (int i = 0; i < ArpResponderTable.MAX_RESPONDERS; i++) {
+            assertNotNull(table.get("as" + (i % 3), (short) i, i));
+        }
+    }
+}
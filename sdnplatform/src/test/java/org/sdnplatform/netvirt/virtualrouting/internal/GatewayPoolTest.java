@@ -1793,4 +1793,91 @@ public class GatewayPoolTest extends PlatformTestCase {
         assertEquals(gatewayNode1Ip, selectedGwIP1);
         assertEquals(gatewayNode2Ip, selectedGwIP2);
     }
+
+    /*
+     * Test that the selection is computed once per source and topology,
+     * and that equal-cost gateway nodes can be spread over.
+     * Host 1 and both gateway nodes are attached to switch 1.
+     */
+    @Test
+    public void testGatewaySelectionCache() {
+        expect(topology.isAttachmentPointPort(EasyMock.anyLong(),
+                                              EasyMock.anyShort())).
+                                              andReturn(true).anyTimes();
+        replay(topology);
+
+        String macDevice1Str = "aa:bb:cc:dd:ee:01";
+        long macDevice1 = Ethernet.toLong(Ethernet.toMACAddress(macDevice1Str));
+        int ipDevice1 = IPv4.toIPv4Address("192.168.2.10");
+        device1 = mockDeviceManager.learnEntity(macDevice1, null, ipDevice1,
+                                                1L, 1, false);
+        gatewayNode1 = mockDeviceManager.learnEntity(gatewayNode1Mac, null,
+                                                     gatewayNode1Ip, 1L, 2,
+                                                     false);
+        gatewayNode2 = mockDeviceManager.learnEntity(gatewayNode2Mac, null,
+                                                     gatewayNode2Ip, 1L, 3,
+                                                     false);
+        setup2NodeGatewayPool();
+
+        Route routeD1ToGW1 = new Route(device1.getMACAddress(),
+                                       gatewayNode1.getMACAddress());
+        routeD1ToGW1.getPath().add(new NodePortTuple(1L, (short)1));
+        routeD1ToGW1.getPath().add(new NodePortTuple(1L, (short)2));
+        Route routeD1ToGW2 = new Route(device1.getMACAddress(),
+                                       gatewayNode2.getMACAddress());
+        routeD1ToGW2.getPath().add(new NodePortTuple(1L, (short)1));
+        routeD1ToGW2.getPath().add(new NodePortTuple(1L, (short)3));
+
+        reset(topology);
+        expect(topology.getL2DomainId(1L)).andReturn(1L).anyTimes();
+        expect(topology.isAttachmentPointPort(EasyMock.anyLong(),
+                                              EasyMock.anyShort()))
+                                              .andReturn(true).anyTimes();
+        /*
+         * The routes are computed once before and once after the
+         * invalidation
+         */
+        expect(routingEngine.getRoute(1L, (short)1, 1L, (short)2, 0)).
+               andReturn(routeD1ToGW1).times(2);
+        expect(routingEngine.getRoute(1L, (short)1, 1L, (short)3, 0)).
+               andReturn(routeD1ToGW2).times(2);
+        replay(topology, routingEngine);
+
+        /* Equal cost, the node with the smaller IP is picked */
+        assertEquals(gatewayNode1Ip,
+                gatewayPool.getOptimalGatewayNodeInfo(device1, null).getIp());
+        assertEquals(gatewayNode1Ip,
+                gatewayPool.getOptimalGatewayNodeInfo(device1, null).getIp());
+
+        gatewayPool.invalidateCache();
+        assertEquals(gatewayNode1Ip,
+                gatewayPool.getOptimalGatewayNodeInfo(device1, null).getIp());
+
+        /* A source sticks to one of the equal-cost nodes */
+        gatewayPool.setEqualCostSpread(true);
+        int spreadIp =
+                gatewayPool.getOptimalGatewayNodeInfo(device1, null).getIp();
+        assertTrue(spreadIp == gatewayNode1Ip || spreadIp == gatewayNode2Ip);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(spreadIp,
+                gatewayPool.getOptimalGatewayNodeInfo(device1, null).getIp());
+        }
+
+        /*
+         * The gateway devices are known by their IPs and, once selected,
+         * by their keys so the pool can be invalidated when one of them
+         * loses its IP
+         */
+        assertTrue(gatewayPool.hasGatewayDevice(gatewayNode2));
+        assertFalse(gatewayPool.hasGatewayDevice(device1));
+        IDevice renumbered = createMock(IDevice.class);
+        expect(renumbered.getDeviceKey()).
+               andReturn(gatewayNode1.getDeviceKey()).anyTimes();
+        expect(renumbered.getIPv4Addresses()).
+               andReturn(new Integer[0]).anyTimes();
+        replay(renumbered);
+        assertTrue(gatewayPool.hasGatewayDevice(renumbered));
+
+        verify(topology, routingEngine);
+    }
 }
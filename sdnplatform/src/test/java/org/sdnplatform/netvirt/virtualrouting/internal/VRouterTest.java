@@ -891,6 +891,63 @@ public class VRouterTest extends PlatformTestCase {
         assertEquals(0, retIp);
     }
 
+    @Test
+    public void testForwardingDecisionCache() throws Exception {
+        vr.createInterface("if1", "t1|netVirt1", null, true);
+        vr.createInterface("if2", "t1|netVirt2", null, true);
+        vr.createInterface("ifs", null, "system|rs", true);
+        vr.assignInterfaceAddr("if1", "10.1.1.1", "0.0.0.255");
+        vr.assignInterfaceAddr("if2", "10.1.2.1", "0.0.0.255");
+        vr.addRoutingRule("t1", null, null, null, "t1", null, null, null,
+                          null, null, "permit");
+
+        VNS netVirtA1 = new VNS("t1|netVirt1");
+        VNS netVirtA2 = new VNS("t1|netVirt2");
+        VNS netVirtB1 = new VNS("t10|netVirt1");
+        int ip1 = IPv4.toIPv4Address("10.1.1.2");
+        int ip2 = IPv4.toIPv4Address("10.1.2.2");
+
+        ForwardingAction action1 =
+                vr.getForwardingAction("t1|netVirt1", netVirtA1, ip1,
+                                       netVirtA2, ip2);
+        assertEquals(RoutingAction.FORWARD, action1.getAction());
+        assertEquals(1, vr.decisionCache.size());
+
+        /* A cached decision still returns a new action */
+        ForwardingAction action2 =
+                vr.getForwardingAction("t1|netVirt1", netVirtA1, ip1,
+                                       netVirtA2, ip2);
+        assertNotSame(action1, action2);
+        assertEquals(RoutingAction.FORWARD, action2.getAction());
+        assertEquals("t1|netVirt2", action2.getDstNetVirtName());
+        assertEquals(1, vr.decisionCache.size());
+
+        /* A tenant rule does not match a tenant sharing its prefix, and
+         * the miss is cached too
+         */
+        ForwardingAction action3 =
+                vr.getForwardingAction("t1|netVirt1", netVirtA1, ip1,
+                                       netVirtB1, ip2);
+        assertEquals(RoutingAction.DROP, action3.getAction());
+        assertEquals(ForwardingAction.DropReason.DROP_RULE,
+                     action3.getDropReason());
+        assertEquals(2, vr.decisionCache.size());
+
+        /* A configuration change drops the cached decisions */
+        vr.addRoutingRule(null, null, "10.1.1.2", "0.0.0.0", null, null,
+                          "10.1.2.2", "0.0.0.0", null, null, "deny");
+        assertEquals(0, vr.decisionCache.size());
+        action1 = vr.getForwardingAction("t1|netVirt1", netVirtA1, ip1,
+                                         netVirtA2, ip2);
+        assertEquals(RoutingAction.DROP, action1.getAction());
+
+        assertTrue(VRouterImpl.isTenantOf("t1", "t1|netVirt1"));
+        assertTrue(VRouterImpl.isTenantOf("t1", "t1"));
+        assertFalse(VRouterImpl.isTenantOf("t1", "t10|netVirt1"));
+        assertEquals("t1", VRouterImpl.getTenantName("t1|netVirt1"));
+        assertEquals("t1", VRouterImpl.getTenantName("t1"));
+    }
+
     /*
      * Note: The following tests on the gateway pool/node related APIs in
      * VirutalRouterImpl class ensure only that the IGatewayPool API usage is
@@ -1196,6 +1196,7 @@ public class VirtualRouterManagerTest extends PlatformTestCase {
         SwitchPort[] gw1APs = new SwitchPort[1];
         gw1APs[0] = gw1AP;
         expect(gw1Device.getAttachmentPoints()).andReturn(gw1APs).anyTimes();
+        expect(gw1Device.getDeviceKey()).andReturn(3L).anyTimes();
 
         /*
          * Mock Up device attachment points for gw2Device
@@ -1204,6 +1205,7 @@ public class VirtualRouterManagerTest extends PlatformTestCase {
         SwitchPort[] gw2APs = new SwitchPort[1];
         gw2APs[0] = gw2AP;
         expect(gw2Device.getAttachmentPoints()).andReturn(gw2APs).anyTimes();
+        expect(gw2Device.getDeviceKey()).andReturn(4L).anyTimes();
 
         /*
          * Setup mock routes
@@ -1291,6 +1293,8 @@ public class VirtualRouterManagerTest extends PlatformTestCase {
         staticArpMap.remove(new Integer(dstIp));
         staticArpMap.remove(new Integer(gw1Ip));
         staticArpMap.remove(new Integer(gw2Ip));
+        // as when the static ARP table is reloaded from storage
+        vrm.setStaticArpTable(staticArpMap);
         cntx = new ListenerContext();
         IDeviceService.fcStore.put(cntx, IDeviceService.CONTEXT_SRC_DEVICE,
                                    srcDevice);
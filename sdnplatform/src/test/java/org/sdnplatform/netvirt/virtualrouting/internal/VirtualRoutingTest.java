@@ -1653,15 +1653,13 @@ public class VirtualRoutingTest extends PlatformTestCase {
         assertEquals(true, virtualRouting.acquireVirtualMac(
                              VirtualRouting.MIN_VIRTUAL_MAC-1));
 
-        int remainedVMacSize = virtualRouting.reclaimedVMacs.size();
-        long nextAvailVMac = virtualRouting.nextAvailableVMac;
+        int allocatedVMacs = virtualRouting.vMacAllocator.getAllocatedCount();
         virtualRouting.relinquishVirtualMAC(
                              VirtualRouting.MAX_VIRTUAL_MAC+1);
         virtualRouting.relinquishVirtualMAC(
                              VirtualRouting.MIN_VIRTUAL_MAC-1);
-        assertEquals(remainedVMacSize,
-                     virtualRouting.reclaimedVMacs.size());
-        assertEquals(nextAvailVMac, virtualRouting.nextAvailableVMac);
+        assertEquals(allocatedVMacs,
+                     virtualRouting.vMacAllocator.getAllocatedCount());
 
         long ns1_macl = VirtualRouting.MIN_VIRTUAL_MAC;
         assertTrue(virtualRouting.acquireVirtualMac(ns1_macl));
@@ -1703,8 +1701,7 @@ public class VirtualRoutingTest extends PlatformTestCase {
         assertEquals(ns2_macl+3, acquiredMac3);
         assertEquals(ns2_macl+4, acquiredMac4);
         assertEquals(ns2_macl+6, acquiredMac5);
-        assertEquals(ns2_macl+7, virtualRouting.nextAvailableVMac);
-        assertEquals(0, virtualRouting.reclaimedVMacs.size());
+        assertEquals(8, virtualRouting.vMacAllocator.getAllocatedCount());
 
         // Relinquish ns2_mac, the next auto-generated vMac should be ns2_mac
         virtualRouting.relinquishVirtualMAC(ns2_macl);
@@ -1716,9 +1713,10 @@ public class VirtualRoutingTest extends PlatformTestCase {
         assertEquals(ns2_macl, acquiredMac);
 
         // simulate the case when all vMacs have been allocated
-        virtualRouting.reclaimedVMacs.clear();
-        virtualRouting.nextAvailableVMac =
-                VirtualRouting.MAX_VIRTUAL_MAC;
+        for (long mac = VirtualRouting.MIN_VIRTUAL_MAC;
+             mac < VirtualRouting.MAX_VIRTUAL_MAC; mac++) {
+            virtualRouting.acquireVirtualMac(mac);
+        }
         try {
             acquiredMac = virtualRouting.acquireVirtualMac();
         } catch (VirtualMACExhaustedException e) {
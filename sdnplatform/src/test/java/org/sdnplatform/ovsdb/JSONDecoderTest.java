@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.ovsdb;
+
+import static org.junit.Assert.*;
+
+import org.codehaus.jackson.JsonNode;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.junit.Before;
+import org.junit.Test;
+import org.sdnplatform.ovsdb.internal.JSONDecoder;
+
+public class JSONDecoderTest {
+    DecoderEmbedder<JsonNode> decoder;
+
+    @Before
+    public void setUp() {
+        decoder = new DecoderEmbedder<JsonNode>(new JSONDecoder());
+    }
+
+    private void offer(String s) {
+        decoder.offer(ChannelBuffers.wrappedBuffer(s.getBytes()));
+    }
+
+    @Test
+    public void testFragmentedMessages() {
+        String msg = "{\"id\":1,\"error\":null,\"result\":" +
+                "{\"Port\":{\"a\":{\"new\":{\"name\":\"x}]{\\\"\"}}}}}";
+        // deliver one byte at a time; no message until the last byte
+        for (int i = 0; i < msg.length() - 1; i++) {
+            offer(msg.substring(i, i + 1));
+            assertNull(decoder.poll());
+        }
+        offer(msg.substring(msg.length() - 1));
+        JsonNode jn = decoder.poll();
+        assertNotNull(jn);
+        assertEquals(1, jn.get("id").getValueAsInt());
+        assertEquals("x}]{\"", jn.get("result").get("Port").get("a")
+                     .get("new").get("name").getTextValue());
+    }
+
+    @Test
+    public void testMultipleMessagesInOneRead() {
+        offer(" {\"id\":1}\n{\"id\":2} [3] {\"id\":");
+        assertEquals(1, decoder.poll().get("id").getValueAsInt());
+        assertEquals(2, decoder.poll().get("id").getValueAsInt());
+        assertTrue(decoder.poll().isArray());
+        assertNull(decoder.poll());
+        offer("4}");
+        assertEquals(4, decoder.poll().get("id").getValueAsInt());
+    }
+
+    @Test
+    public void testGarbageIsSkipped() {
+        offer("blah {\"id\":5}");
+        assertEquals(5, decoder.poll().get("id").getValueAsInt());
+        try {
+            // a malformed message is consumed and the stream recovers
+            offer("{\"error\":,\"id\":6}");
+            fail("Expected a parse error");
+        } catch (Exception e) {
+            // expected
+        }
+        offer("{\"id\":7}");
+        assertEquals(7, decoder.poll().get("id").getValueAsInt());
+    }
+}
@@ -23,15 +23,21 @@ import static org.easymock.EasyMock.verify;
 import static org.easymock.EasyMock.reset;
 import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.capture;
 
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.easymock.Capture;
 import org.jboss.netty.bootstrap.ClientBootstrap;
 import org.jboss.netty.bootstrap.ServerBootstrap;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.group.ChannelGroup;
 import org.jboss.netty.channel.group.ChannelGroupFuture;
 import org.jboss.netty.channel.group.DefaultChannelGroup;
@@ -42,8 +48,10 @@ import org.junit.Test;
 import org.sdnplatform.ovsdb.IOVSDB;
 import org.sdnplatform.ovsdb.internal.JSONAddPortMsg;
 import org.sdnplatform.ovsdb.internal.JSONDelPortMsg;
+import org.sdnplatform.ovsdb.internal.JSONMsgHandler;
 import org.sdnplatform.ovsdb.internal.JSONShowMsg;
 import org.sdnplatform.ovsdb.internal.JSONShowReplyMsg;
+import org.sdnplatform.ovsdb.internal.JSONShowReplyMsg.ShowResult;
 import org.sdnplatform.ovsdb.internal.OVSDBBridgeUnknown;
 import org.sdnplatform.ovsdb.internal.OVSDBClientPipelineFactory;
 import org.sdnplatform.ovsdb.internal.OVSDBImpl;
@@ -51,6 +59,8 @@ import org.sdnplatform.test.PlatformTestCase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 
 
 
@@ -66,6 +76,10 @@ public class OVSDBImplTest extends PlatformTestCase {
     static final ChannelGroup allChannels = 
         new DefaultChannelGroup("ovsdbserver");
     IOVSDB dbsw1 = createNiceMock(IOVSDB.class);
+    // reply types of JSONMsgHandler
+    private static final int SHOW_REPLY = 0;
+    private static final int ADD_PORT_REPLY = 1;
+    private static final int DEL_PORT_REPLY = 2;
     
     @Before
     public void setUp() throws Exception {
@@ -114,6 +128,15 @@ public class OVSDBImplTest extends PlatformTestCase {
         
     }
     
+    /**
+     * Register a request with the session handler of the client, as
+     * OVSDBImpl does before sending it
+     */
+    private ListenableFuture<Boolean> registerRequest(int id, int type) {
+        return clientChannel.getPipeline().get(JSONMsgHandler.class)
+                .registerRequest(id, type);
+    }
+    
     private  void connectClient(IOVSDB sw) {
         Object statusObj = new Object();
         clientpipefact.setCurSwitch(sw);
@@ -127,6 +150,7 @@ public class OVSDBImplTest extends PlatformTestCase {
     public void testGarbageShowMessageReply() throws InterruptedException {
         for (int i = 0; i< 10; i++ ){
             connectClient(dbsw1);
+            registerRequest(msgid, SHOW_REPLY);
             //expect no calls to the mock object
             replay(dbsw1);
             JSONShowMsg jshow = new JSONShowMsg(msgid); 
@@ -138,21 +162,23 @@ public class OVSDBImplTest extends PlatformTestCase {
             reset(dbsw1);
         }
         cfactory.releaseExternalResources();
+        clientpipefact.releaseExternalResources();
         shutdownOVSDBServer();
     }
    
     @Test
-    public void testValidShowMessageReply() throws InterruptedException {
+    public void testValidShowMessageReply() throws Exception {
         msgid = 10; testid = 10;
         for (int i = 0; i< 2; i++ ){
             connectClient(dbsw1);
-            expect(dbsw1.getExpectedMessage(msgid)).andReturn(0);
+            ListenableFuture<Boolean> reply =
+                    registerRequest(msgid, SHOW_REPLY);
             dbsw1.updateTunnelSwitchFromShow(isA(JSONShowReplyMsg.class));
             expectLastCall().atLeastOnce();
             replay(dbsw1);
             JSONShowMsg jshow = new JSONShowMsg(msgid); 
             clientChannel.write(jshow);
-            waitForClientReceive();
+            assertTrue(reply.get(5, TimeUnit.SECONDS));
             verify(dbsw1);
             
             clientChannel.close().awaitUninterruptibly();
@@ -160,6 +186,7 @@ public class OVSDBImplTest extends PlatformTestCase {
             reset(dbsw1);
         }
         cfactory.releaseExternalResources();
+        clientpipefact.releaseExternalResources();
         shutdownOVSDBServer();
     }
     
@@ -174,8 +201,7 @@ public class OVSDBImplTest extends PlatformTestCase {
         msgid = 13; testid = 13;
         for (int i = 0; i< 4; i++ ){
             connectClient(dbsw1);
-            if (msgid != 16)
-                expect(dbsw1.getExpectedMessage(msgid)).andReturn(1);
+            registerRequest(msgid, ADD_PORT_REPLY);
             replay(dbsw1);
             JSONAddPortMsg jadd = new JSONAddPortMsg("vta010010001001", 
                     "0.0.0.0", "10.10.1.1", ovs, msgid, true); 
@@ -186,7 +212,9 @@ public class OVSDBImplTest extends PlatformTestCase {
             msgid++; testid++;
             reset(dbsw1);
         }
+        ovs.closeSession();
         cfactory.releaseExternalResources();
+        clientpipefact.releaseExternalResources();
         shutdownOVSDBServer();
     }
     
@@ -201,8 +229,7 @@ public class OVSDBImplTest extends PlatformTestCase {
         msgid = 17; testid = 17;
         for (int i = 0; i< 4; i++ ){
             connectClient(dbsw1);
-            if (msgid != 20)
-                expect(dbsw1.getExpectedMessage(msgid)).andReturn(2);
+            registerRequest(msgid, DEL_PORT_REPLY);
             replay(dbsw1);
             JSONDelPortMsg jshow = new JSONDelPortMsg("vta010010001001", 
                     "355b1c92-f0d8-44f2-bfbb-9e65feb0ac05", ovs, msgid); 
@@ -213,7 +240,35 @@ public class OVSDBImplTest extends PlatformTestCase {
             msgid++; testid++;
             reset(dbsw1);
         }
+        ovs.closeSession();
+        cfactory.releaseExternalResources();
+        clientpipefact.releaseExternalResources();
+        shutdownOVSDBServer();
+    }
+    
+    @Test
+    public void testUpdateNotification() throws Exception {
+        Capture<ShowResult> update = new Capture<ShowResult>();
+        dbsw1.updateTunnelSwitchFromUpdate(capture(update));
+        expectLastCall().once();
+        // params are the monitor id and the table updates
+        JsonNode jn = new ObjectMapper().readTree(
+                "{\"id\":null,\"method\":\"update\",\"params\":[7," +
+                "{\"Port\":{\"p1\":{\"new\":{\"name\":\"vta010000000002\"}}}," +
+                "\"Interface\":{\"i1\":{\"old\":{\"name\":\"vta010000000003\"}}}" +
+                "}]}");
+        MessageEvent e = createNiceMock(MessageEvent.class);
+        expect(e.getMessage()).andReturn(jn).anyTimes();
+        replay(dbsw1, e);
+        new JSONMsgHandler(dbsw1, new Object(), null, 0)
+                .messageReceived(null, e);
+        verify(dbsw1);
+        assertEquals("vta010000000002",
+                     update.getValue().getPort().get("p1").getNew().getName());
+        // a deleted row has no new contents
+        assertNull(update.getValue().getInterface().get("i1").getNew());
         cfactory.releaseExternalResources();
+        clientpipefact.releaseExternalResources();
         shutdownOVSDBServer();
     }
     
@@ -228,7 +283,7 @@ public class OVSDBImplTest extends PlatformTestCase {
         msgid = 21; testid = 21;
         for (int i = 0; i< 1; i++ ){
             connectClient(dbsw1);
-            expect(dbsw1.getExpectedMessage(msgid)).andReturn(1);
+            registerRequest(msgid, ADD_PORT_REPLY);
             replay(dbsw1);
             JSONAddPortMsg jadd = new JSONAddPortMsg("eth2.vlan2000", 
                     null, null, ovs, msgid, true); 
@@ -239,7 +294,9 @@ public class OVSDBImplTest extends PlatformTestCase {
             msgid++; testid++;
             reset(dbsw1);
         }
+        ovs.closeSession();
         cfactory.releaseExternalResources();
+        clientpipefact.releaseExternalResources();
         shutdownOVSDBServer();
     }
     
@@ -266,7 +323,12 @@ public class OVSDBImplTest extends PlatformTestCase {
         ovs3.setBridgeDpid("0000000000000003");
         assertTrue (ovs3.getDpid() == (3L));
                 
+        ovs.closeSession();
+        ovs1.closeSession();
+        ovs2.closeSession();
+        ovs3.closeSession();
         cfactory.releaseExternalResources();
+        clientpipefact.releaseExternalResources();
         shutdownOVSDBServer();
     }
     
@@ -298,7 +360,12 @@ public class OVSDBImplTest extends PlatformTestCase {
         newips.add("tcp:10.100.1.1");
         ovs4.setControllerIPs(newips);
         
+        ovs.closeSession();
+        ovs2.closeSession();
+        ovs3.closeSession();
+        ovs4.closeSession();
         cfactory.releaseExternalResources();
+        clientpipefact.releaseExternalResources();
         shutdownOVSDBServer();
     }
     
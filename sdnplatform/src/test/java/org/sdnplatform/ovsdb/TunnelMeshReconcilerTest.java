@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.ovsdb;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+import org.sdnplatform.ovsdb.internal.TunnelMeshReconciler;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class TunnelMeshReconcilerTest {
+
+    private IOVSDB mockSwitch(String ip, String ipName) {
+        IOVSDB o = createMock(IOVSDB.class);
+        expect(o.getTunnelIPAddress()).andReturn(ip).anyTimes();
+        expect(o.getTunnelIPAddrName()).andReturn(ipName).anyTimes();
+        return o;
+    }
+
+    @Test
+    public void testFullMesh() throws Exception {
+        IOVSDB s1 = mockSwitch("10.0.0.1", "vta010000000001");
+        IOVSDB s2 = mockSwitch("10.0.0.2", "vta010000000002");
+        IOVSDB s3 = mockSwitch("10.0.0.3", "vta010000000003");
+        // no tunnel IP: neither reconciled nor a peer
+        IOVSDB s4 = mockSwitch(null, null);
+
+        Map<String, String> d1 = new HashMap<String, String>();
+        d1.put("vta010000000002", "10.0.0.2");
+        d1.put("vta010000000003", "10.0.0.3");
+        Map<String, String> d2 = new HashMap<String, String>();
+        d2.put("vta010000000001", "10.0.0.1");
+        d2.put("vta010000000003", "10.0.0.3");
+        Map<String, String> d3 = new HashMap<String, String>();
+        d3.put("vta010000000001", "10.0.0.1");
+        d3.put("vta010000000002", "10.0.0.2");
+        Set<String> noneGone = Collections.emptySet();
+        expect(s1.reconcileTunnelPortsAsync("10.0.0.1", d1, noneGone))
+            .andReturn(Futures.immediateFuture(true)).once();
+        expect(s2.reconcileTunnelPortsAsync("10.0.0.2", d2, noneGone))
+            .andReturn(Futures.immediateFuture(true)).once();
+        expect(s3.reconcileTunnelPortsAsync("10.0.0.3", d3, noneGone))
+            .andReturn(Futures.immediateFuture(true)).once();
+        replay(s1, s2, s3, s4);
+
+        List<IOVSDB> switches = new ArrayList<IOVSDB>();
+        switches.add(s1);
+        switches.add(s2);
+        switches.add(s3);
+        switches.add(s4);
+        TunnelMeshReconciler r = new TunnelMeshReconciler(2, 1000);
+        long ms = r.reconcile(switches);
+        assertTrue(ms >= 0);
+        assertEquals(ms, r.getLastConvergenceMs());
+        assertEquals(0, r.getLastFailed());
+        verify(s1, s2, s3, s4);
+    }
+
+    @Test
+    public void testFailedSwitch() throws Exception {
+        IOVSDB s1 = mockSwitch("10.0.0.1", "vta010000000001");
+        IOVSDB s2 = mockSwitch("10.0.0.2", "vta010000000002");
+        Set<String> noneGone = Collections.emptySet();
+        expect(s1.reconcileTunnelPortsAsync("10.0.0.1",
+                Collections.singletonMap("vta010000000002", "10.0.0.2"),
+                noneGone))
+            .andReturn(Futures.immediateFuture(true)).once();
+        expect(s2.reconcileTunnelPortsAsync("10.0.0.2",
+                Collections.singletonMap("vta010000000001", "10.0.0.1"),
+                noneGone))
+            .andReturn(Futures.immediateFuture(false)).once();
+        replay(s1, s2);
+
+        List<IOVSDB> switches = new ArrayList<IOVSDB>();
+        switches.add(s1);
+        switches.add(s2);
+        TunnelMeshReconciler r = new TunnelMeshReconciler(1, 1000);
+        assertEquals(-1, r.reconcile(switches));
+        assertEquals(1, r.getLastFailed());
+        verify(s1, s2);
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        IOVSDB s1 = mockSwitch("10.0.0.1", "vta010000000001");
+        IOVSDB s2 = mockSwitch("10.0.0.2", "vta010000000002");
+        // the first switch never answers and holds the only slot, the
+        // other one times out waiting for it
+        SettableFuture<Boolean> pending = SettableFuture.create();
+        expect(s1.reconcileTunnelPortsAsync("10.0.0.1",
+                Collections.singletonMap("vta010000000002", "10.0.0.2"),
+                Collections.<String>emptySet()))
+            .andReturn(pending).times(0, 1);
+        expect(s2.reconcileTunnelPortsAsync("10.0.0.2",
+                Collections.singletonMap("vta010000000001", "10.0.0.1"),
+                Collections.<String>emptySet()))
+            .andReturn(pending).times(0, 1);
+        replay(s1, s2);
+
+        List<IOVSDB> switches = new ArrayList<IOVSDB>();
+        switches.add(s1);
+        switches.add(s2);
+        TunnelMeshReconciler r = new TunnelMeshReconciler(1, 100);
+        assertEquals(-1, r.reconcile(switches));
+        assertEquals(2, r.getLastFailed());
+        verify(s1, s2);
+    }
+
+    @Test
+    public void testGoneSwitch() throws Exception {
+        IOVSDB s1 = mockSwitch("10.0.0.1", "vta010000000001");
+        IOVSDB s2 = mockSwitch("10.0.0.2", "vta010000000002");
+        IOVSDB s3 = mockSwitch("10.0.0.3", "vta010000000003");
+        expect(s1.reconcileTunnelPortsAsync(eq("10.0.0.1"),
+                EasyMock.<Map<String, String>>anyObject(),
+                EasyMock.<Set<String>>anyObject()))
+            .andReturn(Futures.immediateFuture(true)).once();
+        expect(s2.reconcileTunnelPortsAsync(eq("10.0.0.2"),
+                EasyMock.<Map<String, String>>anyObject(),
+                EasyMock.<Set<String>>anyObject()))
+            .andReturn(Futures.immediateFuture(true)).once();
+        expect(s3.reconcileTunnelPortsAsync(eq("10.0.0.3"),
+                EasyMock.<Map<String, String>>anyObject(),
+                EasyMock.<Set<String>>anyObject()))
+            .andReturn(Futures.immediateFuture(true)).once();
+        // s3 left the mesh: the others drop their tunnel-ports to it
+        expect(s1.reconcileTunnelPortsAsync("10.0.0.1",
+                Collections.singletonMap("vta010000000002", "10.0.0.2"),
+                Collections.singleton("10.0.0.3")))
+            .andReturn(Futures.immediateFuture(true)).once();
+        expect(s2.reconcileTunnelPortsAsync("10.0.0.2",
+                Collections.singletonMap("vta010000000001", "10.0.0.1"),
+                Collections.singleton("10.0.0.3")))
+            .andReturn(Futures.immediateFuture(true)).once();
+        replay(s1, s2, s3);
+
+        List<IOVSDB> switches = new ArrayList<IOVSDB>();
+        switches.add(s1);
+        switches.add(s2);
+        switches.add(s3);
+        TunnelMeshReconciler r = new TunnelMeshReconciler(4, 1000);
+        assertTrue(r.reconcile(switches) >= 0);
+        switches.remove(s3);
+        assertTrue(r.reconcile(switches) >= 0);
+        verify(s1, s2, s3);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.packetstreamer;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sdnplatform.packetstreamer.thrift.Message;
+import org.sdnplatform.packetstreamer.thrift.Packet;
+
+public class PacketStreamerHandlerTest {
+    PacketStreamerHandler handler;
+
+    @Before
+    public void setUp() {
+        handler = new PacketStreamerHandler(4, 1000, 2, 50);
+    }
+
+    private void push(String sid, String data) throws Exception {
+        Packet p = new Packet();
+        p.setData(data.getBytes());
+        Message m = new Message();
+        m.setSessionIDs(Collections.singletonList(sid));
+        m.setPacket(p);
+        assertEquals(1, handler.pushMessageSync(m));
+    }
+
+    private String str(ByteBuffer bb) {
+        byte[] b = new byte[bb.remaining()];
+        bb.duplicate().get(b);
+        return new String(b);
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            push("s1", "p" + i);
+        }
+        assertEquals(2, handler.getDropped("s1"));
+
+        List<ByteBuffer> packets = handler.getPackets("s1", 10, 0);
+        assertEquals(5, packets.size());
+        assertEquals("Dropped 2 packets", str(packets.get(0)));
+        for (int i = 0; i < 4; i++) {
+            assertEquals("p" + (i + 2), str(packets.get(i + 1)));
+        }
+        // the drop is only reported once
+        push("s1", "p6");
+        packets = handler.getPackets("s1", 10, 0);
+        assertEquals(1, packets.size());
+    }
+
+    @Test
+    public void testByteLimit() throws Exception {
+        char[] c = new char[400];
+        Arrays.fill(c, 'x');
+        String big = new String(c);
+        push("s1", big);
+        push("s1", big);
+        push("s1", big);
+        assertEquals(1, handler.getDropped("s1"));
+    }
+
+    @Test
+    public void testBatchAndWait() throws Exception {
+        push("s1", "p0");
+        push("s1", "p1");
+        push("s1", "p2");
+        List<ByteBuffer> packets = handler.getPackets("s1", 2, 0);
+        assertEquals(2, packets.size());
+        packets = handler.getPackets("s1", 2, 0);
+        assertEquals(1, packets.size());
+
+        // nothing queued: returns empty after the wait
+        long start = System.currentTimeMillis();
+        packets = handler.getPackets("s1", 2, 100);
+        assertTrue(packets.isEmpty());
+        assertTrue(System.currentTimeMillis() - start >= 90);
+
+        // a push wakes up a waiting client
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                    push("s1", "p3");
+                } catch (Exception e) {
+                }
+            }
+        }.start();
+        packets = handler.getPackets("s1", 2, 5000);
+        assertEquals(1, packets.size());
+        assertEquals("p3", str(packets.get(0)));
+    }
+
+    @Test
+    public void testTerminateAndReap() throws Exception {
+        push("s1", "p0");
+        handler.terminateSession("s1");
+        assertFalse(handler.msgQueues.containsKey("s1"));
+        // polling a terminated or unknown session does not create it
+        assertTrue(handler.getPackets("s1", 10, 0).isEmpty());
+        assertTrue(handler.getPackets("unknown", 10, 0).isEmpty());
+        assertFalse(handler.msgQueues.containsKey("s1"));
+        assertFalse(handler.msgQueues.containsKey("unknown"));
+
+        push("s2", "p0");
+        push("s3", "p0");
+        // too many sessions
+        push("s4", "p0");
+        assertFalse(handler.msgQueues.containsKey("s4"));
+
+        handler.getPackets("s2", 10, 0);
+        Thread.sleep(60);
+        handler.getPackets("s2", 10, 0);
+        assertEquals(1, handler.reapIdleSessions());
+        assertTrue(handler.msgQueues.containsKey("s2"));
+        assertFalse(handler.msgQueues.containsKey("s3"));
+    }
+}
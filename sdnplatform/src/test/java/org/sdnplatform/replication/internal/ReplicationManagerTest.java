@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.replication.internal;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.ServerSocket;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sdnplatform.core.IControllerService;
+import org.sdnplatform.core.IControllerService.Role;
+import org.sdnplatform.core.module.ModuleContext;
+import org.sdnplatform.core.test.MockControllerProvider;
+import org.sdnplatform.replication.IReplicationProvider;
+import org.sdnplatform.replication.IReplicationSink;
+import org.sdnplatform.threadpool.IThreadPoolService;
+import org.sdnplatform.threadpool.ThreadPool;
+
+/**
+ * Replicates a simple map between two controllers on localhost
+ */
+public class ReplicationManagerTest {
+    protected Controller a;
+    protected Controller b;
+
+    /**
+     * Replicates a map of strings
+     */
+    protected static class MapProvider implements IReplicationProvider {
+        protected Map<String, String> map =
+                new ConcurrentHashMap<String, String>();
+        protected Set<String> changed = Collections.newSetFromMap(
+                new ConcurrentHashMap<String, Boolean>());
+
+        public void put(String key, String value) {
+            map.put(key, value);
+            changed.add(key);
+        }
+
+        public void remove(String key) {
+            map.remove(key);
+            changed.add(key);
+        }
+
+        protected byte[] encode(String key) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bos);
+            try {
+                String value = map.get(key);
+                out.writeUTF(key);
+                out.writeBoolean(value != null);
+                if (value != null) out.writeUTF(value);
+            } catch (IOException e) {
+                fail(e.getMessage());
+            }
+            return bos.toByteArray();
+        }
+
+        @Override
+        public String getReplicationDomain() {
+            return "map";
+        }
+
+        @Override
+        public void writeSnapshot(IReplicationSink sink) {
+            for (String key : map.keySet()) {
+                sink.write(encode(key));
+            }
+        }
+
+        @Override
+        public void writeChanges(IReplicationSink sink) {
+            Iterator<String> it = changed.iterator();
+            while (it.hasNext()) {
+                String key = it.next();
+                it.remove();
+                sink.write(encode(key));
+            }
+        }
+
+        @Override
+        public void clearReplicatedState() {
+            map.clear();
+        }
+
+        @Override
+        public void applyRecord(DataInput in) throws IOException {
+            String key = in.readUTF();
+            if (in.readBoolean())
+                map.put(key, in.readUTF());
+            else
+                map.remove(key);
+        }
+    }
+
+    /**
+     * A controller with a replication manager and a map provider
+     */
+    protected static class Controller {
+        protected MockControllerProvider controllerProvider =
+                new MockControllerProvider();
+        protected ThreadPool threadPool = new ThreadPool();
+        protected ReplicationManager replication = new ReplicationManager();
+        protected MapProvider provider = new MapProvider();
+
+        protected Controller(int listenPort, int peerPort) throws Exception {
+            this(listenPort, "127.0.0.1:" + peerPort, null);
+        }
+
+        protected Controller(int listenPort, String peers, String secret)
+                throws Exception {
+            ModuleContext fmc = new ModuleContext();
+            fmc.addService(IControllerService.class, controllerProvider);
+            fmc.addService(IThreadPoolService.class, threadPool);
+            fmc.addConfigParam(replication, "listenport",
+                               Integer.toString(listenPort));
+            fmc.addConfigParam(replication, "listenaddress", "127.0.0.1");
+            fmc.addConfigParam(replication, "peers", peers);
+            fmc.addConfigParam(replication, "flushintervalms", "10");
+            if (secret != null)
+                fmc.addConfigParam(replication, "secret", secret);
+            threadPool.init(fmc);
+            replication.init(fmc);
+            threadPool.startUp(fmc);
+            replication.startUp(fmc);
+            replication.addReplicationProvider(provider);
+        }
+
+        protected void setRole(Role oldRole, Role newRole) {
+            controllerProvider.dispatchRoleChanged(oldRole, newRole);
+        }
+
+        protected void stop() {
+            replication.stop();
+            threadPool.getScheduledExecutor().shutdownNow();
+        }
+    }
+
+    protected static int getFreePort() throws IOException {
+        ServerSocket s = new ServerSocket(0);
+        int port = s.getLocalPort();
+        s.close();
+        return port;
+    }
+
+    protected static void waitFor(Map<String, String> expected,
+                                  Map<String, String> actual)
+            throws InterruptedException {
+        for (int i = 0; i < 500 && !expected.equals(actual); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, actual);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        int portA = getFreePort();
+        int portB = getFreePort();
+        a = new Controller(portA, portB);
+        b = new Controller(portB, portA);
+    }
+
+    @After
+    public void tearDown() {
+        a.stop();
+        b.stop();
+    }
+
+    @Test
+    public void testReplication() throws Exception {
+        // state before a standby connects is sent in the snapshot
+        a.provider.put("k1", "v1");
+        a.provider.put("k2", "v2");
+        b.setRole(null, Role.SLAVE);
+        a.setRole(null, Role.MASTER);
+        waitFor(a.provider.map, b.provider.map);
+        assertTrue(a.replication.isReplicating());
+        assertFalse(b.replication.isReplicating());
+
+        // changes are streamed
+        a.provider.put("k3", "v3");
+        a.provider.put("k1", "v1b");
+        a.provider.remove("k2");
+        waitFor(a.provider.map, b.provider.map);
+        assertEquals(2, b.provider.map.size());
+
+        // failover: b starts warm and replicates to a
+        a.setRole(Role.MASTER, Role.SLAVE);
+        assertFalse(a.replication.isReplicating());
+        b.setRole(Role.SLAVE, Role.MASTER);
+        assertEquals("v1b", b.provider.map.get("k1"));
+        assertEquals("v3", b.provider.map.get("k3"));
+
+        a.provider.map.clear();
+        b.provider.put("k4", "v4");
+        waitFor(b.provider.map, a.provider.map);
+        assertEquals(3, a.provider.map.size());
+    }
+
+    @Test
+    public void testLargeSnapshot() throws Exception {
+        // spans several snapshot chunks
+        for (int i = 0; i < 20000; i++) {
+            a.provider.put("key" + i, "value" + i);
+        }
+        b.setRole(null, Role.SLAVE);
+        a.setRole(null, Role.MASTER);
+        waitFor(a.provider.map, b.provider.map);
+    }
+
+    @Test
+    public void testChangesDuringSnapshot() throws Exception {
+        final CountDownLatch snapshotStarted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        MapProvider slow = new MapProvider() {
+            @Override
+            public String getReplicationDomain() {
+                return "slow";
+            }
+
+            @Override
+            public void writeSnapshot(IReplicationSink sink) {
+                super.writeSnapshot(sink);
+                snapshotStarted.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        MapProvider standby = new MapProvider() {
+            @Override
+            public String getReplicationDomain() {
+                return "slow";
+            }
+        };
+        a.replication.addReplicationProvider(slow);
+        b.replication.addReplicationProvider(standby);
+        slow.put("k1", "v1");
+        b.setRole(null, Role.SLAVE);
+        a.setRole(null, Role.MASTER);
+        assertTrue(snapshotStarted.await(5, TimeUnit.SECONDS));
+
+        // changes made while the snapshot is written are sent after it
+        slow.put("k2", "v2");
+        a.provider.put("k3", "v3");
+        Thread.sleep(100);
+        release.countDown();
+        waitFor(slow.map, standby.map);
+        waitFor(a.provider.map, b.provider.map);
+    }
+
+    @Test
+    public void testSecret() throws Exception {
+        a.stop();
+        b.stop();
+        int portA = getFreePort();
+        int portB = getFreePort();
+        a = new Controller(portA, "127.0.0.1:" + portB, "s3cret");
+        b = new Controller(portB, "127.0.0.1:" + portA, "s3cret");
+        Controller c = new Controller(getFreePort(), "127.0.0.1:" + portB,
+                                      "wrong");
+        try {
+            a.provider.put("k1", "v1");
+            c.provider.put("k2", "v2");
+            b.setRole(null, Role.SLAVE);
+            c.setRole(null, Role.MASTER);
+            Thread.sleep(200);
+            assertTrue(b.provider.map.isEmpty());
+            a.setRole(null, Role.MASTER);
+            waitFor(a.provider.map, b.provider.map);
+        } finally {
+            c.stop();
+        }
+    }
+
+    @Test
+    public void testRejectsUnknownPeer() throws Exception {
+        b.stop();
+        // b only accepts connections from another host
+        b = new Controller(a.replication.peers.get(0).address.getPort(),
+                           "127.0.0.2:" + getFreePort(), null);
+        a.provider.put("k1", "v1");
+        b.setRole(null, Role.SLAVE);
+        a.setRole(null, Role.MASTER);
+        Thread.sleep(200);
+        assertTrue(b.provider.map.isEmpty());
+    }
+
+    @Test
+    public void testStateFile() throws Exception {
+        File f = File.createTempFile("replication", ".state");
+        try {
+            ReplicationManager rm = new ReplicationManager();
+            rm.stateFile = f.getPath();
+            MapProvider replicated = new MapProvider();
+            replicated.put("k1", "v1");
+            replicated.put("k2", "v2");
+            MapProvider local = new MapProvider() {
+                @Override
+                public String getReplicationDomain() {
+                    return "local";
+                }
+            };
+            local.put("k3", "v3");
+            rm.addReplicationProvider(replicated);
+            rm.addSnapshotProvider(local);
+            rm.writeStateFile();
+            assertFalse(new File(f.getPath() + ".tmp").exists());
+
+            // restored when the providers register after a restart
+            rm = new ReplicationManager();
+            rm.stateFile = f.getPath();
+            rm.loadStateFile();
+            MapProvider restored = new MapProvider();
+            rm.addReplicationProvider(restored);
+            assertEquals(replicated.map, restored.map);
+            MapProvider restoredLocal = new MapProvider() {
+                @Override
+                public String getReplicationDomain() {
+                    return "local";
+                }
+            };
+            rm.addSnapshotProvider(restoredLocal);
+            assertEquals(local.map, restoredLocal.map);
+            assertTrue(rm.restoredState.isEmpty());
+
+            // a truncated file is ignored
+            RandomAccessFile raf = new RandomAccessFile(f, "rw");
+            raf.setLength(raf.length() - 3);
+            raf.close();
+            rm = new ReplicationManager();
+            rm.stateFile = f.getPath();
+            rm.loadStateFile();
+            assertTrue(rm.restoredState.isEmpty());
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void testMasterIgnoresReplicatedState() throws Exception {
+        a.provider.put("k1", "v1");
+        b.provider.put("k2", "v2");
+        a.setRole(null, Role.MASTER);
+        b.setRole(null, Role.MASTER);
+        Thread.sleep(200);
+        assertEquals(1, a.provider.map.size());
+        assertEquals("v1", a.provider.map.get("k1"));
+        assertEquals(1, b.provider.map.size());
+        assertEquals("v2", b.provider.map.get("k2"));
+    }
+}
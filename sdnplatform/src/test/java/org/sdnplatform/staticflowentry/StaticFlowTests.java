@@ -17,12 +17,16 @@
 package org.sdnplatform.staticflowentry;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 
 import org.easymock.Capture;
@@ -32,16 +36,24 @@ import org.openflow.protocol.OFFlowMod;
 import org.openflow.protocol.OFMatch;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPort;
+import org.openflow.protocol.OFStatisticsReply;
+import org.openflow.protocol.OFStatisticsReply.OFStatisticsReplyFlags;
+import org.openflow.protocol.Wildcards;
 import org.openflow.protocol.action.OFAction;
 import org.openflow.protocol.action.OFActionOutput;
 import org.openflow.protocol.action.OFActionStripVirtualLan;
+import org.openflow.protocol.statistics.OFFlowStatisticsReply;
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
 import org.openflow.util.HexString;
 import org.sdnplatform.core.ListenerContext;
 import org.sdnplatform.core.IOFSwitch;
 import org.sdnplatform.core.IControllerService.Role;
+import org.sdnplatform.core.IListener.Command;
 import org.sdnplatform.core.module.ModuleContext;
 import org.sdnplatform.core.module.ModuleException;
 import org.sdnplatform.core.test.MockControllerProvider;
+import org.sdnplatform.core.util.AppCookie;
 import org.sdnplatform.restserver.RestApiServer;
 import org.sdnplatform.staticflowentry.StaticFlowEntryPusher;
 import org.sdnplatform.storage.IStorageSourceService;
@@ -365,4 +377,209 @@ public class StaticFlowTests extends PlatformTestCase {
         assert(staticFlowEntryPusher.entriesFromStorage.containsValue(FlowMod2));
         assert(staticFlowEntryPusher.entriesFromStorage.containsValue(FlowMod3));
     }
+
+    private OFFlowStatisticsReply makeFlowStats(String match, long cookie,
+                                                short port) {
+        OFFlowStatisticsReply flow = new OFFlowStatisticsReply();
+        OFMatch ofMatch = new OFMatch();
+        ofMatch.fromString(match);
+        flow.setMatch(ofMatch);
+        flow.setPriority(Short.MAX_VALUE);
+        flow.setCookie(cookie);
+        List<OFAction> actions = new ArrayList<OFAction>();
+        actions.add(new OFActionOutput(port, Short.MAX_VALUE));
+        flow.setActions(actions);
+        return flow;
+    }
+
+    private IOFSwitch createResyncSwitch(StaticFlowEntryPusher pusher,
+                                         int xid,
+                                         Capture<List<OFMessage>> writes)
+                                         throws IOException {
+        IOFSwitch mockSwitch = createNiceMock(IOFSwitch.class);
+        mockSwitch.write(capture(writes), (ListenerContext)isNull());
+        expectLastCall().anyTimes();
+        mockSwitch.sendStatsQuery(isA(org.openflow.protocol.OFStatisticsRequest.class),
+                                  eq(xid), same(pusher));
+        expectLastCall().once();
+        mockSwitch.cancelStatisticsReply(xid);
+        expectLastCall().once();
+        expect(mockSwitch.getNextTransactionId()).andReturn(xid).once();
+        expect(mockSwitch.getId())
+                .andReturn(HexString.toLong(TestSwitch1DPID)).anyTimes();
+        expect(mockSwitch.getStringId()).andReturn(TestSwitch1DPID).anyTimes();
+        return mockSwitch;
+    }
+
+    private void startResyncPusher(StaticFlowEntryPusher pusher,
+                                   IOFSwitch mockSwitch,
+                                   ScheduledExecutorService ses) {
+        MockControllerProvider mockControllerProvider = getMockControllerProvider();
+        Map<Long, IOFSwitch> switchMap = new HashMap<Long, IOFSwitch>();
+        switchMap.put(mockSwitch.getId(), mockSwitch);
+        mockControllerProvider.setSwitches(switchMap);
+        pusher.setControllerProvider(mockControllerProvider);
+        pusher.setStorageSource(createStorageWithFlowEntries());
+        RestApiServer restApi = new RestApiServer();
+        try {
+            restApi.init(new ModuleContext());
+        } catch (ModuleException e) {
+            e.printStackTrace();
+        }
+        pusher.restApi = restApi;
+        pusher.ses = ses;
+        pusher.resyncOnConnect = true;
+        pusher.startUp(null);
+        assertEquals(TotalTestRules, pusher.countEntries());
+    }
+
+    @Test
+    public void testResyncOnConnect() throws IOException {
+        StaticFlowEntryPusher staticFlowEntryPusher = new StaticFlowEntryPusher();
+        int xid = 5;
+        Capture<List<OFMessage>> writeCaptureList =
+                new Capture<List<OFMessage>>(CaptureType.ALL);
+        IOFSwitch mockSwitch =
+                createResyncSwitch(staticFlowEntryPusher, xid, writeCaptureList);
+        replay(mockSwitch);
+        ScheduledExecutorService ses =
+                Executors.newSingleThreadScheduledExecutor();
+        startResyncPusher(staticFlowEntryPusher, mockSwitch, ses);
+
+        staticFlowEntryPusher.addedSwitch(mockSwitch);
+        assertFalse(writeCaptureList.hasCaptured());
+
+        // The switch has TestRule1, TestRule2 with a different action, a
+        // static flow we don't know about and a flow of another app.
+        // TestRule3 is missing.
+        long cookie = AppCookie.makeCookie(STATIC_FLOW_APP_ID, 0);
+        List<OFStatistics> part1 = new ArrayList<OFStatistics>();
+        part1.add(makeFlowStats("dl_dst=00:20:30:40:50:60", cookie, (short)1));
+        part1.add(makeFlowStats("nw_dst=192.168.1.0/24", cookie, (short)2));
+        List<OFStatistics> part2 = new ArrayList<OFStatistics>();
+        part2.add(makeFlowStats("dl_dst=00:00:00:00:00:99", cookie, (short)1));
+        part2.add(makeFlowStats("dl_dst=00:00:00:00:00:98", 0, (short)1));
+
+        OFStatisticsReply reply = new OFStatisticsReply();
+        reply.setXid(xid);
+        reply.setStatisticType(OFStatisticsType.FLOW);
+        reply.setFlags(OFStatisticsReplyFlags.REPLY_MORE.getTypeValue());
+        reply.setStatistics(part1);
+        assertEquals(Command.STOP,
+                     staticFlowEntryPusher.receive(mockSwitch, reply, null));
+        assertFalse(writeCaptureList.hasCaptured());
+
+        reply = new OFStatisticsReply();
+        reply.setXid(xid);
+        reply.setStatisticType(OFStatisticsType.FLOW);
+        reply.setStatistics(part2);
+        assertEquals(Command.STOP,
+                     staticFlowEntryPusher.receive(mockSwitch, reply, null));
+        verify(mockSwitch);
+
+        // one batch: delete the unknown flow, then TestRule2 and TestRule3
+        assertEquals(1, writeCaptureList.getValues().size());
+        List<OFMessage> outList = writeCaptureList.getValues().get(0);
+        assertEquals(3, outList.size());
+        OFFlowMod delete = (OFFlowMod) outList.get(0);
+        assertEquals(OFFlowMod.OFPFC_DELETE_STRICT, delete.getCommand());
+        assertEquals(((OFFlowStatisticsReply)part2.get(0)).getMatch(),
+                     delete.getMatch());
+        OFMatch match2 = new OFMatch();
+        match2.fromString("nw_dst=192.168.1.0/24");
+        assertEquals(match2, ((OFFlowMod) outList.get(1)).getMatch());
+        OFMatch match3 = new OFMatch();
+        match3.fromString("dl_dst=00:20:30:40:50:60,dl_vlan=4096");
+        assertEquals(match3, ((OFFlowMod) outList.get(2)).getMatch());
+
+        // a late reply is ignored
+        assertEquals(Command.CONTINUE,
+                     staticFlowEntryPusher.receive(mockSwitch, reply, null));
+        assertEquals(1, writeCaptureList.getValues().size());
+        ses.shutdownNow();
+    }
+
+    @Test
+    public void testResyncNormalizedMatch() throws IOException {
+        StaticFlowEntryPusher staticFlowEntryPusher = new StaticFlowEntryPusher();
+        int xid = 6;
+        Capture<List<OFMessage>> writeCaptureList =
+                new Capture<List<OFMessage>>(CaptureType.ALL);
+        IOFSwitch mockSwitch =
+                createResyncSwitch(staticFlowEntryPusher, xid, writeCaptureList);
+        replay(mockSwitch);
+        ScheduledExecutorService ses =
+                Executors.newSingleThreadScheduledExecutor();
+        startResyncPusher(staticFlowEntryPusher, mockSwitch, ses);
+        staticFlowEntryPusher.addedSwitch(mockSwitch);
+
+        // The switch reports all the static flows, with sanitized
+        // wildcards and garbage in the wildcarded fields and in the
+        // masked bits of nw_dst
+        long cookie = AppCookie.makeCookie(STATIC_FLOW_APP_ID, 0);
+        List<OFStatistics> flows = new ArrayList<OFStatistics>();
+        flows.add(makeFlowStats("dl_dst=00:20:30:40:50:60", cookie, (short)1));
+        flows.add(makeFlowStats("nw_dst=192.168.1.77/24", cookie, (short)1));
+        flows.add(makeFlowStats("dl_dst=00:20:30:40:50:60,dl_vlan=4096",
+                                cookie, OFPort.OFPP_CONTROLLER.getValue()));
+        for (OFStatistics stat : flows) {
+            OFMatch match = ((OFFlowStatisticsReply) stat).getMatch();
+            match.setWildcards(Wildcards.sanitizeInt(match.getWildcards()));
+            match.setInputPort((short) 3);
+            match.setDataLayerSource("00:00:00:00:00:07");
+            match.setTransportSource((short) 80);
+        }
+
+        OFStatisticsReply reply = new OFStatisticsReply();
+        reply.setXid(xid);
+        reply.setStatisticType(OFStatisticsType.FLOW);
+        reply.setStatistics(flows);
+        assertEquals(Command.STOP,
+                     staticFlowEntryPusher.receive(mockSwitch, reply, null));
+        verify(mockSwitch);
+        // the flow table is in sync, nothing is sent
+        assertFalse(writeCaptureList.hasCaptured());
+        ses.shutdownNow();
+    }
+
+    @Test
+    public void testResyncTimeout() throws IOException {
+        StaticFlowEntryPusher staticFlowEntryPusher = new StaticFlowEntryPusher();
+        int xid = 7;
+        Capture<List<OFMessage>> writeCaptureList =
+                new Capture<List<OFMessage>>(CaptureType.ALL);
+        IOFSwitch mockSwitch =
+                createResyncSwitch(staticFlowEntryPusher, xid, writeCaptureList);
+        Capture<OFMessage> writeCapture =
+                new Capture<OFMessage>(CaptureType.ALL);
+        mockSwitch.write(capture(writeCapture), (ListenerContext)isNull());
+        expectLastCall().anyTimes();
+        ScheduledExecutorService ses =
+                createMock(ScheduledExecutorService.class);
+        Capture<Runnable> timeoutCapture = new Capture<Runnable>();
+        expect(ses.schedule(capture(timeoutCapture),
+                            eq(staticFlowEntryPusher.resyncTimeoutMs),
+                            eq(TimeUnit.MILLISECONDS))).andReturn(null);
+        replay(mockSwitch, ses);
+        startResyncPusher(staticFlowEntryPusher, mockSwitch, ses);
+
+        staticFlowEntryPusher.addedSwitch(mockSwitch);
+        verify(ses);
+        assertFalse(writeCapture.hasCaptured());
+
+        // the switch never answers: all static flows are pushed
+        timeoutCapture.getValue().run();
+        verify(mockSwitch);
+        assertTrue(staticFlowEntryPusher.pendingResyncs.isEmpty());
+        assertEquals(TotalTestRules, writeCapture.getValues().size());
+
+        // a late reply is ignored
+        OFStatisticsReply reply = new OFStatisticsReply();
+        reply.setXid(xid);
+        reply.setStatisticType(OFStatisticsType.FLOW);
+        reply.setStatistics(new ArrayList<OFStatistics>());
+        assertEquals(Command.CONTINUE,
+                     staticFlowEntryPusher.receive(mockSwitch, reply, null));
+        assertFalse(writeCaptureList.hasCaptured());
+    }
 }
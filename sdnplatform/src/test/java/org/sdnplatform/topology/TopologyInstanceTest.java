@@ -33,6 +33,7 @@ import org.sdnplatform.core.test.MockControllerProvider;
 import org.sdnplatform.core.test.MockThreadPoolService;
 import org.sdnplatform.linkdiscovery.ILinkDiscovery;
 import org.sdnplatform.linkdiscovery.ILinkDiscoveryService;
+import org.sdnplatform.routing.Route;
 import org.sdnplatform.threadpool.IThreadPoolService;
 import org.sdnplatform.topology.NodePortTuple;
 import org.sdnplatform.topology.TopologyInstance;
@@ -467,4 +468,40 @@ public class TopologyInstanceTest {
                 verifyClusters(expectedClusters);
         }
     }
+
+    @Test
+    public void testRoutesFromNextHopTable() throws Exception {
+        int [][] linkArray = {
+                              {1, 1, 2, 1, DIRECT_LINK},
+                              {2, 1, 1, 1, DIRECT_LINK},
+                              {2, 2, 3, 1, DIRECT_LINK},
+                              {3, 1, 2, 2, DIRECT_LINK},
+                              {4, 1, 5, 1, DIRECT_LINK},
+                              {5, 1, 4, 1, DIRECT_LINK},
+        };
+        createTopologyFromLinks(linkArray);
+        TopologyInstance ti = topologyManager.getCurrentInstance(false);
+
+        Route r = ti.getRoute(1L, 3L, 0);
+        assertNotNull(r);
+        List<NodePortTuple> expected = new ArrayList<NodePortTuple>();
+        expected.add(new NodePortTuple(1L, (short)1));
+        expected.add(new NodePortTuple(2L, (short)1));
+        expected.add(new NodePortTuple(2L, (short)2));
+        expected.add(new NodePortTuple(3L, (short)1));
+        assertEquals(expected, r.getPath());
+
+        // The route is assembled once and kept in the next hop table.
+        assertSame(r, ti.getRoute(1L, 3L, 0));
+
+        r = ti.getRoute(3L, 2L, 0);
+        assertNotNull(r);
+        assertEquals(2, r.getPath().size());
+        assertEquals(new NodePortTuple(3L, (short)1), r.getPath().get(0));
+
+        // No route across clusters or to itself.
+        assertNull(ti.getRoute(1L, 4L, 0));
+        assertNull(ti.getRoute(1L, 1L, 0));
+        assertNull(ti.getRoute(1L, 42L, 0));
+    }
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+public class BitmapAllocatorTest {
+    @Test
+    public void testAllocateAll() {
+        for (int size : new int[] {1, 63, 64, 65, 4096, 4097, 65535,
+                                   64 * 64 * 64 + 1}) {
+            BitmapAllocator allocator = new BitmapAllocator(size);
+            for (int i = 0; i < size; i++) {
+                assertEquals(i, allocator.allocate());
+            }
+            assertEquals(-1, allocator.allocate());
+            assertEquals(size, allocator.getAllocatedCount());
+            if (size == 1)
+                continue;
+
+            // freed indexes are allocated again, lowest first
+            assertTrue(allocator.release(size - 1));
+            assertTrue(allocator.release(size / 2));
+            assertFalse(allocator.release(size / 2));
+            assertEquals(size / 2, allocator.allocate());
+            assertEquals(size - 1, allocator.allocate());
+            assertEquals(-1, allocator.allocate());
+        }
+    }
+
+    @Test
+    public void testReserve() {
+        BitmapAllocator allocator = new BitmapAllocator(65535);
+        assertTrue(allocator.reserve(0));
+        assertFalse(allocator.reserve(0));
+        assertTrue(allocator.reserve(65534));
+        assertTrue(allocator.reserve(2));
+        assertTrue(allocator.isAllocated(2));
+        assertFalse(allocator.isAllocated(1));
+        assertEquals(1, allocator.allocate());
+        assertEquals(3, allocator.allocate());
+        assertEquals(5, allocator.getAllocatedCount());
+
+        try {
+            allocator.reserve(65535);
+            fail("Expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+
+        // filling a whole word by reserving is seen by allocate
+        allocator = new BitmapAllocator(128);
+        for (int i = 0; i < 64; i++) {
+            allocator.reserve(i);
+        }
+        assertEquals(64, allocator.allocate());
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        final int size = 10000;
+        final BitmapAllocator allocator = new BitmapAllocator(size);
+        final AtomicIntegerArray owners = new AtomicIntegerArray(size);
+        final int nThreads = 8;
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < nThreads; t++) {
+            final int id = t + 1;
+            workers.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        List<Integer> mine = new ArrayList<Integer>();
+                        for (int round = 0; round < 20; round++) {
+                            for (int i = 0; i < size / nThreads; i++) {
+                                int index = allocator.allocate();
+                                assertTrue(index >= 0);
+                                assertTrue(owners.compareAndSet(index, 0, id));
+                                mine.add(index);
+                            }
+                            for (int index : mine) {
+                                assertTrue(owners.compareAndSet(index, id, 0));
+                                assertTrue(allocator.release(index));
+                            }
+                            mine.clear();
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread w : workers) {
+            w.start();
+        }
+        for (Thread w : workers) {
+            w.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(0, allocator.getAllocatedCount());
+        for (int i = 0; i < size; i++) {
+            assertEquals(i, allocator.allocate());
+        }
+        assertEquals(-1, allocator.allocate());
+    }
+}
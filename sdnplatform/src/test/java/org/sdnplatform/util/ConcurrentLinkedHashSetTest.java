@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class ConcurrentLinkedHashSetTest {
+    @Test
+    public void testInsertionOrder() {
+        ConcurrentLinkedHashSet<Integer> set =
+                new ConcurrentLinkedHashSet<Integer>();
+        assertNull(set.poll());
+        assertNull(set.peek());
+        assertTrue(set.add(3));
+        assertTrue(set.add(1));
+        assertTrue(set.add(2));
+        assertFalse(set.add(1));
+        assertEquals(3, set.size());
+        assertTrue(set.contains(1));
+        assertFalse(set.contains(4));
+        assertFalse(set.contains(null));
+
+        Iterator<Integer> it = set.iterator();
+        assertEquals(Integer.valueOf(3), it.next());
+        assertEquals(Integer.valueOf(1), it.next());
+        it.remove();
+        assertEquals(Integer.valueOf(2), it.next());
+        assertFalse(it.hasNext());
+        assertFalse(set.contains(1));
+
+        // a removed element is added again at the tail
+        assertTrue(set.add(1));
+        assertEquals(Arrays.asList(3, 2, 1), Arrays.asList(set.toArray()));
+
+        assertEquals(Integer.valueOf(3), set.peek());
+        assertEquals(Integer.valueOf(3), set.poll());
+        assertTrue(set.remove(1));
+        assertFalse(set.remove(1));
+        assertEquals(Integer.valueOf(2), set.poll());
+        assertNull(set.poll());
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentDrain() throws InterruptedException {
+        final int count = 100000;
+        final ConcurrentLinkedHashSet<Integer> set =
+                new ConcurrentLinkedHashSet<Integer>();
+        for (int i = 0; i < count; i++) {
+            set.add(i);
+        }
+
+        // half the threads poll from the head while the others remove
+        // the odd elements; every element is taken exactly once
+        final int threads = 4;
+        final int[] taken = new int[count];
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final boolean poller = (t % 2 == 0);
+            new Thread() {
+                @Override
+                public void run() {
+                    if (poller) {
+                        Integer i;
+                        while ((i = set.poll()) != null) {
+                            synchronized (taken) {
+                                taken[i]++;
+                            }
+                        }
+                    } else {
+                        for (int i = 1; i < count; i += 2) {
+                            if (set.remove(i)) {
+                                synchronized (taken) {
+                                    taken[i]++;
+                                }
+                            }
+                        }
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+        assertTrue(set.isEmpty());
+        for (int i = 0; i < count; i++) {
+            assertEquals(1, taken[i]);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.util;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.sdnplatform.util.EventHistory.EvAction;
+
+/**
+ * Producer contention benchmark of the event history: the ring that
+ * claims slots by sequence number, against the synchronized slot index
+ * EventHistory used to hand out. All threads add events to one history
+ * while a reader takes a snapshot of the latest 100 events every
+ * millisecond, as the REST API would. Not run as part of the unit tests;
+ * run the main method with an optional number of events per thread.
+ */
+public class EventHistoryBenchmark {
+    protected static final int SIZE = EventHistory.EV_HISTORY_DEFAULT_SIZE;
+    protected static final int[] THREADS = {1, 8, 16, 32};
+
+    protected interface History {
+        Object put(Object info, EvAction action);
+        void snapshot();
+    }
+
+    /**
+     * The former EventHistory: a synchronized index claim and a snapshot
+     * that reads the slots without any check
+     */
+    protected static class SynchronizedHistory implements History {
+        Object[] infos = new Object[SIZE];
+        long[] times = new long[SIZE];
+        EvAction[] actions = new EvAction[SIZE];
+        int current_index;
+        boolean full;
+
+        synchronized int nextIdx() {
+            int idx = current_index;
+            current_index = (idx + 1) % SIZE;
+            if (current_index == 0) full = true;
+            return idx;
+        }
+
+        @Override
+        public Object put(Object info, EvAction action) {
+            int idx = nextIdx();
+            times[idx] = System.currentTimeMillis();
+            actions[idx] = action;
+            Object temp = infos[idx];
+            infos[idx] = info;
+            return temp;
+        }
+
+        @Override
+        public void snapshot() {
+            int idx = current_index;
+            for (int i = 0; i < 100; i++) {
+                idx = (idx == 0) ? SIZE - 1 : idx - 1;
+                if (infos[idx] == null) break;
+            }
+        }
+    }
+
+    protected static class RingHistory implements History {
+        EventHistory<Object> evHist = new EventHistory<Object>(SIZE);
+
+        @Override
+        public Object put(Object info, EvAction action) {
+            return evHist.put(info, action);
+        }
+
+        @Override
+        public void snapshot() {
+            new EventHistory<Object>(evHist, 100);
+        }
+    }
+
+    /**
+     * @return the producer throughput in million events per second
+     */
+    protected static double run(final History history, int threads,
+                                final int events)
+            throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    Object info = null;
+                    for (int i = 0; i < events; i++) {
+                        if (info == null) info = new Object();
+                        info = history.put(info, EvAction.LINK_ADDED);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                while (true) {
+                    history.snapshot();
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        reader.start();
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        reader.interrupt();
+        reader.join();
+        return (double) threads * events * 1000 / elapsed;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int events = (args.length > 0) ? Integer.parseInt(args[0]) :
+                                         1000000;
+        // warm up
+        run(new SynchronizedHistory(), 4, events / 10);
+        run(new RingHistory(), 4, events / 10);
+
+        System.out.println("threads  synchronized index  sequence ring" +
+                           "   (million events per second)");
+        for (int threads : THREADS) {
+            double sync = run(new SynchronizedHistory(), threads, events);
+            double ring = run(new RingHistory(), threads, events);
+            System.out.println(String.format("%7d  %18.2f  %13.2f",
+                                             threads, sync, ring));
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.util;
+
+import static org.junit.Assert.*;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.sdnplatform.util.EventHistory.EvAction;
+
+public class EventHistoryTest {
+    protected static class Counter {
+        int producer;
+        int count;
+    }
+
+    protected static class CounterCodec
+            implements EventHistory.IEventCodec<Counter> {
+        @Override
+        public void write(Counter info, DataOutput out) throws IOException {
+            out.writeInt(info.producer);
+            out.writeInt(info.count);
+        }
+
+        @Override
+        public Counter read(DataInput in) throws IOException {
+            Counter c = new Counter();
+            c.producer = in.readInt();
+            c.count = in.readInt();
+            return c;
+        }
+    }
+
+    protected static void put(EventHistory<Counter> evHist, int count) {
+        Counter c = new Counter();
+        c.count = count;
+        evHist.put(c, EvAction.ADDED);
+    }
+
+    protected static void assertCounts(EventHistory<Counter> evHist,
+                                       int... counts) {
+        List<EventHistory<Counter>.Event> events = evHist.getEvents();
+        assertEquals(counts.length, events.size());
+        assertEquals(counts.length, evHist.getEvent_history_size());
+        for (int i = 0; i < counts.length; i++) {
+            assertEquals(i, events.get(i).base_info.idx);
+            assertEquals(counts[i], events.get(i).info.count);
+        }
+    }
+
+    @Test
+    public void testSnapshot() {
+        EventHistory<Counter> evHist = new EventHistory<Counter>(4);
+        assertCounts(new EventHistory<Counter>(evHist, 10));
+
+        put(evHist, 1);
+        put(evHist, 2);
+        assertEquals(2, evHist.getCurrent_index());
+        assertFalse(evHist.isFull());
+        assertCounts(new EventHistory<Counter>(evHist, 10), 2, 1);
+
+        for (int i = 3; i <= 6; i++) {
+            put(evHist, i);
+        }
+        assertEquals(2, evHist.getCurrent_index());
+        assertTrue(evHist.isFull());
+        EventHistory<Counter> snap = new EventHistory<Counter>(evHist, 10);
+        assertCounts(snap, 6, 5, 4, 3);
+        assertCounts(new EventHistory<Counter>(evHist, 2), 6, 5);
+        assertEquals(EvAction.ADDED, snap.getEvents().get(0).base_info.action);
+
+        // the snapshot keeps its events while the history moves on
+        put(evHist, 7);
+        assertCounts(snap, 6, 5, 4, 3);
+        assertCounts(new EventHistory<Counter>(evHist, 10), 7, 6, 5, 4);
+
+        evHist.clear();
+        assertFalse(evHist.isFull());
+        assertCounts(new EventHistory<Counter>(evHist, 10));
+        put(evHist, 8);
+        assertCounts(new EventHistory<Counter>(evHist, 10), 8);
+    }
+
+    @Test
+    public void testRecycle() {
+        EventHistory<Counter> evHist = new EventHistory<Counter>(2);
+        Counter a = new Counter();
+        Counter b = new Counter();
+        assertNull(evHist.put(a, EvAction.ADDED));
+        assertNull(evHist.put(b, EvAction.ADDED));
+        // the evicted object is handed back for reuse
+        assertSame(a, evHist.put(new Counter(), EvAction.ADDED));
+
+        // but not while a snapshot may reference it
+        EventHistory<Counter> snap = new EventHistory<Counter>(evHist, 2);
+        assertNull(evHist.put(new Counter(), EvAction.ADDED));
+        assertSame(b, snap.getEvents().get(1).info);
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        EventHistory<Counter> evHist = new EventHistory<Counter>(3);
+        for (int i = 1; i <= 4; i++) {
+            put(evHist, i);
+        }
+        evHist.put(null, EvAction.CLEARED);
+
+        File file = File.createTempFile("eventhistory", ".bin");
+        try {
+            evHist.spill(file, new CounterCodec());
+            assertFalse(new File(file.getPath() + ".tmp").exists());
+            DataInputStream in =
+                    new DataInputStream(new FileInputStream(file));
+            EventHistory<Counter> read;
+            try {
+                read = EventHistory.readFrom(in, new CounterCodec());
+            } finally {
+                in.close();
+            }
+            List<EventHistory<Counter>.Event> events = read.getEvents();
+            assertEquals(3, events.size());
+            assertEquals(EvAction.CLEARED, events.get(0).base_info.action);
+            assertNull(events.get(0).info);
+            assertEquals(4, events.get(1).info.count);
+            assertEquals(3, events.get(2).info.count);
+            assertEquals(2, events.get(2).base_info.idx);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testConcurrentSnapshot() throws Exception {
+        final int producers = 4;
+        final int events = 100000;
+        final EventHistory<Counter> evHist = new EventHistory<Counter>(64);
+        final CountDownLatch done = new CountDownLatch(producers);
+        final AtomicReference<String> error = new AtomicReference<String>();
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            new Thread() {
+                @Override
+                public void run() {
+                    Counter c = null;
+                    for (int i = 0; i < events; i++) {
+                        if (c == null) c = new Counter();
+                        c.producer = producer;
+                        c.count = i;
+                        c = evHist.put(c, EvAction.ADDED);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+
+        // every producer's events appear newest first and unchanged
+        while (done.getCount() > 0) {
+            EventHistory<Counter> snap = new EventHistory<Counter>(evHist, 64);
+            int[] last = new int[producers];
+            for (int p = 0; p < producers; p++) {
+                last[p] = Integer.MAX_VALUE;
+            }
+            for (EventHistory<Counter>.Event ev : snap.getEvents()) {
+                Counter c = ev.info;
+                if (c.count >= last[c.producer])
+                    error.set("Event " + c.count + " of producer " +
+                              c.producer + " after " + last[c.producer]);
+                last[c.producer] = c.count;
+            }
+            for (EventHistory<Counter>.Event ev : snap.getEvents()) {
+                if (ev.info.count > last[ev.info.producer] + 64)
+                    error.set("Event of producer " + ev.info.producer +
+                              " changed after the snapshot");
+            }
+        }
+        assertNull(error.get());
+        assertCounts(new EventHistory<Counter>(evHist, 1), events - 1);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class FingerprintCacheTest {
+    protected FingerprintCache cache;
+
+    @Test
+    public void testCaching() throws InterruptedException {
+        int timeout = 50;
+        int timeToSleep = 60;
+        cache = new FingerprintCache(100, timeout);
+        assertEquals(128, cache.getSize());
+
+        assertEquals(false, cache.update(1, 1));
+        assertEquals(true, cache.update(1, 1));
+        assertEquals(true, cache.update(1, 1));
+        // same slot, different fingerprint
+        assertEquals(false, cache.update(1, 2));
+        assertEquals(true, cache.update(1, 2));
+        assertEquals(false, cache.update(2, 1));
+        assertEquals(true, cache.update(2, 1));
+
+        Thread.sleep(timeToSleep);
+        assertEquals(false, cache.update(1, 1));
+        assertEquals(false, cache.update(1, 2));
+        assertEquals(false, cache.update(2, 1));
+        assertEquals(true, cache.update(1, 1));
+    }
+
+    @Test
+    public void testCapacity() {
+        int timeout = 5000;
+        cache = new FingerprintCache(2, timeout);
+        assertEquals(FingerprintCache.PROBE_LENGTH, cache.getSize());
+
+        // all fingerprints hash to the same probe window
+        for (int i = 0; i < 100; i++) {
+            cache.update(0, i);
+        }
+        // entry 0 should have been evicted due to capacity limits
+        assertEquals(false, cache.update(0, 0));
+        // the most recent entry is still there
+        assertEquals(true, cache.update(0, 99));
+    }
+
+    @Test
+    public void testSecondChance() {
+        int timeout = 5000;
+        cache = new FingerprintCache(FingerprintCache.PROBE_LENGTH, timeout);
+
+        for (int i = 0; i < FingerprintCache.PROBE_LENGTH; i++) {
+            assertEquals(false, cache.update(0, i));
+        }
+        // a hit marks entry 0 as referenced, so entry 1 is evicted
+        // instead when the window is full
+        assertEquals(true, cache.update(0, 0));
+        assertEquals(false, cache.update(0, 100));
+        assertEquals(true, cache.update(0, 0));
+        assertEquals(true, cache.update(0, 100));
+        assertEquals(false, cache.update(0, 1));
+    }
+
+    @Test
+    public void testInvalidate() {
+        int timeout = 5000;
+        cache = new FingerprintCache(1024, timeout);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(false, cache.update(i, i, i % 2));
+        }
+        cache.invalidate(1);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i % 2 == 0, cache.update(i, i, i % 2));
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.util;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import org.openflow.util.LRULinkedHashMap;
+import org.sdnplatform.core.types.MacVlanPair;
+
+/**
+ * Contention benchmark of a per-switch MAC learning table: a synchronized
+ * LRU map of MAC/VLAN pairs as LearningSwitch used to keep, against a
+ * LongTimedCache. All threads work on the table of one busy switch and do
+ * nine lookups for every learn. Not run as part of the unit tests; run the
+ * main method with an optional number of operations per thread.
+ */
+public class LongTimedCacheBenchmark {
+    protected static final int MACS = 1000;
+    protected static final int[] THREADS = {8, 16, 32};
+
+    protected interface Table {
+        void learn(long mac, short vlan, short port);
+        Short lookup(long mac, short vlan);
+    }
+
+    protected static class SynchronizedMapTable implements Table {
+        Map<MacVlanPair, Short> map = Collections.synchronizedMap(
+                new LRULinkedHashMap<MacVlanPair, Short>(MACS));
+
+        @Override
+        public void learn(long mac, short vlan, short port) {
+            map.put(new MacVlanPair(mac, vlan), port);
+        }
+
+        @Override
+        public Short lookup(long mac, short vlan) {
+            return map.get(new MacVlanPair(mac, vlan));
+        }
+    }
+
+    protected static class LongTimedCacheTable implements Table {
+        LongTimedCache cache = new LongTimedCache(MACS, 300 * 1000);
+
+        @Override
+        public void learn(long mac, short vlan, short port) {
+            cache.put(MacVlanPair.toLong(mac, vlan), port);
+        }
+
+        @Override
+        public Short lookup(long mac, short vlan) {
+            int port = cache.get(MacVlanPair.toLong(mac, vlan));
+            return (port < 0) ? null : (short) port;
+        }
+    }
+
+    /**
+     * @return the throughput in million operations per second
+     */
+    protected static double run(final Table table, int threads,
+                                final int operations)
+            throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            new Thread() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < operations; i++) {
+                        long mac = 0x0a0000000000L + random.nextInt(MACS);
+                        short vlan = (short) (mac & 0x3);
+                        if (i % 10 == 0)
+                            table.learn(mac, vlan, (short) (mac & 0x3f));
+                        else
+                            table.lookup(mac, vlan);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        return (double) threads * operations * 1000 / elapsed;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int operations = (args.length > 0) ? Integer.parseInt(args[0]) :
+                                             1000000;
+        // warm up
+        run(new SynchronizedMapTable(), 4, operations / 10);
+        run(new LongTimedCacheTable(), 4, operations / 10);
+
+        System.out.println("threads  synchronized map  LongTimedCache" +
+                           "   (million operations per second)");
+        for (int threads : THREADS) {
+            double map = run(new SynchronizedMapTable(), threads, operations);
+            double cache = run(new LongTimedCacheTable(), threads, operations);
+            System.out.println(String.format("%7d  %16.2f  %14.2f",
+                                             threads, map, cache));
+        }
+    }
+}
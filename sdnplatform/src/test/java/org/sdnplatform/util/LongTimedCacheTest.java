@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2013 Big Switch Networks, Inc.
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the
+ * "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sdnplatform.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class LongTimedCacheTest {
+    protected LongTimedCache cache;
+
+    @Test
+    public void testGetPut() {
+        cache = new LongTimedCache(100, 0);
+        assertEquals(128, cache.getSize());
+
+        assertEquals(-1, cache.get(1));
+        cache.put(1, 10);
+        cache.put(-1, 0xffff);
+        cache.put(0, 0);
+        assertEquals(10, cache.get(1));
+        assertEquals(0xffff, cache.get(-1));
+        assertEquals(0, cache.get(0));
+        assertEquals(3, cache.size());
+
+        cache.put(1, 11);
+        assertEquals(11, cache.get(1));
+        assertEquals(3, cache.size());
+
+        Map<Long, Integer> map = cache.toMap();
+        assertEquals(3, map.size());
+        assertEquals(Integer.valueOf(11), map.get(1L));
+        assertEquals(Integer.valueOf(0xffff), map.get(-1L));
+
+        assertTrue(cache.remove(1));
+        assertFalse(cache.remove(1));
+        assertEquals(-1, cache.get(1));
+        cache.clear();
+        assertEquals(-1, cache.get(0));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testCaching() throws InterruptedException {
+        int timeout = 50;
+        int timeToSleep = 60;
+        cache = new LongTimedCache(100, timeout);
+
+        assertEquals(false, cache.update(1));
+        assertEquals(true, cache.update(1));
+        assertEquals(true, cache.update(1));
+        assertEquals(false, cache.update(2));
+        assertEquals(true, cache.update(2));
+        cache.put(3, 3);
+        assertEquals(3, cache.get(3));
+
+        Thread.sleep(timeToSleep);
+        assertEquals(-1, cache.get(3));
+        assertEquals(false, cache.update(1));
+        assertEquals(false, cache.update(2));
+        assertEquals(true, cache.update(1));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testCapacity() {
+        cache = new LongTimedCache(2, 0);
+        assertEquals(LongTimedCache.PROBE_LENGTH, cache.getSize());
+
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, i);
+        }
+        assertEquals(LongTimedCache.PROBE_LENGTH, cache.size());
+        // the most recent entry is still there
+        assertEquals(99, cache.get(99));
+    }
+
+    @Test
+    public void testSecondChance() {
+        cache = new LongTimedCache(LongTimedCache.PROBE_LENGTH, 0);
+
+        for (int i = 0; i < LongTimedCache.PROBE_LENGTH; i++) {
+            cache.put(i, i);
+        }
+        // a hit marks entry 0 as referenced, so another entry is evicted
+        // when the bucket is full
+        for (int i = 100; i < 100 + LongTimedCache.PROBE_LENGTH / 2; i++) {
+            assertEquals(0, cache.get(0));
+            cache.put(i, i);
+            assertEquals(i, cache.get(i));
+        }
+        assertEquals(0, cache.get(0));
+        assertEquals(LongTimedCache.PROBE_LENGTH, cache.size());
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws InterruptedException {
+        final int threads = 8;
+        final int keysPerThread = 100;
+        final int rounds = 200;
+        cache = new LongTimedCache(4096, 0);
+        final AtomicInteger errors = new AtomicInteger();
+
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int r = 0; r < rounds; r++) {
+                        for (int k = 0; k < keysPerThread; k++) {
+                            long key = macVlanKey(id, k);
+                            cache.put(key, (r + id) & 0xff);
+                            if (cache.get(key) != ((r + id) & 0xff))
+                                errors.incrementAndGet();
+                            // a key every thread writes
+                            cache.put(-1, id);
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(0, errors.get());
+        int shared = cache.get(-1);
+        assertTrue(shared >= 0 && shared < threads);
+        for (int t = 0; t < threads; t++) {
+            for (int k = 0; k < keysPerThread; k++) {
+                assertEquals((rounds - 1 + t) & 0xff,
+                             cache.get(macVlanKey(t, k)));
+            }
+        }
+    }
+
+    private static long macVlanKey(int thread, int key) {
+        return ((long) thread << 48) | (0x0a0000000000L + key);
+    }
+}
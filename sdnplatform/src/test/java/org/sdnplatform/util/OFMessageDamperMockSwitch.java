@@ -56,11 +56,17 @@ import org.sdnplatform.util.OFMessageDamper;
 public class OFMessageDamperMockSwitch implements IOFSwitch {
     OFMessage writtenMessage;
     ListenerContext writtenContext;
+    long id;
     
     public OFMessageDamperMockSwitch() {
         reset();
     }
     
+    public OFMessageDamperMockSwitch(long id) {
+        this();
+        this.id = id;
+    }
+    
     /* reset this mock. I.e., clear the stored message previously written */
     public void reset() {
         writtenMessage = null;
@@ -193,8 +199,7 @@ public class OFMessageDamperMockSwitch implements IOFSwitch {
     
     @Override
     public long getId() {
-        assertTrue("Unexpected method call", false);
-        return 0;
+        return id;
     }
     
     @Override
@@ -54,8 +54,8 @@ public class OFMessageDamperTest {
         factory = new BasicFactory();
         cntx = new ListenerContext();
         
-        sw1 = new OFMessageDamperMockSwitch();
-        sw2 = new OFMessageDamperMockSwitch();
+        sw1 = new OFMessageDamperMockSwitch(1L);
+        sw2 = new OFMessageDamperMockSwitch(2L);
         
         echoRequst1 = (OFEchoRequest)factory.getMessage(OFType.ECHO_REQUEST);
         echoRequst1.setPayload(new byte[] { 1 });
@@ -93,11 +93,23 @@ public class OFMessageDamperTest {
     
     @Test
     public void testOneMessageType() throws IOException, InterruptedException {
+        doTestOneMessageType(false);
+    }
+    
+    @Test
+    public void testOneMessageTypeFingerprint() 
+            throws IOException, InterruptedException {
+        doTestOneMessageType(true);
+    }
+    
+    protected void doTestOneMessageType(boolean fingerprint) 
+            throws IOException, InterruptedException {
         int timeout = 50;
         int sleepTime = 60; 
         damper = new OFMessageDamper(100, 
                                      EnumSet.of(OFType.ECHO_REQUEST),
-                                     timeout);
+                                     timeout,
+                                     fingerprint);
         
         
         
@@ -127,12 +139,24 @@ public class OFMessageDamperTest {
     
     @Test
     public void testTwoMessageTypes() throws IOException, InterruptedException {
+        doTestTwoMessageTypes(false);
+    }
+    
+    @Test
+    public void testTwoMessageTypesFingerprint() 
+            throws IOException, InterruptedException {
+        doTestTwoMessageTypes(true);
+    }
+    
+    protected void doTestTwoMessageTypes(boolean fingerprint) 
+            throws IOException, InterruptedException {
         int timeout = 50;
         int sleepTime = 60; 
         damper = new OFMessageDamper(100, 
                                      EnumSet.of(OFType.ECHO_REQUEST, 
                                                 OFType.HELLO),
-                                     timeout);
+                                     timeout,
+                                     fingerprint);
         
         
         
@@ -164,4 +188,27 @@ public class OFMessageDamperTest {
         doWrite(true, sw1, hello2, cntx);
     }
     
+    @Test
+    public void testFingerprintSwitchReconnect() throws IOException {
+        damper = new OFMessageDamper(100, 
+                                     EnumSet.of(OFType.ECHO_REQUEST),
+                                     5000,
+                                     true);
+        
+        doWrite(true, sw1, echoRequst1, cntx);
+        doWrite(false, sw1, echoRequst1, cntx);
+        
+        // a switch with the same DPID that reconnected is a new object. 
+        // Messages to it must not be dampened once the old connection
+        // was cleared
+        damper.clearSwitch(sw1);
+        OFMessageDamperMockSwitch sw1Reconnected = 
+                new OFMessageDamperMockSwitch(1L);
+        doWrite(true, sw1Reconnected, echoRequst1, cntx);
+        doWrite(false, sw1Reconnected, echoRequst1Clone, cntx);
+        // other switches keep their entries
+        doWrite(true, sw2, echoRequst1, cntx);
+        damper.clearSwitch(sw1Reconnected);
+        doWrite(false, sw2, echoRequst1, cntx);
+    }
 }